@@ -0,0 +1,224 @@
+/*
+AdaptiveCallTuner.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adjusts the audio bitrate, packet time and jitter buffer of running calls from their RTCP feedback.<br />
+ * Calls step down a ladder of {@link Settings} when the loss or round trip delay stay high, and back up once
+ * they stayed low for a while. Changes are at least {@link #MIN_CHANGE_INTERVAL_MS} apart, and a call going back
+ * down soon after stepping up waits twice as long before the next step up, so a borderline link doesn't cause a
+ * re-INVITE storm.
+ */
+public class AdaptiveCallTuner<C> {
+	public static final int MIN_BITRATE = 10;
+	public static final int MIN_JITTER_BUFFER_MS = 60;
+	public static final int MAX_JITTER_BUFFER_MS = 300;
+	public static final long MIN_CHANGE_INTERVAL_MS = 20000;
+	public static final long FLAP_WINDOW_MS = 60000;
+
+	/** Loss (%) or round trip delay (ms) above which a report is bad. */
+	public static final float BAD_LOSS = 5, BAD_RTT = 400;
+	/** Loss (%) and round trip delay (ms) under which a report is good. */
+	public static final float GOOD_LOSS = 1, GOOD_RTT = 250;
+	/** Consecutive bad reports before stepping down. */
+	public static final int DEGRADE_REPORTS = 2;
+	/** Consecutive good reports before stepping up, doubled on every flap. */
+	public static final int UPGRADE_REPORTS = 6, MAX_UPGRADE_REPORTS = 48;
+
+	private static final int[] LADDER_PTIMES = { 20, 20, 40, 60 };
+	private static final float[] LADDER_BITRATES = { 1f, 0.66f, 0.45f, 0f };
+	private static final int JITTER_BUFFER_STEP_MS = 40;
+	private static final float SMOOTHING = 0.3f;
+
+	public interface Host<C> {
+		/**
+		 * Applies the settings to the call, usually with a re-INVITE.
+		 * @return false if the call can't be updated now, the settings will be proposed again later
+		 */
+		boolean apply(C call, Settings settings);
+		long uptimeMillis();
+	}
+
+	public static class Settings {
+		/** Level on the ladder, 0 being the best quality. */
+		public final int level;
+		/** Audio bandwidth, in kbit/s. */
+		public final int bitrate;
+		public final int ptime;
+		public final int jitterBuffer;
+
+		public Settings(int level, int bitrate, int ptime, int jitterBuffer) {
+			this.level = level;
+			this.bitrate = bitrate;
+			this.ptime = ptime;
+			this.jitterBuffer = jitterBuffer;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Settings)) return false;
+			Settings s = (Settings) o;
+			return level == s.level && bitrate == s.bitrate && ptime == s.ptime && jitterBuffer == s.jitterBuffer;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((level * 31 + bitrate) * 31 + ptime) * 31 + jitterBuffer;
+		}
+
+		@Override
+		public String toString() {
+			return "level " + level + ", " + bitrate + " kbit/s, ptime " + ptime + " ms, jitter buffer " + jitterBuffer + " ms";
+		}
+	}
+
+	private static class CallState {
+		Settings settings;
+		float jitter = -1;
+		int badReports, goodReports;
+		int upgradeReports = UPGRADE_REPORTS;
+		long lastChange, lastUpgrade = Long.MIN_VALUE / 2;
+	}
+
+	private final Host<C> mHost;
+	private final int mMaxBitrate;
+	private final Map<C, CallState> mCalls = new HashMap<C, CallState>();
+	private long mReports, mChanges, mRefused, mFlaps;
+
+	/**
+	 * @param maxBitrate the audio bitrate when the link is good, in kbit/s, such as the codec bitrate limit
+	 */
+	public AdaptiveCallTuner(Host<C> host, int maxBitrate) {
+		mHost = host;
+		mMaxBitrate = Math.max(maxBitrate, MIN_BITRATE);
+	}
+
+	public int getLevelCount() {
+		return LADDER_PTIMES.length;
+	}
+
+	private int bitrate(int level) {
+		return Math.max(MIN_BITRATE, Math.round(mMaxBitrate * LADDER_BITRATES[level]));
+	}
+
+	/**
+	 * @return the settings a call starts with
+	 */
+	public Settings getInitialSettings() {
+		return new Settings(0, bitrate(0), LADDER_PTIMES[0], MIN_JITTER_BUFFER_MS);
+	}
+
+	/**
+	 * Takes a receiver report of a call into account, and applies new settings if needed.
+	 * @param loss the loss rate, in %
+	 * @param jitter the interarrival jitter, in ms
+	 * @param rtt the round trip delay in ms, negative if unknown
+	 * @return the settings applied, null if they didn't change
+	 */
+	public synchronized Settings onReport(C call, float loss, float jitter, float rtt) {
+		mReports++;
+		CallState state = mCalls.get(call);
+		long now = mHost.uptimeMillis();
+		if (state == null) {
+			state = new CallState();
+			state.settings = getInitialSettings();
+			state.lastChange = now;
+			mCalls.put(call, state);
+		}
+
+		// The jitter buffer follows the smoothed jitter, the ladder needs consecutive reports
+		state.jitter = state.jitter < 0 ? jitter : state.jitter + SMOOTHING * (jitter - state.jitter);
+		// An unknown round trip delay is negative, so it never makes a report bad nor prevents it from being good
+		boolean bad = loss > BAD_LOSS || rtt > BAD_RTT;
+		boolean good = loss < GOOD_LOSS && rtt < GOOD_RTT;
+		state.badReports = bad ? state.badReports + 1 : 0;
+		state.goodReports = good ? state.goodReports + 1 : 0;
+
+		if (now - state.lastChange < MIN_CHANGE_INTERVAL_MS) return null;
+
+		Settings current = state.settings;
+		int level = current.level;
+		boolean flapped = false;
+		if (state.badReports >= DEGRADE_REPORTS && level < LADDER_PTIMES.length - 1) {
+			level++;
+			flapped = now - state.lastUpgrade < FLAP_WINDOW_MS;
+		} else if (state.goodReports >= state.upgradeReports && level > 0) {
+			level--;
+		}
+
+		int jitterBuffer = current.jitterBuffer;
+		int target = jitterBufferFor(state.jitter);
+		if (Math.abs(target - jitterBuffer) >= JITTER_BUFFER_STEP_MS) {
+			jitterBuffer = target;
+		}
+
+		if (level == current.level && jitterBuffer == current.jitterBuffer) return null;
+
+		Settings settings = new Settings(level, bitrate(level), LADDER_PTIMES[level], jitterBuffer);
+		if (!mHost.apply(call, settings)) {
+			mRefused++;
+			return null;
+		}
+
+		mChanges++;
+		if (flapped) {
+			mFlaps++;
+			state.upgradeReports = Math.min(state.upgradeReports * 2, MAX_UPGRADE_REPORTS);
+		}
+		if (level < current.level) {
+			state.lastUpgrade = now;
+		}
+		state.settings = settings;
+		state.lastChange = now;
+		state.badReports = state.goodReports = 0;
+		return settings;
+	}
+
+	/**
+	 * @return about three times the jitter plus a margin, in steps of 20 ms within the bounds
+	 */
+	static int jitterBufferFor(float jitter) {
+		int target = (int) Math.ceil((jitter * 3 + 40) / 20) * 20;
+		return Math.max(MIN_JITTER_BUFFER_MS, Math.min(MAX_JITTER_BUFFER_MS, target));
+	}
+
+	/**
+	 * @return the settings applied to the call, null if it had no report yet
+	 */
+	public synchronized Settings getSettings(C call) {
+		CallState state = mCalls.get(call);
+		return state != null ? state.settings : null;
+	}
+
+	public synchronized void removeCall(C call) {
+		mCalls.remove(call);
+	}
+
+	public synchronized long getChangeCount() {
+		return mChanges;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Adaptive call tuner: " + mReports + " reports, " + mChanges + " changes (" + mFlaps + " flaps, " + mRefused + " refused)";
+	}
+}
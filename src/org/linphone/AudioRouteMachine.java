@@ -0,0 +1,323 @@
+/*
+AudioRouteMachine.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.linphone.mediastream.Log;
+
+/**
+ * Owns the audio route: earpiece, speaker or Bluetooth SCO.<br />
+ * Route requests are serialized, the last one wins: a request made while the previous one is still in progress
+ * replaces it. The Bluetooth route is only confirmed when the SCO connected broadcast arrives; if it doesn't come
+ * within {@link #SCO_CONNECT_TIMEOUT_MS}, SCO is restarted up to {@link #SCO_RETRIES} times before falling back
+ * to the earpiece. Leaving Bluetooth waits for the SCO disconnected broadcast, at most {@link #SCO_DISCONNECT_TIMEOUT_MS}.
+ * SCO connected by the headset itself (answer button...) is taken as a request for the Bluetooth route.
+ *
+ * The time from each request to the confirmed route is recorded, per route and per headset.
+ */
+public class AudioRouteMachine {
+	public static final long SCO_CONNECT_TIMEOUT_MS = 3000;
+	public static final long SCO_DISCONNECT_TIMEOUT_MS = 2000;
+	public static final int SCO_RETRIES = 2;
+
+	public static final int EARPIECE = 0, SPEAKER = 1, BLUETOOTH = 2;
+	private static final String[] ROUTES = { "earpiece", "speaker", "bluetooth" };
+
+	private static final int SCO_OFF = 0, SCO_CONNECTING = 1, SCO_ON = 2, SCO_DISCONNECTING = 3;
+
+	public interface Host {
+		void enableSpeaker(boolean enable);
+		void startSco();
+		void stopSco();
+		boolean isBluetoothAvailable();
+		/**
+		 * @return the name of the connected headset, null if unknown
+		 */
+		String getBluetoothDeviceName();
+		void postDelayed(Runnable r, long delayMs);
+		void removeCallbacks(Runnable r);
+		long uptimeMillis();
+	}
+
+	public static class Latency {
+		private int mCount, mFailures;
+		private long mTotal, mMax;
+
+		void add(long ms) {
+			mCount++;
+			mTotal += ms;
+			if (ms > mMax) mMax = ms;
+		}
+
+		public int getCount() {
+			return mCount;
+		}
+
+		public int getFailures() {
+			return mFailures;
+		}
+
+		public long getAverage() {
+			return mCount > 0 ? mTotal / mCount : -1;
+		}
+
+		public long getMax() {
+			return mMax;
+		}
+
+		@Override
+		public String toString() {
+			return mCount + " switches, avg " + getAverage() + " ms, max " + mMax + " ms, " + mFailures + " failures";
+		}
+	}
+
+	private final Host mHost;
+	private final String mModel;
+	private int mRoute = EARPIECE;
+	private int mRequested = EARPIECE;
+	private boolean mPending;
+	private long mRequestTime;
+	private int mSco = SCO_OFF;
+	private int mAttempts;
+	private final Map<String, Latency> mLatencies = new TreeMap<String, Latency>();
+
+	private final Runnable mTimeout = new Runnable() {
+		@Override
+		public void run() {
+			onTimeout();
+		}
+	};
+
+	/**
+	 * @param model the device model, for the logs
+	 */
+	public AudioRouteMachine(Host host, String model) {
+		mHost = host;
+		mModel = model;
+	}
+
+	/**
+	 * Asks for a route, replacing any request still in progress.
+	 * @return false if the route is Bluetooth and no headset is connected
+	 */
+	public synchronized boolean request(int route) {
+		if (route == BLUETOOTH && !mHost.isBluetoothAvailable()) {
+			Log.w("No bluetooth headset, cannot route audio to it");
+			return false;
+		}
+		if (route == BLUETOOTH && mRequested == BLUETOOTH && (mPending || mRoute == BLUETOOTH)) {
+			// Already there or on the way
+			return true;
+		}
+
+		Log.i("Audio route requested: " + ROUTES[route]);
+		mHost.removeCallbacks(mTimeout);
+		mRequested = route;
+		mPending = true;
+		mRequestTime = mHost.uptimeMillis();
+		mAttempts = 0;
+
+		if (route == BLUETOOTH) {
+			mHost.enableSpeaker(false);
+			if (mSco == SCO_ON) {
+				confirm();
+			} else {
+				connectSco();
+			}
+		} else {
+			mHost.enableSpeaker(route == SPEAKER);
+			if (mSco == SCO_OFF) {
+				confirm();
+			} else {
+				disconnectSco();
+			}
+		}
+		return true;
+	}
+
+	public synchronized void onScoConnected() {
+		int previous = mSco;
+		mSco = SCO_ON;
+		if (previous == SCO_DISCONNECTING || (mRequested != BLUETOOTH && mPending)) {
+			// Late answer to a request that was replaced since
+			disconnectSco();
+		} else if (mRequested == BLUETOOTH && mPending) {
+			mHost.removeCallbacks(mTimeout);
+			confirm();
+		} else if (mRoute != BLUETOOTH) {
+			Log.i("Bluetooth audio connected by the headset");
+			mRequested = BLUETOOTH;
+			mRoute = BLUETOOTH;
+			mHost.enableSpeaker(false);
+		}
+	}
+
+	public synchronized void onScoDisconnected() {
+		int previous = mSco;
+		mSco = SCO_OFF;
+		if (previous == SCO_DISCONNECTING && mPending) {
+			mHost.removeCallbacks(mTimeout);
+			confirm();
+		} else if (previous == SCO_CONNECTING) {
+			// The connection attempt failed, the timeout retries
+		} else if (mRoute == BLUETOOTH && !mPending) {
+			Log.w("Bluetooth audio disconnected, back to the earpiece");
+			mHost.enableSpeaker(false);
+			mRequested = mRoute = EARPIECE;
+		}
+	}
+
+	/**
+	 * The headset is gone: leaves the Bluetooth route if it was used or requested.
+	 */
+	public synchronized void onBluetoothLost() {
+		if (mRequested == BLUETOOTH) {
+			if (mPending) {
+				fail();
+			}
+			fallBack();
+		} else if (mSco != SCO_OFF) {
+			mHost.stopSco();
+			mSco = SCO_OFF;
+			if (mPending) {
+				mHost.removeCallbacks(mTimeout);
+				confirm();
+			}
+		}
+	}
+
+	/**
+	 * Cancels the request in progress, the route stays as it is.
+	 */
+	public synchronized void stop() {
+		mHost.removeCallbacks(mTimeout);
+		mPending = false;
+	}
+
+	public synchronized int getRoute() {
+		return mRoute;
+	}
+
+	public synchronized int getRequestedRoute() {
+		return mRequested;
+	}
+
+	public synchronized boolean isSwitching() {
+		return mPending;
+	}
+
+	public synchronized Latency getLatency(int route) {
+		Latency latency = mLatencies.get(key(route));
+		return latency != null ? latency : new Latency();
+	}
+
+	private void connectSco() {
+		mAttempts++;
+		mSco = SCO_CONNECTING;
+		mHost.startSco();
+		mHost.postDelayed(mTimeout, SCO_CONNECT_TIMEOUT_MS);
+	}
+
+	private void disconnectSco() {
+		mSco = SCO_DISCONNECTING;
+		mHost.stopSco();
+		mHost.removeCallbacks(mTimeout);
+		mHost.postDelayed(mTimeout, SCO_DISCONNECT_TIMEOUT_MS);
+	}
+
+	private void onTimeout() {
+		synchronized (this) {
+			if (!mPending) {
+				if (mSco == SCO_DISCONNECTING) {
+					mSco = SCO_OFF;
+				}
+				return;
+			}
+
+			if (mRequested != BLUETOOTH) {
+				Log.w("Bluetooth audio still not disconnected, going on anyway");
+				mSco = SCO_OFF;
+				confirm();
+			} else if (mAttempts <= SCO_RETRIES && mHost.isBluetoothAvailable()) {
+				Log.w("Bluetooth audio still not connected, retrying");
+				mHost.stopSco();
+				connectSco();
+			} else {
+				Log.e("Cannot route audio to bluetooth after " + mAttempts + " attempts, back to the earpiece");
+				fail();
+				fallBack();
+			}
+		}
+	}
+
+	private void fallBack() {
+		mHost.removeCallbacks(mTimeout);
+		if (mSco != SCO_OFF) {
+			mHost.stopSco();
+			mSco = SCO_OFF;
+		}
+		mHost.enableSpeaker(false);
+		mRequested = mRoute = EARPIECE;
+		mPending = false;
+	}
+
+	private void confirm() {
+		long latency = mHost.uptimeMillis() - mRequestTime;
+		mPending = false;
+		if (mRoute == mRequested && latency == 0) return;
+
+		mRoute = mRequested;
+		latencyFor(mRoute).add(latency);
+		Log.i("Audio routed to " + ROUTES[mRoute] + " in " + latency + " ms");
+	}
+
+	private void fail() {
+		latencyFor(BLUETOOTH).mFailures++;
+	}
+
+	private Latency latencyFor(int route) {
+		String key = key(route);
+		Latency latency = mLatencies.get(key);
+		if (latency == null) {
+			latency = new Latency();
+			mLatencies.put(key, latency);
+		}
+		return latency;
+	}
+
+	private String key(int route) {
+		if (route != BLUETOOTH) return ROUTES[route];
+		String name = mHost.getBluetoothDeviceName();
+		return name != null ? ROUTES[route] + " " + name : ROUTES[route];
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("Audio routes on ").append(mModel).append(": ").append(ROUTES[mRoute]);
+		if (mPending) {
+			sb.append(" switching to ").append(ROUTES[mRequested]);
+		}
+		for (Map.Entry<String, Latency> entry : mLatencies.entrySet()) {
+			sb.append(", ").append(entry.getKey()).append(" ").append(entry.getValue());
+		}
+		return sb.toString();
+	}
+}
@@ -19,38 +19,205 @@ Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
 package org.linphone;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.linphone.core.LinphoneCallParams;
 import org.linphone.core.LinphoneCore;
+import org.linphone.mediastream.Log;
 
+/**
+ * Chooses the bandwidth profile of new calls and re-invites.<br />
+ * On an unknown network, it comes from the link class (2G, 3G, 4G or Wi-Fi).
+ * On a network where calls were made before, the loss and jitter they measured move it: a clean link gets
+ * {@link #HIGH_RESOLUTION}, some loss or jitter {@link #LOW_RESOLUTION} and a bad link {@link #LOW_BANDWIDTH},
+ * but never more than one profile better than the link class.
+ * The throughput of the calls isn't used, it is capped by the codec and the profile and would keep a network
+ * from ever getting a better profile back.
+ * The measurements are kept for the last {@link #MAX_NETWORKS} networks, and saved with {@link #serialize()}.
+ *
+ * The {@link AdaptiveCallTuner} then adjusts running calls, within the cap of the profile.
+ */
 public class BandwidthManager {
 
 	public static final int HIGH_RESOLUTION = 0;
 	public static final int LOW_RESOLUTION = 1;
 	public static final int LOW_BANDWIDTH = 2;
+	private static final String[] PROFILES = { "high resolution", "low resolution", "low bandwidth" };
+	/** Audio bandwidth cap of each profile, in kbit/s. */
+	private static final int[] BITRATES = { 40, 24, 16 };
+
+	public static final int LINK_UNKNOWN = 0, LINK_SLOW = 1, LINK_MEDIUM = 2, LINK_FAST = 3;
+
+	public static final int MAX_NETWORKS = 20;
+	/** Loss (%) and jitter (ms) from which a network gets the low bandwidth profile. */
+	public static final float BAD_LOSS = 5, BAD_JITTER = 60;
+	/** Loss (%) and jitter (ms) under which a network gets the high resolution profile. */
+	public static final float GOOD_LOSS = 1, GOOD_JITTER = 20;
+	private static final float SMOOTHING = 0.5f;
 
 	private static BandwidthManager instance;
-	
+
+	static class Measurement {
+		float loss;
+		float jitter;
+		int calls;
+	}
+
+	private final Map<String, Measurement> mMeasurements = new LinkedHashMap<String, Measurement>(MAX_NETWORKS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Measurement> eldest) {
+			return size() > MAX_NETWORKS;
+		}
+	};
+	private String mNetwork = "";
+	private int mLinkClass = LINK_UNKNOWN;
 	private int currentProfile = HIGH_RESOLUTION;
-	public int getCurrentProfile() {return currentProfile;}
+	public synchronized int getCurrentProfile() {return currentProfile;}
 
 	public static final synchronized BandwidthManager getInstance() {
 		if (instance == null) instance = new BandwidthManager();
 		return instance;
 	}
 
+	/**
+	 * Only for tests, the application uses {@link #getInstance()}.
+	 */
+	public BandwidthManager() {
+	}
+
+	/**
+	 * The network changed.
+	 * @param key identifies the network, such as the Wi-Fi SSID or the mobile operator
+	 * @param linkClass one of the LINK_ constants
+	 * @return true if the profile changed, running calls should be re-invited
+	 */
+	public synchronized boolean setNetwork(String key, int linkClass) {
+		mNetwork = key == null ? "" : key;
+		mLinkClass = linkClass;
+		return selectProfile();
+	}
+
+	/**
+	 * Adds what a call that just ended measured on the current network.
+	 * @param loss the average loss, in %
+	 * @param jitter the average jitter, in ms
+	 */
+	public synchronized boolean addMeasurement(float loss, float jitter) {
+		Measurement m = mMeasurements.get(mNetwork);
+		if (m == null) {
+			m = new Measurement();
+			m.loss = loss;
+			m.jitter = jitter;
+			mMeasurements.put(mNetwork, m);
+		} else {
+			m.loss += SMOOTHING * (loss - m.loss);
+			m.jitter += SMOOTHING * (jitter - m.jitter);
+		}
+		m.calls++;
+		return selectProfile();
+	}
+
+	/**
+	 * Adds the measurement of a call from its statistics.
+	 */
+	public boolean callEnded(CallStatsSampler.Series series) {
+		if (series == null) return false;
+
+		float loss = 0, jitter = 0;
+		int count = 0;
+		for (int i = 0; i < series.size(); i++) {
+			// Skips the samples of calls on hold or not started yet
+			if (series.getDownloadBandwidth(i) > 0) {
+				loss += series.getLoss(i);
+				jitter += series.getJitter(i);
+				count++;
+			}
+		}
+		if (count == 0) return false;
+		return addMeasurement(loss / count, jitter / count);
+	}
+
+	private boolean selectProfile() {
+		int profile = mLinkClass == LINK_SLOW ? LOW_BANDWIDTH : mLinkClass == LINK_MEDIUM ? LOW_RESOLUTION : HIGH_RESOLUTION;
+		Measurement m = mMeasurements.get(mNetwork);
+		if (m != null) {
+			int measured;
+			if (m.loss >= BAD_LOSS || m.jitter >= BAD_JITTER) {
+				measured = LOW_BANDWIDTH;
+			} else if (m.loss > GOOD_LOSS || m.jitter > GOOD_JITTER) {
+				measured = LOW_RESOLUTION;
+			} else {
+				measured = HIGH_RESOLUTION;
+			}
+			profile = Math.max(measured, profile - 1);
+		}
+
+		if (profile == currentProfile) return false;
+		Log.i("Bandwidth profile: " + PROFILES[currentProfile] + " -> " + PROFILES[profile] + " on " + mNetwork);
+		currentProfile = profile;
+		return true;
+	}
 
-	private BandwidthManager() {
-		// FIXME register a listener on NetworkManager to get notified of network state
-		// FIXME register a listener on Preference to get notified of change in video enable value
-		
-		// FIXME initially get those values
+	/**
+	 * @return the audio bandwidth cap of the current profile, in kbit/s
+	 */
+	public synchronized int getBitrate() {
+		return BITRATES[currentProfile];
 	}
 
+	/**
+	 * @return the bitrate, within the cap of the current profile
+	 */
+	public synchronized int capBitrate(int bitrate) {
+		return Math.min(bitrate, BITRATES[currentProfile]);
+	}
 
 	public void updateWithProfileSettings(LinphoneCore lc, LinphoneCallParams callParams) {
 		if (callParams != null) { // in call
+			int profile = getCurrentProfile();
 			callParams.setVideoEnabled(false);
-			callParams.setAudioBandwidth(40);
+			callParams.setAudioBandwidth(BITRATES[profile]);
+			if (profile == LOW_BANDWIDTH) {
+				// Prefers the narrow band codecs
+				callParams.enableLowBandwidth(true);
+			}
 		}
 	}
+
+	public synchronized String serialize() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Measurement> entry : mMeasurements.entrySet()) {
+			Measurement m = entry.getValue();
+			sb.append(Math.round(m.loss * 10) / 10f).append(' ').append(Math.round(m.jitter)).append(' ').append(m.calls)
+				.append(' ').append(entry.getKey()).append('|');
+		}
+		return sb.toString();
+	}
+
+	public synchronized void restore(String state) {
+		if (state == null) return;
+		for (String entry : state.split("\\|")) {
+			String[] fields = entry.split(" ", 4);
+			if (fields.length < 4) continue;
+			try {
+				Measurement m = new Measurement();
+				m.loss = Float.parseFloat(fields[0]);
+				m.jitter = Float.parseFloat(fields[1]);
+				m.calls = Integer.parseInt(fields[2]);
+				mMeasurements.put(fields[3], m);
+			} catch (NumberFormatException e) {
+				// Ignores a corrupted entry, the network will be measured again
+			}
+		}
+		selectProfile();
+	}
+
+	@Override
+	public synchronized String toString() {
+		Measurement m = mMeasurements.get(mNetwork);
+		return "Bandwidth profile: " + PROFILES[currentProfile] + " on " + mNetwork + " (link class " + mLinkClass + ", "
+				+ (m != null ? m.calls + " calls, " + m.loss + "% loss, " + Math.round(m.jitter) + " ms jitter" : "not measured")
+				+ "), " + mMeasurements.size() + " networks known";
+	}
 }
@@ -0,0 +1,212 @@
+/*
+BatchPipeline.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates groups of operations, one group per contact typically, and applies them in batches of bounded size
+ * instead of one batch per group.<br />
+ * A group is never split across batches, so back references stay inside the batch, and the first operation of
+ * every group but the first of a batch is a yield point, letting the provider commit and serve other clients.
+ * If a batch fails, its groups are applied one by one so that a single bad group doesn't fail the others.
+ */
+public class BatchPipeline<Op> {
+	/** The contacts provider refuses more than 500 operations between two yield points */
+	public static final int DEFAULT_MAX_OPERATIONS = 250;
+
+	public interface Group<Op> {
+		/**
+		 * @return an identifier for the listener, the contact id for instance
+		 */
+		String getKey();
+
+		/**
+		 * Appends the operations of the group to ops. Back references must be offset by the size of ops when called.
+		 * @param yieldAllowed whether the first operation can be a yield point
+		 */
+		void build(List<Op> ops, boolean yieldAllowed);
+	}
+
+	public interface Sink<Op> {
+		void apply(List<Op> ops) throws Exception;
+	}
+
+	public interface Listener {
+		void onGroupApplied(String key);
+		void onGroupFailed(String key, Exception e);
+	}
+
+	private final Sink<Op> mSink;
+	private final int mMaxOperations;
+	private long mPauseMs;
+	private Listener mListener;
+
+	private final List<Op> mOperations = new ArrayList<Op>();
+	private final List<Group<Op>> mGroups = new ArrayList<Group<Op>>();
+
+	private int mAppliedOperations, mAppliedGroups, mFailedGroups, mBatches, mFailedBatches;
+	private long mApplyNanos;
+
+	public BatchPipeline(Sink<Op> sink) {
+		this(sink, DEFAULT_MAX_OPERATIONS);
+	}
+
+	public BatchPipeline(Sink<Op> sink, int maxOperations) {
+		mSink = sink;
+		mMaxOperations = maxOperations;
+	}
+
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Sleeps that long after every batch, to leave the provider to the other apps during long runs.
+	 */
+	public void setPauseBetweenBatches(long pauseMs) {
+		mPauseMs = pauseMs;
+	}
+
+	public int getPendingOperationsCount() {
+		return mOperations.size();
+	}
+
+	/**
+	 * Queues the group, applying the pending ones first if the group doesn't fit in the current batch.
+	 */
+	public void add(Group<Op> group) {
+		int start = mOperations.size();
+		group.build(mOperations, start > 0);
+		if (mOperations.size() == start) {
+			// Nothing to do for this one
+			notifyApplied(group);
+			return;
+		}
+
+		if (mOperations.size() > mMaxOperations && start > 0) {
+			mOperations.subList(start, mOperations.size()).clear();
+			flush();
+			group.build(mOperations, false);
+		}
+		mGroups.add(group);
+
+		if (mOperations.size() >= mMaxOperations) {
+			flush();
+		}
+	}
+
+	/**
+	 * Applies the pending groups.
+	 * @return the number of groups that failed
+	 */
+	public int flush() {
+		if (mGroups.isEmpty()) return 0;
+
+		List<Group<Op>> groups = new ArrayList<Group<Op>>(mGroups);
+		List<Op> operations = new ArrayList<Op>(mOperations);
+		mGroups.clear();
+		mOperations.clear();
+
+		int failed = 0;
+		if (apply(operations)) {
+			for (Group<Op> group : groups) {
+				notifyApplied(group);
+			}
+		} else {
+			mFailedBatches++;
+			for (Group<Op> group : groups) {
+				List<Op> ops = new ArrayList<Op>();
+				group.build(ops, false);
+				Exception error = applyOrError(ops);
+				if (error == null) {
+					notifyApplied(group);
+				} else {
+					failed++;
+					mFailedGroups++;
+					if (mListener != null) {
+						mListener.onGroupFailed(group.getKey(), error);
+					}
+				}
+			}
+		}
+
+		if (mPauseMs > 0) {
+			try {
+				Thread.sleep(mPauseMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return failed;
+	}
+
+	private boolean apply(List<Op> ops) {
+		return applyOrError(ops) == null;
+	}
+
+	private Exception applyOrError(List<Op> ops) {
+		long start = System.nanoTime();
+		try {
+			mSink.apply(ops);
+			mBatches++;
+			mAppliedOperations += ops.size();
+			return null;
+		} catch (Exception e) {
+			return e;
+		} finally {
+			mApplyNanos += System.nanoTime() - start;
+		}
+	}
+
+	private void notifyApplied(Group<Op> group) {
+		mAppliedGroups++;
+		if (mListener != null) {
+			mListener.onGroupApplied(group.getKey());
+		}
+	}
+
+	public Stats getStats() {
+		Stats s = new Stats();
+		s.operations = mAppliedOperations;
+		s.groups = mAppliedGroups;
+		s.failedGroups = mFailedGroups;
+		s.batches = mBatches;
+		s.failedBatches = mFailedBatches;
+		s.applyMs = mApplyNanos / 1000000;
+		return s;
+	}
+
+	public static class Stats {
+		public int operations, groups, failedGroups;
+		public int batches, failedBatches;
+		public long applyMs;
+
+		public float getOperationsPerSecond() {
+			return applyMs > 0 ? operations * 1000f / applyMs : operations;
+		}
+
+		@Override
+		public String toString() {
+			return operations + " operations for " + groups + " groups in " + batches + " batches and " + applyMs + " ms ("
+					+ getOperationsPerSecond() + " ops/s), " + failedGroups + " groups failed in " + failedBatches + " failed batches";
+		}
+	}
+}
@@ -117,7 +117,9 @@ public class BluetoothManager extends BroadcastReceiver {
 				        mBluetoothHeadset = null;
 				        isBluetoothConnected = false;
 				        Log.d("Bluetooth headset disconnected");
-				        LinphoneManager.getInstance().routeAudioToReceiver();
+				        if (LinphoneManager.isInstanciated()) {
+				        	LinphoneManager.getInstance().getAudioRoutes().onBluetoothLost();
+				        }
 				    }
 				}
 			};
@@ -147,51 +149,25 @@ public class BluetoothManager extends BroadcastReceiver {
 		return true;
 	}
 	
+	/**
+	 * Asks for the bluetooth route, which is used once the SCO connected broadcast has been received.
+	 * @return false if no headset is connected
+	 */
 	public boolean routeAudioToBluetooth() {
+		if (!LinphoneManager.isInstanciated()) return false;
+		return LinphoneManager.getInstance().routeAudioToBluetooth();
+	}
+	
+	void startBluetoothSCO() {
 		ensureInit();
-		
 		if (mBluetoothAdapter != null && mBluetoothAdapter.isEnabled() && mAudioManager != null && mAudioManager.isBluetoothScoAvailableOffCall()) {
-			if (isBluetoothHeadsetAvailable()) {
-				if (mAudioManager != null && !mAudioManager.isBluetoothScoOn()) {
-					Log.d("Bluetooth sco off, let's start it");
-					mAudioManager.setBluetoothScoOn(true);	
-					mAudioManager.startBluetoothSco();
-				}
-			} else {
-				return false;
-			}
-			
-			// Hack to ensure bluetooth sco is really running
-			boolean ok = isUsingBluetoothAudioRoute();
-			int retries = 0;
-			while (!ok && retries < 5) {
-				retries++;
-				
-				try {
-					Thread.sleep(200);
-				} catch (InterruptedException e) {}
-				
-				if (mAudioManager != null) {
-					mAudioManager.setBluetoothScoOn(true);	
-					mAudioManager.startBluetoothSco();
-				}
-				
-				ok = isUsingBluetoothAudioRoute();
-			}
-			if (ok) {
-				if (retries > 0) {
-					Log.d("Bluetooth route ok after " + retries + " retries");
-				} else {
-					Log.d("Bluetooth route ok");
-				}
-			} else {
-				Log.d("Bluetooth still not ok...");
-			}
-			
-			return ok;
+			Log.d("Starting bluetooth sco");
+			mAudioManager.setBluetoothScoOn(true);
+			mAudioManager.startBluetoothSco();
+		} else {
+			// The audio route machine falls back when the connection times out
+			Log.w("Bluetooth sco unavailable, not started");
 		}
-		
-		return false;
 	}
 	
 	public boolean isUsingBluetoothAudioRoute() {
@@ -222,30 +198,27 @@ public class BluetoothManager extends BroadcastReceiver {
 	
 	public void disableBluetoothSCO() {
 		if (mAudioManager != null && mAudioManager.isBluetoothScoOn()) {
+			// The audio route machine waits for the SCO disconnected broadcast
 			mAudioManager.stopBluetoothSco();
 			mAudioManager.setBluetoothScoOn(false);
-			
-			// Hack to ensure bluetooth sco is really stopped
-			int retries = 0;
-			while (isScoConnected && retries < 10) {
-				retries++;
-				
-				try {
-					Thread.sleep(200);
-				} catch (InterruptedException e) {}
-
-				mAudioManager.stopBluetoothSco();
-				mAudioManager.setBluetoothScoOn(false);
-			}
-			Log.w("Bluetooth sco disconnected!");
+			Log.d("Bluetooth sco stop requested");
 		}
 	}
 	
+	public String getBluetoothDeviceName() {
+		BluetoothDevice device = mBluetoothDevice;
+		return device != null ? device.getName() : null;
+	}
+	
 	public void stopBluetooth() {
 		Log.w("Stopping bluetooth...");
 		isBluetoothConnected = false;
 		
-		disableBluetoothSCO();
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().getAudioRoutes().onBluetoothLost();
+		} else {
+			disableBluetoothSCO();
+		}
 		
 		if (mBluetoothAdapter != null && mProfileListener != null && mBluetoothHeadset != null) {
 			mBluetoothAdapter.closeProfileProxy(BluetoothProfile.HEADSET, mBluetoothHeadset);
@@ -254,10 +227,6 @@ public class BluetoothManager extends BroadcastReceiver {
 		mBluetoothDevice = null;
 		
 		Log.w("Bluetooth stopped!");
-		
-		if (LinphoneManager.isInstanciated()) {
-			LinphoneManager.getInstance().routeAudioToReceiver();
-		}
 	}
 	
 	public void destroy() {
@@ -284,10 +253,16 @@ public class BluetoothManager extends BroadcastReceiver {
     			Log.d("Bluetooth sco state => connected");
 //				LinphoneManager.getInstance().audioStateChanged(AudioState.BLUETOOTH);
     			isScoConnected = true;
+    			if (LinphoneManager.isInstanciated()) {
+    				LinphoneManager.getInstance().getAudioRoutes().onScoConnected();
+    			}
         	} else if (state == AudioManager.SCO_AUDIO_STATE_DISCONNECTED) {
         		Log.d("Bluetooth sco state => disconnected");
 //				LinphoneManager.getInstance().audioStateChanged(AudioState.SPEAKER);
         		isScoConnected = false;
+        		if (LinphoneManager.isInstanciated()) {
+        			LinphoneManager.getInstance().getAudioRoutes().onScoDisconnected();
+        		}
         	} else {
         		Log.d("Bluetooth sco state => " + state);
         	}
@@ -0,0 +1,128 @@
+/*
+CallHistory.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.linphone.core.CallDirection;
+import org.linphone.core.LinphoneCall;
+import org.linphone.core.LinphoneCallLog;
+import org.linphone.core.LinphoneCallLog.CallStatus;
+import org.linphone.core.LinphoneCore;
+import org.linphone.mediastream.Log;
+
+/**
+ * Call logs shared by the history screens.<br />
+ * Logs are fetched from the core once, then kept in sync: new logs are appended when calls are released,
+ * and deletions made through this class are applied to the model without fetching everything again.
+ * Must be used from the UI thread.
+ */
+public class CallHistory {
+	private static CallHistory instance;
+
+	private final CallHistoryModel<LinphoneCallLog> mModel = new CallHistoryModel<LinphoneCallLog>();
+	private final CallHistoryModel<LinphoneCallLog>.View mMissedLogs = mModel.createView(new CallHistoryModel.Filter<LinphoneCallLog>() {
+		@Override
+		public boolean accept(LinphoneCallLog log) {
+			return log.getDirection() == CallDirection.Incoming && log.getStatus() == CallStatus.Missed;
+		}
+	});
+
+	private CallHistory() {}
+
+	public static final synchronized CallHistory getInstance() {
+		if (instance == null) instance = new CallHistory();
+		return instance;
+	}
+
+	public CallHistoryModel<LinphoneCallLog>.View getAllLogs() {
+		ensureLoaded();
+		return mModel.getAll();
+	}
+
+	public CallHistoryModel<LinphoneCallLog>.View getMissedLogs() {
+		ensureLoaded();
+		return mMissedLogs;
+	}
+
+	private void ensureLoaded() {
+		if (!mModel.isLoaded()) {
+			reload();
+		}
+	}
+
+	public void reload() {
+		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
+		if (lc == null) return;
+
+		mModel.load(Arrays.asList(lc.getCallLogs()));
+		Log.i(mModel.getStats());
+	}
+
+	/**
+	 * Called from the core callback: the log is added on the UI thread.
+	 */
+	public void onCallReleased(LinphoneCall call) {
+		final LinphoneCallLog log = call.getCallLog();
+		if (log == null) return;
+
+		UIThreadDispatcher.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				if (mModel.isLoaded()) {
+					mModel.insertNewest(log);
+				}
+			}
+		});
+	}
+
+	public void remove(LinphoneCallLog log) {
+		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
+		if (lc != null) {
+			lc.removeCallLog(log);
+		}
+		mModel.remove(log);
+	}
+
+	public void removeAll(List<LinphoneCallLog> logs) {
+		for (LinphoneCallLog log : new ArrayList<LinphoneCallLog>(logs)) {
+			remove(log);
+		}
+	}
+
+	public void clear() {
+		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
+		if (lc != null) {
+			lc.clearCallLogs();
+		}
+		mModel.load(new ArrayList<LinphoneCallLog>());
+	}
+
+	/**
+	 * The core is going away with its logs: the next user will load them again.
+	 */
+	public void unload() {
+		if (mModel.isLoaded()) {
+			Log.i(mModel.getStats());
+		}
+		mModel.unload();
+	}
+}
@@ -0,0 +1,101 @@
+/*
+CallHistoryGrouper.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups call logs by correspondent display name in a single hashed pass.<br />
+ * Groups keep the order in which their first log appears, and logs keep their order inside a group.
+ * The display name of each distinct remote address is resolved only once per pass, since resolving
+ * it usually means a contact lookup.
+ */
+public class CallHistoryGrouper<T> {
+	public interface Resolver<T> {
+		/**
+		 * @return a key identifying the remote party of the log, cheap to compute
+		 */
+		String getRemoteAddress(T log);
+
+		/**
+		 * @return the name the log is grouped under, may be expensive to compute
+		 */
+		String getDisplayName(T log);
+	}
+
+	public static class Result<T> {
+		public final List<String> names = new ArrayList<String>();
+		public final List<List<T>> groups = new ArrayList<List<T>>();
+		public int logs, distinctAddresses;
+		public long elapsedMs;
+
+		public int size() {
+			return groups.size();
+		}
+
+		@Override
+		public String toString() {
+			return "History grouping: " + logs + " logs, " + distinctAddresses + " addresses, "
+					+ groups.size() + " groups in " + elapsedMs + " ms";
+		}
+	}
+
+	private final Resolver<T> mResolver;
+
+	public CallHistoryGrouper(Resolver<T> resolver) {
+		mResolver = resolver;
+	}
+
+	public Result<T> group(List<T> logs) {
+		long start = System.currentTimeMillis();
+		Result<T> result = new Result<T>();
+		Map<String, String> names = new HashMap<String, String>();
+		Map<String, List<T>> groups = new LinkedHashMap<String, List<T>>();
+
+		for (T log : logs) {
+			String address = mResolver.getRemoteAddress(log);
+			String name = names.get(address);
+			if (name == null) {
+				name = mResolver.getDisplayName(log);
+				if (name == null) name = address != null ? address : "";
+				names.put(address, name);
+			}
+
+			List<T> group = groups.get(name);
+			if (group == null) {
+				group = new ArrayList<T>();
+				groups.put(name, group);
+			}
+			group.add(log);
+		}
+
+		for (Map.Entry<String, List<T>> entry : groups.entrySet()) {
+			result.names.add(entry.getKey());
+			result.groups.add(entry.getValue());
+		}
+		result.logs = logs.size();
+		result.distinctAddresses = names.size();
+		result.elapsedMs = System.currentTimeMillis() - start;
+		return result;
+	}
+}
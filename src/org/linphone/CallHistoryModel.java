@@ -0,0 +1,216 @@
+/*
+CallHistoryModel.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory call history, newest log first, with filtered views kept up to date incrementally.<br />
+ * Logs are compared by identity: the core returns new wrappers every time its logs are fetched, so
+ * the model is loaded once and then only receives the logs it has to insert or remove.
+ *
+ * Not thread safe: meant to be used from the UI thread only.
+ */
+public class CallHistoryModel<T> {
+	public interface Filter<T> {
+		boolean accept(T log);
+	}
+
+	public interface Listener<T> {
+		/**
+		 * The whole content changed (first load, reload, clear).
+		 */
+		void onHistoryChanged();
+		void onLogInserted(int position, T log);
+		void onLogRemoved(int position, T log);
+	}
+
+	/**
+	 * The logs accepted by a filter, in model order. Positions given to listeners are view positions.
+	 */
+	public class View {
+		private final Filter<T> mFilter;
+		private final List<T> mItems = new ArrayList<T>();
+		private final List<Listener<T>> mListeners = new ArrayList<Listener<T>>();
+
+		private View(Filter<T> filter) {
+			mFilter = filter;
+		}
+
+		public int size() {
+			return mItems.size();
+		}
+
+		public boolean isEmpty() {
+			return mItems.isEmpty();
+		}
+
+		public T get(int position) {
+			return mItems.get(position);
+		}
+
+		public List<T> snapshot() {
+			return new ArrayList<T>(mItems);
+		}
+
+		public void addListener(Listener<T> listener) {
+			if (!mListeners.contains(listener)) {
+				mListeners.add(listener);
+			}
+		}
+
+		public void removeListener(Listener<T> listener) {
+			mListeners.remove(listener);
+		}
+
+		private boolean accept(T log) {
+			return mFilter == null || mFilter.accept(log);
+		}
+
+		private void reset(List<T> logs) {
+			mItems.clear();
+			for (T log : logs) {
+				if (accept(log)) {
+					mItems.add(log);
+				}
+			}
+			for (Listener<T> listener : new ArrayList<Listener<T>>(mListeners)) {
+				listener.onHistoryChanged();
+			}
+		}
+
+		private void insertNewest(T log) {
+			if (!accept(log)) return;
+			mItems.add(0, log);
+			for (Listener<T> listener : new ArrayList<Listener<T>>(mListeners)) {
+				listener.onLogInserted(0, log);
+			}
+		}
+
+		private void remove(T log) {
+			int position = indexOf(mItems, log);
+			if (position < 0) return;
+			mItems.remove(position);
+			for (Listener<T> listener : new ArrayList<Listener<T>>(mListeners)) {
+				listener.onLogRemoved(position, log);
+			}
+		}
+	}
+
+	private final List<T> mLogs = new ArrayList<T>();
+	private final List<View> mViews = new ArrayList<View>();
+	private final View mAll;
+	private boolean mLoaded;
+	private long mLoads, mInserts, mRemovals;
+	private long mLastLoadNanos, mTotalUpdateNanos;
+
+	public CallHistoryModel() {
+		mAll = createView(null);
+	}
+
+	public View getAll() {
+		return mAll;
+	}
+
+	public View createView(Filter<T> filter) {
+		View view = new View(filter);
+		view.reset(mLogs);
+		mViews.add(view);
+		return view;
+	}
+
+	public boolean isLoaded() {
+		return mLoaded;
+	}
+
+	public int size() {
+		return mLogs.size();
+	}
+
+	/**
+	 * Replaces the whole content, newest log first.
+	 */
+	public void load(List<T> logs) {
+		long start = System.nanoTime();
+		mLogs.clear();
+		mLogs.addAll(logs);
+		mLoaded = true;
+		for (View view : mViews) {
+			view.reset(mLogs);
+		}
+		mLoads++;
+		mLastLoadNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Forgets the content, the next user will have to load it again.
+	 */
+	public void unload() {
+		load(new ArrayList<T>());
+		mLoaded = false;
+	}
+
+	public void insertNewest(T log) {
+		long start = System.nanoTime();
+		mLogs.add(0, log);
+		for (View view : mViews) {
+			view.insertNewest(log);
+		}
+		mInserts++;
+		mTotalUpdateNanos += System.nanoTime() - start;
+	}
+
+	public boolean remove(T log) {
+		long start = System.nanoTime();
+		int position = indexOf(mLogs, log);
+		if (position < 0) return false;
+
+		mLogs.remove(position);
+		for (View view : mViews) {
+			view.remove(log);
+		}
+		mRemovals++;
+		mTotalUpdateNanos += System.nanoTime() - start;
+		return true;
+	}
+
+	public long getLastLoadMicros() {
+		return mLastLoadNanos / 1000;
+	}
+
+	public long getAverageUpdateMicros() {
+		long updates = mInserts + mRemovals;
+		return updates > 0 ? mTotalUpdateNanos / updates / 1000 : 0;
+	}
+
+	public String getStats() {
+		return "Call history: " + mLogs.size() + " logs, " + mLoads + " loads (last " + getLastLoadMicros() + " us), "
+				+ mInserts + " inserts, " + mRemovals + " removals (avg " + getAverageUpdateMicros() + " us)";
+	}
+
+	private static <T> int indexOf(List<T> list, T log) {
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i) == log) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
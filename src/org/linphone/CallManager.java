@@ -19,6 +19,8 @@ Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
 package org.linphone;
 
+import java.util.concurrent.Callable;
+
 import org.linphone.core.LinphoneAddress;
 import org.linphone.core.LinphoneCall;
 import org.linphone.core.LinphoneCallParams;
@@ -50,7 +52,33 @@ public class CallManager {
 
 	
 	
+	/**
+	 * Runs on the core thread and waits for the invite to be sent.
+	 */
 	public void inviteAddress(LinphoneAddress lAddress, boolean lowBandwidth) throws LinphoneCoreException {
+		inviteAddress(lAddress, lowBandwidth, null);
+	}
+
+	/**
+	 * @param link the result of the link probe, which can only lower what the profile and lowBandwidth allow, or null
+	 */
+	public void inviteAddress(final LinphoneAddress lAddress, final boolean lowBandwidth, final LinkProbe.Result link) throws LinphoneCoreException {
+		try {
+			LinphoneManager.getInstance().getCoreExecutor().call(new Callable<Void>() {
+				@Override
+				public Void call() throws LinphoneCoreException {
+					doInviteAddress(lAddress, lowBandwidth, link);
+					return null;
+				}
+			});
+		} catch (LinphoneCoreException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new LinphoneCoreException(e);
+		}
+	}
+
+	private void doInviteAddress(LinphoneAddress lAddress, boolean lowBandwidth, LinkProbe.Result link) throws LinphoneCoreException {
 		LinphoneCore lc = LinphoneManager.getLc();
 		
 		LinphoneCallParams params = lc.createDefaultCallParameters();
@@ -58,6 +86,12 @@ public class CallManager {
 
 		params.setVideoEnabled(false);
 
+		if (link != null) {
+			// Measured just now, but from a short burst: the more conservative of the probe and the profile wins
+			lowBandwidth |= link.isLowBandwidth();
+			params.setAudioBandwidth(bm().capBitrate(link.getAudioBandwidth()));
+		}
+
 		if (lowBandwidth) {
 			params.enableLowBandwidth(true);
 			Log.d("Low bandwidth enabled in call params");
@@ -70,6 +104,15 @@ public class CallManager {
 	 * Re-invite with parameters updated from profile.
 	 */
 	void reinvite() {
+		LinphoneManager.getInstance().getCoreExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				doReinvite();
+			}
+		});
+	}
+
+	private void doReinvite() {
 		LinphoneCore lc = LinphoneManager.getLc();
 		LinphoneCall lCall = lc.getCurrentCall();
 		if (lCall == null) {
@@ -78,6 +121,34 @@ public class CallManager {
 		}
 		LinphoneCallParams params = lCall.getCurrentParamsCopy();
 		bm().updateWithProfileSettings(lc, params);
+		applyTunedBandwidth(lCall, params);
 		lc.updateCall(lCall, params);
 	}
+
+	/**
+	 * Keeps the bitrate chosen by the adaptive tuner across re-invites, within the cap of the profile.
+	 */
+	private void applyTunedBandwidth(LinphoneCall call, LinphoneCallParams params) {
+		AdaptiveCallTuner<LinphoneCall> tuner = LinphoneManager.getInstance().getCallTuner();
+		AdaptiveCallTuner.Settings settings = tuner != null ? tuner.getSettings(call) : null;
+		if (settings != null) {
+			params.setAudioBandwidth(bm().capBitrate(settings.bitrate));
+		}
+	}
+
+	/**
+	 * Runs on the core thread: re-invites the call with the audio bandwidth chosen by the adaptive tuner.
+	 * @return false if the call isn't running
+	 */
+	boolean updateCallBandwidth(LinphoneCall call, int bitrate) {
+		if (call.getState() != LinphoneCall.State.StreamsRunning) {
+			return false;
+		}
+		LinphoneCore lc = LinphoneManager.getLc();
+		LinphoneCallParams params = call.getCurrentParamsCopy();
+		bm().updateWithProfileSettings(lc, params);
+		params.setAudioBandwidth(bm().capBitrate(bitrate));
+		lc.updateCall(call, params);
+		return true;
+	}
 }
@@ -0,0 +1,293 @@
+/*
+CallQualityLog.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Compact binary recordings of the quality of calls, one file per call log, named after its start timestamp.<br />
+ * A file is a 16 bytes header (magic, version, record size, start time) followed by fixed width records:
+ * the time since the start in ms, then the upload and download bandwidth, jitter, loss and quality as floats.
+ *
+ * Files are only appended to, at most {@link #MAX_RECORDS} records each, and the oldest files are deleted
+ * once the recordings use more than {@link #MAX_TOTAL_SIZE}.
+ */
+public final class CallQualityLog {
+	public static final String DIRECTORY = "call_quality";
+	public static final String EXTENSION = ".cql";
+	public static final int RECORD_SIZE = 24;
+	public static final int MAX_RECORDS = 3600;
+	public static final long MAX_TOTAL_SIZE = 2 * 1024 * 1024;
+
+	private static final int MAGIC = 0x43514c31; // CQL1
+	private static final short VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	private CallQualityLog() {}
+
+	public static File getFile(File dir, long logTimestamp) {
+		return new File(dir, logTimestamp + EXTENSION);
+	}
+
+	/**
+	 * Deletes the oldest recordings until they use no more than maxTotalSize.
+	 * @return the number of files deleted
+	 */
+	public static int trim(File dir, long maxTotalSize) {
+		File[] files = dir.listFiles();
+		if (files == null) return 0;
+
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+		if (total <= maxTotalSize) return 0;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : diff > 0 ? 1 : a.getName().compareTo(b.getName());
+			}
+		});
+		int deleted = 0;
+		for (int i = 0; i < files.length && total > maxTotalSize; i++) {
+			long length = files[i].length();
+			if (files[i].getName().endsWith(EXTENSION) && files[i].delete()) {
+				total -= length;
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Buffers records and appends them to the file when the buffer is full or flushed. Not thread safe.
+	 */
+	public static class Writer {
+		private final FileChannel mChannel;
+		private final ByteBuffer mBuffer;
+		private final long mStartTime;
+		private int mRecords, mDropped;
+
+		/**
+		 * Creates the recording, replacing any previous one for the same call log.
+		 * @param startTime the call log timestamp, stored in the header
+		 * @param bufferedRecords how many records are kept in memory before being written
+		 */
+		public Writer(File file, long startTime, int bufferedRecords) throws IOException {
+			mStartTime = startTime;
+			mChannel = new RandomAccessFile(file, "rw").getChannel();
+			mBuffer = ByteBuffer.allocate(Math.max(HEADER_SIZE, bufferedRecords * RECORD_SIZE));
+			try {
+				mChannel.truncate(0);
+				mBuffer.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE).putLong(startTime);
+				flush();
+			} catch (IOException e) {
+				mChannel.close();
+				throw e;
+			}
+		}
+
+		public long getStartTime() {
+			return mStartTime;
+		}
+
+		/**
+		 * @param time since the start of the call, in ms
+		 * @return false if the recording is full and the record was dropped
+		 */
+		public boolean append(int time, float upload, float download, float jitter, float loss, float quality) throws IOException {
+			if (mRecords >= MAX_RECORDS) {
+				mDropped++;
+				return false;
+			}
+			if (mBuffer.remaining() < RECORD_SIZE) {
+				flush();
+			}
+			mBuffer.putInt(time).putFloat(upload).putFloat(download).putFloat(jitter).putFloat(loss).putFloat(quality);
+			mRecords++;
+			return true;
+		}
+
+		public void flush() throws IOException {
+			mBuffer.flip();
+			while (mBuffer.hasRemaining()) {
+				mChannel.write(mBuffer);
+			}
+			mBuffer.clear();
+		}
+
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				mChannel.close();
+			}
+		}
+
+		/**
+		 * @return the records written, including those still buffered
+		 */
+		public int getRecordCount() {
+			return mRecords;
+		}
+
+		public int getDroppedCount() {
+			return mDropped;
+		}
+	}
+
+	/**
+	 * A recording read back from a file, in primitive arrays.
+	 */
+	public static class Recording {
+		private final long mStartTime;
+		private final int[] mTimes;
+		private final float[] mUpload, mDownload, mJitter, mLoss, mQuality;
+
+		private Recording(long startTime, int size) {
+			mStartTime = startTime;
+			mTimes = new int[size];
+			mUpload = new float[size];
+			mDownload = new float[size];
+			mJitter = new float[size];
+			mLoss = new float[size];
+			mQuality = new float[size];
+		}
+
+		/**
+		 * @return the recording, null if the file doesn't exist or isn't a recording
+		 */
+		public static Recording read(File file) throws IOException {
+			if (!file.exists()) return null;
+
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				if (channel.size() < HEADER_SIZE) return null;
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (buffer.getInt() != MAGIC) return null;
+				buffer.getShort();
+				int recordSize = buffer.getShort();
+				long startTime = buffer.getLong();
+				if (recordSize < RECORD_SIZE) return null;
+
+				// A record being written when the app died may be incomplete
+				int size = (int) ((channel.size() - HEADER_SIZE) / recordSize);
+				Recording recording = new Recording(startTime, size);
+				for (int i = 0; i < size; i++) {
+					buffer.position(HEADER_SIZE + i * recordSize);
+					recording.mTimes[i] = buffer.getInt();
+					recording.mUpload[i] = buffer.getFloat();
+					recording.mDownload[i] = buffer.getFloat();
+					recording.mJitter[i] = buffer.getFloat();
+					recording.mLoss[i] = buffer.getFloat();
+					recording.mQuality[i] = buffer.getFloat();
+				}
+				return recording;
+			} finally {
+				in.close();
+			}
+		}
+
+		public long getStartTime() {
+			return mStartTime;
+		}
+
+		public int size() {
+			return mTimes.length;
+		}
+
+		/**
+		 * @return the time of the sample since the start of the recording, in ms
+		 */
+		public int getTime(int i) {
+			return mTimes[i];
+		}
+
+		public float getUploadBandwidth(int i) {
+			return mUpload[i];
+		}
+
+		public float getDownloadBandwidth(int i) {
+			return mDownload[i];
+		}
+
+		public float getJitter(int i) {
+			return mJitter[i];
+		}
+
+		public float getLoss(int i) {
+			return mLoss[i];
+		}
+
+		public float getQuality(int i) {
+			return mQuality[i];
+		}
+
+		/**
+		 * @return the values of one metric, for drawing
+		 */
+		public float[] getQualities() {
+			return mQuality;
+		}
+
+		public float[] getDownloadBandwidths() {
+			return mDownload;
+		}
+
+		private static float getAverage(float[] values) {
+			if (values.length == 0) return 0;
+			double sum = 0;
+			for (float value : values) {
+				sum += value;
+			}
+			return (float) (sum / values.length);
+		}
+
+		public float getAverageQuality() {
+			return getAverage(mQuality);
+		}
+
+		public float getAverageLoss() {
+			return getAverage(mLoss);
+		}
+
+		public float getAverageJitter() {
+			return getAverage(mJitter);
+		}
+
+		public float getMinQuality() {
+			float min = Float.MAX_VALUE;
+			for (float quality : mQuality) {
+				if (quality >= 0 && quality < min) min = quality;
+			}
+			return min == Float.MAX_VALUE ? -1 : min;
+		}
+	}
+}
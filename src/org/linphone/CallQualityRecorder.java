@@ -0,0 +1,184 @@
+/*
+CallQualityRecorder.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.linphone.mediastream.Log;
+
+/**
+ * Streams the samples of the {@link CallStatsSampler} to a {@link CallQualityLog} file per call.<br />
+ * Samples are copied from the series every {@link #WRITE_INTERVAL_MS}, and when the call ends, then written
+ * by the I/O executor: nothing is done for each sample during the call besides what the sampler already does.
+ */
+public class CallQualityRecorder<C> implements CallStatsSampler.Listener<C> {
+	public static final long WRITE_INTERVAL_MS = 10000;
+
+	private static class Recording {
+		final long logTimestamp;
+		long written;
+		long baseTime = -1;
+		// Only used on the I/O executor
+		CallQualityLog.Writer writer;
+		boolean closed;
+
+		Recording(long logTimestamp) {
+			this.logTimestamp = logTimestamp;
+		}
+	}
+
+	private final File mDir;
+	private final Executor mExecutor;
+	private final Map<C, Recording> mRecordings = new HashMap<C, Recording>();
+	private long mRecords, mLostRecords;
+
+	/**
+	 * @param executor runs the file writes, one at a time and in order
+	 */
+	public CallQualityRecorder(File dir, Executor executor) {
+		mDir = dir;
+		mExecutor = executor;
+	}
+
+	public void attach(CallStatsSampler<C> sampler) {
+		sampler.addListener(this, WRITE_INTERVAL_MS);
+	}
+
+	public void detach(CallStatsSampler<C> sampler) {
+		sampler.removeListener(this);
+	}
+
+	/**
+	 * @param logTimestamp the timestamp of the call log, which names the recording
+	 */
+	public synchronized void callStarted(C call, long logTimestamp) {
+		if (!mRecordings.containsKey(call)) {
+			mRecordings.put(call, new Recording(logTimestamp));
+		}
+	}
+
+	/**
+	 * Writes the last samples of the call and closes its recording.
+	 * @param series the samples of the call, as returned by {@link CallStatsSampler#removeCall}, may be null
+	 */
+	public void callEnded(C call, CallStatsSampler.Series series) {
+		final Recording recording;
+		synchronized (this) {
+			recording = mRecordings.remove(call);
+		}
+		if (recording == null || series == null) return;
+		write(recording, series, true);
+	}
+
+	@Override
+	public void onStatsSampled(C call, CallStatsSampler.Series series) {
+		Recording recording;
+		synchronized (this) {
+			recording = mRecordings.get(call);
+		}
+		if (recording != null) {
+			write(recording, series, false);
+		}
+	}
+
+	private void write(final Recording recording, CallStatsSampler.Series series, final boolean close) {
+		// Copied and queued under the series lock, so that the writes of a call are queued in order
+		synchronized (series) {
+			long total = series.getTotalCount();
+			int size = series.size();
+			int pending = (int) Math.min(total - recording.written, size);
+			synchronized (this) {
+				mLostRecords += total - recording.written - pending;
+				mRecords += pending;
+			}
+			recording.written = total;
+			if (pending == 0 && !close) return;
+
+			final int[] times = new int[pending];
+			final float[] values = new float[pending * 5];
+			for (int i = 0, j = size - pending; i < pending; i++, j++) {
+				long time = series.getTime(j);
+				if (recording.baseTime < 0) recording.baseTime = time;
+				times[i] = (int) (time - recording.baseTime);
+				values[i * 5] = series.getUploadBandwidth(j);
+				values[i * 5 + 1] = series.getDownloadBandwidth(j);
+				values[i * 5 + 2] = series.getJitter(j);
+				values[i * 5 + 3] = series.getLoss(j);
+				values[i * 5 + 4] = series.getQuality(j);
+			}
+
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					writeRecords(recording, times, values, close);
+				}
+			});
+		}
+	}
+
+	private void writeRecords(Recording recording, int[] times, float[] values, boolean close) {
+		if (recording.closed) return;
+		try {
+			if (recording.writer == null) {
+				if (times.length == 0) {
+					recording.closed = close;
+					return;
+				}
+				mDir.mkdirs();
+				CallQualityLog.trim(mDir, CallQualityLog.MAX_TOTAL_SIZE);
+				recording.writer = new CallQualityLog.Writer(CallQualityLog.getFile(mDir, recording.logTimestamp), recording.logTimestamp,
+						(int) (WRITE_INTERVAL_MS / CallStatsSampler.SAMPLE_INTERVAL_MS) + 1);
+			}
+			for (int i = 0; i < times.length; i++) {
+				int j = i * 5;
+				recording.writer.append(times[i], values[j], values[j + 1], values[j + 2], values[j + 3], values[j + 4]);
+			}
+			if (close) {
+				recording.closed = true;
+				recording.writer.close();
+				recording.writer = null;
+			} else {
+				recording.writer.flush();
+			}
+		} catch (IOException e) {
+			Log.e(e, "Cannot record the quality of call ", recording.logTimestamp);
+			recording.closed = true;
+			if (recording.writer != null) {
+				try {
+					recording.writer.close();
+				} catch (IOException ignored) {
+				}
+				recording.writer = null;
+			}
+		}
+	}
+
+	public File getDirectory() {
+		return mDir;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Call quality recorder: " + mRecords + " records written, " + mLostRecords + " lost, " + mRecordings.size() + " calls recording";
+	}
+}
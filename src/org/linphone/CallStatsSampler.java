@@ -0,0 +1,348 @@
+/*
+CallStatsSampler.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples the statistics of every running call, once, for every screen that displays them.<br />
+ * While calls are running, the {@link Host} is asked every {@link #SAMPLE_INTERVAL_MS} to read the stats of each call
+ * and {@link #record} them. Stats pushed by the core (callStatsUpdated) are recorded as they come, and the
+ * periodic sample of that call is then skipped.
+ *
+ * Each call keeps its last samples in a {@link Series} of fixed size primitive ring buffers, so sampling allocates
+ * nothing once the call is set up. Listeners choose their own refresh interval and are notified on the UI thread
+ * from the sampling tick, without timers of their own nor calls into the core.
+ */
+public class CallStatsSampler<C> {
+	public static final long SAMPLE_INTERVAL_MS = 1000;
+	public static final int DEFAULT_CAPACITY = 300;
+
+	public interface Host<C> {
+		/**
+		 * Called on the core thread: records the current stats of every running call.
+		 */
+		void sampleCalls(CallStatsSampler<C> sampler);
+		void postDelayed(Runnable r, long delayMs);
+		void removeCallbacks(Runnable r);
+		long uptimeMillis();
+		/**
+		 * Runs the listeners notification on the UI thread.
+		 */
+		void dispatch(Runnable r);
+	}
+
+	public interface Listener<C> {
+		void onStatsSampled(C call, Series series);
+	}
+
+	/**
+	 * Last samples of a call, oldest first. Written on the core thread, readable from any thread.
+	 */
+	public static class Series {
+		private final long[] mTimes;
+		private final float[] mUpload, mDownload, mJitter, mLoss, mQuality;
+		private final byte[] mIceStates;
+		private final List<Object> mIceStateValues = new ArrayList<Object>(4);
+		private int mStart, mCount;
+		private long mTotal;
+
+		public Series(int capacity) {
+			mTimes = new long[capacity];
+			mUpload = new float[capacity];
+			mDownload = new float[capacity];
+			mJitter = new float[capacity];
+			mLoss = new float[capacity];
+			mQuality = new float[capacity];
+			mIceStates = new byte[capacity];
+		}
+
+		synchronized void add(long time, float upload, float download, float jitter, float loss, float quality, Object iceState) {
+			int i = (mStart + mCount) % mTimes.length;
+			if (mCount == mTimes.length) {
+				mStart = (mStart + 1) % mTimes.length;
+			} else {
+				mCount++;
+			}
+			mTimes[i] = time;
+			mUpload[i] = upload;
+			mDownload[i] = download;
+			mJitter[i] = jitter;
+			mLoss[i] = loss;
+			mQuality[i] = quality;
+			mIceStates[i] = internIceState(iceState);
+			mTotal++;
+		}
+
+		// The few ICE states seen during a call are stored as indexes
+		private byte internIceState(Object iceState) {
+			int index = mIceStateValues.indexOf(iceState);
+			if (index < 0) {
+				index = mIceStateValues.size();
+				mIceStateValues.add(iceState);
+			}
+			return (byte) index;
+		}
+
+		private int index(int i) {
+			if (i < 0 || i >= mCount) throw new IndexOutOfBoundsException(i + " of " + mCount);
+			return (mStart + i) % mTimes.length;
+		}
+
+		public synchronized int size() {
+			return mCount;
+		}
+
+		public int capacity() {
+			return mTimes.length;
+		}
+
+		/**
+		 * @return the number of samples recorded since the call started, including those no longer kept
+		 */
+		public synchronized long getTotalCount() {
+			return mTotal;
+		}
+
+		public synchronized long getTime(int i) {
+			return mTimes[index(i)];
+		}
+
+		/**
+		 * In kbits/s
+		 */
+		public synchronized float getUploadBandwidth(int i) {
+			return mUpload[index(i)];
+		}
+
+		/**
+		 * In kbits/s
+		 */
+		public synchronized float getDownloadBandwidth(int i) {
+			return mDownload[index(i)];
+		}
+
+		public synchronized float getJitter(int i) {
+			return mJitter[index(i)];
+		}
+
+		/**
+		 * In percent
+		 */
+		public synchronized float getLoss(int i) {
+			return mLoss[index(i)];
+		}
+
+		/**
+		 * From 0 (worst) to 5 (best), -1 if unknown
+		 */
+		public synchronized float getQuality(int i) {
+			return mQuality[index(i)];
+		}
+
+		public synchronized Object getIceState(int i) {
+			return mIceStateValues.get(mIceStates[index(i)]);
+		}
+
+		/**
+		 * @return the index of the last sample, -1 if there is none yet
+		 */
+		public synchronized int last() {
+			return mCount - 1;
+		}
+	}
+
+	private static class Subscription<C> {
+		final Listener<C> listener;
+		final long interval;
+		// Holders rather than boxed values, so that notifying doesn't allocate them
+		final Map<C, long[]> lastNotified = new HashMap<C, long[]>();
+
+		Subscription(Listener<C> listener, long interval) {
+			this.listener = listener;
+			this.interval = interval;
+		}
+	}
+
+	private final Host<C> mHost;
+	private final int mCapacity;
+	private final Map<C, Series> mSeries = new HashMap<C, Series>();
+	private final List<Subscription<C>> mSubscriptions = new ArrayList<Subscription<C>>();
+	private boolean mRunning;
+	private long mSamples, mPushedSamples, mSkippedSamples;
+
+	private final Runnable mTick = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (CallStatsSampler.this) {
+				if (!mRunning) return;
+			}
+			mHost.sampleCalls(CallStatsSampler.this);
+			synchronized (CallStatsSampler.this) {
+				if (mRunning) {
+					mHost.postDelayed(mTick, SAMPLE_INTERVAL_MS);
+				}
+			}
+		}
+	};
+
+	public CallStatsSampler(Host<C> host) {
+		this(host, DEFAULT_CAPACITY);
+	}
+
+	public CallStatsSampler(Host<C> host, int capacity) {
+		mHost = host;
+		mCapacity = capacity;
+	}
+
+	/**
+	 * Starts sampling, when the first call starts.
+	 */
+	public synchronized void start() {
+		if (mRunning) return;
+		mRunning = true;
+		mHost.postDelayed(mTick, SAMPLE_INTERVAL_MS);
+	}
+
+	/**
+	 * Stops sampling, once there are no more calls.
+	 */
+	public synchronized void stop() {
+		mRunning = false;
+		mHost.removeCallbacks(mTick);
+	}
+
+	public synchronized boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Records a periodic sample, skipped if stats were pushed for this call during the last interval.
+	 */
+	public void sample(C call, float upload, float download, float jitter, float loss, float quality, Object iceState) {
+		synchronized (this) {
+			Series series = mSeries.get(call);
+			if (series != null && series.size() > 0 && mHost.uptimeMillis() - series.getTime(series.last()) < SAMPLE_INTERVAL_MS / 2) {
+				mSkippedSamples++;
+				return;
+			}
+		}
+		record(call, upload, download, jitter, loss, quality, iceState);
+	}
+
+	/**
+	 * Records stats pushed by the core for a call.
+	 */
+	public void record(C call, float upload, float download, float jitter, float loss, float quality, Object iceState) {
+		List<Subscription<C>> notified = null;
+		final Series series;
+		long now = mHost.uptimeMillis();
+		synchronized (this) {
+			Series existing = mSeries.get(call);
+			if (existing == null) {
+				existing = new Series(mCapacity);
+				mSeries.put(call, existing);
+			}
+			series = existing;
+			mSamples++;
+			series.add(now, upload, download, jitter, loss, quality, iceState);
+
+			for (int i = 0; i < mSubscriptions.size(); i++) {
+				Subscription<C> subscription = mSubscriptions.get(i);
+				long[] last = subscription.lastNotified.get(call);
+				if (last == null) {
+					last = new long[] { Long.MIN_VALUE / 2 };
+					subscription.lastNotified.put(call, last);
+				}
+				// Half an interval of slack so that a 1 s listener doesn't skip samples that are a bit early
+				if (now - last[0] >= subscription.interval - SAMPLE_INTERVAL_MS / 2) {
+					last[0] = now;
+					if (notified == null) notified = new ArrayList<Subscription<C>>(mSubscriptions.size());
+					notified.add(subscription);
+				}
+			}
+		}
+
+		if (notified == null) return;
+		final List<Subscription<C>> toNotify = notified;
+		final C notifiedCall = call;
+		mHost.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for (Subscription<C> subscription : toNotify) {
+					synchronized (CallStatsSampler.this) {
+						if (!mSubscriptions.contains(subscription)) continue;
+					}
+					subscription.listener.onStatsSampled(notifiedCall, series);
+				}
+			}
+		});
+	}
+
+	public void recordPushed(C call, float upload, float download, float jitter, float loss, float quality, Object iceState) {
+		synchronized (this) {
+			mPushedSamples++;
+		}
+		record(call, upload, download, jitter, loss, quality, iceState);
+	}
+
+	/**
+	 * @return the samples of the call, null if none were recorded
+	 */
+	public synchronized Series getSeries(C call) {
+		return mSeries.get(call);
+	}
+
+	/**
+	 * Forgets a call that ended.
+	 * @return its samples, null if none were recorded
+	 */
+	public synchronized Series removeCall(C call) {
+		for (Subscription<C> subscription : mSubscriptions) {
+			subscription.lastNotified.remove(call);
+		}
+		return mSeries.remove(call);
+	}
+
+	/**
+	 * @param intervalMs how often the listener wants to be notified, at least {@link #SAMPLE_INTERVAL_MS}
+	 */
+	public synchronized void addListener(Listener<C> listener, long intervalMs) {
+		removeListener(listener);
+		mSubscriptions.add(new Subscription<C>(listener, Math.max(intervalMs, SAMPLE_INTERVAL_MS)));
+	}
+
+	public synchronized void removeListener(Listener<C> listener) {
+		for (int i = 0; i < mSubscriptions.size(); i++) {
+			if (mSubscriptions.get(i).listener == listener) {
+				mSubscriptions.remove(i);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Call stats sampler: " + mSamples + " samples (" + mPushedSamples + " pushed by the core, " + mSkippedSamples
+				+ " periodic ones skipped), " + mSubscriptions.size() + " listeners";
+	}
+}
@@ -19,11 +19,9 @@ Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import org.linphone.compatibility.Compatibility;
-import org.linphone.core.LinphoneCore;
-import org.linphone.core.LinphoneFriend;
 
 import android.content.ContentResolver;
 import android.graphics.Bitmap;
@@ -104,16 +102,22 @@ public class Contact implements Serializable {
 	}
 	
 	public void refresh(ContentResolver cr) {
-		this.numbersOrAddresses = Compatibility.extractContactNumbersAndAddresses(id, cr);
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if(lc != null && lc.getFriendList() != null) {
-			for (LinphoneFriend friend :lc.getFriendList()){
-				if (friend.getRefKey().equals(id)) {
-					hasFriends = true;
-					this.numbersOrAddresses.add(friend.getAddress().asStringUriOnly());
-				}
-			}
+		ContactData.Collector collector = new ContactDataLoader(cr).load(Collections.singletonList(id), false);
+		ContactDataLoader.addFriends(collector, ContactsManager.getInstance().getFriendRegistry());
+		refresh(collector.get(id));
+	}
+
+	/**
+	 * Same as {@link #refresh(ContentResolver)} with data already read by a {@link ContactDataLoader}.
+	 */
+	public void refresh(ContactData data) {
+		if (data == null) {
+			this.numbersOrAddresses = new ArrayList<String>();
+			this.name = null;
+			return;
 		}
-		this.name = Compatibility.refreshContactName(cr, id);
+		this.numbersOrAddresses = data.getNumbersOrAddresses();
+		this.hasFriends = data.hasFriends();
+		this.name = data.getName();
 	}
 }
@@ -0,0 +1,293 @@
+/*
+ContactAddressIndex.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves SIP addresses and phone numbers to contact ids without querying the contacts provider.<br />
+ * Keys are normalized SIP URIs (no scheme, no parameters, lower case) and phone numbers stripped of
+ * separators, both as stored and as rewritten by the {@link Normalizer} (dial prefix, escape plus...).
+ *
+ * The index is kept up to date incrementally: {@link #updateVersions} compares raw contact versions with
+ * the ones seen last time and returns the contacts that need to be re-read, so a change to one contact
+ * does not trigger a full rescan.
+ */
+public class ContactAddressIndex {
+	public interface Normalizer {
+		/**
+		 * @return the number as the core would dial it, or null if it can't be normalized
+		 */
+		String normalize(String number);
+	}
+
+	private final Map<String, List<String>> mSipAddresses = new HashMap<String, List<String>>();
+	private final Map<String, List<String>> mNumbers = new HashMap<String, List<String>>();
+	private final Map<String, Set<String>> mKeysByContact = new HashMap<String, Set<String>>();
+	private final Map<String, Long> mRawVersions = new HashMap<String, Long>();
+	private final Map<String, String> mRawContacts = new HashMap<String, String>();
+	private Normalizer mNormalizer;
+	private boolean mBuilt;
+
+	public ContactAddressIndex(Normalizer normalizer) {
+		mNormalizer = normalizer;
+	}
+
+	public synchronized void setNormalizer(Normalizer normalizer) {
+		mNormalizer = normalizer;
+	}
+
+	public synchronized boolean isBuilt() {
+		return mBuilt;
+	}
+
+	public synchronized void setBuilt(boolean built) {
+		mBuilt = built;
+	}
+
+	public synchronized void clear() {
+		mSipAddresses.clear();
+		mNumbers.clear();
+		mKeysByContact.clear();
+		mRawVersions.clear();
+		mRawContacts.clear();
+		mBuilt = false;
+	}
+
+	/**
+	 * @return the number of contacts having at least one address in the index
+	 */
+	public synchronized int size() {
+		return mKeysByContact.size();
+	}
+
+	/**
+	 * Replaces every address indexed for this contact.
+	 */
+	public synchronized void putContact(String contactId, Collection<String> numbers, Collection<String> sipAddresses) {
+		removeContact(contactId);
+		if (numbers != null) {
+			for (String number : numbers) {
+				addNumber(contactId, number);
+			}
+		}
+		if (sipAddresses != null) {
+			for (String sipAddress : sipAddresses) {
+				addSipAddress(contactId, sipAddress);
+			}
+		}
+	}
+
+	public synchronized void addSipAddress(String contactId, String sipAddress) {
+		String key = sipKey(sipAddress);
+		if (key != null) {
+			add(mSipAddresses, "s" + key, key, contactId);
+		}
+	}
+
+	public synchronized void removeSipAddress(String contactId, String sipAddress) {
+		String key = sipKey(sipAddress);
+		if (key != null) {
+			remove(mSipAddresses, "s" + key, key, contactId);
+		}
+	}
+
+	public synchronized void addNumber(String contactId, String number) {
+		String key = numberKey(number);
+		if (key != null) {
+			add(mNumbers, "n" + key, key, contactId);
+		}
+		if (mNormalizer != null && number != null) {
+			String normalized = numberKey(mNormalizer.normalize(number));
+			if (normalized != null && !normalized.equals(key)) {
+				add(mNumbers, "n" + normalized, normalized, contactId);
+			}
+		}
+	}
+
+	public synchronized void removeContact(String contactId) {
+		Set<String> keys = mKeysByContact.remove(contactId);
+		if (keys == null) return;
+
+		for (String taggedKey : keys) {
+			Map<String, List<String>> map = taggedKey.charAt(0) == 's' ? mSipAddresses : mNumbers;
+			String key = taggedKey.substring(1);
+			List<String> ids = map.get(key);
+			if (ids != null) {
+				ids.remove(contactId);
+				if (ids.isEmpty()) {
+					map.remove(key);
+				}
+			}
+		}
+	}
+
+	public synchronized String findContactIdBySipAddress(String sipAddress) {
+		return first(mSipAddresses, sipKey(sipAddress));
+	}
+
+	public synchronized String findContactIdByNumber(String number) {
+		return first(mNumbers, numberKey(number));
+	}
+
+	/**
+	 * Same resolution order as the provider based lookup: SIP address first, then the user part as a number.
+	 */
+	public synchronized String findContactId(String sipAddress, String username) {
+		String id = findContactIdBySipAddress(sipAddress);
+		if (id == null && username != null) {
+			id = findContactIdByNumber(username);
+		}
+		return id;
+	}
+
+	/**
+	 * Records the current raw contact versions and returns the ids of the contacts that were added, modified
+	 * or deleted since the previous call. Deleted contacts are removed from the index, the others must be
+	 * re-read by the caller and passed to {@link #putContact}.
+	 *
+	 * @param rawVersions version of every raw contact, by raw contact id
+	 * @param rawContacts contact id of every raw contact, by raw contact id
+	 */
+	public synchronized Set<String> updateVersions(Map<String, Long> rawVersions, Map<String, String> rawContacts) {
+		Set<String> changed = new HashSet<String>();
+		Set<String> remaining = new HashSet<String>(rawContacts.values());
+
+		for (Map.Entry<String, Long> entry : rawVersions.entrySet()) {
+			String rawId = entry.getKey();
+			Long previous = mRawVersions.get(rawId);
+			String contactId = rawContacts.get(rawId);
+			String previousContactId = mRawContacts.get(rawId);
+			if (previous == null || !previous.equals(entry.getValue()) || !equals(contactId, previousContactId)) {
+				if (contactId != null) changed.add(contactId);
+				if (previousContactId != null) changed.add(previousContactId);
+			}
+		}
+
+		Iterator<Map.Entry<String, String>> it = mRawContacts.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, String> entry = it.next();
+			if (!rawVersions.containsKey(entry.getKey())) {
+				changed.add(entry.getValue());
+			}
+		}
+
+		mRawVersions.clear();
+		mRawVersions.putAll(rawVersions);
+		mRawContacts.clear();
+		mRawContacts.putAll(rawContacts);
+
+		for (String contactId : changed) {
+			if (!remaining.contains(contactId)) {
+				removeContact(contactId);
+			}
+		}
+		changed.retainAll(remaining);
+		return changed;
+	}
+
+	public static String sipKey(String sipAddress) {
+		if (sipAddress == null) return null;
+		String key = sipAddress.trim();
+		if (key.startsWith("<") && key.endsWith(">")) {
+			key = key.substring(1, key.length() - 1);
+		}
+		if (key.regionMatches(true, 0, "sip:", 0, 4)) {
+			key = key.substring(4);
+		} else if (key.regionMatches(true, 0, "sips:", 0, 5)) {
+			key = key.substring(5);
+		}
+		int params = key.indexOf(';');
+		if (params >= 0) {
+			key = key.substring(0, params);
+		}
+		return key.length() > 0 ? key.toLowerCase() : null;
+	}
+
+	/**
+	 * Keeps the digits, a leading + and the * and # characters.
+	 */
+	public static String numberKey(String number) {
+		if (number == null) return null;
+		StringBuilder key = new StringBuilder(number.length());
+		for (int i = 0; i < number.length(); i++) {
+			char c = number.charAt(i);
+			if ((c >= '0' && c <= '9') || c == '*' || c == '#' || (c == '+' && key.length() == 0)) {
+				key.append(c);
+			} else if (Character.isLetter(c)) {
+				// Not a phone number (a SIP username for instance)
+				return null;
+			}
+		}
+		return key.length() > 0 ? key.toString() : null;
+	}
+
+	private void add(Map<String, List<String>> map, String taggedKey, String key, String contactId) {
+		List<String> ids = map.get(key);
+		if (ids == null) {
+			ids = new ArrayList<String>(1);
+			map.put(key, ids);
+		}
+		if (!ids.contains(contactId)) {
+			ids.add(contactId);
+		}
+
+		Set<String> keys = mKeysByContact.get(contactId);
+		if (keys == null) {
+			keys = new HashSet<String>();
+			mKeysByContact.put(contactId, keys);
+		}
+		keys.add(taggedKey);
+	}
+
+	private void remove(Map<String, List<String>> map, String taggedKey, String key, String contactId) {
+		List<String> ids = map.get(key);
+		if (ids != null) {
+			ids.remove(contactId);
+			if (ids.isEmpty()) {
+				map.remove(key);
+			}
+		}
+
+		Set<String> keys = mKeysByContact.get(contactId);
+		if (keys != null) {
+			keys.remove(taggedKey);
+			if (keys.isEmpty()) {
+				mKeysByContact.remove(contactId);
+			}
+		}
+	}
+
+	private static String first(Map<String, List<String>> map, String key) {
+		if (key == null) return null;
+		List<String> ids = map.get(key);
+		return ids != null && !ids.isEmpty() ? ids.get(0) : null;
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ContactData.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything the app reads about a contact from the provider, filled from bulk queries by {@link ContactDataLoader}
+ * instead of a handful of queries per contact.<br />
+ * Rows are classified by the loader, so this class doesn't know anything about Android.
+ */
+public class ContactData {
+	/** A row only read for the display name of the contact */
+	public static final int KIND_NAME = 0;
+	public static final int KIND_NUMBER = 1;
+	public static final int KIND_SIP_ADDRESS = 2;
+	public static final int KIND_LINPHONE_TAG = 3;
+
+	private final String mId;
+	private String mName;
+	private String mRawContactId, mLinphoneRawContactId;
+	private final List<String> mNumbers = new ArrayList<String>(1);
+	private final List<String> mSipAddresses = new ArrayList<String>(1);
+	private final List<String> mFriendAddresses = new ArrayList<String>(0);
+	private boolean mHasLinphoneTag;
+
+	public ContactData(String id) {
+		mId = id;
+	}
+
+	public String getID() {
+		return mId;
+	}
+
+	/**
+	 * @return the display name, null if the contact has no data row with one
+	 */
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * @return the id of the first raw contact of the contact, like {@link ContactsManager#findRawContactID}
+	 */
+	public String getRawContactId() {
+		return mRawContactId;
+	}
+
+	/**
+	 * @return the id of the raw contact created by the app for this contact, null if there is none
+	 */
+	public String getLinphoneRawContactId() {
+		return mLinphoneRawContactId;
+	}
+
+	public boolean hasLinphoneTag() {
+		return mHasLinphoneTag;
+	}
+
+	public boolean hasFriends() {
+		return !mFriendAddresses.isEmpty();
+	}
+
+	public List<String> getNumbers() {
+		return Collections.unmodifiableList(mNumbers);
+	}
+
+	/**
+	 * @return the SIP addresses, without the sip: prefix
+	 */
+	public List<String> getSipAddresses() {
+		return Collections.unmodifiableList(mSipAddresses);
+	}
+
+	/**
+	 * @return the numbers, then the SIP addresses and the friends addresses, formatted like {@link Contact#refresh}
+	 */
+	public List<String> getNumbersOrAddresses() {
+		List<String> list = new ArrayList<String>(mNumbers.size() + mSipAddresses.size() + mFriendAddresses.size());
+		list.addAll(mNumbers);
+		for (String address : mSipAddresses) {
+			list.add("sip:" + address);
+		}
+		list.addAll(mFriendAddresses);
+		return list;
+	}
+
+	void addRow(String displayName, int kind, String value) {
+		if (mName == null) {
+			mName = displayName;
+		}
+
+		if (kind == KIND_LINPHONE_TAG) {
+			mHasLinphoneTag = true;
+		} else if (value != null) {
+			if (kind == KIND_NUMBER) {
+				mNumbers.add(value);
+			} else if (kind == KIND_SIP_ADDRESS) {
+				mSipAddresses.add(value);
+			}
+		}
+	}
+
+	void addRawContact(String rawContactId, boolean isLinphone) {
+		if (mRawContactId == null) mRawContactId = rawContactId;
+		if (isLinphone && mLinphoneRawContactId == null) mLinphoneRawContactId = rawContactId;
+	}
+
+	void addFriendAddress(String address) {
+		mFriendAddresses.add(address);
+	}
+
+	/**
+	 * Groups rows by contact id as they are read from the cursors.
+	 */
+	public static class Collector {
+		private final Map<String, ContactData> mContacts = new HashMap<String, ContactData>();
+
+		public ContactData get(String contactId) {
+			return mContacts.get(contactId);
+		}
+
+		public int size() {
+			return mContacts.size();
+		}
+
+		public Map<String, ContactData> asMap() {
+			return Collections.unmodifiableMap(mContacts);
+		}
+
+		public void addRow(String contactId, String displayName, int kind, String value) {
+			getOrCreate(contactId).addRow(displayName, kind, value);
+		}
+
+		public void addRawContact(String contactId, String rawContactId, boolean isLinphone) {
+			getOrCreate(contactId).addRawContact(rawContactId, isLinphone);
+		}
+
+		/**
+		 * Friends are only attached to contacts already read from the provider.
+		 */
+		public void addFriendAddress(String contactId, String address) {
+			ContactData data = mContacts.get(contactId);
+			if (data != null) {
+				data.addFriendAddress(address);
+			}
+		}
+
+		private ContactData getOrCreate(String contactId) {
+			ContactData data = mContacts.get(contactId);
+			if (data == null) {
+				data = new ContactData(contactId);
+				mContacts.put(contactId, data);
+			}
+			return data;
+		}
+	}
+}
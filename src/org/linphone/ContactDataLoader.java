@@ -0,0 +1,208 @@
+/*
+ContactDataLoader.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.linphone.mediastream.Version;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+
+/**
+ * Reads names, numbers, SIP addresses, Linphone tags and raw contact ids of many contacts at once:
+ * one query on the data table and one on the raw contacts table, per chunk of {@link #MAX_SELECTION_ARGS} contacts,
+ * or for the whole address book.
+ */
+public class ContactDataLoader {
+	public static final String LINPHONE_TAG_MIMETYPE = "vnd.android.cursor.item/org.linphone.profile";
+	private static final String LINPHONE_ACCOUNT_TYPE = "org.linphone";
+	private static final int MAX_SELECTION_ARGS = 500;
+
+	private final ContentResolver mResolver;
+	private int mQueries;
+
+	public ContactDataLoader(ContentResolver resolver) {
+		mResolver = resolver;
+	}
+
+	/**
+	 * @param contactIds the contacts to read, null for every contact
+	 * @param withRawContacts whether raw contact ids are needed
+	 */
+	public ContactData.Collector load(Collection<String> contactIds, boolean withRawContacts) {
+		ContactData.Collector collector = new ContactData.Collector();
+		if (contactIds == null) {
+			readData(null, collector);
+			if (withRawContacts) {
+				readRawContacts(null, collector);
+			}
+			return collector;
+		}
+
+		List<String> ids = new ArrayList<String>(contactIds);
+		for (int i = 0; i < ids.size(); i += MAX_SELECTION_ARGS) {
+			List<String> chunk = ids.subList(i, Math.min(i + MAX_SELECTION_ARGS, ids.size()));
+			readData(chunk, collector);
+			if (withRawContacts) {
+				readRawContacts(chunk, collector);
+			}
+		}
+		return collector;
+	}
+
+	/**
+	 * Reads the addresses stored in IM fields with the SIP protocol, like older versions of the app did.
+	 * @return the addresses as stored, by contact id
+	 */
+	public Map<String, List<String>> loadImSipAddresses(Collection<String> contactIds) {
+		Map<String, List<String>> addresses = new HashMap<String, List<String>>();
+		List<String> ids = new ArrayList<String>(contactIds);
+		for (int i = 0; i < ids.size(); i += MAX_SELECTION_ARGS) {
+			List<String> args = new ArrayList<String>();
+			args.add(CommonDataKinds.Im.CONTENT_ITEM_TYPE);
+			StringBuilder selection = new StringBuilder()
+					.append(Data.MIMETYPE).append(" = ? AND lower(")
+					.append(CommonDataKinds.Im.CUSTOM_PROTOCOL).append(") = 'sip'");
+			appendContactIds(selection, Data.CONTACT_ID, ids.subList(i, Math.min(i + MAX_SELECTION_ARGS, ids.size())), args);
+
+			String[] projection = new String[] { Data.CONTACT_ID, CommonDataKinds.Im.DATA };
+			Cursor c = query(Data.CONTENT_URI, projection, selection.toString(), args.toArray(new String[args.size()]));
+			if (c == null) continue;
+			try {
+				while (c.moveToNext()) {
+					String id = c.getString(0);
+					String address = c.getString(1);
+					if (address == null) continue;
+
+					List<String> list = addresses.get(id);
+					if (list == null) {
+						list = new ArrayList<String>(1);
+						addresses.put(id, list);
+					}
+					list.add(address);
+				}
+			} finally {
+				c.close();
+			}
+		}
+		return addresses;
+	}
+
+	/**
+	 * Attaches the friends addresses to their contacts.
+	 */
+	public static void addFriends(ContactData.Collector collector, FriendRegistry friends) {
+		if (friends == null) return;
+		for (Map.Entry<String, List<String>> entry : friends.getAddresses().entrySet()) {
+			for (String address : entry.getValue()) {
+				collector.addFriendAddress(entry.getKey(), address);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of queries made by this loader so far
+	 */
+	public int getQueryCount() {
+		return mQueries;
+	}
+
+	private void readData(List<String> contactIds, ContactData.Collector collector) {
+		boolean hasSipAddresses = Version.sdkAboveOrEqual(Version.API09_GINGERBREAD_23);
+		List<String> args = new ArrayList<String>();
+		args.add(CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE);
+		args.add(CommonDataKinds.Phone.CONTENT_ITEM_TYPE);
+		// Before Gingerbread, SIP addresses are stored as IM addresses
+		args.add(hasSipAddresses ? CommonDataKinds.SipAddress.CONTENT_ITEM_TYPE : CommonDataKinds.Im.CONTENT_ITEM_TYPE);
+		args.add(LINPHONE_TAG_MIMETYPE);
+
+		StringBuilder selection = new StringBuilder()
+				.append(Data.DISPLAY_NAME).append(" IS NOT NULL AND ")
+				.append(Data.MIMETYPE).append(" IN (?, ?, ?, ?)");
+		appendContactIds(selection, Data.CONTACT_ID, contactIds, args);
+
+		String[] projection = new String[] { Data.CONTACT_ID, Data.DISPLAY_NAME, Data.MIMETYPE, Data.DATA1, CommonDataKinds.Im.CUSTOM_PROTOCOL };
+		Cursor c = query(Data.CONTENT_URI, projection, selection.toString(), args.toArray(new String[args.size()]));
+		if (c == null) return;
+		try {
+			while (c.moveToNext()) {
+				String mimeType = c.getString(2);
+				int kind;
+				if (CommonDataKinds.Phone.CONTENT_ITEM_TYPE.equals(mimeType)) {
+					kind = ContactData.KIND_NUMBER;
+				} else if (CommonDataKinds.SipAddress.CONTENT_ITEM_TYPE.equals(mimeType)) {
+					kind = ContactData.KIND_SIP_ADDRESS;
+				} else if (CommonDataKinds.Im.CONTENT_ITEM_TYPE.equals(mimeType)) {
+					String protocol = c.getString(4);
+					kind = protocol != null && protocol.equalsIgnoreCase("sip") ? ContactData.KIND_SIP_ADDRESS : ContactData.KIND_NAME;
+				} else if (LINPHONE_TAG_MIMETYPE.equals(mimeType)) {
+					kind = ContactData.KIND_LINPHONE_TAG;
+				} else {
+					kind = ContactData.KIND_NAME;
+				}
+				collector.addRow(c.getString(0), c.getString(1), kind, c.getString(3));
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	private void readRawContacts(List<String> contactIds, ContactData.Collector collector) {
+		List<String> args = new ArrayList<String>();
+		StringBuilder selection = new StringBuilder().append(RawContacts.CONTACT_ID).append(" IS NOT NULL");
+		appendContactIds(selection, RawContacts.CONTACT_ID, contactIds, args);
+
+		String[] projection = new String[] { RawContacts._ID, RawContacts.CONTACT_ID, RawContacts.ACCOUNT_TYPE };
+		Cursor c = query(RawContacts.CONTENT_URI, projection, selection.toString(), args.toArray(new String[args.size()]));
+		if (c == null) return;
+		try {
+			while (c.moveToNext()) {
+				collector.addRawContact(c.getString(1), c.getString(0), LINPHONE_ACCOUNT_TYPE.equals(c.getString(2)));
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	private Cursor query(Uri uri, String[] projection, String selection, String[] args) {
+		mQueries++;
+		return mResolver.query(uri, projection, selection, args, null);
+	}
+
+	private static void appendContactIds(StringBuilder selection, String column, List<String> contactIds, List<String> args) {
+		if (contactIds == null) return;
+
+		selection.append(" AND ").append(column).append(" IN (");
+		for (int i = 0; i < contactIds.size(); i++) {
+			selection.append(i == 0 ? "?" : ", ?");
+			args.add(contactIds.get(i));
+		}
+		selection.append(")");
+	}
+}
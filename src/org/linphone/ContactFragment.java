@@ -18,12 +18,9 @@ You should have received a copy of the GNU General Public License
 along with this program; if not, write to the Free Software
 Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
-import java.io.InputStream;
 import java.util.ArrayList;
 
-import org.linphone.compatibility.Compatibility;
 import org.linphone.core.LinphoneCore;
-import org.linphone.core.LinphoneProxyConfig;
 import org.linphone.mediastream.Log;
 import org.linphone.ui.AvatarWithShadow;
 
@@ -31,7 +28,6 @@ import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.content.ContentProviderOperation;
 import android.content.DialogInterface;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.provider.ContactsContract;
 import android.support.v4.app.Fragment;
@@ -58,17 +54,12 @@ public class ContactFragment extends Fragment implements OnClickListener {
 			if (LinphoneActivity.isInstanciated()) {
 				LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
 				if (lc != null) {
-					LinphoneProxyConfig lpc = lc.getDefaultProxyConfig();
-					String to;
-					if (lpc != null) {
-						String address = v.getTag().toString();
-						if (!address.contains("@")) {
-							to = lpc.normalizePhoneNumber(address);
-						} else {
-							to = v.getTag().toString();
+					String to = v.getTag().toString();
+					if (!to.contains("@")) {
+						String normalized = LinphoneManager.getInstance().getPhoneNumberNormalizer().normalize(to);
+						if (normalized != null) {
+							to = normalized;
 						}
-					} else {
-						to = v.getTag().toString();
 					}
 					LinphoneActivity.instance().setAddresGoToDialerAndCall(to, contact.getName(), contact.getPhotoUri());
 				}
@@ -101,8 +92,7 @@ public class ContactFragment extends Fragment implements OnClickListener {
 	private void displayContact(LayoutInflater inflater, View view) {
 		AvatarWithShadow contactPicture = (AvatarWithShadow) view.findViewById(R.id.contactPicture);
 		if (contact.getPhotoUri() != null) {
-			InputStream input = Compatibility.getContactPictureInputStream(LinphoneActivity.instance().getContentResolver(), contact.getID());
-			contactPicture.setImageBitmap(BitmapFactory.decodeStream(input));
+			ContactPhotoLoader.getInstance().load(contactPicture.getView(), contact.getID(), null, null, R.drawable.unknown_small);
         } else {
         	contactPicture.setImageResource(R.drawable.unknown_small);
         }
@@ -128,9 +118,9 @@ public class ContactFragment extends Fragment implements OnClickListener {
 			v.findViewById(R.id.dial).setOnClickListener(dialListener);
 			v.findViewById(R.id.dial).setTag(displayednumberOrAddress);
 
-			LinphoneProxyConfig lpc = LinphoneManager.getLc().getDefaultProxyConfig();
-			if (lpc != null) {
-				displayednumberOrAddress = lpc.normalizePhoneNumber(displayednumberOrAddress);
+			String normalized = LinphoneManager.getInstance().getPhoneNumberNormalizer().normalize(displayednumberOrAddress);
+			if (normalized != null) {
+				displayednumberOrAddress = normalized;
 				if (!displayednumberOrAddress.startsWith("sip:")) {
 					numberOrAddress = "sip:" + displayednumberOrAddress;
 				}
@@ -141,7 +131,7 @@ public class ContactFragment extends Fragment implements OnClickListener {
 			if (getResources().getBoolean(R.bool.enable_linphone_friends)) {
 				friend.setVisibility(View.VISIBLE);
 				
-				boolean isAlreadyAFriend = LinphoneManager.getLc().findFriendByAddress(finalNumberOrAddress) != null;
+				boolean isAlreadyAFriend = ContactsManager.getInstance().findFriendByAddress(finalNumberOrAddress) != null;
 				if (!isAlreadyAFriend) {
 					friend.setImageResource(R.drawable.friend_add);
 					friend.setOnClickListener(new OnClickListener() {
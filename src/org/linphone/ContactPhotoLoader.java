@@ -0,0 +1,327 @@
+/*
+ContactPhotoLoader.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.linphone.compatibility.Compatibility;
+import org.linphone.mediastream.Log;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+/**
+ * Loads contact pictures on background threads, downsampled to the size they are displayed at,
+ * and keeps them in a memory bounded LRU cache shared by every screen.<br />
+ * A request made for an ImageView cancels the previous request made for the same view, so recycled
+ * list rows never show the picture of the contact they displayed before.
+ *
+ * Apart from the decoding, everything happens on the UI thread.
+ */
+public class ContactPhotoLoader {
+	public interface Callback {
+		/**
+		 * @param photo the picture, or null if the contact has none
+		 */
+		void onPhotoLoaded(Bitmap photo);
+	}
+
+	private static final int DECODE_THREADS = 2;
+	private static final int DEFAULT_SIZE_DP = 96;
+	private static final int MAX_MISSING_PHOTOS = 1000;
+
+	private static ContactPhotoLoader instance;
+
+	private final LruMemoryCache<String, Bitmap> mCache;
+	private final LruMemoryCache<String, Boolean> mMissing;
+	private final ExecutorService mExecutor;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Map<ImageView, Request> mRequests = new WeakHashMap<ImageView, Request>();
+	private int mCancelled;
+
+	private ContactPhotoLoader() {
+		mCache = new LruMemoryCache<String, Bitmap>(Runtime.getRuntime().maxMemory() / 8, new LruMemoryCache.Sizer<Bitmap>() {
+			@Override
+			public int sizeOf(Bitmap bitmap) {
+				return bitmap.getRowBytes() * bitmap.getHeight();
+			}
+		});
+		mMissing = new LruMemoryCache<String, Boolean>(MAX_MISSING_PHOTOS, new LruMemoryCache.Sizer<Boolean>() {
+			@Override
+			public int sizeOf(Boolean value) {
+				return 1;
+			}
+		});
+		mExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, "Photo decoder");
+			}
+		});
+	}
+
+	public static final synchronized ContactPhotoLoader getInstance() {
+		if (instance == null) instance = new ContactPhotoLoader();
+		return instance;
+	}
+
+	/**
+	 * Displays the placeholder, then the picture once decoded.
+	 * The picture is looked for at photoUri, then thumbnailUri, then in the contact itself.
+	 */
+	public void load(ImageView view, String contactId, Uri photoUri, Uri thumbnailUri, int placeholderResource) {
+		cancel(view);
+
+		int size = getTargetSize(view);
+		String key = getKey(contactId, photoUri, thumbnailUri, size);
+		if (key == null || mMissing.contains(key)) {
+			view.setImageResource(placeholderResource);
+			return;
+		}
+
+		Bitmap cached = mCache.get(key);
+		if (cached != null) {
+			view.setImageBitmap(cached);
+			return;
+		}
+
+		view.setImageResource(placeholderResource);
+		Request request = new Request(view.getContext().getContentResolver(), key, contactId, photoUri, thumbnailUri, size);
+		request.view = view;
+		mRequests.put(view, request);
+		mExecutor.execute(request);
+	}
+
+	/**
+	 * Same as above for pictures that are not displayed in a view (notifications for instance).
+	 * The callback is called on the UI thread, right away if the picture is cached.
+	 */
+	public void load(Context context, String contactId, Uri photoUri, Uri thumbnailUri, int sizePx, Callback callback) {
+		String key = getKey(contactId, photoUri, thumbnailUri, sizePx);
+		if (key == null || mMissing.contains(key)) {
+			callback.onPhotoLoaded(null);
+			return;
+		}
+
+		Bitmap cached = mCache.get(key);
+		if (cached != null) {
+			callback.onPhotoLoaded(cached);
+			return;
+		}
+
+		Request request = new Request(context.getContentResolver(), key, contactId, photoUri, thumbnailUri, sizePx);
+		request.callback = callback;
+		mExecutor.execute(request);
+	}
+
+	/**
+	 * Cancels the pending request for this view, if any: to be called when a row is recycled.
+	 */
+	public void cancel(ImageView view) {
+		Request previous = mRequests.remove(view);
+		if (previous != null) {
+			previous.cancelled = true;
+			mCancelled++;
+		}
+	}
+
+	/**
+	 * Contacts changed: pictures must be decoded again.
+	 */
+	public void clear() {
+		mCache.clear();
+		mMissing.clear();
+	}
+
+	public void trimMemory() {
+		mCache.trimTo(mCache.maxSize() / 2);
+	}
+
+	public String getStats() {
+		return "Contact photos: " + mCache + ", " + mCancelled + " requests cancelled";
+	}
+
+	private int getTargetSize(ImageView view) {
+		ViewGroup.LayoutParams params = view.getLayoutParams();
+		if (params != null && Math.max(params.width, params.height) > 0) {
+			return Math.max(params.width, params.height);
+		}
+		return (int) (DEFAULT_SIZE_DP * view.getResources().getDisplayMetrics().density);
+	}
+
+	private static String getKey(String contactId, Uri photoUri, Uri thumbnailUri, int size) {
+		String source;
+		if (contactId != null) {
+			source = contactId + (photoUri == null ? "/thumbnail" : "");
+		} else if (photoUri != null) {
+			source = photoUri.toString();
+		} else if (thumbnailUri != null) {
+			source = thumbnailUri.toString();
+		} else {
+			return null;
+		}
+		return source + "@" + size;
+	}
+
+	private class Request implements Runnable {
+		final ContentResolver resolver;
+		final String key, contactId;
+		final Uri photoUri, thumbnailUri;
+		final int size;
+		ImageView view;
+		Callback callback;
+		volatile boolean cancelled;
+
+		Request(ContentResolver resolver, String key, String contactId, Uri photoUri, Uri thumbnailUri, int size) {
+			this.resolver = resolver;
+			this.key = key;
+			this.contactId = contactId;
+			this.photoUri = photoUri;
+			this.thumbnailUri = thumbnailUri;
+			this.size = size;
+		}
+
+		@Override
+		public void run() {
+			if (cancelled) return;
+
+			Bitmap photo = mCache.get(key);
+			if (photo == null) {
+				photo = decode(this);
+				if (photo != null) {
+					mCache.put(key, photo);
+				} else {
+					mMissing.put(key, Boolean.TRUE);
+				}
+			}
+
+			final Bitmap result = photo;
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					deliver(Request.this, result);
+				}
+			});
+		}
+	}
+
+	private void deliver(Request request, Bitmap photo) {
+		if (request.callback != null) {
+			request.callback.onPhotoLoaded(photo);
+			return;
+		}
+
+		if (request.cancelled || mRequests.get(request.view) != request) return;
+		mRequests.remove(request.view);
+		if (photo != null) {
+			request.view.setImageBitmap(photo);
+		}
+	}
+
+	private Bitmap decode(Request request) {
+		byte[] data = readPhoto(request);
+		if (data == null) return null;
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+		options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, request.size);
+		options.inJustDecodeBounds = false;
+		try {
+			return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		} catch (OutOfMemoryError oome) {
+			Log.e("Out of memory decoding contact picture " + request.key);
+			trimMemory();
+			return null;
+		}
+	}
+
+	/**
+	 * Largest power of two that keeps both dimensions at least as big as the target size.
+	 */
+	static int computeSampleSize(int width, int height, int targetSize) {
+		int sampleSize = 1;
+		if (targetSize <= 0) return sampleSize;
+		while (width / (sampleSize * 2) >= targetSize && height / (sampleSize * 2) >= targetSize) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	private byte[] readPhoto(Request request) {
+		InputStream input = open(request.resolver, request.photoUri);
+		if (input == null) {
+			input = open(request.resolver, request.thumbnailUri);
+		}
+		if (input == null && request.contactId != null) {
+			input = Compatibility.getContactPictureInputStream(request.resolver, request.contactId);
+		}
+		if (input == null) return null;
+
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				output.write(buffer, 0, read);
+			}
+			return output.toByteArray();
+		} catch (IOException e) {
+			Log.e(e, "Cannot read contact picture " + request.key);
+			return null;
+		} finally {
+			try {
+				input.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static InputStream open(ContentResolver resolver, Uri uri) {
+		if (uri == null) return null;
+		try {
+			return resolver.openInputStream(uri);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ContactSearchIndex.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * In memory search on contact names and numbers, replacing a provider query per keystroke.<br />
+ * Names are split in words folded to lower case without accents, numbers are reduced to their digits, and every
+ * word and number is kept in a sorted array: a query word matches the entries having a word or number starting with it,
+ * found by binary search. When the query extends the previous one and had few results, only those are filtered.
+ *
+ * Entries are identified by the position they were added at, which is their position in the contacts cursor.
+ */
+public class ContactSearchIndex {
+	// Folding of U+00C0 to U+017F, digits stand for two letters
+	private static final String LATIN_1 = "aaaaaa3ceeeeiiiidnooooo\u00d7ouuuuy\u00fe4aaaaaa3ceeeeiiiidnooooo\u00f7ouuuuy\u00fey";
+	private static final String LATIN_EXTENDED_A = "aaaaaaccccccccddddeeeeeeeeeegggggggghhhhiiiiiiiiii11jjkkkllllllllllnnnnnnnnnoooooo22rrrrrrsssssssstttttt"
+			+ "uuuuuuuuuuuuwwyyyzzzzzzs";
+	private static final String[] EXPANSIONS = { null, "ij", "oe", "ae", "ss" };
+
+	private final int mCount;
+	private final String[] mKeys;
+	private final int[] mKeyEntries;
+	private final String[][] mEntryKeys;
+
+	private String mLastQuery;
+	private int[] mLastResult;
+	private int mSearches, mIncrementalSearches;
+
+	private ContactSearchIndex(List<String[]> entryKeys) {
+		mCount = entryKeys.size();
+		mEntryKeys = entryKeys.toArray(new String[mCount][]);
+
+		int keys = 0;
+		for (String[] k : mEntryKeys) {
+			keys += k.length;
+		}
+		final String[] allKeys = new String[keys];
+		Integer[] order = new Integer[keys];
+		final int[] allEntries = new int[keys];
+		int k = 0;
+		for (int entry = 0; entry < mCount; entry++) {
+			for (String key : mEntryKeys[entry]) {
+				allKeys[k] = key;
+				allEntries[k] = entry;
+				order[k] = k;
+				k++;
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return allKeys[a].compareTo(allKeys[b]);
+			}
+		});
+
+		mKeys = new String[keys];
+		mKeyEntries = new int[keys];
+		for (int i = 0; i < keys; i++) {
+			mKeys[i] = allKeys[order[i]];
+			mKeyEntries[i] = allEntries[order[i]];
+		}
+	}
+
+	public static class Builder {
+		private final List<String[]> mEntryKeys = new ArrayList<String[]>();
+
+		/**
+		 * Adds the next entry.
+		 * @param numbers phone numbers or SIP addresses, may be null
+		 */
+		public Builder add(String name, Collection<String> numbers) {
+			List<String> keys = new ArrayList<String>();
+			if (name != null) {
+				for (String word : splitWords(fold(name))) {
+					keys.add(word);
+				}
+			}
+			if (numbers != null) {
+				for (String number : numbers) {
+					String key;
+					if (isNumber(number)) {
+						key = digits(number);
+					} else {
+						// SIP address, its user name is searchable
+						String[] words = splitWords(fold(number.startsWith("sip:") ? number.substring(4) : number));
+						key = words.length > 0 ? words[0] : "";
+					}
+					if (key.length() > 0 && !keys.contains(key)) {
+						keys.add(key);
+					}
+				}
+			}
+			mEntryKeys.add(keys.toArray(new String[keys.size()]));
+			return this;
+		}
+
+		public ContactSearchIndex build() {
+			return new ContactSearchIndex(mEntryKeys);
+		}
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	/**
+	 * @return the positions of the entries matching every word of the query, in increasing order
+	 */
+	public synchronized int[] search(String query) {
+		mSearches++;
+		String folded = fold(query).trim();
+		String[] words;
+		if (isNumber(folded)) {
+			String digits = digits(folded);
+			words = digits.length() > 0 ? new String[] { digits } : new String[0];
+		} else {
+			words = splitWords(folded);
+		}
+
+		int[] result;
+		if (words.length == 0) {
+			result = new int[mCount];
+			for (int i = 0; i < mCount; i++) {
+				result[i] = i;
+			}
+		} else if (mLastQuery != null && folded.startsWith(mLastQuery) && mLastResult.length <= mCount / 4) {
+			mIncrementalSearches++;
+			result = filter(mLastResult, words);
+		} else {
+			result = lookup(words);
+		}
+
+		mLastQuery = folded;
+		mLastResult = result;
+		return result;
+	}
+
+	private int[] lookup(String[] words) {
+		// hits[entry] is the number of words matched so far, entries have to match them in order
+		int[] hits = new int[mCount];
+		for (int w = 0; w < words.length; w++) {
+			String word = words[w];
+			int start = lowerBound(word);
+			for (int i = start; i < mKeys.length && mKeys[i].startsWith(word); i++) {
+				int entry = mKeyEntries[i];
+				if (hits[entry] == w) {
+					hits[entry] = w + 1;
+				}
+			}
+		}
+
+		int count = 0;
+		for (int i = 0; i < mCount; i++) {
+			if (hits[i] == words.length) count++;
+		}
+		int[] result = new int[count];
+		int r = 0;
+		for (int i = 0; i < mCount; i++) {
+			if (hits[i] == words.length) result[r++] = i;
+		}
+		return result;
+	}
+
+	private int[] filter(int[] candidates, String[] words) {
+		int[] result = new int[candidates.length];
+		int count = 0;
+		for (int entry : candidates) {
+			if (matches(mEntryKeys[entry], words)) {
+				result[count++] = entry;
+			}
+		}
+		int[] filtered = new int[count];
+		System.arraycopy(result, 0, filtered, 0, count);
+		return filtered;
+	}
+
+	private static boolean matches(String[] keys, String[] words) {
+		for (String word : words) {
+			boolean found = false;
+			for (String key : keys) {
+				if (key.startsWith(word)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) return false;
+		}
+		return true;
+	}
+
+	private int lowerBound(String word) {
+		int low = 0, high = mKeys.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mKeys[mid].compareTo(word) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	public synchronized String getStats() {
+		return "Contact search index: " + mCount + " entries, " + mKeys.length + " keys, " + mSearches + " searches ("
+				+ mIncrementalSearches + " incremental)";
+	}
+
+	/**
+	 * @return the string in lower case, without the accents of latin letters
+	 */
+	public static String fold(String s) {
+		StringBuilder folded = null;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			String replacement = null;
+			char r = c;
+			if (c >= 'A' && c <= 'Z') {
+				r = (char) (c + 'a' - 'A');
+			} else if (c >= 0xc0 && c < 0xc0 + LATIN_1.length()) {
+				r = LATIN_1.charAt(c - 0xc0);
+			} else if (c >= 0x100 && c < 0x100 + LATIN_EXTENDED_A.length()) {
+				r = LATIN_EXTENDED_A.charAt(c - 0x100);
+			} else if (c >= 0x80) {
+				r = Character.toLowerCase(c);
+			}
+			if (r >= '1' && r <= '4' && r != c) {
+				replacement = EXPANSIONS[r - '0'];
+			}
+
+			if (folded == null && (r != c || replacement != null)) {
+				folded = new StringBuilder(s.length() + 4).append(s, 0, i);
+			}
+			if (folded != null) {
+				if (replacement != null) {
+					folded.append(replacement);
+				} else {
+					folded.append(r);
+				}
+			}
+		}
+		return folded != null ? folded.toString() : s;
+	}
+
+	private static String[] splitWords(String s) {
+		List<String> words = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= s.length(); i++) {
+			boolean letter = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				words.add(s.substring(start, i));
+				start = -1;
+			}
+		}
+		return words.toArray(new String[words.size()]);
+	}
+
+	private static boolean isNumber(String s) {
+		boolean hasDigit = false;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				hasDigit = true;
+			} else if (c != '+' && c != ' ' && c != '-' && c != '.' && c != '(' && c != ')') {
+				return false;
+			}
+		}
+		return hasDigit;
+	}
+
+	private static String digits(String number) {
+		StringBuilder digits = new StringBuilder(number.length());
+		for (int i = 0; i < number.length(); i++) {
+			char c = number.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits.append(c);
+			}
+		}
+		return digits.toString();
+	}
+}
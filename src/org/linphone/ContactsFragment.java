@@ -18,8 +18,6 @@ You should have received a copy of the GNU General Public License
 along with this program; if not, write to the Free Software
 Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
-import java.util.List;
-
 import org.linphone.compatibility.Compatibility;
 import org.linphone.core.LinphoneFriend;
 import org.linphone.core.PresenceActivityType;
@@ -30,6 +28,7 @@ import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -58,12 +57,19 @@ public class ContactsFragment extends Fragment implements OnClickListener, OnIte
 	private TextView allContacts, linphoneContacts, newContact, noSipContact, noContact;
 	private boolean onlyDisplayLinphoneContacts;
 	private int lastKnownPosition;
-	private AlphabetIndexer indexer;
 	private boolean editOnClick = false, editConsumed = false;
 	private String sipAddressToAdd;
 	private ImageView clearSearchField;
 	private EditText searchField;
 	private Cursor searchCursor;
+	private Handler mHandler = new Handler();
+	private static final long SEARCH_DELAY_MS = 150;
+	private final Runnable mSearch = new Runnable() {
+		@Override
+		public void run() {
+			searchContacts();
+		}
+	};
 
 	private static ContactsFragment instance;
 	
@@ -124,7 +130,13 @@ public class ContactsFragment extends Fragment implements OnClickListener, OnIte
 			
 			@Override
 			public void afterTextChanged(Editable s) {
-				searchContacts(searchField.getText().toString());
+				// Waits for the user to stop typing, but clearing the field is immediate
+				mHandler.removeCallbacks(mSearch);
+				if (s.length() == 0) {
+					searchContacts();
+				} else {
+					mHandler.postDelayed(mSearch, SEARCH_DELAY_MS);
+				}
 			}
 		});
 
@@ -171,27 +183,32 @@ public class ContactsFragment extends Fragment implements OnClickListener, OnIte
 		}
 		changeContactsToggle();
 		
-		if (searchCursor != null) {
-			searchCursor.close();
+		Cursor contactsCursor = onlyDisplayLinphoneContacts ? ContactsManager.getInstance().getSIPContactsCursor() : ContactsManager.getInstance().getAllContactsCursor();
+		ContactSearchIndex index = contactsCursor != null ? ContactsManager.getInstance().getSearchIndex(contactsCursor) : null;
+		if (index != null) {
+			closeSearchCursor();
+			noSipContact.setVisibility(View.GONE);
+			noContact.setVisibility(View.GONE);
+			contactsList.setVisibility(View.VISIBLE);
+			getContactsAdapter(contactsCursor).setFilter(index.search(search));
+			return;
 		}
 		
+		// The index isn't ready yet, ask the provider
+		closeSearchCursor();
+		
 		if (onlyDisplayLinphoneContacts) {
 			searchCursor = Compatibility.getSIPContactsCursor(getActivity().getContentResolver(), search, ContactsManager.getInstance().getContactsId());
-			indexer = new AlphabetIndexer(searchCursor, Compatibility.getCursorDisplayNameColumnIndex(searchCursor), " ABCDEFGHIJKLMNOPQRSTUVWXYZ");
-			contactsList.setAdapter(new ContactsListAdapter(null, searchCursor));
 		} else {
 			searchCursor = Compatibility.getContactsCursor(getActivity().getContentResolver(), search, ContactsManager.getInstance().getContactsId());
-			indexer = new AlphabetIndexer(searchCursor, Compatibility.getCursorDisplayNameColumnIndex(searchCursor), " ABCDEFGHIJKLMNOPQRSTUVWXYZ");
-			contactsList.setAdapter(new ContactsListAdapter(null, searchCursor));
 		}
+		setContactsAdapter(new ContactsListAdapter(searchCursor));
 	}
 	
 	private void changeContactsAdapter() {
 		changeContactsToggle();
 		
-		if (searchCursor != null) {
-			searchCursor.close();
-		}
+		closeSearchCursor();
 		
 		Cursor allContactsCursor = ContactsManager.getInstance().getAllContactsCursor();
 		Cursor sipContactsCursor = ContactsManager.getInstance().getSIPContactsCursor();
@@ -200,26 +217,59 @@ public class ContactsFragment extends Fragment implements OnClickListener, OnIte
 		noContact.setVisibility(View.GONE);
 		contactsList.setVisibility(View.VISIBLE);
 		
-		if (onlyDisplayLinphoneContacts) {
-			if (sipContactsCursor != null && sipContactsCursor.getCount() == 0) {
+		if (allContactsCursor == null || sipContactsCursor == null) {
+			// Still loading, invalidate() is called once the contacts are ready
+			setContactsAdapter(null);
+		} else if (onlyDisplayLinphoneContacts) {
+			if (sipContactsCursor.getCount() == 0) {
 				noSipContact.setVisibility(View.VISIBLE);
 				contactsList.setVisibility(View.GONE);
 			} else {
-				indexer = new AlphabetIndexer(sipContactsCursor, Compatibility.getCursorDisplayNameColumnIndex(sipContactsCursor), " ABCDEFGHIJKLMNOPQRSTUVWXYZ");
-				contactsList.setAdapter(new ContactsListAdapter(ContactsManager.getInstance().getSIPContacts(), sipContactsCursor));
+				getContactsAdapter(sipContactsCursor).setFilter(null);
 			}
 		} else {
-			if (allContactsCursor != null && allContactsCursor.getCount() == 0) {
+			if (allContactsCursor.getCount() == 0) {
 				noContact.setVisibility(View.VISIBLE);
 				contactsList.setVisibility(View.GONE);
 			} else {
-				indexer = new AlphabetIndexer(allContactsCursor, Compatibility.getCursorDisplayNameColumnIndex(allContactsCursor), " ABCDEFGHIJKLMNOPQRSTUVWXYZ");
-				contactsList.setAdapter(new ContactsListAdapter(ContactsManager.getInstance().getAllContacts(), allContactsCursor));
+				getContactsAdapter(allContactsCursor).setFilter(null);
 			}
 		}
 		ContactsManager.getInstance().setLinphoneContactsPrefered(onlyDisplayLinphoneContacts);
 	}
 	
+	private void closeSearchCursor() {
+		if (searchCursor != null) {
+			setContactsAdapter(null);
+			synchronized (searchCursor) {
+				searchCursor.close();
+			}
+			searchCursor = null;
+		}
+	}
+	
+	/**
+	 * @return the current adapter if it displays this cursor, a new one otherwise
+	 */
+	private ContactsListAdapter getContactsAdapter(Cursor cursor) {
+		if (contactsList.getAdapter() instanceof ContactsListAdapter) {
+			ContactsListAdapter adapter = (ContactsListAdapter) contactsList.getAdapter();
+			if (adapter.cursor == cursor) {
+				return adapter;
+			}
+		}
+		ContactsListAdapter adapter = new ContactsListAdapter(cursor);
+		setContactsAdapter(adapter);
+		return adapter;
+	}
+	
+	private void setContactsAdapter(ContactsListAdapter adapter) {
+		if (contactsList.getAdapter() instanceof ContactsListAdapter) {
+			((ContactsListAdapter) contactsList.getAdapter()).close();
+		}
+		contactsList.setAdapter(adapter);
+	}
+	
 	private void changeContactsToggle() {
 		if (onlyDisplayLinphoneContacts) {
 			allContacts.setEnabled(true);
@@ -233,6 +283,9 @@ public class ContactsFragment extends Fragment implements OnClickListener, OnIte
 	@Override
 	public void onItemClick(AdapterView<?> adapter, View view, int position, long id) {
 		Contact contact = (Contact) adapter.getItemAtPosition(position);
+		if (contact == null) {
+			return;
+		}
 		if (editOnClick) {
 			editConsumed = true;
 			LinphoneActivity.instance().editContact(contact, sipAddressToAdd);
@@ -267,9 +320,9 @@ public class ContactsFragment extends Fragment implements OnClickListener, OnIte
 	@Override
 	public void onPause() {
 		instance = null;
-		if (searchCursor != null) {
-			searchCursor.close();
-		}
+		mHandler.removeCallbacks(mSearch);
+		setContactsAdapter(null);
+		closeSearchCursor();
 		super.onPause();
 	}
 	
@@ -285,39 +338,76 @@ public class ContactsFragment extends Fragment implements OnClickListener, OnIte
 	class ContactsListAdapter extends BaseAdapter implements SectionIndexer {
 		private int margin;
 		private Bitmap bitmapUnknown;
-		private List<Contact> contacts;
+		private PagedList<Contact> contacts;
 		private Cursor cursor;
+		private AlphabetIndexer indexer;
+		// Cursor positions of the rows when searching, null to display the whole cursor
+		private int[] filter;
 		
-		ContactsListAdapter(List<Contact> contactsList, Cursor c) {
-			contacts = contactsList;
+		ContactsListAdapter(Cursor c) {
 			cursor = c;
+			indexer = new AlphabetIndexer(c, Compatibility.getCursorDisplayNameColumnIndex(c), " ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+			contacts = ContactsManager.getInstance().createContactList(c);
+			contacts.setListener(new PagedList.Listener() {
+				@Override
+				public void onPageLoaded(int start, int count) {
+					UIThreadDispatcher.dispatch(new Runnable() {
+						@Override
+						public void run() {
+							if (contactsList != null && contactsList.getAdapter() == ContactsListAdapter.this) {
+								notifyDataSetChanged();
+							}
+						}
+					});
+				}
+			});
 
 			margin = LinphoneUtils.pixelsToDpi(LinphoneActivity.instance().getResources(), 10);
 			bitmapUnknown = BitmapFactory.decodeResource(LinphoneActivity.instance().getResources(), R.drawable.unknown_small);
 		}
 		
+		void close() {
+			contacts.close();
+		}
+		
+		void setFilter(int[] positions) {
+			if (positions == null && filter == null) return;
+			filter = positions;
+			notifyDataSetChanged();
+		}
+		
+		private int toCursorPosition(int position) {
+			return filter != null ? filter[position] : position;
+		}
+		
 		public int getCount() {
-			return cursor.getCount();
+			return filter != null ? filter.length : contacts.size();
 		}
 
 		public Object getItem(int position) {
-			if (contacts == null || position >= contacts.size()) {
-				return Compatibility.getContact(getActivity().getContentResolver(), cursor, position);
-			} else {
-				return contacts.get(position);
-			}
+			return contacts.getBlocking(toCursorPosition(position));
 		}
 
 		public long getItemId(int position) {
 			return position;
 		}
 
+		private String getDisplayName(int position) {
+			synchronized (cursor) {
+				if (cursor.isClosed() || !cursor.moveToPosition(position)) {
+					return "";
+				}
+				String name = cursor.getString(Compatibility.getCursorDisplayNameColumnIndex(cursor));
+				return name != null ? name : "";
+			}
+		}
+
 		public View getView(int position, View convertView, ViewGroup parent) {
 			View view = null;
-			Contact contact = null;
-			do {
-				contact = (Contact) getItem(position);
-			} while (contact == null);
+			// Rows are displayed with the name from the cursor until their page of contacts is loaded
+			Contact contact = contacts.get(toCursorPosition(position));
+			String contactName = contact != null ? contact.getName() : getDisplayName(toCursorPosition(position));
+			ContactsManager.getInstance().onContactRowDisplayed();
 			
 			if (convertView != null) {
 				view = convertView;
@@ -326,30 +416,29 @@ public class ContactsFragment extends Fragment implements OnClickListener, OnIte
 			}
 			
 			TextView name = (TextView) view.findViewById(R.id.name);
-			name.setText(contact.getName());
+			name.setText(contactName);
 			
 			TextView separator = (TextView) view.findViewById(R.id.separator);
 			LinearLayout layout = (LinearLayout) view.findViewById(R.id.layout);
-			if (getPositionForSection(getSectionForPosition(position)) != position) {
+			if (getPositionForSection(getSectionForPosition(position)) != position || contactName.length() == 0) {
 				separator.setVisibility(View.GONE);
 				layout.setPadding(0, margin, 0, margin);
 			} else {
 				separator.setVisibility(View.VISIBLE);
-				separator.setText(String.valueOf(contact.getName().charAt(0)));
+				separator.setText(String.valueOf(contactName.charAt(0)));
 				layout.setPadding(0, 0, 0, margin);
 			}
 			
 			ImageView icon = (ImageView) view.findViewById(R.id.icon);
-			if (contact.getPhoto() != null) {
-				icon.setImageBitmap(contact.getPhoto());
-			} else if (contact.getPhotoUri() != null) {
-				icon.setImageURI(contact.getPhotoUri());
+			if (contact != null && (contact.getPhotoUri() != null || contact.getThumbnailUri() != null)) {
+				ContactPhotoLoader.getInstance().load(icon, contact.getID(), null, contact.getThumbnailUri(), R.drawable.unknown_small);
 			} else {
+				ContactPhotoLoader.getInstance().cancel(icon);
 				icon.setImageBitmap(bitmapUnknown);
 			}
 			
 			ImageView friendStatus = (ImageView) view.findViewById(R.id.friendStatus);
-			LinphoneFriend[] friends = LinphoneManager.getLc().getFriendList();
+			LinphoneFriend[] friends = ContactsManager.getInstance().getFriendList();
 			if (!ContactsManager.getInstance().isContactPresenceDisabled() && friends != null) {
 				friendStatus.setVisibility(View.VISIBLE);
 				PresenceActivityType presenceActivity = friends[0].getPresenceModel().getActivity().getType();
@@ -371,12 +460,33 @@ public class ContactsFragment extends Fragment implements OnClickListener, OnIte
 
 		@Override
 		public int getPositionForSection(int section) {
-			return indexer.getPositionForSection(section);
+			// The indexer moves the cursor, which contacts are being loaded from
+			int cursorPosition;
+			synchronized (cursor) {
+				cursorPosition = cursor.isClosed() ? 0 : indexer.getPositionForSection(section);
+			}
+			if (filter == null) {
+				return cursorPosition;
+			}
+			
+			// First row of the search results at or after the section start
+			int low = 0, high = filter.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (filter[mid] < cursorPosition) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return Math.min(low, Math.max(filter.length - 1, 0));
 		}
 
 		@Override
 		public int getSectionForPosition(int position) {
-			return indexer.getSectionForPosition(position);
+			synchronized (cursor) {
+				return cursor.isClosed() ? 0 : indexer.getSectionForPosition(toCursorPosition(position));
+			}
 		}
 
 		@Override
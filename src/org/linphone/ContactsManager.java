@@ -25,6 +25,9 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
 
 import org.linphone.compatibility.Compatibility;
@@ -35,19 +38,50 @@ import org.linphone.core.LinphoneCoreFactory;
 import org.linphone.core.LinphoneFriend;
 import org.linphone.core.LinphoneProxyConfig;
 import org.linphone.mediastream.Log;
+import org.linphone.mediastream.Version;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 public class ContactsManager {
 	private static ContactsManager instance;
-	private List<Contact> contactList, sipContactList;
 	private Cursor contactCursor, sipContactCursor;
 	private Account mAccount;
 	private boolean preferLinphoneContacts = false, isContactPresenceDisabled = true;
 	private ContentResolver contentResolver;
 	private Context context;
 
+	private static final long ADDRESS_INDEX_UPDATE_DELAY_MS = 1000;
+	private static final int MAX_SELECTION_ARGS = 500;
+	// Contacts whose numbers are normalized and indexed together
+	private static final int INDEX_BATCH = 200;
+	private static final int MIGRATION_CHUNK_SIZE = 100;
+	private static final long BATCH_PAUSE_MS = 20;
+	private ContactAddressIndex mAddressIndex = new ContactAddressIndex(null);
+	private final FriendRegistry mFriends = new FriendRegistry();
+	private Handler mIndexHandler;
+	private final Runnable mUpdateAddressIndex = new Runnable() {
+		@Override
+		public void run() {
+			updateAddressIndex();
+		}
+	};
+
+	private Handler mLoadHandler;
+	private Executor mPageExecutor;
+	private int mPrepareGeneration;
+	private long mPrepareStartTime;
+	private boolean mFirstRowReported;
+	private final Map<Cursor, ContactSearchIndex> mSearchIndexes = new HashMap<Cursor, ContactSearchIndex>();
+
 	private ContactsManager() {}
 
 	public static final synchronized ContactsManager getInstance() {
@@ -55,20 +89,74 @@ public class ContactsManager {
 		return instance;
 	}
 
-	public List<Contact> getAllContacts() {
-		return contactList;
+	/**
+	 * @return the cursor over every contact, null until {@link #prepareContactsInBackground()} has published one.
+	 */
+	public synchronized Cursor getAllContactsCursor() {
+		return contactCursor;
 	}
 
-	public List<Contact> getSIPContacts() {
-		return sipContactList;
+	/**
+	 * @return the cursor over contacts with a SIP address, null until {@link #prepareContactsInBackground()} has published one.
+	 */
+	public synchronized Cursor getSIPContactsCursor() {
+		return sipContactCursor;
 	}
 
-	public Cursor getAllContactsCursor() {
-		return contactCursor;
+	/**
+	 * Creates a list materializing the contacts of a cursor only when they are displayed, a few pages at a time.
+	 * The cursor is only read while holding its lock, so code moving it on another thread must hold it too.
+	 */
+	public PagedList<Contact> createContactList(final Cursor cursor) {
+		synchronized (this) {
+			if (mPageExecutor == null) {
+				HandlerThread thread = new HandlerThread("Contacts pages");
+				thread.start();
+				final Handler handler = new Handler(thread.getLooper());
+				mPageExecutor = new Executor() {
+					@Override
+					public void execute(Runnable r) {
+						handler.post(r);
+					}
+				};
+			}
+		}
+
+		return new PagedList<Contact>(new PagedList.Source<Contact>() {
+			@Override
+			public int getCount() {
+				return cursor.getCount();
+			}
+
+			@Override
+			public Contact load(int position) {
+				return readContact(cursor, position);
+			}
+		}, mPageExecutor);
 	}
 
-	public Cursor getSIPContactsCursor() {
-		return sipContactCursor;
+	private Contact readContact(Cursor cursor, int position) {
+		synchronized (cursor) {
+			if (cursor.isClosed()) return null;
+			return Compatibility.getContact(contentResolver, cursor, position);
+		}
+	}
+
+	private static void closeCursor(Cursor cursor) {
+		if (cursor != null) {
+			synchronized (cursor) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Called by the contacts list when it displays its first row, to measure how long contacts take to show up.
+	 */
+	public synchronized void onContactRowDisplayed() {
+		if (mFirstRowReported || mPrepareStartTime == 0) return;
+		mFirstRowReported = true;
+		Log.i("Contacts: first row displayed " + (SystemClock.uptimeMillis() - mPrepareStartTime) + " ms after loading started");
 	}
 
 	public void setLinphoneContactsPrefered(boolean isPrefered) {
@@ -86,6 +174,27 @@ public class ContactsManager {
 	public void initializeContactManager(Context context, ContentResolver contentResolver){
 		this.context = context;
 		this.contentResolver = contentResolver;
+
+		synchronized (this) {
+			if (mIndexHandler == null) {
+				HandlerThread thread = new HandlerThread("Contacts index");
+				thread.start();
+				mIndexHandler = new Handler(thread.getLooper());
+				mIndexHandler.post(mUpdateAddressIndex);
+			}
+		}
+	}
+
+	/**
+	 * Called when the contacts provider reports a change: the address index is updated once things settle down,
+	 * and pictures will be decoded again.
+	 */
+	public synchronized void onContactsChanged() {
+		ContactPhotoLoader.getInstance().clear();
+		if (mIndexHandler != null) {
+			mIndexHandler.removeCallbacks(mUpdateAddressIndex);
+			mIndexHandler.postDelayed(mUpdateAddressIndex, ADDRESS_INDEX_UPDATE_DELAY_MS);
+		}
 	}
 
 	public void initializeSyncAccount(Context context, ContentResolver contentResolver) {
@@ -157,22 +266,35 @@ public class ContactsManager {
 	}
 
 //Manage Linphone Friend if we cannot use Sip address
-	public boolean createNewFriend(Contact contact, String sipUri) {
+	public boolean createNewFriend(final Contact contact, String sipUri) {
 		if (!sipUri.startsWith("sip:")) {
 			sipUri = "sip:" + sipUri;
 		}
 
-		LinphoneFriend friend = LinphoneCoreFactory.instance().createLinphoneFriend(sipUri);
+		final LinphoneFriend friend = LinphoneCoreFactory.instance().createLinphoneFriend(sipUri);
 		if (friend != null) {
 			friend.edit();
 			friend.enableSubscribes(false);
 			friend.setRefKey(contact.getID());
 			friend.done();
+			final String uri = sipUri;
 			try {
-				LinphoneManager.getLcIfManagerNotDestroyedOrNull().addFriend(friend);
-				return true;
-			} catch (LinphoneCoreException e) {
-				e.printStackTrace();
+				return LinphoneManager.getInstance().getCoreExecutor().call(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws LinphoneCoreException {
+						LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
+						if (lc == null) return false;
+						// Mirrors the existing friends first, so that the new one isn't listed twice
+						FriendRegistry friends = getFriendRegistry();
+						lc.addFriend(friend);
+						if (friends != null) {
+							friends.add(friend, contact.getID(), uri);
+						}
+						return true;
+					}
+				});
+			} catch (Exception e) {
+				Log.e(e, "Cannot add friend " + sipUri);
 				return false;
 			}
 		} else {
@@ -189,11 +311,23 @@ public class ContactsManager {
 			oldSipUri = "sip:" + oldSipUri;
 		}
 
-		LinphoneFriend friend = LinphoneManager.getLcIfManagerNotDestroyedOrNull().findFriendByAddress(oldSipUri);
+		final String oldUri = oldSipUri, newUri = newSipUri;
+		LinphoneManager.getInstance().getCoreExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				doUpdateFriend(oldUri, newUri);
+			}
+		});
+	}
+
+	private void doUpdateFriend(String oldSipUri, String newSipUri) {
+		FriendRegistry friends = getFriendRegistry();
+		LinphoneFriend friend = friends != null ? friends.findByAddress(oldSipUri) : null;
 		if (friend != null) {
 			friend.edit();
 			try {
 				friend.setAddress(LinphoneCoreFactory.instance().createLinphoneAddress(newSipUri));
+				friends.setAddress(friend, newSipUri);
 			} catch (LinphoneCoreException e) {
 				e.printStackTrace();
 			}
@@ -206,19 +340,44 @@ public class ContactsManager {
 			sipUri = "sip:" + sipUri;
 		}
 
-		LinphoneFriend friend = LinphoneManager.getLcIfManagerNotDestroyedOrNull().findFriendByAddress(sipUri);
-		if (friend != null) {
-			LinphoneManager.getLcIfManagerNotDestroyedOrNull().removeFriend(friend);
-			return true;
+		final String uri = sipUri;
+		try {
+			return LinphoneManager.getInstance().getCoreExecutor().call(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
+					FriendRegistry friends = getFriendRegistry();
+					LinphoneFriend friend = friends != null ? friends.findByAddress(uri) : null;
+					if (lc == null || friend == null) return false;
+					lc.removeFriend(friend);
+					friends.remove(friend);
+					return true;
+				}
+			});
+		} catch (Exception e) {
+			Log.e(e, "Cannot remove friend " + sipUri);
+			return false;
 		}
-		return false;
 	}
 
-	public void removeAllFriends(Contact contact) {
-		for (LinphoneFriend friend : LinphoneManager.getLcIfManagerNotDestroyedOrNull().getFriendList()) {
-			if (friend.getRefKey().equals(contact.getID())) {
-				LinphoneManager.getLcIfManagerNotDestroyedOrNull().removeFriend(friend);
+	public void removeAllFriends(final Contact contact) {
+		LinphoneManager.getInstance().getCoreExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				doRemoveAllFriends(contact);
 			}
+		});
+	}
+
+	private void doRemoveAllFriends(Contact contact) {
+		FriendRegistry friends = getFriendRegistry();
+		if (friends == null) return;
+
+		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
+		if (lc == null) return;
+		for (LinphoneFriend friend : friends.getFriends(contact.getID())) {
+			lc.removeFriend(friend);
+			friends.remove(friend);
 		}
 	}
 
@@ -270,40 +429,87 @@ public class ContactsManager {
 	}
 
 	public List<String> getContactsId(){
-		List<String> ids = new ArrayList<String>();
-		if(LinphoneManager.getLcIfManagerNotDestroyedOrNull().getFriendList() == null) return null;
-		for(LinphoneFriend friend : LinphoneManager.getLcIfManagerNotDestroyedOrNull().getFriendList()) {
-			friend.edit();
-			friend.enableSubscribes(false);
-			friend.done();
-			if(!ids.contains(friend.getRefKey())){
-				ids.add(friend.getRefKey());
-			}
+		FriendRegistry friends = getFriendRegistry();
+		return friends != null ? friends.getRefKeys() : null;
+	}
+
+	public LinphoneFriend findFriendByAddress(String sipUri) {
+		FriendRegistry friends = getFriendRegistry();
+		return friends != null ? friends.findByAddress(sipUri) : null;
+	}
+
+	/**
+	 * @return the friends of the core, null if there is no core. The array must not be modified.
+	 */
+	public LinphoneFriend[] getFriendList() {
+		FriendRegistry friends = getFriendRegistry();
+		return friends != null ? friends.getFriendList() : null;
+	}
+
+	/**
+	 * @return the mirror of the core's friend list, read from the core on first use, null if there is no core
+	 */
+	public FriendRegistry getFriendRegistry() {
+		final LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
+		if (lc == null) return null;
+		if (mFriends.isLoadedFrom(lc)) return mFriends;
+
+		try {
+			LinphoneManager.getInstance().getCoreExecutor().call(new Callable<Void>() {
+				@Override
+				public Void call() {
+					if (!mFriends.isLoadedFrom(lc)) {
+						loadFriends(lc);
+					}
+					return null;
+				}
+			});
+		} catch (Exception e) {
+			Log.e(e, "Cannot read friends");
+			return null;
 		}
+		return mFriends;
+	}
 
-		return ids;
+	/**
+	 * Runs on the core thread. Friends created with subscribes enabled are fixed once here,
+	 * instead of rewriting every friend each time they are listed.
+	 */
+	private void loadFriends(LinphoneCore lc) {
+		long start = SystemClock.uptimeMillis();
+		mFriends.reset(lc);
+		LinphoneFriend[] friends = lc.getFriendList();
+		if (friends == null) return;
+
+		for (LinphoneFriend friend : friends) {
+			if (friend.isSubscribesEnabled()) {
+				friend.edit();
+				friend.enableSubscribes(false);
+				friend.done();
+			}
+			mFriends.add(friend, friend.getRefKey(), friend.getAddress() != null ? friend.getAddress().asStringUriOnly() : null);
+		}
+		Log.i("Contacts: " + friends.length + " friends mirrored in " + (SystemClock.uptimeMillis() - start) + " ms");
 	}
 //End linphone Friend
 
-	public boolean removeContactTagIsNeeded(Contact contact){
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if (lc != null) {
-			LinphoneProxyConfig lpc = lc.createProxyConfig();
-			contact.refresh(contentResolver);
-			for (String address : contact.getNumbersOrAddresses()) {
-				if (!lpc.isPhoneNumber(address)) {
-					return false;
-				}
+	private static boolean isOnlyPhoneNumbers(LinphoneProxyConfig lpc, List<String> numbersOrAddresses) {
+		for (String address : numbersOrAddresses) {
+			if (!lpc.isPhoneNumber(address)) {
+				return false;
 			}
-			return true;
 		}
-		return false;
+		return true;
 	}
 
 	public void removeLinphoneContactTag(Contact contact){
+		removeLinphoneRawContact(findRawLinphoneContactID(contact.getID()));
+	}
+
+	private void removeLinphoneRawContact(String rawContactId) {
 		ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
 		String select = ContactsContract.RawContacts._ID + " = ?";
-		String[] args = new String[] { findRawLinphoneContactID(contact.getID()) };
+		String[] args = new String[] { rawContactId };
 
 
 		ops.add(ContentProviderOperation.newDelete(ContactsContract.RawContacts.CONTENT_URI)
@@ -328,12 +534,8 @@ public class ContactsManager {
 					contactFound = true;
 				} else {
 					String normalizedUsername = null;
-					LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-					if (lc != null) {
-						LinphoneProxyConfig lpc = lc.getDefaultProxyConfig();
-						if (lpc != null) {
-							normalizedUsername = lpc.normalizePhoneNumber(phone);
-						}
+					if (LinphoneManager.isInstanciated()) {
+						normalizedUsername = LinphoneManager.getInstance().getPhoneNumberNormalizer().normalize(phone);
 					}
 
 					if (normalizedUsername != null && normalizedUsername.equals(username)) {
@@ -353,17 +555,29 @@ public class ContactsManager {
 	}
 
 	public Contact findContactWithAddress(ContentResolver contentResolver, LinphoneAddress address){
-		String sipUri = address.asStringUriOnly();
+		return findContactWithAddress(contentResolver, address.asStringUriOnly(), address.getUserName());
+	}
+
+	/**
+	 * Same as {@link #findContactWithAddress(ContentResolver, LinphoneAddress)} with the address already read,
+	 * for callers off the core thread.
+	 */
+	public Contact findContactWithAddress(ContentResolver contentResolver, String sipUri, String userName){
 		if (sipUri.startsWith("sip:"))
 			sipUri = sipUri.substring(4);
 
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if(lc != null && lc.getFriendList() != null && LinphoneManager.getLcIfManagerNotDestroyedOrNull().getFriendList().length > 0) {
-			for (LinphoneFriend friend : LinphoneManager.getLcIfManagerNotDestroyedOrNull().getFriendList()) {
-				if (friend.getAddress().equals(address)) {
-					return getContact(friend.getRefKey(), contentResolver);
-				}
+		FriendRegistry friends = getFriendRegistry();
+		String friendId = friends != null ? friends.findRefKeyByAddress(sipUri) : null;
+		if (mAddressIndex.isBuilt()) {
+			String id = friendId;
+			if (id == null) {
+				id = mAddressIndex.findContactId(sipUri, userName);
 			}
+			return id != null ? getContact(id, contentResolver) : null;
+		}
+
+		if (friendId != null) {
+			return getContact(friendId, contentResolver);
 		}
 
 		//Find Sip address
@@ -388,10 +602,10 @@ public class ContactsManager {
 		}
 
 		//Find number
-		Uri lookupUri = Uri.withAppendedPath(android.provider.ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(address.getUserName()));
+		Uri lookupUri = Uri.withAppendedPath(android.provider.ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(userName));
 		projection = new String[] {ContactsContract.PhoneLookup._ID,ContactsContract.PhoneLookup.NUMBER,ContactsContract.PhoneLookup.DISPLAY_NAME };
 		Cursor c = contentResolver.query(lookupUri, projection, null, null, null);
-		contact = checkPhoneQueryResult(contentResolver, c, ContactsContract.PhoneLookup.NUMBER, ContactsContract.PhoneLookup._ID, address.getUserName());
+		contact = checkPhoneQueryResult(contentResolver, c, ContactsContract.PhoneLookup.NUMBER, ContactsContract.PhoneLookup._ID, userName);
 
 		if (contact != null) {
 			return contact;
@@ -401,21 +615,8 @@ public class ContactsManager {
 	}
 
 	public void removeContactFromLists(ContentResolver contentResolver, Contact contact) {
-		for (Contact c : contactList) {
-			if (c != null && c.getID().equals(contact.getID())) {
-				contactList.remove(c);
-				contactCursor = Compatibility.getContactsCursor(contentResolver,getContactsId());
-				break;
-			}
-		}
-
-		for (Contact c : sipContactList) {
-			if (c != null && c.getID().equals(contact.getID())) {
-				sipContactList.remove(c);
-				sipContactCursor = Compatibility.getSIPContactsCursor(contentResolver,getContactsId());
-				break;
-			}
-		}
+		// Contacts are only materialized for displayed rows, the cursors are all there is to update
+		prepareContactsInBackground();
 	}
 
 	public boolean isContactHasAddress(Contact contact, String address){
@@ -466,124 +667,613 @@ public class ContactsManager {
 	}
 
 	//Migrate old IM contacts into SIP addresses or linphoneFriends
+	/**
+	 * Migrates on the loader thread, a chunk of contacts at a time, and marks the migration done once finished.
+	 * Contacts are processed by increasing id and a checkpoint is saved after each chunk, so a migration interrupted
+	 * by the app being killed resumes where it stopped.
+	 */
 	public void migrateContacts() {
-		Cursor oldContacts =  Compatibility.getImContactsCursor(contentResolver);
-		ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
-
-		if(oldContacts != null){
-			for (int i = 0; i < oldContacts.getCount(); i++) {
-				Contact contact = Compatibility.getContact(contentResolver, oldContacts, i);
-				for (String address : Compatibility.extractContactImAddresses(contact.getID(), contentResolver)) {
-					if (LinphoneUtils.isSipAddress(address)) {
-						if (address.startsWith("sip:")) {
-							address = address.substring(4);
+		getLoadHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				if (doMigrateContacts()) {
+					runOnCoreThread(new Runnable() {
+						@Override
+						public void run() {
+							LinphonePreferences.instance().contactsMigrationDone();
 						}
+					});
+				}
+			}
+		});
+	}
 
-						//Add new sip address
-						Compatibility.addSipAddressToContact(context, ops, address, findRawContactID(contentResolver, contact.getID()));
-						try {
-							contentResolver.applyBatch(ContactsContract.AUTHORITY, ops);
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
+	private boolean doMigrateContacts() {
+		if (!Version.sdkAboveOrEqual(Version.API09_GINGERBREAD_23)) {
+			// No SIP address field before Gingerbread, IM addresses are where SIP addresses go
+			return true;
+		}
+
+		final int[] checkpoint = new int[1];
+		runOnCoreThread(new Runnable() {
+			@Override
+			public void run() {
+				checkpoint[0] = LinphonePreferences.instance().getContactsMigrationCheckpoint();
+			}
+		});
+		// A contact has a row per IM address
+		Set<Integer> uniqueIds = new HashSet<Integer>();
+		Cursor oldContacts = Compatibility.getImContactsCursor(contentResolver);
+		if (oldContacts == null) return true;
+		try {
+			int idColumn = oldContacts.getColumnIndex(ContactsContract.Data.CONTACT_ID);
+			while (oldContacts.moveToNext()) {
+				int id = oldContacts.getInt(idColumn);
+				if (id > checkpoint[0]) {
+					uniqueIds.add(id);
+				}
+			}
+		} finally {
+			oldContacts.close();
+		}
+		List<Integer> ids = new ArrayList<Integer>(uniqueIds);
+		Collections.sort(ids);
+
+		long start = SystemClock.uptimeMillis();
+		ContactDataLoader loader = new ContactDataLoader(contentResolver);
+		BatchPipeline<ContentProviderOperation> pipeline = createContactsPipeline();
+		int failed = 0;
+		for (int i = 0; i < ids.size(); i += MIGRATION_CHUNK_SIZE) {
+			List<String> chunk = new ArrayList<String>();
+			for (Integer id : ids.subList(i, Math.min(i + MIGRATION_CHUNK_SIZE, ids.size()))) {
+				chunk.add(String.valueOf(id));
+			}
+			failed += migrateContacts(loader, pipeline, chunk);
+
+			// Only move forward while everything before went fine, failed contacts are tried again next time
+			if (failed == 0) {
+				final int lastId = ids.get(Math.min(i + MIGRATION_CHUNK_SIZE, ids.size()) - 1);
+				runOnCoreThread(new Runnable() {
+					@Override
+					public void run() {
+						LinphonePreferences.instance().setContactsMigrationCheckpoint(lastId);
+					}
+				});
+			}
+		}
 
-						ops.clear();
+		Log.i("Contacts migration: " + ids.size() + " contacts after checkpoint " + checkpoint[0] + " in " + (SystemClock.uptimeMillis() - start)
+				+ " ms and " + loader.getQueryCount() + " queries, " + pipeline.getStats());
+		return failed == 0;
+	}
 
-						contact.refresh(contentResolver);
+	/**
+	 * Adds the SIP addresses of a chunk of contacts in batches, then checks in bulk which ones made it:
+	 * their IM address is removed, the others are added as friends first.
+	 * @return the number of contacts whose operations failed
+	 */
+	private int migrateContacts(ContactDataLoader loader, BatchPipeline<ContentProviderOperation> pipeline, List<String> contactIds) {
+		final Map<String, List<String>> imAddresses = loader.loadImSipAddresses(contactIds);
+		ContactData.Collector before = loader.load(imAddresses.keySet(), true);
+
+		int failed = 0;
+		for (Map.Entry<String, List<String>> entry : imAddresses.entrySet()) {
+			ContactData data = before.get(entry.getKey());
+			if (data == null || data.getRawContactId() == null) continue;
+
+			final List<String> newAddresses = new ArrayList<String>();
+			for (String address : entry.getValue()) {
+				String sipAddress = getMigratedAddress(address);
+				// Already there if a previous migration was interrupted
+				if (sipAddress != null && !data.getSipAddresses().contains(sipAddress) && !newAddresses.contains(sipAddress)) {
+					newAddresses.add(sipAddress);
+				}
+			}
+			if (newAddresses.isEmpty()) continue;
 
-						//If address sip is correctly add, remove the im address
-						if(contact.getNumbersOrAddresses().contains(address)){
-							Compatibility.deleteImAddressFromContact(ops, address, contact.getID());
-							try {
-								contentResolver.applyBatch(ContactsContract.AUTHORITY, ops);
-							} catch (Exception e) {
-								e.printStackTrace();
-							}
-							ops.clear();
-						} else {
-							//Add linphone friend instead
-							if(createNewFriend(contact, address)) {
-								contact.refresh(contentResolver);
-
-								//Remove IM address
-								Compatibility.deleteImAddressFromContact(ops, address, contact.getID());
-								try {
-									contentResolver.applyBatch(ContactsContract.AUTHORITY, ops);
-								} catch (Exception e) {
-									e.printStackTrace();
+			final String contactId = data.getID(), rawContactId = data.getRawContactId();
+			pipeline.add(new BatchPipeline.Group<ContentProviderOperation>() {
+				@Override
+				public String getKey() {
+					return contactId;
+				}
 
-								}
-							}
+				@Override
+				public void build(List<ContentProviderOperation> ops, boolean yieldAllowed) {
+					ArrayList<ContentProviderOperation> groupOps = new ArrayList<ContentProviderOperation>();
+					for (String sipAddress : newAddresses) {
+						Compatibility.addSipAddressToContact(context, groupOps, sipAddress, rawContactId);
+					}
+					ops.addAll(groupOps);
+				}
+			});
+		}
+		failed += pipeline.flush();
+
+		//If address sip is correctly add, remove the im address, otherwise add linphone friend instead
+		final ContactData.Collector after = loader.load(imAddresses.keySet(), false);
+		final Map<String, List<String>> removableAddresses = new HashMap<String, List<String>>();
+		runOnCoreThread(new Runnable() {
+			@Override
+			public void run() {
+				for (Map.Entry<String, List<String>> entry : imAddresses.entrySet()) {
+					ContactData data = after.get(entry.getKey());
+					if (data == null) continue;
+
+					List<String> removable = new ArrayList<String>();
+					for (String address : entry.getValue()) {
+						String sipAddress = getMigratedAddress(address);
+						if (sipAddress == null) continue;
+
+						if (data.getSipAddresses().contains(sipAddress)
+								|| createNewFriend(new Contact(data.getID(), data.getName()), sipAddress)) {
+							removable.add(address);
 						}
 					}
-					ops.clear();
+					removableAddresses.put(data.getID(), removable);
 				}
 			}
-			oldContacts.close();
+		});
+
+		for (final Map.Entry<String, List<String>> entry : removableAddresses.entrySet()) {
+			if (entry.getValue().isEmpty()) continue;
+
+			pipeline.add(new BatchPipeline.Group<ContentProviderOperation>() {
+				@Override
+				public String getKey() {
+					return entry.getKey();
+				}
+
+				@Override
+				public void build(List<ContentProviderOperation> ops, boolean yieldAllowed) {
+					ArrayList<ContentProviderOperation> groupOps = new ArrayList<ContentProviderOperation>();
+					for (String address : entry.getValue()) {
+						Compatibility.deleteImAddressFromContact(groupOps, address, entry.getKey());
+					}
+					ops.addAll(groupOps);
+				}
+			});
 		}
+		failed += pipeline.flush();
+		return failed;
+	}
+
+	/**
+	 * @return the address to store in the SIP address field for an IM address, null if it isn't a SIP address
+	 */
+	private static String getMigratedAddress(String imAddress) {
+		String address = "sip:" + imAddress;
+		if (!LinphoneUtils.isSipAddress(address)) return null;
+		return address.substring(4);
+	}
 
+	private BatchPipeline<ContentProviderOperation> createContactsPipeline() {
+		BatchPipeline<ContentProviderOperation> pipeline = new BatchPipeline<ContentProviderOperation>(new BatchPipeline.Sink<ContentProviderOperation>() {
+			@Override
+			public void apply(List<ContentProviderOperation> ops) throws Exception {
+				contentResolver.applyBatch(ContactsContract.AUTHORITY, new ArrayList<ContentProviderOperation>(ops));
+			}
+		});
+		pipeline.setPauseBetweenBatches(BATCH_PAUSE_MS);
+		pipeline.setListener(new BatchPipeline.Listener() {
+			@Override
+			public void onGroupApplied(String key) {
+			}
+
+			@Override
+			public void onGroupFailed(String key, Exception e) {
+				Log.w(e, "Contacts: operations failed for " + key);
+			}
+		});
+		return pipeline;
 	}
 
-	public synchronized void prepareContactsInBackground() {
-		if (contactCursor != null) {
-			contactCursor.close();
+	private void runOnCoreThread(Runnable task) {
+		if (!LinphoneManager.isInstanciated()) return;
+		try {
+			final Runnable r = task;
+			LinphoneManager.getInstance().getCoreExecutor().call(new Callable<Void>() {
+				@Override
+				public Void call() {
+					r.run();
+					return null;
+				}
+			});
+		} catch (Exception e) {
+			Log.e(e, "Contacts: cannot run on the core thread");
 		}
-		if (sipContactCursor != null) {
-			sipContactCursor.close();
+	}
+
+	/**
+	 * Runs on the index thread. The first run reads every phone number and SIP address, later runs only
+	 * re-read the contacts whose raw contacts version changed.
+	 */
+	private void updateAddressIndex() {
+		ContentResolver resolver = contentResolver;
+		if (resolver == null) return;
+
+		long start = System.currentTimeMillis();
+		boolean firstBuild = !mAddressIndex.isBuilt();
+		if (firstBuild && getFriendRegistry() == null) {
+			// Friends are needed to resolve addresses the same way as before, wait for the core
+			mIndexHandler.postDelayed(mUpdateAddressIndex, ADDRESS_INDEX_UPDATE_DELAY_MS);
+			return;
 		}
 
-		contactCursor = Compatibility.getContactsCursor(contentResolver, getContactsId());
-		sipContactCursor = Compatibility.getSIPContactsCursor(contentResolver, getContactsId());
+		Map<String, Long> rawVersions = new HashMap<String, Long>();
+		Map<String, String> rawContacts = new HashMap<String, String>();
+		String[] projection = new String[] { ContactsContract.RawContacts._ID, ContactsContract.RawContacts.CONTACT_ID, ContactsContract.RawContacts.VERSION };
+		Cursor c = resolver.query(ContactsContract.RawContacts.CONTENT_URI, projection, ContactsContract.RawContacts.DELETED + " = 0", null, null);
+		if (c == null) return;
+		try {
+			while (c.moveToNext()) {
+				String rawId = c.getString(0);
+				rawVersions.put(rawId, c.getLong(2));
+				if (!c.isNull(1)) {
+					rawContacts.put(rawId, c.getString(1));
+				}
+			}
+		} finally {
+			c.close();
+		}
+
+		Set<String> changed = mAddressIndex.updateVersions(rawVersions, rawContacts);
+		if (!changed.isEmpty()) {
+			Map<String, List<String>> numbers = new HashMap<String, List<String>>();
+			Map<String, List<String>> sipAddresses = new HashMap<String, List<String>>();
+			List<String> ids = new ArrayList<String>(changed);
+			if (firstBuild) {
+				readAddresses(resolver, null, numbers, sipAddresses);
+			} else {
+				for (int i = 0; i < ids.size(); i += MAX_SELECTION_ARGS) {
+					readAddresses(resolver, ids.subList(i, Math.min(i + MAX_SELECTION_ARGS, ids.size())), numbers, sipAddresses);
+				}
+			}
 
-		Thread sipContactsHandler = new Thread(new Runnable() {
+			if (firstBuild && LinphoneManager.isInstanciated()) {
+				// The whole address book: the cache grows to keep all its numbers
+				int count = 0;
+				for (List<String> contactNumbers : numbers.values()) {
+					count += contactNumbers.size();
+				}
+				LinphoneManager.getInstance().getPhoneNumberNormalizer().ensureCapacity(count);
+			}
+			// By batches of contacts, each normalized in short core thread tasks that other core work runs between
+			for (int i = 0; i < ids.size(); i += INDEX_BATCH) {
+				List<String> batch = ids.subList(i, Math.min(i + INDEX_BATCH, ids.size()));
+				List<List<String>> batchNumbers = new ArrayList<List<String>>(batch.size());
+				for (String id : batch) {
+					List<String> contactNumbers = numbers.get(id);
+					if (contactNumbers != null) {
+						batchNumbers.add(contactNumbers);
+					}
+				}
+
+				final Map<String, String> normalized = normalizePhoneNumbers(batchNumbers);
+				mAddressIndex.setNormalizer(new ContactAddressIndex.Normalizer() {
+					@Override
+					public String normalize(String number) {
+						return normalized.get(number);
+					}
+				});
+				for (String id : batch) {
+					mAddressIndex.putContact(id, numbers.get(id), sipAddresses.get(id));
+				}
+				mAddressIndex.setNormalizer(null);
+			}
+		}
+		mAddressIndex.setBuilt(true);
+
+		Log.i("Contact address index: " + changed.size() + " contacts updated in " + (System.currentTimeMillis() - start)
+				+ " ms, " + mAddressIndex.size() + " contacts indexed");
+	}
+
+	private void readAddresses(ContentResolver resolver, List<String> contactIds, Map<String, List<String>> numbers, Map<String, List<String>> sipAddresses) {
+		StringBuilder selection = new StringBuilder()
+				.append(ContactsContract.Data.MIMETYPE).append(" IN (?, ?)");
+		List<String> args = new ArrayList<String>();
+		args.add(ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE);
+		args.add(ContactsContract.CommonDataKinds.SipAddress.CONTENT_ITEM_TYPE);
+		if (contactIds != null) {
+			selection.append(" AND ").append(ContactsContract.Data.CONTACT_ID).append(" IN (");
+			for (int i = 0; i < contactIds.size(); i++) {
+				selection.append(i == 0 ? "?" : ", ?");
+				args.add(contactIds.get(i));
+			}
+			selection.append(")");
+		}
+
+		String[] projection = new String[] { ContactsContract.Data.CONTACT_ID, ContactsContract.Data.MIMETYPE, ContactsContract.Data.DATA1 };
+		Cursor c = resolver.query(ContactsContract.Data.CONTENT_URI, projection, selection.toString(), args.toArray(new String[args.size()]), null);
+		if (c == null) return;
+		try {
+			while (c.moveToNext()) {
+				String id = c.getString(0);
+				String value = c.getString(2);
+				if (value == null) continue;
+
+				boolean isSip = ContactsContract.CommonDataKinds.SipAddress.CONTENT_ITEM_TYPE.equals(c.getString(1));
+				Map<String, List<String>> map = isSip ? sipAddresses : numbers;
+				List<String> values = map.get(id);
+				if (values == null) {
+					values = new ArrayList<String>(1);
+					map.put(id, values);
+				}
+				values.add(value);
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Normalizes the numbers with the default proxy config, those not already cached by batches on the core thread.
+	 */
+	private Map<String, String> normalizePhoneNumbers(Collection<List<String>> numbers) {
+		if (!LinphoneManager.isInstanciated()) return new HashMap<String, String>();
+
+		List<String> all = new ArrayList<String>();
+		for (List<String> contactNumbers : numbers) {
+			all.addAll(contactNumbers);
+		}
+		return LinphoneManager.getInstance().getPhoneNumberNormalizer().normalize(all);
+	}
+
+	/**
+	 * Queries the contacts cursors on the loader thread and publishes them on the UI thread, where the contacts list
+	 * is refreshed. Contacts themselves are only built for the rows being displayed, see {@link #createContactList(Cursor)}.
+	 * Linphone tags are then maintained in the background.
+	 */
+	public void prepareContactsInBackground() {
+		final int generation;
+		final long start = SystemClock.uptimeMillis();
+		synchronized (this) {
+			generation = ++mPrepareGeneration;
+			mPrepareStartTime = start;
+			mFirstRowReported = false;
+		}
+
+		getLoadHandler().post(new Runnable() {
 			@Override
 			public void run() {
-				if(sipContactCursor != null && sipContactCursor.getCount() > 0) {
-					for (int i = 0; i < sipContactCursor.getCount(); i++) {
-						Contact contact = Compatibility.getContact(contentResolver, sipContactCursor, i);
-						if (contact == null)
-							continue;
-
-						contact.refresh(contentResolver);
-						//Add tag to Linphone contact if it not existed
-						if (LinphoneActivity.isInstanciated() && LinphoneActivity.instance().getResources().getBoolean(R.bool.use_linphone_tag)) {
-							if (!isContactHasLinphoneTag(contact, contentResolver)) {
-								Compatibility.createLinphoneContactTag(context, contentResolver, contact,
-										findRawContactID(contentResolver, String.valueOf(contact.getID())));
-							}
-						}
+				synchronized (ContactsManager.this) {
+					if (generation != mPrepareGeneration) return;
+				}
 
-						sipContactList.add(contact);
+				List<String> friendsContactsId = getContactsId();
+				final Cursor all = Compatibility.getContactsCursor(contentResolver, friendsContactsId);
+				final Cursor sip = Compatibility.getSIPContactsCursor(contentResolver, friendsContactsId);
+				UIThreadDispatcher.dispatch(new Runnable() {
+					@Override
+					public void run() {
+						publishContacts(generation, all, sip, start);
 					}
+				});
+
+				boolean useLinphoneTag = LinphoneActivity.isInstanciated() && LinphoneActivity.instance().getResources().getBoolean(R.bool.use_linphone_tag);
+				ContactDataLoader loader = new ContactDataLoader(contentResolver);
+				ContactData.Collector data = loadContactData(loader, null, useLinphoneTag);
+				buildSearchIndexes(generation, all, sip, data);
+
+				if (useLinphoneTag) {
+					updateLinphoneTags(sip, all, loader, data);
 				}
-				if (contactCursor != null) {
-					for (int i = 0; i < contactCursor.getCount(); i++) {
-						Contact contact = Compatibility.getContact(contentResolver, contactCursor, i);
-						if (contact == null)
-							continue;
-
-						//Remove linphone contact tag if the contact has no sip address
-						if (LinphoneActivity.isInstanciated() && LinphoneActivity.instance().getResources().getBoolean(R.bool.use_linphone_tag)) {
-							if (removeContactTagIsNeeded(contact) && findRawLinphoneContactID(contact.getID()) != null) {
-								removeLinphoneContactTag(contact);
-							}
+			}
+		});
+	}
+
+	/**
+	 * Runs on the loader thread, indexes are published on the UI thread.
+	 */
+	private void buildSearchIndexes(final int generation, final Cursor all, final Cursor sip, ContactData.Collector data) {
+		long start = SystemClock.uptimeMillis();
+		final ContactSearchIndex allIndex = buildSearchIndex(all, data);
+		final ContactSearchIndex sipIndex = buildSearchIndex(sip, data);
+		if (allIndex == null || sipIndex == null) return;
+
+		Log.i("Contacts: search indexes built in " + (SystemClock.uptimeMillis() - start) + " ms");
+		UIThreadDispatcher.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (ContactsManager.this) {
+					if (generation != mPrepareGeneration) return;
+					mSearchIndexes.put(all, allIndex);
+					mSearchIndexes.put(sip, sipIndex);
+				}
+			}
+		});
+	}
+
+	private ContactSearchIndex buildSearchIndex(Cursor cursor, ContactData.Collector data) {
+		if (cursor == null) return null;
+
+		ContactSearchIndex.Builder builder = new ContactSearchIndex.Builder();
+		synchronized (cursor) {
+			if (cursor.isClosed()) return null;
+			int idColumn = cursor.getColumnIndex(ContactsContract.Data.CONTACT_ID);
+			int nameColumn = Compatibility.getCursorDisplayNameColumnIndex(cursor);
+			for (int i = 0; i < cursor.getCount(); i++) {
+				cursor.moveToPosition(i);
+				ContactData contactData = data.get(cursor.getString(idColumn));
+				builder.add(cursor.getString(nameColumn), contactData != null ? contactData.getNumbersOrAddresses() : null);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return the search index of a cursor returned by {@link #getAllContactsCursor()} or {@link #getSIPContactsCursor()},
+	 * null if it isn't built yet
+	 */
+	public synchronized ContactSearchIndex getSearchIndex(Cursor cursor) {
+		return mSearchIndexes.get(cursor);
+	}
+
+	private synchronized Handler getLoadHandler() {
+		if (mLoadHandler == null) {
+			HandlerThread thread = new HandlerThread("Contacts loader");
+			thread.start();
+			mLoadHandler = new Handler(thread.getLooper());
+		}
+		return mLoadHandler;
+	}
+
+	private void publishContacts(int generation, Cursor all, Cursor sip, long start) {
+		Cursor oldAll, oldSip;
+		synchronized (this) {
+			if (generation != mPrepareGeneration) {
+				closeCursor(all);
+				closeCursor(sip);
+				return;
+			}
+			oldAll = contactCursor;
+			oldSip = sipContactCursor;
+			contactCursor = all;
+			sipContactCursor = sip;
+			mSearchIndexes.clear();
+		}
+
+		Log.i("Contacts: " + (all != null ? all.getCount() : 0) + " contacts (" + (sip != null ? sip.getCount() : 0)
+				+ " with a SIP address) ready in " + (SystemClock.uptimeMillis() - start) + " ms");
+		if (ContactsFragment.isInstanciated()) {
+			ContactsFragment.instance().invalidate();
+		}
+		closeCursor(oldAll);
+		closeCursor(oldSip);
+	}
+
+	/**
+	 * Runs on the loader thread, with the data of every contact read in bulk instead of several queries per contact.
+	 * Stops as soon as the cursors are replaced by newer ones.
+	 */
+	private void updateLinphoneTags(Cursor sip, Cursor all, ContactDataLoader loader, ContactData.Collector data) {
+		long start = SystemClock.uptimeMillis();
+
+		BatchPipeline<ContentProviderOperation> pipeline = createContactsPipeline();
+		Set<String> sipContactIds = new HashSet<String>();
+		int added = 0, removed = 0;
+		if (sip != null) {
+			for (int i = 0; i < sip.getCount(); i++) {
+				String id = readContactId(sip, i);
+				if (id == null) {
+					if (sip.isClosed()) {
+						pipeline.flush();
+						return;
+					}
+					continue;
+				}
+
+				sipContactIds.add(id);
+				ContactData contactData = data.get(id);
+				//Add tag to Linphone contact if it not existed
+				if (contactData != null && !contactData.hasLinphoneTag()) {
+					final Contact contact = new Contact(id, contactData.getName());
+					contact.refresh(contactData);
+					final String rawContactId = contactData.getRawContactId();
+					pipeline.add(new BatchPipeline.Group<ContentProviderOperation>() {
+						@Override
+						public String getKey() {
+							return contact.getID();
 						}
-						for (Contact c : sipContactList) {
-							if (c != null && c.getID().equals(contact.getID())) {
-								contact = c;
-								break;
-							}
+
+						@Override
+						public void build(List<ContentProviderOperation> ops, boolean yieldAllowed) {
+							Compatibility.addLinphoneContactTagOperations(context, ops, contact, rawContactId, yieldAllowed);
 						}
-						contactList.add(contact);
+					});
+					added++;
+				}
+			}
+		}
+
+		if (all != null) {
+			// Contacts tagged without a SIP address, the core decides which ones only have phone numbers
+			final Map<String, ContactData> tagged = new HashMap<String, ContactData>();
+			for (int i = 0; i < all.getCount(); i++) {
+				String id = readContactId(all, i);
+				if (id == null) {
+					if (all.isClosed()) {
+						pipeline.flush();
+						return;
 					}
+					continue;
+				}
+
+				ContactData contactData = data.get(id);
+				if (contactData != null && !sipContactIds.contains(id) && contactData.getLinphoneRawContactId() != null) {
+					tagged.put(id, contactData);
 				}
 			}
-		});
 
-		contactList = new ArrayList<Contact>();
-		sipContactList = new ArrayList<Contact>();
+			Set<String> untag = new HashSet<String>();
+			if (!tagged.isEmpty() && LinphoneManager.isInstanciated()) {
+				try {
+					untag = LinphoneManager.getInstance().getCoreExecutor().call(new Callable<Set<String>>() {
+						@Override
+						public Set<String> call() {
+							Set<String> ids = new HashSet<String>();
+							LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
+							if (lc == null) return ids;
+							LinphoneProxyConfig lpc = lc.createProxyConfig();
+							for (Map.Entry<String, ContactData> entry : tagged.entrySet()) {
+								if (isOnlyPhoneNumbers(lpc, entry.getValue().getNumbersOrAddresses())) {
+									ids.add(entry.getKey());
+								}
+							}
+							return ids;
+						}
+					});
+				} catch (Exception e) {
+					Log.e(e, "Cannot check the contacts numbers");
+				}
+			}
+
+			//Remove linphone contact tag if the contact has no sip address
+			for (String id : untag) {
+				final String contactId = id, rawContactId = tagged.get(id).getLinphoneRawContactId();
+				pipeline.add(new BatchPipeline.Group<ContentProviderOperation>() {
+					@Override
+					public String getKey() {
+						return contactId;
+					}
+
+					@Override
+					public void build(List<ContentProviderOperation> ops, boolean yieldAllowed) {
+						ops.add(ContentProviderOperation.newDelete(ContactsContract.RawContacts.CONTENT_URI)
+								.withSelection(ContactsContract.RawContacts._ID + " = ?", new String[] { rawContactId })
+								.withYieldAllowed(yieldAllowed)
+								.build());
+					}
+				});
+				removed++;
+			}
+		}
+
+		pipeline.flush();
+
+		Log.i("Contacts: Linphone tags checked for " + data.size() + " contacts in " + loader.getQueryCount() + " queries and "
+				+ (SystemClock.uptimeMillis() - start) + " ms, " + added + " added, " + removed + " removed, " + pipeline.getStats());
+	}
 
-		sipContactsHandler.start();
+	private String readContactId(Cursor cursor, int position) {
+		synchronized (cursor) {
+			if (cursor.isClosed() || !cursor.moveToPosition(position)) return null;
+			return cursor.getString(cursor.getColumnIndex(ContactsContract.Data.CONTACT_ID));
+		}
+	}
+
+	/**
+	 * Reads the data of many contacts at once, see {@link ContactDataLoader}. Friends are attached on the core thread.
+	 * @param contactIds the contacts to read, null for every contact
+	 */
+	public ContactData.Collector loadContactData(Collection<String> contactIds, boolean withRawContacts) {
+		return loadContactData(new ContactDataLoader(contentResolver), contactIds, withRawContacts);
+	}
+
+	private ContactData.Collector loadContactData(ContactDataLoader loader, Collection<String> contactIds, boolean withRawContacts) {
+		ContactData.Collector data = loader.load(contactIds, withRawContacts);
+		ContactDataLoader.addFriends(data, getFriendRegistry());
+		return data;
 	}
 
 	public static String queryAddressOrNumber(ContentResolver resolver, Uri contactUri) {
@@ -614,24 +1304,4 @@ public class ContactsManager {
 		return null;
 	}
 
-	boolean isContactHasLinphoneTag(Contact contact, ContentResolver cr) {
-		String select = ContactsContract.Data.CONTACT_ID + " = ?";
-		String[] args = new String[] { contact.getID() };
-
-		String[] projection = new String[] {ContactsContract.Data.MIMETYPE };
-
-		Cursor cursor = cr.query(ContactsContract.Data.CONTENT_URI, projection, select, args, null);
-
-		if (cursor != null) {
-			while (cursor.moveToNext()) {
-				if(cursor.getString(cursor.getColumnIndex(ContactsContract.Data.MIMETYPE)).equals("vnd.android.cursor.item/org.linphone.profile")){
-					cursor.close();
-					return true;
-				}
-			}
-		}
-		cursor.close();
-		return false;
-	}
-
 }
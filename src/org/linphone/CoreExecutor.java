@@ -0,0 +1,170 @@
+/*
+CoreExecutor.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.linphone.mediastream.Log;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * Runs work that touches the LinphoneCore on the thread that owns it.<br />
+ * The core lives on a dedicated looper thread, so iterate() and the SIP/media bookkeeping it triggers
+ * don't compete with layout and input handling. Other threads go through it instead of calling the core directly.
+ *
+ * Also accounts for the time spent running core work on each thread, logged when the manager is destroyed.
+ */
+public class CoreExecutor {
+	private static final String THREAD_NAME = "Linphone core";
+
+	private final HandlerThread mThread;
+	private final Handler mHandler;
+	private long mMainThreadNanos, mCoreThreadNanos, mRuns;
+
+	private CoreExecutor(HandlerThread thread, Looper looper) {
+		mThread = thread;
+		mHandler = new Handler(looper);
+	}
+
+	public static CoreExecutor onMainThread() {
+		return new CoreExecutor(null, Looper.getMainLooper());
+	}
+
+	public static CoreExecutor onDedicatedThread() {
+		HandlerThread thread = new HandlerThread(THREAD_NAME);
+		thread.start();
+		return new CoreExecutor(thread, thread.getLooper());
+	}
+
+	public boolean isCoreThread() {
+		return Looper.myLooper() == mHandler.getLooper();
+	}
+
+	public Handler getHandler() {
+		return mHandler;
+	}
+
+	/**
+	 * Runs the task right away if called from the core thread, posts it otherwise.
+	 */
+	public void execute(final Runnable task) {
+		if (isCoreThread()) {
+			run(task);
+		} else {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					CoreExecutor.this.run(task);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Runs the task on the core thread and waits for its result.<br />
+	 * Must not be called while holding a lock the core thread callbacks may need.
+	 */
+	public <T> T call(final Callable<T> task) throws Exception {
+		if (isCoreThread()) {
+			long start = System.nanoTime();
+			try {
+				return task.call();
+			} finally {
+				account(System.nanoTime() - start);
+			}
+		}
+
+		final FutureTask<T> future = new FutureTask<T>(task);
+		boolean posted = mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				CoreExecutor.this.run(future);
+			}
+		});
+		if (!posted) {
+			throw new IllegalStateException("Core thread has been stopped");
+		}
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the task on the calling thread, which must be the core thread, and accounts for its duration.
+	 */
+	public void run(Runnable task) {
+		long start = System.nanoTime();
+		try {
+			task.run();
+		} finally {
+			account(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Runs the last task on the core thread, then lets the thread end. Does not wait for it.
+	 */
+	public void shutdown(final Runnable lastTask) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				if (lastTask != null) {
+					lastTask.run();
+				}
+				Log.i(getStats());
+				if (mThread != null) {
+					mThread.quit();
+				}
+			}
+		});
+	}
+
+	private synchronized void account(long nanos) {
+		mRuns++;
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			mMainThreadNanos += nanos;
+		} else {
+			mCoreThreadNanos += nanos;
+		}
+	}
+
+	public synchronized long getMainThreadMillis() {
+		return mMainThreadNanos / 1000000;
+	}
+
+	public synchronized long getCoreThreadMillis() {
+		return mCoreThreadNanos / 1000000;
+	}
+
+	public synchronized String getStats() {
+		return "Core executor: " + mRuns + " runs, " + getMainThreadMillis() + " ms on main thread, "
+				+ getCoreThreadMillis() + " ms on " + (mThread != null ? "core thread" : "no dedicated thread");
+	}
+}
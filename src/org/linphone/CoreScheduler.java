@@ -0,0 +1,194 @@
+/*
+CoreScheduler.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+/**
+ * Drives LinphoneCore.iterate() at an adaptive rate.<br />
+ * The core is iterated every {@link #FAST_INTERVAL_MS} while calls or SIP transactions are
+ * in flight, and for a short grace period after any call or registration state change.
+ * Once idle, the interval doubles on every tick up to {@link #IDLE_INTERVAL_MS}.
+ */
+public class CoreScheduler {
+	public static final long FAST_INTERVAL_MS = 20;
+	public static final long IDLE_INTERVAL_MS = 1000;
+	public static final long ACTIVITY_GRACE_MS = 3000;
+
+	public interface Host {
+		void iterate();
+		void postDelayed(Runnable r, long delayMs);
+		void removeCallbacks(Runnable r);
+		long uptimeMillis();
+	}
+
+	private final Host mHost;
+	private final long mFastInterval, mIdleInterval, mGracePeriod;
+	private boolean mRunning;
+	private boolean mBusy;
+	private long mInterval;
+	private long mNextTickTime;
+	private long mActiveUntil;
+
+	private long mTicks, mFastTicks, mIdleTicks, mEarlyWakeups;
+	private long mIterateTotalNanos, mIterateMaxNanos;
+	private long mStartTime;
+
+	private final Runnable mTick = new Runnable() {
+		@Override
+		public void run() {
+			tick();
+		}
+	};
+
+	public CoreScheduler(Host host) {
+		this(host, FAST_INTERVAL_MS, IDLE_INTERVAL_MS, ACTIVITY_GRACE_MS);
+	}
+
+	public CoreScheduler(Host host, long fastInterval, long idleInterval, long gracePeriod) {
+		mHost = host;
+		mFastInterval = fastInterval;
+		mIdleInterval = idleInterval;
+		mGracePeriod = gracePeriod;
+		mInterval = fastInterval;
+	}
+
+	public synchronized void start() {
+		if (mRunning) return;
+		mRunning = true;
+		mStartTime = mHost.uptimeMillis();
+		mActiveUntil = mStartTime + mGracePeriod;
+		mInterval = mFastInterval;
+		schedule(0);
+	}
+
+	public synchronized void stop() {
+		mRunning = false;
+		mHost.removeCallbacks(mTick);
+	}
+
+	public synchronized boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Calls or transactions are in flight: keep iterating at the fast rate until cleared.
+	 */
+	public synchronized void setBusy(boolean busy) {
+		mBusy = busy;
+		if (busy) {
+			notifyActivity();
+		}
+	}
+
+	public synchronized boolean isBusy() {
+		return mBusy;
+	}
+
+	/**
+	 * Something happened (state change, user action, push...): go back to the fast rate
+	 * for a while and iterate as soon as possible if the next tick was far away.
+	 */
+	public synchronized void notifyActivity() {
+		long now = mHost.uptimeMillis();
+		mActiveUntil = now + mGracePeriod;
+		mInterval = mFastInterval;
+		if (mRunning && mNextTickTime - now > mFastInterval) {
+			mEarlyWakeups++;
+			mHost.removeCallbacks(mTick);
+			schedule(0);
+		}
+	}
+
+	public synchronized long getCurrentInterval() {
+		return mInterval;
+	}
+
+	private void schedule(long delay) {
+		mNextTickTime = mHost.uptimeMillis() + delay;
+		mHost.postDelayed(mTick, delay);
+	}
+
+	private void tick() {
+		synchronized (this) {
+			if (!mRunning) return;
+		}
+
+		long start = System.nanoTime();
+		mHost.iterate();
+		long spent = System.nanoTime() - start;
+
+		synchronized (this) {
+			if (!mRunning) return;
+
+			mTicks++;
+			mIterateTotalNanos += spent;
+			if (spent > mIterateMaxNanos) mIterateMaxNanos = spent;
+
+			long now = mHost.uptimeMillis();
+			if (mBusy || now < mActiveUntil) {
+				mInterval = mFastInterval;
+				mFastTicks++;
+			} else {
+				mInterval = Math.min(mInterval * 2, mIdleInterval);
+				mIdleTicks++;
+			}
+			schedule(mInterval);
+		}
+	}
+
+	public synchronized Stats getStats() {
+		Stats s = new Stats();
+		s.ticks = mTicks;
+		s.fastTicks = mFastTicks;
+		s.idleTicks = mIdleTicks;
+		s.earlyWakeups = mEarlyWakeups;
+		s.iterateTotalNanos = mIterateTotalNanos;
+		s.iterateMaxNanos = mIterateMaxNanos;
+		s.uptimeMs = mHost.uptimeMillis() - mStartTime;
+		s.currentInterval = mInterval;
+		return s;
+	}
+
+	public synchronized void resetStats() {
+		mTicks = mFastTicks = mIdleTicks = mEarlyWakeups = 0;
+		mIterateTotalNanos = mIterateMaxNanos = 0;
+		mStartTime = mHost.uptimeMillis();
+	}
+
+	public static class Stats {
+		public long ticks, fastTicks, idleTicks, earlyWakeups;
+		public long iterateTotalNanos, iterateMaxNanos;
+		public long uptimeMs;
+		public long currentInterval;
+
+		public float getTicksPerSecond() {
+			return uptimeMs > 0 ? ticks * 1000f / uptimeMs : 0;
+		}
+
+		public long getAverageIterateMicros() {
+			return ticks > 0 ? iterateTotalNanos / ticks / 1000 : 0;
+		}
+
+		@Override
+		public String toString() {
+			return "Core scheduler: " + ticks + " ticks in " + uptimeMs + " ms (" + fastTicks + " fast, " + idleTicks + " idle, "
+					+ earlyWakeups + " early wakeups), " + getTicksPerSecond() + " ticks/s, iterate avg "
+					+ getAverageIterateMicros() + " us max " + (iterateMaxNanos / 1000) + " us, interval " + currentInterval + " ms";
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*
+CoreThreadProxy.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Confines the LinphoneCore, and the calls, addresses, proxy configs... it returns, to the core thread.<br />
+ * A method called from another thread runs on the core thread, the caller waiting for its result.
+ * Listeners are given the same wrapped objects, their callbacks can be forwarded to the UI thread.
+ */
+public class CoreThreadProxy implements InvocationHandler {
+	private static final String CORE_PACKAGE = "org.linphone.core";
+	// The same object is always wrapped by the same proxy, so that they can be compared with ==
+	private static final Map<Object, WeakReference<Object>> sProxies = new WeakHashMap<Object, WeakReference<Object>>();
+
+	private final CoreExecutor mExecutor;
+	private final Object mTarget;
+	private final boolean mListener, mCallbacksOnUiThread;
+	private volatile boolean mDetached;
+
+	private CoreThreadProxy(CoreExecutor executor, Object target, boolean listener, boolean callbacksOnUiThread) {
+		mExecutor = executor;
+		mTarget = target;
+		mListener = listener;
+		mCallbacksOnUiThread = callbacksOnUiThread;
+	}
+
+	/**
+	 * @return the object confined to the core thread, or the object itself if not from the core
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T wrap(CoreExecutor executor, T target) {
+		if (target == null || target instanceof Proxy) return target;
+		if (target instanceof Object[] && isCoreInterface(target.getClass().getComponentType())) {
+			int length = Array.getLength(target);
+			Object wrapped = Array.newInstance(target.getClass().getComponentType(), length);
+			for (int i = 0; i < length; i++) {
+				Array.set(wrapped, i, wrap(executor, Array.get(target, i)));
+			}
+			return (T) wrapped;
+		}
+
+		Class<?>[] interfaces = getCoreInterfaces(target.getClass());
+		if (interfaces.length == 0) return target;
+		synchronized (sProxies) {
+			WeakReference<Object> ref = sProxies.get(target);
+			Object proxy = ref != null ? ref.get() : null;
+			if (proxy == null) {
+				proxy = Proxy.newProxyInstance(target.getClass().getClassLoader(), interfaces,
+						new CoreThreadProxy(executor, target, false, false));
+				sProxies.put(target, new WeakReference<Object>(proxy));
+			}
+			return (T) proxy;
+		}
+	}
+
+	/**
+	 * Wraps a listener given to the core: its callbacks get confined objects and, if callbacksOnUiThread is set,
+	 * are forwarded to the UI thread. Only callbacks returning a value, such as fileTransferSend, stay on the core thread.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T listener(CoreExecutor executor, T listener, boolean callbacksOnUiThread) {
+		return (T) Proxy.newProxyInstance(listener.getClass().getClassLoader(), getCoreInterfaces(listener.getClass()),
+				new CoreThreadProxy(executor, listener, true, callbacksOnUiThread));
+	}
+
+	/**
+	 * Drops the callbacks of a wrapped listener still queued for the UI thread, so it is not called after being removed.
+	 */
+	public static void detach(Object listener) {
+		if (listener instanceof Proxy && Proxy.getInvocationHandler(listener) instanceof CoreThreadProxy) {
+			((CoreThreadProxy) Proxy.getInvocationHandler(listener)).mDetached = true;
+		}
+	}
+
+	private static Class<?>[] getCoreInterfaces(Class<?> type) {
+		Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			addCoreInterfaces(c.getInterfaces(), interfaces);
+		}
+		return interfaces.toArray(new Class<?>[interfaces.size()]);
+	}
+
+	private static void addCoreInterfaces(Class<?>[] candidates, Set<Class<?>> interfaces) {
+		for (Class<?> candidate : candidates) {
+			if (isCoreInterface(candidate)) {
+				interfaces.add(candidate);
+			}
+			addCoreInterfaces(candidate.getInterfaces(), interfaces);
+		}
+	}
+
+	private static boolean isCoreInterface(Class<?> type) {
+		return type.isInterface() && type.getName().startsWith(CORE_PACKAGE + ".");
+	}
+
+	private static Object unwrap(Object o) {
+		if (o instanceof Proxy && Proxy.getInvocationHandler(o) instanceof CoreThreadProxy) {
+			CoreThreadProxy handler = (CoreThreadProxy) Proxy.getInvocationHandler(o);
+			// Listeners are handed to the core wrapped
+			return handler.mListener ? o : handler.mTarget;
+		}
+		if (o instanceof Object[] && isCoreInterface(o.getClass().getComponentType())) {
+			Object[] array = (Object[]) o;
+			Object[] unwrapped = (Object[]) Array.newInstance(array.getClass().getComponentType(), array.length);
+			for (int i = 0; i < array.length; i++) {
+				unwrapped[i] = unwrap(array[i]);
+			}
+			return unwrapped;
+		}
+		return o;
+	}
+
+	@Override
+	public Object invoke(Object proxy, final Method method, Object[] args) throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			if (method.getName().equals("equals")) {
+				return mTarget.equals(unwrap(args[0]));
+			} else if (method.getName().equals("hashCode")) {
+				return mTarget.hashCode();
+			}
+		}
+
+		if (mListener) {
+			return invokeListener(method, args);
+		}
+
+		final Object[] targetArgs = new Object[args != null ? args.length : 0];
+		for (int i = 0; i < targetArgs.length; i++) {
+			targetArgs[i] = unwrap(args[i]);
+		}
+		Object result;
+		if (mExecutor.isCoreThread()) {
+			result = invokeTarget(method, targetArgs);
+		} else {
+			result = mExecutor.call(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					try {
+						return invokeTarget(method, targetArgs);
+					} catch (Exception e) {
+						throw e;
+					} catch (Throwable t) {
+						throw new RuntimeException(t);
+					}
+				}
+			});
+		}
+		return wrap(mExecutor, result);
+	}
+
+	private Object invokeListener(final Method method, Object[] args) throws Throwable {
+		final Object[] listenerArgs = new Object[args != null ? args.length : 0];
+		for (int i = 0; i < listenerArgs.length; i++) {
+			listenerArgs[i] = wrap(mExecutor, args[i]);
+		}
+		if (!mCallbacksOnUiThread || method.getReturnType() != void.class) {
+			return invokeTarget(method, listenerArgs);
+		}
+
+		UIThreadDispatcher.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				if (mDetached) return;
+				try {
+					invokeTarget(method, listenerArgs);
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Throwable t) {
+					throw new RuntimeException(t);
+				}
+			}
+		});
+		return null;
+	}
+
+	private Object invokeTarget(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(mTarget, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
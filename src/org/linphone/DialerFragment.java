@@ -147,6 +147,11 @@ public class DialerFragment extends Fragment {
 			shouldEmptyAddressField = true;
 		}
 		resetLayout(isCallTransferOngoing);
+
+		if (LinphoneManager.isInstanciated()) {
+			// Measures the link while the number is typed
+			LinphoneManager.getInstance().probeLink();
+		}
 	}
 	
 	public void resetLayout(boolean callTransfer) {
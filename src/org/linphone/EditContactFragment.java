@@ -1,6 +1,5 @@
 package org.linphone;
 
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import org.linphone.compatibility.Compatibility;
@@ -11,7 +10,6 @@ import android.annotation.SuppressLint;
 import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.database.Cursor;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.provider.ContactsContract;
 import android.support.v4.app.Fragment;
@@ -182,8 +180,7 @@ public class EditContactFragment extends Fragment {
 		
 		AvatarWithShadow contactPicture = (AvatarWithShadow) view.findViewById(R.id.contactPicture);
 		if (contact != null && contact.getPhotoUri() != null) {
-			InputStream input = Compatibility.getContactPictureInputStream(getActivity().getContentResolver(), contact.getID());
-			contactPicture.setImageBitmap(BitmapFactory.decodeStream(input));
+			ContactPhotoLoader.getInstance().load(contactPicture.getView(), contact.getID(), null, null, R.drawable.unknown_small);
         } else {
         	contactPicture.setImageResource(R.drawable.unknown_small);
         }
@@ -0,0 +1,203 @@
+/*
+FriendRegistry.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.linphone.core.LinphoneFriend;
+
+/**
+ * Java side mirror of the core's friend list, indexed by ref key (the contact id) and by SIP address.<br />
+ * The core's list is read once, then kept up to date as friends are added, changed or removed through
+ * the ContactsManager, so lookups no longer allocate a fresh JNI array and scan it.
+ *
+ * Ref keys and addresses are given by the caller when a friend is added and kept as Strings: reading
+ * the registry never calls into the core. Changes to the friends themselves are still made on the core thread
+ * by the caller. Thread safe.
+ */
+public class FriendRegistry {
+	private static class Entry {
+		final LinphoneFriend friend;
+		final String refKey;
+		String address;
+		String addressKey;
+
+		Entry(LinphoneFriend friend, String refKey, String address) {
+			this.friend = friend;
+			this.refKey = refKey;
+			setAddress(address);
+		}
+
+		void setAddress(String address) {
+			this.address = address;
+			this.addressKey = ContactAddressIndex.sipKey(address);
+		}
+	}
+
+	private final Map<LinphoneFriend, Entry> mEntries = new LinkedHashMap<LinphoneFriend, Entry>();
+	private final Map<String, List<Entry>> mByRefKey = new HashMap<String, List<Entry>>();
+	private final Map<String, Entry> mByAddress = new HashMap<String, Entry>();
+	private Object mSource;
+	private LinphoneFriend[] mSnapshot;
+
+	/**
+	 * @return true if the registry mirrors the friends of this core
+	 */
+	public synchronized boolean isLoadedFrom(Object core) {
+		return core != null && mSource == core;
+	}
+
+	/**
+	 * Forgets the friends of the previous core, the registry is then filled with {@link #add} for the new one.
+	 */
+	public synchronized void reset(Object core) {
+		mEntries.clear();
+		mByRefKey.clear();
+		mByAddress.clear();
+		mSnapshot = null;
+		mSource = core;
+	}
+
+	public synchronized void add(LinphoneFriend friend, String refKey, String address) {
+		if (friend == null) return;
+		remove(friend);
+
+		Entry entry = new Entry(friend, refKey, address);
+		mEntries.put(friend, entry);
+		if (refKey != null) {
+			List<Entry> entries = mByRefKey.get(refKey);
+			if (entries == null) {
+				entries = new ArrayList<Entry>(1);
+				mByRefKey.put(refKey, entries);
+			}
+			entries.add(entry);
+		}
+		indexAddress(entry);
+		mSnapshot = null;
+	}
+
+	public synchronized void remove(LinphoneFriend friend) {
+		Entry entry = mEntries.remove(friend);
+		if (entry == null) return;
+
+		if (entry.refKey != null) {
+			List<Entry> entries = mByRefKey.get(entry.refKey);
+			entries.remove(entry);
+			if (entries.isEmpty()) {
+				mByRefKey.remove(entry.refKey);
+			}
+		}
+		unindexAddress(entry);
+		mSnapshot = null;
+	}
+
+	public synchronized void setAddress(LinphoneFriend friend, String address) {
+		Entry entry = mEntries.get(friend);
+		if (entry == null) return;
+
+		unindexAddress(entry);
+		entry.setAddress(address);
+		indexAddress(entry);
+	}
+
+	public synchronized LinphoneFriend findByAddress(String sipAddress) {
+		Entry entry = mByAddress.get(ContactAddressIndex.sipKey(sipAddress));
+		return entry != null ? entry.friend : null;
+	}
+
+	/**
+	 * @return the ref key of the friend with this address, null if there is none
+	 */
+	public synchronized String findRefKeyByAddress(String sipAddress) {
+		Entry entry = mByAddress.get(ContactAddressIndex.sipKey(sipAddress));
+		return entry != null ? entry.refKey : null;
+	}
+
+	public synchronized List<LinphoneFriend> getFriends(String refKey) {
+		List<LinphoneFriend> friends = new ArrayList<LinphoneFriend>();
+		List<Entry> entries = mByRefKey.get(refKey);
+		if (entries != null) {
+			for (Entry entry : entries) {
+				friends.add(entry.friend);
+			}
+		}
+		return friends;
+	}
+
+	/**
+	 * @return the ref keys of every friend, without duplicates
+	 */
+	public synchronized List<String> getRefKeys() {
+		return new ArrayList<String>(mByRefKey.keySet());
+	}
+
+	/**
+	 * @return the addresses of every friend, by ref key
+	 */
+	public synchronized Map<String, List<String>> getAddresses() {
+		Map<String, List<String>> addresses = new HashMap<String, List<String>>();
+		for (Map.Entry<String, List<Entry>> refKey : mByRefKey.entrySet()) {
+			List<String> list = new ArrayList<String>(refKey.getValue().size());
+			for (Entry entry : refKey.getValue()) {
+				if (entry.address != null) {
+					list.add(entry.address);
+				}
+			}
+			addresses.put(refKey.getKey(), list);
+		}
+		return addresses;
+	}
+
+	/**
+	 * @return every friend, in the order they were added. The array is shared until the next change.
+	 */
+	public synchronized LinphoneFriend[] getFriendList() {
+		if (mSnapshot == null) {
+			mSnapshot = mEntries.keySet().toArray(new LinphoneFriend[mEntries.size()]);
+		}
+		return mSnapshot;
+	}
+
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	private void indexAddress(Entry entry) {
+		if (entry.addressKey != null && !mByAddress.containsKey(entry.addressKey)) {
+			mByAddress.put(entry.addressKey, entry);
+		}
+	}
+
+	private void unindexAddress(Entry entry) {
+		if (entry.addressKey == null || mByAddress.get(entry.addressKey) != entry) return;
+
+		mByAddress.remove(entry.addressKey);
+		// Another friend may share the address
+		for (Entry other : mEntries.values()) {
+			if (other != entry && entry.addressKey.equals(other.addressKey)) {
+				mByAddress.put(other.addressKey, other);
+				break;
+			}
+		}
+	}
+}
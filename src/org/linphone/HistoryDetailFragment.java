@@ -18,6 +18,8 @@ You should have received a copy of the GNU General Public License
 along with this program; if not, write to the Free Software
 Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
+import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 
@@ -26,6 +28,7 @@ import org.linphone.core.LinphoneCoreException;
 import org.linphone.core.LinphoneCoreFactory;
 import org.linphone.mediastream.Log;
 import org.linphone.ui.AvatarWithShadow;
+import org.linphone.ui.QualityGraphView;
 
 import android.annotation.SuppressLint;
 import android.net.Uri;
@@ -45,8 +48,10 @@ public class HistoryDetailFragment extends Fragment implements OnClickListener {
 	private ImageView dialBack, addToContacts;
 	private View view;
 	private AvatarWithShadow contactPicture;
-	private TextView contactName, contactAddress, callDirection, time, date;
+	private TextView contactName, contactAddress, callDirection, time, date, qualitySummary;
+	private QualityGraphView qualityGraph;
 	private String sipUri, displayName, pictureUri;
+	private String qualityCallDate;
 	
 	@Override
 	public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -79,6 +84,8 @@ public class HistoryDetailFragment extends Fragment implements OnClickListener {
 		
 		time = (TextView) view.findViewById(R.id.time);
 		date = (TextView) view.findViewById(R.id.date);
+		qualitySummary = (TextView) view.findViewById(R.id.qualitySummary);
+		qualityGraph = (QualityGraphView) view.findViewById(R.id.qualityGraph);
 		
 		displayHistory(status, callTime, callDate);
 		
@@ -105,6 +112,7 @@ public class HistoryDetailFragment extends Fragment implements OnClickListener {
 		
 		time.setText(callTime == null ? "" : callTime);
 		date.setText(timestampToHumanDate(callDate));
+		displayQuality(callDate);
 
 		LinphoneAddress lAddress;
 		try {
@@ -122,6 +130,44 @@ public class HistoryDetailFragment extends Fragment implements OnClickListener {
 	
 	}
 	
+	/**
+	 * Reads the quality recording of the call, if any, in the background and shows it when ready.
+	 */
+	private void displayQuality(final String callDate) {
+		qualityCallDate = callDate;
+		view.findViewById(R.id.qualityRow).setVisibility(View.GONE);
+		if (!getResources().getBoolean(R.bool.record_call_quality)) return;
+
+		final File file = CallQualityLog.getFile(new File(getActivity().getFilesDir(), CallQualityLog.DIRECTORY), Long.parseLong(callDate));
+		if (!file.exists()) return;
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				CallQualityLog.Recording recording = null;
+				try {
+					recording = CallQualityLog.Recording.read(file);
+				} catch (IOException e) {
+					Log.e(e, "Cannot read the quality of call ", callDate);
+				}
+				if (recording == null || recording.size() == 0) return;
+
+				final CallQualityLog.Recording loaded = recording;
+				UIThreadDispatcher.dispatch(new Runnable() {
+					@Override
+					public void run() {
+						// The fragment may have been closed or moved to another call meanwhile
+						if (!isAdded() || !callDate.equals(qualityCallDate)) return;
+						qualitySummary.setText(getString(R.string.history_detail_quality, loaded.getAverageQuality(),
+								loaded.getMinQuality(), loaded.getAverageLoss(), loaded.getAverageJitter()));
+						qualityGraph.setValues(loaded.getQualities(), 5);
+						view.findViewById(R.id.qualityRow).setVisibility(View.VISIBLE);
+					}
+				});
+			}
+		}, "Call quality reader").start();
+	}
+
 	public void changeDisplayedHistory(String sipUri, String displayName, String pictureUri, String status, String callTime, String callDate) {		
 		if (displayName == null && getResources().getBoolean(R.bool.only_display_username_if_unknown) && LinphoneUtils.isSipAddress(sipUri)) {
 			displayName = LinphoneUtils.getUsernameFromAddress(sipUri);
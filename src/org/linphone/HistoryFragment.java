@@ -18,20 +18,26 @@ along with this program; if not, write to the Free Software
 Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.linphone.core.CallDirection;
 import org.linphone.core.LinphoneAddress;
 import org.linphone.core.LinphoneCallLog;
 import org.linphone.core.LinphoneCallLog.CallStatus;
+import org.linphone.mediastream.Log;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
-import android.util.SparseArray;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.LayoutInflater;
@@ -56,7 +62,40 @@ public class HistoryFragment extends Fragment implements OnClickListener, OnChil
 	private LayoutInflater mInflater;
 	private TextView allCalls, missedCalls, edit, ok, deleteAll, noCallHistory, noMissedCallHistory;
 	private boolean onlyDisplayMissedCalls, isEditMode;
-	private SparseArray<List<LinphoneCallLog>> mLogs; 
+	private CallHistoryGrouper.Result<LinphoneCallLog> mLogs;
+	private volatile int mGrouping;
+	private int mDisplayedGrouping;
+	private CallHistoryAdapter mAdapter;
+	/** Names from the displayed grouping, to place new logs without looking their contact up again */
+	private final Map<LinphoneCallLog, String> mLogNames = new IdentityHashMap<LinphoneCallLog, String>();
+	private final Map<String, String> mAddressNames = new HashMap<String, String>();
+	/** Age rank of the displayed logs, the newest first: the snapshot index, then decreasing for the logs added on top */
+	private final Map<LinphoneCallLog, Integer> mLogOrder = new IdentityHashMap<LinphoneCallLog, Integer>();
+	private int mTopOrder;
+	private static final ExecutorService sGroupingExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "History grouping");
+		}
+	});
+	private boolean mGroupingScheduled;
+	private CallHistoryModel<LinphoneCallLog>.View mHistory;
+	private CallHistoryModel.Listener<LinphoneCallLog> mHistoryListener = new CallHistoryModel.Listener<LinphoneCallLog>() {
+		@Override
+		public void onHistoryChanged() {
+			scheduleGrouping();
+		}
+
+		@Override
+		public void onLogInserted(int position, LinphoneCallLog log) {
+			insertLog(log);
+		}
+
+		@Override
+		public void onLogRemoved(int position, LinphoneCallLog log) {
+			removeLog(log);
+		}
+	};
 	
 	@Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, 
@@ -68,6 +107,7 @@ public class HistoryFragment extends Fragment implements OnClickListener, OnChil
         noMissedCallHistory = (TextView) view.findViewById(R.id.noMissedCallHistory);
         
         historyList = (ExpandableListView) view.findViewById(R.id.historyList);
+        mAdapter = null;
         historyList.setOnChildClickListener(this);
         historyList.setOnGroupClickListener(this);
         
@@ -122,43 +162,197 @@ public class HistoryFragment extends Fragment implements OnClickListener, OnChil
 			}
 		}
 		
-		initLogsLists(Arrays.asList(LinphoneManager.getLc().getCallLogs()));
-		if (!hideHistoryListAndDisplayMessageIfEmpty()) {
-			historyList.setAdapter(new CallHistoryAdapter(getActivity().getApplicationContext()));
+		showLogs(onlyDisplayMissedCalls ? CallHistory.getInstance().getMissedLogs() : CallHistory.getInstance().getAllLogs());
+	}
+
+	@Override
+	public void onPause() {
+		if (mHistory != null) {
+			mHistory.removeListener(mHistoryListener);
 		}
-        expandAllGroups();
+		super.onPause();
 	}
-	
-	private void initLogsLists(List<LinphoneCallLog> logs) {
-		mLogs = new SparseArray<List<LinphoneCallLog>>(); 
-		String[] keys = new String[logs.size()];
-		for (LinphoneCallLog log : logs) {
-			String groupBy = getCorrespondentDisplayName(log);
-			int key = -1;
-			for (int k = 0; k < keys.length; k++) {
-				if (keys[k] == null || keys[k].equals(groupBy)) {
-					key = k;
-					keys[k] = groupBy;
-					break;
+
+	private void showLogs(CallHistoryModel<LinphoneCallLog>.View history) {
+		if (mHistory != null) {
+			mHistory.removeListener(mHistoryListener);
+		}
+		mHistory = history;
+		mHistory.addListener(mHistoryListener);
+		initLogsLists(mHistory.snapshot());
+	}
+
+	/**
+	 * Several changes in a row (a whole group deleted for instance) end up in a single grouping.
+	 */
+	private void scheduleGrouping() {
+		if (mGroupingScheduled) return;
+		mGroupingScheduled = true;
+		UIThreadDispatcher.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				mGroupingScheduled = false;
+				if (isAdded() && mHistory != null) {
+					initLogsLists(mHistory.snapshot());
 				}
 			}
-			
-			List<LinphoneCallLog> group = mLogs.get(key, new ArrayList<LinphoneCallLog>());
-			group.add(log);
-			if (group.size() == 1) {
-				mLogs.append(key, group);
+		});
+	}
+	
+	/**
+	 * Reads the remote addresses of the logs on the core thread, then groups them on the grouping thread,
+	 * contact lookups included, and displays them. Groupings superseded by a newer one are skipped or dropped.
+	 */
+	private void initLogsLists(final List<LinphoneCallLog> logsToGroup) {
+		final int grouping = ++mGrouping;
+		final DisplayNameResolver resolver = new DisplayNameResolver();
+		final CallHistoryGrouper<LinphoneCallLog> grouper = new CallHistoryGrouper<LinphoneCallLog>(resolver);
+		LinphoneManager.getInstance().getCoreExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				resolver.readAddresses(logsToGroup);
+				sGroupingExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (grouping != mGrouping) return;
+						final CallHistoryGrouper.Result<LinphoneCallLog> result = grouper.group(logsToGroup);
+						Log.d(result.toString());
+
+						UIThreadDispatcher.dispatch(new Runnable() {
+							@Override
+							public void run() {
+								if (grouping != mGrouping || !isAdded()) return;
+
+								mLogs = result;
+								mDisplayedGrouping = grouping;
+								mLogNames.clear();
+								mAddressNames.clear();
+								mLogOrder.clear();
+								mTopOrder = 0;
+								for (int i = 0; i < logsToGroup.size(); i++) {
+									mLogOrder.put(logsToGroup.get(i), i);
+								}
+								for (int i = 0; i < result.size(); i++) {
+									String name = result.names.get(i);
+									for (LinphoneCallLog log : result.groups.get(i)) {
+										mLogNames.put(log, name);
+										mAddressNames.put(resolver.getRemoteAddress(log), name);
+									}
+								}
+								displayLogs();
+							}
+						});
+					}
+				});
 			}
+		});
+	}
+
+	/**
+	 * Puts a new log on top of the group of its correspondent, which moves to the top.
+	 * Only a log from a correspondent not displayed yet needs a new grouping, for its contact lookup.
+	 */
+	private void insertLog(final LinphoneCallLog log) {
+		if (mLogs == null || mDisplayedGrouping != mGrouping) {
+			scheduleGrouping();
+			return;
 		}
+		final int grouping = mGrouping;
+		LinphoneManager.getInstance().getCoreExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				LinphoneAddress address = log.getDirection() == CallDirection.Incoming ? log.getFrom() : log.getTo();
+				final String sipUri = address.asStringUriOnly();
+				UIThreadDispatcher.dispatch(new Runnable() {
+					@Override
+					public void run() {
+						// A newer grouping already has the log
+						if (grouping != mGrouping || !isAdded()) return;
+
+						String name = mAddressNames.get(sipUri);
+						if (name == null) {
+							scheduleGrouping();
+							return;
+						}
+						int index = mLogs.names.indexOf(name);
+						List<LinphoneCallLog> group = new ArrayList<LinphoneCallLog>();
+						if (index >= 0) {
+							mLogs.names.remove(index);
+							group = mLogs.groups.remove(index);
+						}
+						group.add(0, log);
+						mLogs.names.add(0, name);
+						mLogs.groups.add(0, group);
+						mLogs.logs++;
+						mLogNames.put(log, name);
+						mLogOrder.put(log, --mTopOrder);
+						displayLogs();
+					}
+				});
+			}
+		});
 	}
-	
-	private void initMissedLogsLists(List<LinphoneCallLog> logs) {
-		List<LinphoneCallLog> missedLogs = new ArrayList<LinphoneCallLog>();
-		for (LinphoneCallLog log : logs) {
-			if (log.getDirection() == CallDirection.Incoming && log.getStatus() == CallStatus.Missed) {
-				missedLogs.add(log);
+
+	/**
+	 * Takes the log out of its group. The group goes away once empty, or moves down if it lost its newest log.
+	 */
+	private void removeLog(LinphoneCallLog log) {
+		String name = mLogNames.remove(log);
+		mLogOrder.remove(log);
+		int index = mLogs != null && name != null ? mLogs.names.indexOf(name) : -1;
+		if (mDisplayedGrouping != mGrouping || index < 0) {
+			scheduleGrouping();
+			return;
+		}
+		List<LinphoneCallLog> group = mLogs.groups.get(index);
+		int position = 0;
+		while (position < group.size() && group.get(position) != log) {
+			position++;
+		}
+		if (position == group.size()) return;
+		group.remove(position);
+		mLogs.logs--;
+
+		if (group.isEmpty() || position == 0) {
+			mLogs.names.remove(index);
+			mLogs.groups.remove(index);
+		}
+		if (!group.isEmpty() && position == 0) {
+			int newIndex = findGroupIndex(mLogOrder.get(group.get(0)));
+			mLogs.names.add(newIndex, name);
+			mLogs.groups.add(newIndex, group);
+		}
+		displayLogs();
+	}
+
+	/**
+	 * @return the index of the first group whose newest log is older than a log of that rank, by binary search
+	 */
+	private int findGroupIndex(int order) {
+		int low = 0, high = mLogs.groups.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mLogOrder.get(mLogs.groups.get(middle).get(0)) < order) {
+				low = middle + 1;
+			} else {
+				high = middle;
 			}
 		}
-		initLogsLists(missedLogs);
+		return low;
+	}
+
+	private void displayLogs() {
+		if (mLogs == null) return;
+
+		if (!hideHistoryListAndDisplayMessageIfEmpty()) {
+			if (mAdapter == null) {
+				mAdapter = new CallHistoryAdapter(getActivity().getApplicationContext());
+				historyList.setAdapter(mAdapter);
+			} else {
+				mAdapter.notifyDataSetChanged();
+			}
+			expandAllGroups();
+		}
 	}
 	
 	private void expandAllGroups() {
@@ -169,28 +363,42 @@ public class HistoryFragment extends Fragment implements OnClickListener, OnChil
 		}
 	}
 	
-	private String getCorrespondentDisplayName(LinphoneCallLog log) {
-		String displayName;
-		LinphoneAddress address;
-		if (log.getDirection() == CallDirection.Incoming) {
-			address = log.getFrom();
-		} else {
-			address = log.getTo();
+	/**
+	 * Created on the UI thread, filled on the core thread, used from the grouping thread: the logs are native
+	 * objects, only the copies of their addresses are read while grouping.
+	 */
+	private class DisplayNameResolver implements CallHistoryGrouper.Resolver<LinphoneCallLog> {
+		private final ContentResolver mContentResolver = getActivity().getContentResolver();
+		private final boolean mOnlyDisplayUsernameIfUnknown = getResources().getBoolean(R.bool.only_display_username_if_unknown);
+		private final Map<LinphoneCallLog, String[]> mAddresses = new IdentityHashMap<LinphoneCallLog, String[]>();
+
+		void readAddresses(List<LinphoneCallLog> logs) {
+			for (LinphoneCallLog log : logs) {
+				LinphoneAddress address = log.getDirection() == CallDirection.Incoming ? log.getFrom() : log.getTo();
+				mAddresses.put(log, new String[] { address.asStringUriOnly(), address.getUserName() });
+			}
 		}
-		
-		Contact contact = ContactsManager.getInstance().findContactWithAddress(getActivity().getContentResolver(), address);
-		String sipUri = address.asStringUriOnly();
-		if (contact == null) {
-			if (getResources().getBoolean(R.bool.only_display_username_if_unknown) && LinphoneUtils.isSipAddress(sipUri)) {
-				displayName = address.getUserName();
+
+		@Override
+		public String getRemoteAddress(LinphoneCallLog log) {
+			return mAddresses.get(log)[0];
+		}
+
+		@Override
+		public String getDisplayName(LinphoneCallLog log) {
+			String[] address = mAddresses.get(log);
+			String sipUri = address[0], userName = address[1];
+			Contact contact = ContactsManager.getInstance().findContactWithAddress(mContentResolver, sipUri, userName);
+			if (contact == null) {
+				if (mOnlyDisplayUsernameIfUnknown && LinphoneUtils.isSipAddress(sipUri)) {
+					return userName;
+				} else {
+					return sipUri;
+				}
 			} else {
-				displayName = sipUri;
+				return contact.getName();
 			}
-		} else {
-			displayName = contact.getName();
 		}
-		
-		return displayName;
 	}
 
 	@Override
@@ -207,15 +415,19 @@ public class HistoryFragment extends Fragment implements OnClickListener, OnChil
 			allCalls.setEnabled(false);
 			missedCalls.setEnabled(true);
 			onlyDisplayMissedCalls = false;
+			mAdapter = null;
 			
-			initLogsLists(Arrays.asList(LinphoneManager.getLc().getCallLogs()));
+			showLogs(CallHistory.getInstance().getAllLogs());
+			return;
 		} 
 		else if (id == R.id.missedCalls) {
 			allCalls.setEnabled(true);
 			missedCalls.setEnabled(false);
 			onlyDisplayMissedCalls = true;
+			mAdapter = null;
 			
-			initMissedLogsLists(Arrays.asList(LinphoneManager.getLc().getCallLogs()));
+			showLogs(CallHistory.getInstance().getMissedLogs());
+			return;
 		} 
 		else if (id == R.id.ok) {
 			edit.setVisibility(View.VISIBLE);
@@ -230,42 +442,26 @@ public class HistoryFragment extends Fragment implements OnClickListener, OnChil
 			isEditMode = true;
 		}
 		else if (id == R.id.deleteAll) {
-			LinphoneManager.getLc().clearCallLogs();
-			initLogsLists(new ArrayList<LinphoneCallLog>());
+			CallHistory.getInstance().clear();
+			return;
 		}
 		
-		if (!hideHistoryListAndDisplayMessageIfEmpty()) {
-			historyList.setAdapter(new CallHistoryAdapter(getActivity().getApplicationContext()));
-		}
-		expandAllGroups();
+		displayLogs();
 	}
 	
 	@Override
 	public boolean onGroupClick(ExpandableListView parent, View v, int groupPosition, long id) {
 		if (isEditMode) {
-			for (LinphoneCallLog log : mLogs.get(groupPosition)) {
-				LinphoneManager.getLc().removeCallLog(log);
-			}
-			
-			initLogsLists(Arrays.asList(LinphoneManager.getLc().getCallLogs()));
-			if (!hideHistoryListAndDisplayMessageIfEmpty()) {
-				historyList.setAdapter(new CallHistoryAdapter(getActivity().getApplicationContext()));
-			}
-	        expandAllGroups();
+			CallHistory.getInstance().removeAll(mLogs.groups.get(groupPosition));
 		}
 		return false;
 	}
 
 	@Override
 	public boolean onChildClick(ExpandableListView parent, View v, int groupPosition, int childPosition, long id) {
-		LinphoneCallLog log = mLogs.get(groupPosition).get(childPosition);
+		LinphoneCallLog log = mLogs.groups.get(groupPosition).get(childPosition);
 		if (isEditMode) {
-			LinphoneManager.getLc().removeCallLog(log);
-			initLogsLists(Arrays.asList(LinphoneManager.getLc().getCallLogs()));
-			if (!hideHistoryListAndDisplayMessageIfEmpty()) {
-				historyList.setAdapter(new CallHistoryAdapter(getActivity().getApplicationContext()));
-			}
-	        expandAllGroups();
+			CallHistory.getInstance().remove(log);
 		} else {
 			LinphoneAddress address;
 			if (log.getDirection() == CallDirection.Incoming) {
@@ -352,7 +548,7 @@ public class HistoryFragment extends Fragment implements OnClickListener, OnChil
 		
 		@Override
 		public Object getChild(int groupPosition, int childPosition) {
-			return mLogs.get(groupPosition).get(childPosition);
+			return mLogs.groups.get(groupPosition).get(childPosition);
 		}
 		
 		@Override
@@ -416,12 +612,12 @@ public class HistoryFragment extends Fragment implements OnClickListener, OnChil
 		
 		@Override
 		public int getChildrenCount(int groupPosition) {
-			return mLogs.get(groupPosition).size();
+			return mLogs.groups.get(groupPosition).size();
 		}
 		
 		@Override
 		public Object getGroup(int groupPosition) {
-			return mLogs.get(groupPosition);
+			return mLogs.groups.get(groupPosition);
 		}
 		
 		@Override
@@ -456,7 +652,7 @@ public class HistoryFragment extends Fragment implements OnClickListener, OnChil
 				address = log.getTo();
 			}
 
-			String displayName = getCorrespondentDisplayName(log);
+			String displayName = mLogs.names.get(groupPosition);
 			String sipUri = address.asStringUriOnly();
 			contact.setText(displayName + " (" + getChildrenCount(groupPosition) + ")");
 			view.setTag(sipUri);
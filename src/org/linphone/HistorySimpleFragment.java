@@ -18,10 +18,7 @@ along with this program; if not, write to the Free Software
 Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
-import java.util.List;
 
 import org.linphone.core.CallDirection;
 import org.linphone.core.LinphoneAddress;
@@ -60,7 +57,24 @@ public class HistorySimpleFragment extends Fragment implements OnClickListener,
 	private LayoutInflater mInflater;
 	private TextView allCalls, missedCalls, edit, ok, deleteAll, noCallHistory, noMissedCallHistory;
 	private boolean onlyDisplayMissedCalls, isEditMode;
-	private List<LinphoneCallLog> mLogs; 
+	private CallHistoryModel<LinphoneCallLog>.View mLogs;
+	private CallHistoryAdapter mAdapter;
+	private CallHistoryModel.Listener<LinphoneCallLog> mHistoryListener = new CallHistoryModel.Listener<LinphoneCallLog>() {
+		@Override
+		public void onHistoryChanged() {
+			displayLogs();
+		}
+
+		@Override
+		public void onLogInserted(int position, LinphoneCallLog log) {
+			displayLogs();
+		}
+
+		@Override
+		public void onLogRemoved(int position, LinphoneCallLog log) {
+			displayLogs();
+		}
+	};
 	
 	@Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, 
@@ -97,20 +111,7 @@ public class HistorySimpleFragment extends Fragment implements OnClickListener,
 		return view;
     }
 	
-	private void removeNotMissedCallsFromLogs() {
-		if (onlyDisplayMissedCalls) {
-			List<LinphoneCallLog> missedCalls = new ArrayList<LinphoneCallLog>();
-			for (LinphoneCallLog log : mLogs) {
-				if (log.getStatus() == CallStatus.Missed) {
-					missedCalls.add(log);
-				}
-			}
-			mLogs = missedCalls;
-		}
-	}
-	
 	private boolean hideHistoryListAndDisplayMessageIfEmpty() {
-		removeNotMissedCallsFromLogs();
 		if (mLogs.isEmpty()) {
 			if (onlyDisplayMissedCalls) {
 				noMissedCallHistory.setVisibility(View.VISIBLE);
@@ -139,10 +140,34 @@ public class HistorySimpleFragment extends Fragment implements OnClickListener,
 			}
 		}
 		
-		mLogs = Arrays.asList(LinphoneManager.getLc().getCallLogs());
-		if (!hideHistoryListAndDisplayMessageIfEmpty()) {
-			historyList.setAdapter(new CallHistoryAdapter(getActivity()));
+		mAdapter = new CallHistoryAdapter(getActivity());
+		historyList.setAdapter(mAdapter);
+		showLogs(onlyDisplayMissedCalls ? CallHistory.getInstance().getMissedLogs() : CallHistory.getInstance().getAllLogs());
+	}
+
+	@Override
+	public void onPause() {
+		if (mLogs != null) {
+			mLogs.removeListener(mHistoryListener);
+		}
+		super.onPause();
+	}
+
+	/**
+	 * Switches to another view of the shared history, which keeps the list up to date from now on.
+	 */
+	private void showLogs(CallHistoryModel<LinphoneCallLog>.View logs) {
+		if (mLogs != null) {
+			mLogs.removeListener(mHistoryListener);
 		}
+		mLogs = logs;
+		mLogs.addListener(mHistoryListener);
+		displayLogs();
+	}
+
+	private void displayLogs() {
+		hideHistoryListAndDisplayMessageIfEmpty();
+		mAdapter.notifyDataSetChanged();
 	}
 
 	@Override
@@ -154,12 +179,7 @@ public class HistorySimpleFragment extends Fragment implements OnClickListener,
 	@Override
 	public boolean onContextItemSelected(MenuItem item) {
 		AdapterContextMenuInfo info = (AdapterContextMenuInfo) item.getMenuInfo();
-		LinphoneCallLog log = mLogs.get(info.position);
-		LinphoneManager.getLc().removeCallLog(log);
-		mLogs = Arrays.asList(LinphoneManager.getLc().getCallLogs());
-		if (!hideHistoryListAndDisplayMessageIfEmpty()) {
-			historyList.setAdapter(new CallHistoryAdapter(getActivity()));
-		}
+		CallHistory.getInstance().remove(mLogs.get(info.position));
 		return true;
 	}
 
@@ -172,44 +192,38 @@ public class HistorySimpleFragment extends Fragment implements OnClickListener,
 			missedCalls.setEnabled(true);
 			onlyDisplayMissedCalls = false;
 			
-			mLogs = Arrays.asList(LinphoneManager.getLc().getCallLogs());
+			showLogs(CallHistory.getInstance().getAllLogs());
 		} 
 		else if (id == R.id.missedCalls) {
 			allCalls.setEnabled(true);
 			missedCalls.setEnabled(false);
 			onlyDisplayMissedCalls = true;
+
+			showLogs(CallHistory.getInstance().getMissedLogs());
 		} 
 		else if (id == R.id.ok) {
 			edit.setVisibility(View.VISIBLE);
 			ok.setVisibility(View.GONE);
 			hideDeleteAllButton();
 			isEditMode = false;
+			displayLogs();
 		} 
 		else if (id == R.id.edit) {
 			edit.setVisibility(View.GONE);
 			ok.setVisibility(View.VISIBLE);
 			showDeleteAllButton();
 			isEditMode = true;
+			displayLogs();
 		}
 		else if (id == R.id.deleteAll) {
-			LinphoneManager.getLc().clearCallLogs();
-			mLogs = new ArrayList<LinphoneCallLog>();
-		}
-		
-		if (!hideHistoryListAndDisplayMessageIfEmpty()) {
-			historyList.setAdapter(new CallHistoryAdapter(getActivity().getApplicationContext()));
+			CallHistory.getInstance().clear();
 		}
 	}
 
 	@Override
 	public void onItemClick(AdapterView<?> adapter, View view, int position, long id) {
 		if (isEditMode) {
-			LinphoneCallLog log = mLogs.get(position);
-			LinphoneManager.getLc().removeCallLog(log);
-			mLogs = Arrays.asList(LinphoneManager.getLc().getCallLogs());
-			if (!hideHistoryListAndDisplayMessageIfEmpty()) {
-				historyList.setAdapter(new CallHistoryAdapter(getActivity().getApplicationContext()));
-			}
+			CallHistory.getInstance().remove(mLogs.get(position));
 		} else {
 			if (LinphoneActivity.isInstanciated()) {
 				LinphoneCallLog log = mLogs.get(position);
@@ -288,12 +302,10 @@ public class HistorySimpleFragment extends Fragment implements OnClickListener,
 		private Bitmap missedCall, outgoingCall, incomingCall;
 		
 		CallHistoryAdapter(Context aContext) {
+			// The same adapter is used for both filters
 			missedCall = BitmapFactory.decodeResource(getResources(), R.drawable.call_status_missed);
-			
-			if (!onlyDisplayMissedCalls) {
-				outgoingCall = BitmapFactory.decodeResource(getResources(), R.drawable.call_status_outgoing);
-				incomingCall = BitmapFactory.decodeResource(getResources(), R.drawable.call_status_incoming);
-			}
+			outgoingCall = BitmapFactory.decodeResource(getResources(), R.drawable.call_status_outgoing);
+			incomingCall = BitmapFactory.decodeResource(getResources(), R.drawable.call_status_incoming);
 		}
 		public int getCount() {
 			return mLogs.size();
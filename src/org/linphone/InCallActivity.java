@@ -831,9 +831,8 @@ public class InCallActivity extends FragmentActivity implements OnClickListener
 
 		super.onResume();
 		
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if (lc != null) {
-			lc.addListener(mListener);
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().addListener(mListener);
 		}
 
 		refreshCallList(getResources());
@@ -841,9 +840,8 @@ public class InCallActivity extends FragmentActivity implements OnClickListener
 
 	@Override
 	protected void onPause() {
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if (lc != null) {
-			lc.removeListener(mListener);
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().removeListener(mListener);
 		}
 		
 		super.onPause();
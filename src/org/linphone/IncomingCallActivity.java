@@ -102,9 +102,8 @@ public class IncomingCallActivity extends Activity implements LinphoneSliderTrig
 	protected void onResume() {
 		super.onResume();
 		instance = this;
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if (lc != null) {
-			lc.addListener(mListener);
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().addListener(mListener);
 		}
 		
 		// Only one call ringing at a time is allowed
@@ -139,9 +138,8 @@ public class IncomingCallActivity extends Activity implements LinphoneSliderTrig
 	
 	@Override
 	protected void onPause() {
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if (lc != null) {
-			lc.removeListener(mListener);
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().removeListener(mListener);
 		}
 		super.onPause();
 	}
@@ -169,6 +167,7 @@ public class IncomingCallActivity extends Activity implements LinphoneSliderTrig
 	
 	private void answer() {
 		LinphoneCallParams params = LinphoneManager.getLc().createDefaultCallParameters();
+		BandwidthManager.getInstance().updateWithProfileSettings(LinphoneManager.getLc(), params);
 		
 		boolean isLowBandwidthConnection = !LinphoneUtils.isHighBandwidthConnection(this);
 		if (isLowBandwidthConnection) {
@@ -24,23 +24,17 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 
+/**
+ * Receives the alarms of the {@link KeepAliveScheduler}, which keeps the device awake until the refresh is acknowledged.
+ */
 public class KeepAliveHandler extends BroadcastReceiver {
 
 	@Override
 	public void onReceive(Context context, Intent intent) {
 		Log.i("Keep alive handler invoked");
 		if (LinphoneManager.getLcIfManagerNotDestroyedOrNull() != null) {
-			//first refresh registers
-			LinphoneManager.getLc().refreshRegisters();
-			//make sure iterate will have enough time, device will not sleep until exit from this method
-			try {
-				Thread.sleep(2000);
-			} catch (InterruptedException e) {
-				Log.e("Cannot sleep for 2s", e);
-			}
-			
+			LinphoneManager.getInstance().onKeepAliveAlarm();
 		}
-
 	}
 
 }
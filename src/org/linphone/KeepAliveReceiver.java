@@ -38,9 +38,9 @@ public class KeepAliveReceiver extends BroadcastReceiver {
 			return;
 		} else {
 			if (intent.getAction().equalsIgnoreCase(Intent.ACTION_SCREEN_ON)) {
-				LinphoneManager.getLc().enableKeepAlive(true);
+				LinphoneManager.getInstance().enableKeepAlive(true);
 			} else if (intent.getAction().equalsIgnoreCase(Intent.ACTION_SCREEN_OFF)) {
-				LinphoneManager.getLc().enableKeepAlive(false);
+				LinphoneManager.getInstance().enableKeepAlive(false);
 			}
 		}
 
@@ -0,0 +1,333 @@
+/*
+KeepAliveScheduler.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wakes the device up to refresh the registrations, as rarely as the NAT of the current network allows.<br />
+ * For each network (Wi-Fi SSID, mobile carrier...), the scheduler remembers the longest interval after which
+ * a refresh was acknowledged and the shortest one after which it wasn't, and probes between the two until they
+ * are less than {@link #PRECISION_MS} apart. It then keeps using the longest working interval, and every
+ * {@link #RELEARN_SUCCESSES} refreshes tries one step longer.
+ * A refresh that fails or isn't acknowledged within {@link #ACK_TIMEOUT_MS} means the binding, or the connection
+ * holding it, died in between. An acknowledged one doesn't prove the binding survived, the refresh may just have
+ * created a new one: when the address the registrar saw the refresh from is known, a change of it means it didn't.
+ * Without it, the intervals stay within the former fixed {@link #MAX_INTERVAL_MS}.
+ * While the core sends its own keepalives, such as when the screen is on, they hold the binding: the alarms
+ * don't refresh and nothing is learned.
+ *
+ * A wake lock is only held from the alarm until the refresh is acknowledged. Learned intervals are saved through the
+ * {@link Host} as a string, and restored with {@link #restore(String)}.
+ */
+public class KeepAliveScheduler {
+	public static final long MIN_INTERVAL_MS = 60000;
+	public static final long MAX_INTERVAL_MS = 600000;
+	public static final long INITIAL_INTERVAL_MS = 300000;
+	public static final long PRECISION_MS = 60000;
+	public static final long ACK_TIMEOUT_MS = 15000;
+	/** Acknowledged refreshes after which an interval one step longer than the working one is tried again. */
+	public static final int RELEARN_SUCCESSES = 50;
+
+	public interface Host {
+		void scheduleAlarm(long delayMs);
+		void cancelAlarm();
+		/**
+		 * Refreshes the registrations, or calls {@link KeepAliveScheduler#cancelRefresh()} if there is nothing to refresh.
+		 */
+		void refreshRegisters();
+		void acquireWakeLock(long timeoutMs);
+		void releaseWakeLock();
+		void postDelayed(Runnable r, long delayMs);
+		void removeCallbacks(Runnable r);
+		/**
+		 * A clock that keeps running while the device sleeps.
+		 */
+		long elapsedRealtime();
+		void save(String state);
+	}
+
+	/**
+	 * What is known of the NAT of a network.
+	 */
+	public static class Binding {
+		/** The longest interval after which a refresh was acknowledged. */
+		long working = MIN_INTERVAL_MS;
+		/** The shortest interval after which a refresh failed, 0 if none did. */
+		long failing;
+		int successes;
+		/** The public address the registrar saw the last refresh from, null if unknown. */
+		String address;
+
+		public long getWorkingInterval() {
+			return working;
+		}
+
+		public long getFailingInterval() {
+			return failing;
+		}
+
+		public boolean isCalibrated() {
+			return failing > 0 && failing - working <= PRECISION_MS || working >= MAX_INTERVAL_MS;
+		}
+
+		/**
+		 * @return the interval to wait before the next refresh
+		 */
+		long nextInterval() {
+			if (isCalibrated()) {
+				// NATs change their timeouts, sometimes
+				return successes >= RELEARN_SUCCESSES ? Math.min(MAX_INTERVAL_MS, working + PRECISION_MS) : working;
+			}
+			if (failing == 0) {
+				return Math.min(MAX_INTERVAL_MS, Math.max(INITIAL_INTERVAL_MS, working * 2));
+			}
+			return (working + failing) / 2;
+		}
+	}
+
+	private final Host mHost;
+	private final Map<String, Binding> mBindings = new HashMap<String, Binding>();
+	private String mNetwork;
+	private boolean mRunning;
+	private long mLastRefresh;
+	private long mCurrentInterval;
+	private boolean mAwaitingAck;
+	private boolean mCoreKeepAlive;
+	private long mWakeLockStart;
+
+	private long mStartTime;
+	private long mWakeups, mAcknowledged, mFailed, mWakeLockMs;
+
+	private final Runnable mAckTimeout = new Runnable() {
+		@Override
+		public void run() {
+			onRefreshResult(false);
+		}
+	};
+
+	public KeepAliveScheduler(Host host) {
+		mHost = host;
+	}
+
+	public synchronized void start(String network) {
+		mRunning = true;
+		mStartTime = mHost.elapsedRealtime();
+		mWakeups = mAcknowledged = mFailed = mWakeLockMs = 0;
+		mNetwork = network;
+		mLastRefresh = mStartTime;
+		scheduleNext();
+	}
+
+	public synchronized void stop() {
+		mRunning = false;
+		mHost.cancelAlarm();
+		finishRefresh();
+	}
+
+	/**
+	 * The device moved to another network: the next refresh follows what is known of it.
+	 * The core refreshes its registrations on network changes, so the interval starts now.
+	 */
+	public synchronized void setNetwork(String network) {
+		if (network == null ? mNetwork == null : network.equals(mNetwork)) return;
+		mNetwork = network;
+		// The address seen from this network before may have been reassigned meanwhile
+		getBinding(mNetwork).address = null;
+		if (!mRunning) return;
+		finishRefresh();
+		mLastRefresh = mHost.elapsedRealtime();
+		scheduleNext();
+	}
+
+	/**
+	 * The core started or stopped sending its own keepalives.
+	 * Once they stop, the binding was refreshed just now, so the interval starts now.
+	 */
+	public synchronized void setCoreKeepAlive(boolean enabled) {
+		if (enabled == mCoreKeepAlive) return;
+		mCoreKeepAlive = enabled;
+		if (!mRunning || enabled || mAwaitingAck) return;
+		mLastRefresh = mHost.elapsedRealtime();
+		scheduleNext();
+	}
+
+	/**
+	 * The keepalive alarm went off: refreshes the registrations and keeps the device awake until they're acknowledged.
+	 */
+	public synchronized void onAlarm() {
+		if (!mRunning || mAwaitingAck) return;
+		if (mCoreKeepAlive) {
+			// The device is awake and the core holds the binding
+			mLastRefresh = mHost.elapsedRealtime();
+			scheduleNext();
+			return;
+		}
+		mWakeups++;
+		mHost.acquireWakeLock(ACK_TIMEOUT_MS + 1000);
+		mWakeLockStart = mHost.elapsedRealtime();
+		mAwaitingAck = true;
+		mCurrentInterval = mWakeLockStart - mLastRefresh;
+		mHost.postDelayed(mAckTimeout, ACK_TIMEOUT_MS);
+		mHost.refreshRegisters();
+	}
+
+	/**
+	 * There was nothing to refresh, such as when no account is registered: nothing to learn from, tries again later.
+	 */
+	public synchronized void cancelRefresh() {
+		if (!mAwaitingAck) return;
+		finishRefresh();
+		mLastRefresh = mHost.elapsedRealtime();
+		scheduleNext();
+	}
+
+	/**
+	 * The registration refresh of the alarm succeeded or failed, the address it was seen from is unknown.
+	 */
+	public void onRefreshResult(boolean acknowledged) {
+		onRefreshResult(acknowledged, null);
+	}
+
+	/**
+	 * @param reflectedAddress the received:rport the registrar put in the Via of its answer, null if unknown
+	 */
+	public synchronized void onRefreshResult(boolean acknowledged, String reflectedAddress) {
+		if (!mAwaitingAck) return;
+		finishRefresh();
+		mLastRefresh = mHost.elapsedRealtime();
+		if (mCoreKeepAlive) {
+			// The core keepalives started meanwhile, the result says nothing of the interval
+			scheduleNext();
+			return;
+		}
+
+		Binding binding = getBinding(mNetwork);
+		long interval = mCurrentInterval;
+		boolean survived = acknowledged;
+		if (acknowledged) {
+			mAcknowledged++;
+			if (reflectedAddress != null) {
+				// Seen from another address: the refresh created a new binding, the previous one had expired
+				survived = binding.address == null || binding.address.equals(reflectedAddress);
+				binding.address = reflectedAddress;
+			}
+		}
+		if (survived) {
+			if (interval > binding.working) {
+				binding.working = Math.min(interval, MAX_INTERVAL_MS);
+				if (binding.failing > 0 && binding.working >= binding.failing) {
+					// The NAT keeps the bindings longer than it used to
+					binding.failing = 0;
+				}
+			}
+			// Counts up to the next try of a longer interval
+			binding.successes = binding.successes >= RELEARN_SUCCESSES ? 0 : binding.successes + 1;
+		} else {
+			mFailed++;
+			binding.successes = 0;
+			binding.failing = binding.failing == 0 ? interval : Math.min(binding.failing, interval);
+			if (binding.working >= binding.failing) {
+				// What used to work doesn't anymore
+				binding.working = Math.max(MIN_INTERVAL_MS, binding.failing / 2);
+			}
+		}
+		mHost.save(serialize());
+		scheduleNext();
+	}
+
+	private void finishRefresh() {
+		mHost.removeCallbacks(mAckTimeout);
+		if (mAwaitingAck) {
+			mAwaitingAck = false;
+			mWakeLockMs += mHost.elapsedRealtime() - mWakeLockStart;
+			mHost.releaseWakeLock();
+		}
+	}
+
+	private void scheduleNext() {
+		if (!mRunning) return;
+		long interval = getBinding(mNetwork).nextInterval();
+		mHost.scheduleAlarm(Math.max(0, mLastRefresh + interval - mHost.elapsedRealtime()));
+	}
+
+	private Binding getBinding(String network) {
+		String key = network == null ? "" : network;
+		Binding binding = mBindings.get(key);
+		if (binding == null) {
+			binding = new Binding();
+			mBindings.put(key, binding);
+		}
+		return binding;
+	}
+
+	/**
+	 * @return what is known of the NAT of a network, null if nothing yet
+	 */
+	public synchronized Binding getKnownBinding(String network) {
+		return mBindings.get(network == null ? "" : network);
+	}
+
+	/**
+	 * @return the interval until the next refresh on the current network
+	 */
+	public synchronized long getInterval() {
+		return getBinding(mNetwork).nextInterval();
+	}
+
+	/**
+	 * @return the learned bindings, as "working failing network" entries in seconds separated by '|'
+	 */
+	public synchronized String serialize() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Binding> entry : mBindings.entrySet()) {
+			Binding binding = entry.getValue();
+			sb.append(binding.working / 1000).append(' ').append(binding.failing / 1000).append(' ').append(entry.getKey()).append('|');
+		}
+		return sb.toString();
+	}
+
+	public synchronized void restore(String state) {
+		if (state == null) return;
+		for (String entry : state.split("\\|")) {
+			String[] fields = entry.split(" ", 3);
+			if (fields.length < 3) continue;
+			try {
+				Binding binding = new Binding();
+				binding.working = Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, Long.parseLong(fields[0]) * 1000));
+				binding.failing = Long.parseLong(fields[1]) * 1000;
+				mBindings.put(fields[2], binding);
+			} catch (NumberFormatException e) {
+				// Ignores a corrupted entry, the binding will be learned again
+			}
+		}
+	}
+
+	public synchronized float getWakeupsPerHour() {
+		long elapsed = mHost.elapsedRealtime() - mStartTime;
+		return elapsed > 0 ? mWakeups * 3600000f / elapsed : 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Keep alive scheduler: " + (mCoreKeepAlive ? "core keepalives, " : "") + mWakeups + " wake ups (" + getWakeupsPerHour() + " per hour), " + mAcknowledged + " acknowledged, "
+				+ mFailed + " failed, wake lock held " + mWakeLockMs + " ms, interval " + getInterval() / 1000 + " s on " + mNetwork;
+	}
+}
@@ -0,0 +1,289 @@
+/*
+LinkProbe.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.linphone.mediastream.Log;
+
+/**
+ * Measures the link before dialing: round trip delay, loss and throughput of a short burst of UDP packets.<br />
+ * The packets are STUN binding requests padded to the size of audio packets, so that the endpoint can be either
+ * the STUN server of the media relay, which answers them, or a UDP echo server, which sends them back.
+ * Both keep the transaction id that matches answers to requests. The throughput is measured from the spacing
+ * of the answers to the burst.
+ *
+ * The probe takes at most {@link #TIMEOUT_MS}, and its result is cached for each network for {@link #CACHE_TTL_MS}.
+ */
+public class LinkProbe {
+	public static final long TIMEOUT_MS = 300;
+	public static final long CACHE_TTL_MS = 60000;
+	public static final int BURST_PACKETS = 10;
+	public static final int PACKET_SIZE = 172;
+
+	/** Loss (%), round trip delay (ms) and throughput (kbit/s) limits of a link good enough for wide band audio.
+	 * The round trip delay limit is under {@link #TIMEOUT_MS}, past which nothing is measured. */
+	public static final float MAX_LOSS = 20, MAX_RTT = 250, MIN_THROUGHPUT = 48;
+	public static final int MIN_AUDIO_BANDWIDTH = 16, MAX_AUDIO_BANDWIDTH = 40;
+
+	private static final int MAGIC_COOKIE = 0x2112A442;
+	private static final int HEADER_SIZE = 20;
+	private static final int SOFTWARE_ATTRIBUTE = 0x8022;
+
+	public static class Result {
+		/** Smallest round trip delay in ms. */
+		public final long rtt;
+		/** Lost packets, in %. */
+		public final float loss;
+		/** Throughput in kbit/s, -1 if it couldn't be measured. */
+		public final float throughput;
+
+		public Result(long rtt, float loss, float throughput) {
+			this.rtt = rtt;
+			this.loss = loss;
+			this.throughput = throughput;
+		}
+
+		public boolean isLowBandwidth() {
+			return loss >= MAX_LOSS || rtt >= MAX_RTT || (throughput >= 0 && throughput < MIN_THROUGHPUT);
+		}
+
+		/**
+		 * @return the audio bandwidth to start the call with, in kbit/s
+		 */
+		public int getAudioBandwidth() {
+			if (isLowBandwidth()) return MIN_AUDIO_BANDWIDTH;
+			if (throughput < 0) return MAX_AUDIO_BANDWIDTH;
+			// Leaves room for the other direction and the bursts
+			return (int) Math.max(MIN_AUDIO_BANDWIDTH, Math.min(MAX_AUDIO_BANDWIDTH, throughput / 2));
+		}
+
+		@Override
+		public String toString() {
+			return "rtt " + rtt + " ms, loss " + loss + "%, throughput " + Math.round(throughput) + " kbit/s";
+		}
+	}
+
+	private static class Entry {
+		Future<Result> future;
+		long time;
+	}
+
+	private final ExecutorService mExecutor;
+	private final long mCacheTtl;
+	private final Random mRandom = new Random();
+	private final Map<String, Entry> mCache = new HashMap<String, Entry>();
+	private String mHost;
+	private int mPort;
+	private int mProbes, mCacheHits;
+
+	public LinkProbe(ExecutorService executor) {
+		this(executor, CACHE_TTL_MS);
+	}
+
+	public LinkProbe(ExecutorService executor, long cacheTtl) {
+		mExecutor = executor;
+		mCacheTtl = cacheTtl;
+	}
+
+	/**
+	 * Sets where to send the probes, a null host disables them.
+	 */
+	public synchronized void setEndpoint(String host, int port) {
+		if (host == null ? mHost != null : !host.equals(mHost) || port != mPort) {
+			mCache.clear();
+		}
+		mHost = host;
+		mPort = port;
+	}
+
+	public synchronized boolean isEnabled() {
+		return mHost != null && mHost.length() > 0;
+	}
+
+	/**
+	 * Starts probing the current network, or returns the recent result for it.
+	 * @return null if the probe is disabled
+	 */
+	public synchronized Future<Result> start(String network) {
+		if (!isEnabled()) return null;
+
+		long now = System.nanoTime() / 1000000;
+		String key = network == null ? "" : network;
+		Entry entry = mCache.get(key);
+		if (entry != null && now - entry.time < mCacheTtl) {
+			mCacheHits++;
+			return entry.future;
+		}
+
+		final String host = mHost;
+		final int port = mPort;
+		FutureTask<Result> future = new FutureTask<Result>(new Callable<Result>() {
+			@Override
+			public Result call() throws IOException {
+				Result result = measure(new InetSocketAddress(InetAddress.getByName(host), port), TIMEOUT_MS);
+				Log.i("Link probe to " + host + ":" + port + ": " + (result != null ? result : "no answer"));
+				return result;
+			}
+		});
+		entry = new Entry();
+		entry.future = future;
+		entry.time = now;
+		mCache.put(key, entry);
+		mProbes++;
+		mExecutor.execute(future);
+		return future;
+	}
+
+	/**
+	 * Waits for the probe.
+	 * @return null if it failed or didn't finish in time
+	 */
+	public static Result await(Future<Result> future, long timeoutMs) {
+		if (future == null) return null;
+		try {
+			return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			Log.w("No link probe result: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Sends the burst and waits for the answers, blocking for at most the timeout.
+	 * @return null if nothing answered: the endpoint may just be down, which tells nothing about the link
+	 */
+	public Result measure(InetSocketAddress endpoint, long timeoutMs) throws IOException {
+		byte[] transaction = new byte[12];
+		synchronized (mRandom) {
+			mRandom.nextBytes(transaction);
+		}
+		long[] sent = new long[BURST_PACKETS];
+		long[] received = new long[BURST_PACKETS];
+
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			long deadline = System.nanoTime() / 1000000 + timeoutMs;
+			for (int i = 0; i < BURST_PACKETS; i++) {
+				transaction[11] = (byte) i;
+				byte[] request = buildRequest(transaction);
+				sent[i] = System.nanoTime();
+				socket.send(new DatagramPacket(request, request.length, endpoint));
+			}
+
+			byte[] buffer = new byte[1500];
+			int answered = 0;
+			while (answered < BURST_PACKETS) {
+				long remaining = deadline - System.nanoTime() / 1000000;
+				if (remaining <= 0) break;
+				socket.setSoTimeout((int) remaining);
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				try {
+					socket.receive(packet);
+				} catch (SocketTimeoutException e) {
+					break;
+				}
+				int index = matchAnswer(packet, transaction);
+				if (index >= 0 && received[index] == 0) {
+					received[index] = System.nanoTime();
+					answered++;
+				}
+			}
+			return computeResult(sent, received, answered);
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static Result computeResult(long[] sent, long[] received, int answered) {
+		if (answered == 0) {
+			return null;
+		}
+		float loss = (BURST_PACKETS - answered) * 100f / BURST_PACKETS;
+		long rtt = Long.MAX_VALUE;
+		long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+		for (int i = 0; i < BURST_PACKETS; i++) {
+			if (received[i] == 0) continue;
+			rtt = Math.min(rtt, received[i] - sent[i]);
+			first = Math.min(first, received[i]);
+			last = Math.max(last, received[i]);
+		}
+
+		float throughput = -1;
+		if (answered > 1 && last > first) {
+			// The answers are spaced by the slowest hop the burst went through
+			throughput = (answered - 1) * PACKET_SIZE * 8 * 1000000f / (last - first);
+		}
+		return new Result(rtt / 1000000, loss, throughput);
+	}
+
+	private static byte[] buildRequest(byte[] transaction) {
+		byte[] request = new byte[PACKET_SIZE];
+		int attributeLength = PACKET_SIZE - HEADER_SIZE - 4;
+		// Binding request
+		putShort(request, 0, 0x0001);
+		putShort(request, 2, PACKET_SIZE - HEADER_SIZE);
+		putShort(request, 4, MAGIC_COOKIE >>> 16);
+		putShort(request, 6, MAGIC_COOKIE);
+		System.arraycopy(transaction, 0, request, 8, transaction.length);
+		// Padding, in an attribute the servers can ignore
+		putShort(request, HEADER_SIZE, SOFTWARE_ATTRIBUTE);
+		putShort(request, HEADER_SIZE + 2, attributeLength);
+		return request;
+	}
+
+	/**
+	 * @return the index of the request the packet answers, -1 if it isn't an answer to the burst
+	 */
+	private static int matchAnswer(DatagramPacket packet, byte[] transaction) {
+		byte[] data = packet.getData();
+		int offset = packet.getOffset();
+		if (packet.getLength() < HEADER_SIZE) return -1;
+		int cookie = ((data[offset + 4] & 0xff) << 24) | ((data[offset + 5] & 0xff) << 16) | ((data[offset + 6] & 0xff) << 8) | (data[offset + 7] & 0xff);
+		if (cookie != MAGIC_COOKIE) return -1;
+		for (int i = 0; i < 11; i++) {
+			if (data[offset + 8 + i] != transaction[i]) return -1;
+		}
+		int index = data[offset + 19] & 0xff;
+		return index < BURST_PACKETS ? index : -1;
+	}
+
+	private static void putShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >> 8);
+		buffer[offset + 1] = (byte) value;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Link probe: " + (isEnabled() ? mHost + ":" + mPort : "disabled") + ", " + mProbes + " probes, " + mCacheHits + " cached results used";
+	}
+}
@@ -145,8 +145,8 @@ public class LinphoneActivity extends FragmentActivity implements OnClickListene
 		}
 
 	 	if(!LinphonePreferences.instance().isContactsMigrationDone()){
+			// Marks the migration done once finished
 			ContactsManager.getInstance().migrateContacts();
-			LinphonePreferences.instance().contactsMigrationDone();
 		}
 
 		setContentView(R.layout.main);
@@ -215,9 +215,8 @@ public class LinphoneActivity extends FragmentActivity implements OnClickListene
 			}
 		};
 
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if (lc != null) {
-			lc.addListener(mListener);
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().addListener(mListener);
 		}
 
 		int missedCalls = LinphoneManager.getLc().getMissedCallsCount();
@@ -891,9 +890,8 @@ public class LinphoneActivity extends FragmentActivity implements OnClickListene
 			mOrientationHelper = null;
 		}
 
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if (lc != null) {
-			lc.removeListener(mListener);
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().removeListener(mListener);
 		}
 
 		instance = null;
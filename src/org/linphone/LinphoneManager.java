@@ -29,11 +29,23 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.linphone.compatibility.Compatibility;
 import org.linphone.core.CallDirection;
@@ -71,6 +83,8 @@ import org.linphone.mediastream.video.capture.hwconf.Hacks;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
 import android.content.Context;
@@ -87,14 +101,19 @@ import android.media.MediaPlayer;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.PowerManager;
+import android.os.Process;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.provider.Settings;
 import android.provider.Settings.SettingNotFoundException;
 import android.telephony.TelephonyManager;
+import android.text.TextUtils;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.Window;
@@ -118,20 +137,30 @@ import android.widget.Toast;
  */
 public class LinphoneManager implements LinphoneCoreListener {
 
-	private static LinphoneManager instance;
+	private static volatile LinphoneManager instance;
 	private Context mServiceContext;
 	private AudioManager mAudioManager;
 	private PowerManager mPowerManager;
 	private Resources mR;
 	private LinphonePreferences mPrefs;
-	private LinphoneCore mLc;
-	private String lastLcStatusMessage;
+	// mLc forwards calls to the core thread, the raw mCore is only used there
+	private volatile LinphoneCore mLc;
+	private LinphoneCore mCore;
+	private volatile String lastLcStatusMessage;
 	private String basePath;
 	private static boolean sExited;
 	private boolean mAudioFocused;
-	private int mLastNetworkType=-1;
 	private ConnectivityManager mConnectivityManager;
 	private Handler mHandler = new Handler();
+	private static final long DEFER_TIMEOUT_MS = 10000;
+	private final List<Runnable> mDeferred = new ArrayList<Runnable>();
+	private boolean mDeferring;
+	private final Runnable mRunDeferred = new Runnable() {
+		@Override
+		public void run() {
+			runDeferred();
+		}
+	};
 	private WakeLock mIncallWakeLock;
 
 	protected LinphoneManager(final Context c) {
@@ -147,12 +176,266 @@ public class LinphoneManager implements LinphoneCoreListener {
 		mPauseSoundFile = basePath + "/toy_mono.wav";
 		mErrorToneFile = basePath + "/error.wav";
 
+		// Started by a push: what isn't needed to receive the call waits until it rings
+		mDeferring = PushTimeline.getInstance().isOpen();
+		if (mDeferring) {
+			Log.i("Started by a push, deferring non essential initializations");
+			mHandler.postDelayed(mRunDeferred, DEFER_TIMEOUT_MS);
+		}
+
 		mPrefs = LinphonePreferences.instance();
 		mAudioManager = ((AudioManager) c.getSystemService(Context.AUDIO_SERVICE));
 		mVibrator = (Vibrator) c.getSystemService(Context.VIBRATOR_SERVICE);
 		mPowerManager = (PowerManager) c.getSystemService(Context.POWER_SERVICE);
 		mConnectivityManager = (ConnectivityManager) c.getSystemService(Context.CONNECTIVITY_SERVICE);
 		mR = c.getResources();
+		mCoreExecutor = CoreExecutor.onDedicatedThread();
+		mNumberNormalizer = new PhoneNumberNormalizer(new PhoneNumberNormalizer.Backend() {
+			@Override
+			public PhoneNumberNormalizer.DialPlan normalize(final List<String> numbers, final String[] results) {
+				try {
+					return mCoreExecutor.call(new Callable<PhoneNumberNormalizer.DialPlan>() {
+						@Override
+						public PhoneNumberNormalizer.DialPlan call() {
+							LinphoneCore lc = mLc;
+							LinphoneProxyConfig lpc = lc != null ? lc.getDefaultProxyConfig() : null;
+							if (lpc == null) return null;
+
+							for (int i = 0; i < results.length; i++) {
+								results[i] = lpc.normalizePhoneNumber(numbers.get(i));
+							}
+							return new PhoneNumberNormalizer.DialPlan(lpc.getDialPrefix(), lpc.getDialEscapePlus());
+						}
+					});
+				} catch (Exception e) {
+					Log.e(e, "Cannot normalize phone numbers");
+					return null;
+				}
+			}
+		});
+		mNetworkMachine = new NetworkStateMachine(new NetworkStateMachine.Host() {
+			@Override
+			public NetworkStateMachine.Network readNetwork() {
+				return LinphoneManager.this.readNetwork();
+			}
+
+			@Override
+			public void setNetworkReachable(boolean reachable) {
+				LinphoneCore lc = mLc;
+				if (lc == null) return;
+				Log.i("Setting network ", reachable ? "reachable" : "unreachable");
+				lc.setNetworkReachable(reachable);
+			}
+
+			@Override
+			public void networkChanged(NetworkStateMachine.Network network) {
+				Log.i("Connectivity has changed: ", network);
+				NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+				manageTunnelServer(info);
+				mKeepAlive.setNetwork(readNetworkKey());
+				if (network.usable) {
+					// The result is ready when the next call is dialed
+					probeLink();
+				}
+				LinphoneCore lc = mLc;
+				if (BandwidthManager.getInstance().setNetwork(readNetworkKey(), LinphoneUtils.getLinkClass(info)) && lc != null && lc.getCallsNb() > 0) {
+					CallManager.getInstance().reinvite();
+				}
+			}
+
+			@Override
+			public void postDelayed(Runnable r, long delayMs) {
+				mCoreExecutor.getHandler().postDelayed(r, delayMs);
+			}
+
+			@Override
+			public void removeCallbacks(Runnable r) {
+				mCoreExecutor.getHandler().removeCallbacks(r);
+			}
+
+			@Override
+			public long uptimeMillis() {
+				return SystemClock.uptimeMillis();
+			}
+		});
+		mKeepAlive = new KeepAliveScheduler(new KeepAliveScheduler.Host() {
+			@Override
+			public void scheduleAlarm(long delayMs) {
+				AlarmManager alarms = (AlarmManager) mServiceContext.getSystemService(Context.ALARM_SERVICE);
+				alarms.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + delayMs, getKeepAliveIntent());
+			}
+
+			@Override
+			public void cancelAlarm() {
+				((AlarmManager) mServiceContext.getSystemService(Context.ALARM_SERVICE)).cancel(getKeepAliveIntent());
+			}
+
+			@Override
+			public void refreshRegisters() {
+				mCoreExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						LinphoneCore lc = mLc;
+						LinphoneProxyConfig proxy = lc != null ? lc.getDefaultProxyConfig() : null;
+						if (proxy == null) {
+							mKeepAlive.cancelRefresh();
+							return;
+						}
+						// Only the registration of this proxy tells whether its binding survived
+						mKeepAliveIdentity = proxy.getIdentity();
+						lc.refreshRegisters();
+						notifyCoreActivity();
+					}
+				});
+			}
+
+			@Override
+			public void acquireWakeLock(long timeoutMs) {
+				if (mKeepAliveWakeLock == null) {
+					mKeepAliveWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "keepalive");
+					mKeepAliveWakeLock.setReferenceCounted(false);
+				}
+				mKeepAliveWakeLock.acquire(timeoutMs);
+			}
+
+			@Override
+			public void releaseWakeLock() {
+				if (mKeepAliveWakeLock != null && mKeepAliveWakeLock.isHeld()) {
+					mKeepAliveWakeLock.release();
+				}
+			}
+
+			@Override
+			public void postDelayed(Runnable r, long delayMs) {
+				mCoreExecutor.getHandler().postDelayed(r, delayMs);
+			}
+
+			@Override
+			public void removeCallbacks(Runnable r) {
+				mCoreExecutor.getHandler().removeCallbacks(r);
+			}
+
+			@Override
+			public long elapsedRealtime() {
+				return SystemClock.elapsedRealtime();
+			}
+
+			@Override
+			public void save(String state) {
+				mPrefs.setKeepAliveBindings(state);
+			}
+		});
+		mRingtone = new RingtonePlayer(new RingtonePlayer.Host() {
+			private MediaPlayer mPlayer;
+
+			@Override
+			public void prepareAsync(final String source) {
+				mPlayer = new MediaPlayer();
+				mPlayer.setAudioStreamType(STREAM_RING);
+				mPlayer.setLooping(true);
+				mPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+					@Override
+					public void onPrepared(MediaPlayer mp) {
+						mRingtone.onPrepared(source);
+					}
+				});
+				mPlayer.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+					@Override
+					public boolean onError(MediaPlayer mp, int what, int extra) {
+						Log.e("Ringtone player error " + what + " (" + extra + ")");
+						mRingtone.onError(source);
+						return true;
+					}
+				});
+				try {
+					if (source.startsWith("content://")) {
+						mPlayer.setDataSource(mServiceContext, Uri.parse(source));
+					} else {
+						FileInputStream fis = new FileInputStream(source);
+						mPlayer.setDataSource(fis.getFD());
+						fis.close();
+					}
+					mPlayer.prepareAsync();
+				} catch (Exception e) {
+					Log.e(e, "Cannot set ringtone");
+					mRingtone.onError(source);
+				}
+			}
+
+			@Override
+			public void start() {
+				mPlayer.start();
+				onRinging();
+			}
+
+			@Override
+			public void pause() {
+				mPlayer.pause();
+				mPlayer.seekTo(0);
+			}
+
+			@Override
+			public void release() {
+				if (mPlayer != null) {
+					mPlayer.release();
+					mPlayer = null;
+				}
+			}
+
+			@Override
+			public long uptimeMillis() {
+				return SystemClock.uptimeMillis();
+			}
+		}, mRingSoundFile);
+		mAudioRoutes = new AudioRouteMachine(new AudioRouteMachine.Host() {
+			@Override
+			public void enableSpeaker(final boolean enable) {
+				mCoreExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						LinphoneCore lc = mLc;
+						if (lc != null) {
+							lc.enableSpeaker(enable);
+						}
+					}
+				});
+			}
+
+			@Override
+			public void startSco() {
+				BluetoothManager.getInstance().startBluetoothSCO();
+			}
+
+			@Override
+			public void stopSco() {
+				BluetoothManager.getInstance().disableBluetoothSCO();
+			}
+
+			@Override
+			public boolean isBluetoothAvailable() {
+				return BluetoothManager.getInstance().isBluetoothHeadsetAvailable();
+			}
+
+			@Override
+			public String getBluetoothDeviceName() {
+				return BluetoothManager.getInstance().getBluetoothDeviceName();
+			}
+
+			@Override
+			public void postDelayed(Runnable r, long delayMs) {
+				mHandler.postDelayed(r, delayMs);
+			}
+
+			@Override
+			public void removeCallbacks(Runnable r) {
+				mHandler.removeCallbacks(r);
+			}
+
+			@Override
+			public long uptimeMillis() {
+				return SystemClock.uptimeMillis();
+			}
+		}, Build.MANUFACTURER + " " + Build.MODEL);
 	}
 
 	private static final int LINPHONE_VOLUME_STREAM = STREAM_VOICE_CALL;
@@ -168,19 +451,50 @@ public class LinphoneManager implements LinphoneCoreListener {
 	private final String mErrorToneFile;
 	private ByteArrayInputStream mUploadingImageStream;
 
-	private Timer mTimer;
+	private CoreScheduler mScheduler;
+	private CallStatsSampler<LinphoneCall> mStatsSampler;
+	private CallQualityRecorder<LinphoneCall> mQualityRecorder;
+	private ExecutorService mQualityExecutor;
+	private static final int STUN_PORT = 3478;
+	private final ExecutorService mProbeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "Link probe");
+		}
+	});
+	private final LinkProbe mLinkProbe = new LinkProbe(mProbeExecutor);
+	private final ExecutorService mDialExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "Outgoing call");
+		}
+	});
+	private AdaptiveCallTuner<LinphoneCall> mCallTuner;
+	/** Settings the tuner wants for each call, the core settings are shared so the most conservative ones win. */
+	private final Map<LinphoneCall, AdaptiveCallTuner.Settings> mTunedCalls = new HashMap<LinphoneCall, AdaptiveCallTuner.Settings>();
+	private CoreExecutor mCoreExecutor;
+	private PhoneNumberNormalizer mNumberNormalizer;
+	private NetworkStateMachine mNetworkMachine;
+	private KeepAliveScheduler mKeepAlive;
+	private String mKeepAliveIdentity;
+	private WakeLock mKeepAliveWakeLock;
+	private PendingIntent mKeepAliveIntent;
+	private boolean mRegistrationInProgress;
+	private final Map<LinphoneCoreListener, LinphoneCoreListener> mUIThreadListeners = new HashMap<LinphoneCoreListener, LinphoneCoreListener>();
+	private final Runnable mIterate = new Runnable() {
+		@Override
+		public void run() {
+			LinphoneCore lc = mCore;
+			if (lc != null) {
+				lc.iterate();
+			}
+		}
+	};
 
 	private  BroadcastReceiver mKeepAliveReceiver = new KeepAliveReceiver();
 
-	private void routeAudioToSpeakerHelper(boolean speakerOn) {
-		Log.w("Routing audio to " + (speakerOn ? "speaker" : "earpiece") + ", disabling bluetooth audio route");
-		BluetoothManager.getInstance().disableBluetoothSCO();
-
-		mLc.enableSpeaker(speakerOn);
-	}
-
 	public void routeAudioToSpeaker() {
-		routeAudioToSpeakerHelper(true);
+		mAudioRoutes.request(AudioRouteMachine.SPEAKER);
 	}
 
 	public String getUserAgent() throws NameNotFoundException {
@@ -194,7 +508,16 @@ public class LinphoneManager implements LinphoneCoreListener {
 	}
 
 	public void routeAudioToReceiver() {
-		routeAudioToSpeakerHelper(false);
+		mAudioRoutes.request(AudioRouteMachine.EARPIECE);
+	}
+
+	/** @return false if no headset is connected, otherwise the route is used once SCO is connected */
+	public boolean routeAudioToBluetooth() {
+		return mAudioRoutes.request(AudioRouteMachine.BLUETOOTH);
+	}
+
+	public AudioRouteMachine getAudioRoutes() {
+		return mAudioRoutes;
 	}
 
 	public synchronized static final LinphoneManager createAndStart(Context c) {
@@ -248,7 +571,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 	}
 
-	public static synchronized final LinphoneManager getInstance() {
+	public static final LinphoneManager getInstance() {
 		if (instance != null) return instance;
 
 		if (sExited) {
@@ -259,7 +582,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		throw new RuntimeException("Linphone Manager should be created before accessed");
 	}
 
-	public static synchronized final LinphoneCore getLc() {
+	public static final LinphoneCore getLc() {
 		return getInstance().mLc;
 	}
 
@@ -277,6 +600,8 @@ public class LinphoneManager implements LinphoneCoreListener {
 //			listenerDispatcher.tryingNewOutgoingCallButAlreadyInCall();
 //			return;
 //		}
+		// Probes the link while the address is resolved
+		Future<LinkProbe.Result> probe = startLinkProbe();
 		LinphoneAddress lAddress;
 		try {
 			lAddress = mLc.interpretUrl(to);
@@ -296,10 +621,19 @@ public class LinphoneManager implements LinphoneCoreListener {
 		boolean isLowBandwidthConnection = !LinphoneUtils.isHighBandwidthConnection(LinphoneService.instance().getApplicationContext());
 
 		if (mLc.isNetworkReachable()) {
-			try {
-				CallManager.getInstance().inviteAddress(lAddress, isLowBandwidthConnection);
-			} catch (LinphoneCoreException e) {
-				return;
+			if (probe == null || probe.isDone()) {
+				invite(lAddress, isLowBandwidthConnection, probe);
+			} else {
+				// Waits for the probe off the UI thread
+				final LinphoneAddress address = lAddress;
+				final boolean lowBandwidth = isLowBandwidthConnection;
+				final Future<LinkProbe.Result> pending = probe;
+				mDialExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						invite(address, lowBandwidth, pending);
+					}
+				});
 			}
 		} else if (LinphoneActivity.isInstanciated()) {
 			LinphoneActivity.instance().displayCustomToast(getString(R.string.error_network_unreachable), Toast.LENGTH_LONG);
@@ -308,6 +642,46 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 	}
 
+	private void invite(LinphoneAddress address, boolean lowBandwidth, Future<LinkProbe.Result> probe) {
+		try {
+			CallManager.getInstance().inviteAddress(address, lowBandwidth, LinkProbe.await(probe, LinkProbe.TIMEOUT_MS));
+		} catch (LinphoneCoreException e) {
+			Log.e(e, "Cannot invite ", address.asStringUriOnly());
+		}
+	}
+
+	/** Probes the network ahead of a call, such as when the dialer opens, so that the result is cached when dialing. */
+	public void probeLink() {
+		if (mLc != null) {
+			startLinkProbe();
+		}
+	}
+
+	private Future<LinkProbe.Result> startLinkProbe() {
+		if (!mR.getBoolean(R.bool.enable_link_probe)) return null;
+
+		String endpoint = mPrefs.getLinkProbeEndpoint();
+		if (endpoint == null || endpoint.length() == 0) {
+			endpoint = mLc.getStunServer();
+		}
+		String host = null;
+		int port = STUN_PORT;
+		if (endpoint != null && endpoint.length() > 0) {
+			int colon = endpoint.lastIndexOf(':');
+			host = colon > 0 ? endpoint.substring(0, colon) : endpoint;
+			if (colon > 0) {
+				try {
+					port = Integer.parseInt(endpoint.substring(colon + 1));
+				} catch (NumberFormatException e) {
+					Log.w("Invalid link probe endpoint " + endpoint);
+					return null;
+				}
+			}
+		}
+		mLinkProbe.setEndpoint(host, port);
+		return mLinkProbe.start(readNetworkKey());
+	}
+
 	public static interface AddressType {
 		void setText(CharSequence s);
 		CharSequence getText();
@@ -391,7 +765,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 	}
 
-	private synchronized void startLibLinphone(Context c) {
+	private void startLibLinphone(final Context c) {
 		try {
 			copyAssetsFromPackage();
 			//traces alway start with traces enable to not missed first initialization
@@ -399,30 +773,107 @@ public class LinphoneManager implements LinphoneCoreListener {
 			LinphoneCoreFactory.instance().setDebugMode(isDebugLogEnabled, getString(R.string.app_name));
 			LinphoneCoreFactory.instance().enableLogCollection(isDebugLogEnabled);
 
-			mLc = LinphoneCoreFactory.instance().createLinphoneCore(this, mLinphoneConfigFile, mLinphoneFactoryConfigFile, null, c);
+			// Created on the core thread, so that its callbacks come there from the start
+			mCore = mCoreExecutor.call(new Callable<LinphoneCore>() {
+				@Override
+				public LinphoneCore call() throws LinphoneCoreException {
+					LinphoneCoreListener listener = CoreThreadProxy.listener(mCoreExecutor, LinphoneManager.this, false);
+					return LinphoneCoreFactory.instance().createLinphoneCore(listener, mLinphoneConfigFile, mLinphoneFactoryConfigFile, null, c);
+				}
+			});
+			mLc = CoreThreadProxy.wrap(mCoreExecutor, mCore);
 
 			try {
 				initLiblinphone();
 			} catch (LinphoneCoreException e) {
 				Log.e(e);
 			}
+			if (!disableRinging) {
+				// Prepared now so that an incoming call rings right away
+				updateRingtone();
+			}
 
-			TimerTask lTask = new TimerTask() {
+			mScheduler = new CoreScheduler(new CoreScheduler.Host() {
 				@Override
-				public void run() {
-					UIThreadDispatcher.dispatch(new Runnable() {
-						@Override
-						public void run() {
-							if (mLc != null) {
-								mLc.iterate();
-							}
-						}
-					});
+				public void iterate() {
+					mCoreExecutor.run(mIterate);
+				}
+
+				@Override
+				public void postDelayed(Runnable r, long delayMs) {
+					mCoreExecutor.getHandler().postDelayed(r, delayMs);
+				}
+
+				@Override
+				public void removeCallbacks(Runnable r) {
+					mCoreExecutor.getHandler().removeCallbacks(r);
+				}
+
+				@Override
+				public long uptimeMillis() {
+					return SystemClock.uptimeMillis();
+				}
+			});
+			mStatsSampler = new CallStatsSampler<LinphoneCall>(new CallStatsSampler.Host<LinphoneCall>() {
+				@Override
+				public void sampleCalls(CallStatsSampler<LinphoneCall> sampler) {
+					LinphoneCore lc = mLc;
+					if (lc == null) return;
+					for (LinphoneCall call : lc.getCalls()) {
+						recordCallStats(call, call.getAudioStats(), false);
+					}
+				}
+
+				@Override
+				public void postDelayed(Runnable r, long delayMs) {
+					mCoreExecutor.getHandler().postDelayed(r, delayMs);
+				}
+
+				@Override
+				public void removeCallbacks(Runnable r) {
+					mCoreExecutor.getHandler().removeCallbacks(r);
+				}
+
+				@Override
+				public long uptimeMillis() {
+					return SystemClock.uptimeMillis();
+				}
+
+				@Override
+				public void dispatch(Runnable r) {
+					UIThreadDispatcher.dispatch(r);
 				}
-			};
-			/*use schedule instead of scheduleAtFixedRate to avoid iterate from being call in burst after cpu wake up*/
-			mTimer = new Timer("Linphone scheduler");
-			mTimer.schedule(lTask, 0, 20);
+			});
+			if (mR.getBoolean(R.bool.record_call_quality)) {
+				mQualityExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						return new Thread(new Runnable() {
+							@Override
+							public void run() {
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, "Call quality recorder");
+					}
+				});
+				mQualityRecorder = new CallQualityRecorder<LinphoneCall>(new File(basePath, CallQualityLog.DIRECTORY), mQualityExecutor);
+				mQualityRecorder.attach(mStatsSampler);
+			}
+			if (mR.getBoolean(R.bool.enable_adaptive_call_tuning)) {
+				mCallTuner = new AdaptiveCallTuner<LinphoneCall>(new AdaptiveCallTuner.Host<LinphoneCall>() {
+					@Override
+					public boolean apply(LinphoneCall call, AdaptiveCallTuner.Settings settings) {
+						return applyCallSettings(call, settings);
+					}
+
+					@Override
+					public long uptimeMillis() {
+						return SystemClock.uptimeMillis();
+					}
+				}, mPrefs.getCodecBitrateLimit());
+			}
+			mScheduler.start();
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -430,7 +881,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 	}
 
-	private synchronized void initLiblinphone() throws LinphoneCoreException {
+	private void initLiblinphone() throws LinphoneCoreException {
 		boolean isDebugLogEnabled = !(mR.getBoolean(R.bool.disable_every_log)) && mPrefs.isDebugEnabled();
 		LinphoneCoreFactory.instance().setDebugMode(isDebugLogEnabled, getString(R.string.app_name));
 		LinphoneCoreFactory.instance().enableLogCollection(isDebugLogEnabled);
@@ -450,6 +901,8 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 
 		mLc.setContext(mServiceContext);
+		// The application may have died while the call tuner had changed the settings
+		restoreCallSettings(mLc);
 
 		try {
 			String versionName = mServiceContext.getPackageManager().getPackageInfo(mServiceContext.getPackageName(), 0).versionName;
@@ -474,11 +927,16 @@ public class LinphoneManager implements LinphoneCoreListener {
 		Log.w("MediaStreamer : " + availableCores + " cores detected and configured");
 		mLc.setCpuCount(availableCores);
 
-		int migrationResult = getLc().migrateToMultiTransport();
+		int migrationResult = mLc.migrateToMultiTransport();
 		Log.d("Migration to multi transport result = " + migrationResult);
 
 		if (mServiceContext.getResources().getBoolean(R.bool.enable_push_id)) {
-			Compatibility.initPushNotificationService(mServiceContext);
+			runDeferrable(new Runnable() {
+				@Override
+				public void run() {
+					Compatibility.initPushNotificationService(mServiceContext);
+				}
+			});
 		}
 
 		IntentFilter lFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
@@ -486,10 +944,45 @@ public class LinphoneManager implements LinphoneCoreListener {
         mServiceContext.registerReceiver(mKeepAliveReceiver, lFilter);
 
 		updateNetworkReachability();
+		mCoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mKeepAlive.restore(mPrefs.getKeepAliveBindings());
+				mKeepAlive.setCoreKeepAlive(mLc.isKeepAliveEnabled());
+				mKeepAlive.start(readNetworkKey());
+			}
+		});
+		BandwidthManager.getInstance().restore(mPrefs.getBandwidthMeasurements());
+		BandwidthManager.getInstance().setNetwork(readNetworkKey(), LinphoneUtils.getLinkClass(mConnectivityManager.getActiveNetworkInfo()));
 
 		if (Version.sdkAboveOrEqual(Version.API11_HONEYCOMB_30)) {
-			BluetoothManager.getInstance().initBluetooth();
+			runDeferrable(new Runnable() {
+				@Override
+				public void run() {
+					BluetoothManager.getInstance().initBluetooth();
+				}
+			});
+		}
+	}
+
+	/** Runs the task now, or once the call rings if the service was started by a push. Main thread only. */
+	public void runDeferrable(Runnable task) {
+		if (mDeferring) {
+			mDeferred.add(task);
+		} else {
+			task.run();
+		}
+	}
+
+	private void runDeferred() {
+		if (!mDeferring) return;
+		mDeferring = false;
+		mHandler.removeCallbacks(mRunDeferred);
+		Log.i("Running ", mDeferred.size(), " deferred initializations");
+		for (Runnable task : mDeferred) {
+			task.run();
 		}
+		mDeferred.clear();
 	}
 
 	private void copyAssetsFromPackage() throws IOException {
@@ -498,7 +991,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		copyIfNotExist(R.raw.toy_mono, mPauseSoundFile);
 		copyIfNotExist(R.raw.incoming_chat, mErrorToneFile);
 		copyIfNotExist(R.raw.linphonerc_default, mLinphoneConfigFile);
-		copyFromPackage(R.raw.linphonerc_factory, new File(mLinphoneFactoryConfigFile).getName());
+		copyIfOutdated(R.raw.linphonerc_factory, mLinphoneFactoryConfigFile);
 		copyIfNotExist(R.raw.lpconfig, mLPConfigXsd);
 		copyIfNotExist(R.raw.rootca, mLinphoneRootCaFile);
 	}
@@ -510,6 +1003,14 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 	}
 
+	private void copyIfOutdated(int ressourceId, String target) throws IOException {
+		File lFileToCopy = new File(target);
+		long packageTime = new File(mServiceContext.getPackageCodePath()).lastModified();
+		if (!lFileToCopy.exists() || packageTime == 0 || lFileToCopy.lastModified() < packageTime) {
+			copyFromPackage(ressourceId, lFileToCopy.getName());
+		}
+	}
+
 	public void copyFromPackage(int ressourceId, String target) throws IOException{
 		FileOutputStream lOutputStream = mServiceContext.openFileOutput (target, 0);
 		InputStream lInputStream = mR.openRawResource(ressourceId);
@@ -531,51 +1032,169 @@ public class LinphoneManager implements LinphoneCoreListener {
 	}
 
 	public void updateNetworkReachability() {
-		ConnectivityManager cm = (ConnectivityManager) mServiceContext.getSystemService(Context.CONNECTIVITY_SERVICE);
-		NetworkInfo eventInfo = cm.getActiveNetworkInfo();
-
-		if (eventInfo == null || eventInfo.getState() == NetworkInfo.State.DISCONNECTED) {
-			Log.i("No connectivity: setting network unreachable");
-			mLc.setNetworkReachable(false);
-		} else if (eventInfo.getState() == NetworkInfo.State.CONNECTED){
-			manageTunnelServer(eventInfo);
-
-			boolean wifiOnly = LinphonePreferences.instance().isWifiOnlyEnabled();
-			if (wifiOnly){
-				if (eventInfo.getType()==ConnectivityManager.TYPE_WIFI)
-					mLc.setNetworkReachable(true);
-				else {
-					Log.i("Wifi-only mode, setting network not reachable");
-					mLc.setNetworkReachable(false);
-				}
-			}else{
-				int curtype=eventInfo.getType();
-
-				if (curtype!=mLastNetworkType){
-					//if kind of network has changed, we need to notify network_reachable(false) to make sure all current connections are destroyed.
-					//they will be re-created during setNetworkReachable(true).
-					Log.i("Connectivity has changed.");
-					mLc.setNetworkReachable(false);
+		notifyCoreActivity();
+		mCoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mNetworkMachine.start();
+			}
+		});
+	}
+
+	private NetworkStateMachine.Network readNetwork() {
+		NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+		if (info == null || info.getState() != NetworkInfo.State.CONNECTED) {
+			return new NetworkStateMachine.Network(false, -1, null);
+		}
+
+		boolean usable = true;
+		if (LinphonePreferences.instance().isWifiOnlyEnabled() && info.getType() != ConnectivityManager.TYPE_WIFI) {
+			Log.i("Wifi-only mode, network not usable");
+			usable = false;
+		}
+		return new NetworkStateMachine.Network(usable, info.getType(), readLocalAddresses());
+	}
+
+	private static String readLocalAddresses() {
+		List<String> addresses = new ArrayList<String>();
+		try {
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+			while (interfaces != null && interfaces.hasMoreElements()) {
+				Enumeration<InetAddress> inetAddresses = interfaces.nextElement().getInetAddresses();
+				while (inetAddresses.hasMoreElements()) {
+					InetAddress address = inetAddresses.nextElement();
+					if (!address.isLoopbackAddress() && !address.isLinkLocalAddress()) {
+						addresses.add(address.getHostAddress());
+					}
 				}
-				mLc.setNetworkReachable(true);
-				mLastNetworkType=curtype;
 			}
+		} catch (SocketException e) {
+			Log.w("Cannot read the local addresses: ", e.getMessage());
+		}
+		Collections.sort(addresses);
+		return TextUtils.join(",", addresses);
+	}
+
+	private String readNetworkKey() {
+		NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+		if (info == null) return null;
+		if (info.getType() == ConnectivityManager.TYPE_WIFI) {
+			WifiManager wifi = (WifiManager) mServiceContext.getSystemService(Context.WIFI_SERVICE);
+			WifiInfo wifiInfo = wifi.getConnectionInfo();
+			return "wifi:" + (wifiInfo != null ? wifiInfo.getSSID() : "");
+		}
+		if (info.getType() == ConnectivityManager.TYPE_MOBILE) {
+			TelephonyManager tm = (TelephonyManager) mServiceContext.getSystemService(Context.TELEPHONY_SERVICE);
+			return "mobile:" + tm.getNetworkOperator();
+		}
+		return "type:" + info.getType();
+	}
+
+	private PendingIntent getKeepAliveIntent() {
+		if (mKeepAliveIntent == null) {
+			Intent intent = new Intent(mServiceContext, KeepAliveHandler.class);
+			mKeepAliveIntent = PendingIntent.getBroadcast(mServiceContext, 0, intent, 0);
 		}
+		return mKeepAliveIntent;
+	}
+
+	public void onKeepAliveAlarm() {
+		mCoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mKeepAlive.onAlarm();
+			}
+		});
+	}
+
+	public KeepAliveScheduler getKeepAliveScheduler() {
+		return mKeepAlive;
+	}
+
+	/** The keepalives of the core are on while the screen is on, the scheduler doesn't learn meanwhile. */
+	public void enableKeepAlive(final boolean enabled) {
+		mCoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mLc.enableKeepAlive(enabled);
+				mKeepAlive.setCoreKeepAlive(enabled);
+			}
+		});
+	}
+
+	/** Refreshes the connections to the proxy on a push received while there is no call, unless they were just recreated. */
+	public void onPushReceived() {
+		mCoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				PushTimeline.getInstance().mark(PushTimeline.SERVICE_READY);
+				LinphoneCore lc = mLc;
+				if (lc != null && lc.getCallsNb() == 0) {
+					notifyCoreActivity();
+					mNetworkMachine.onPushReceived();
+				}
+			}
+		});
+	}
+
+	public NetworkStateMachine.Stats getNetworkStats() {
+		return mNetworkMachine.getStats();
 	}
 
 	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
 	private void doDestroy() {
 		BluetoothManager.getInstance().destroy();
+		Log.i(mAudioRoutes.toString());
+		Log.i(BandwidthManager.getInstance().toString());
+		mAudioRoutes.stop();
 		try {
-			mTimer.cancel();
-			mLc.destroy();
+			if (mScheduler != null) {
+				Log.i(mScheduler.getStats().toString());
+				mScheduler.stop();
+			}
+			Log.i(mNumberNormalizer.toString());
+			Log.i(mNetworkMachine.getStats().toString());
+			Log.i(mKeepAlive.toString());
+			Log.i(PushTimeline.getInstance().toString());
+			mHandler.removeCallbacks(mRunDeferred);
+			if (mStatsSampler != null) {
+				Log.i(mStatsSampler.toString());
+				mStatsSampler.stop();
+			}
+			if (mQualityRecorder != null) {
+				Log.i(mQualityRecorder.toString());
+				mQualityRecorder.detach(mStatsSampler);
+				// Lets the queued writes finish
+				mQualityExecutor.shutdown();
+			}
+			Log.i(mLinkProbe.toString());
+			mProbeExecutor.shutdown();
+			mDialExecutor.shutdown();
+			if (mCallTuner != null) {
+				Log.i(mCallTuner.toString());
+			}
+			Log.i(mRingtone.toString());
+			mRingtone.release();
+			// Not waited for: core callbacks fired while destroying may need the manager lock we hold
+			final LinphoneCore lc = mCore;
+			mCoreExecutor.shutdown(new Runnable() {
+				@Override
+				public void run() {
+					// Their alarms and timers call the core
+					mNetworkMachine.stop();
+					mKeepAlive.stop();
+					lc.destroy();
+				}
+			});
 		}
 		catch (RuntimeException e) {
 			e.printStackTrace();
 		}
 		finally {
 			mServiceContext.unregisterReceiver(instance.mKeepAliveReceiver);
+			CallHistory.getInstance().unload();
 			mLc = null;
+			mCore = null;
 			instance = null;
 		}
 	}
@@ -591,7 +1210,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		return mR.getString(key);
 	}
 
-	/* Simple implementation as Android way seems very complicate:
+	/* Broadcasts come in bursts, the network state machine coalesces them.
 	For example: with wifi and mobile actives; when pulling mobile down:
 	I/Linphone( 8397): WIFI connected: setting network reachable
 	I/Linphone( 8397): new state [RegistrationProgress]
@@ -600,7 +1219,13 @@ public class LinphoneManager implements LinphoneCoreListener {
 	I/Linphone( 8397): WIFI connected: setting network reachable
 	*/
 	public void connectivityChanged(ConnectivityManager cm, boolean noConnectivity) {
-		updateNetworkReachability();
+		notifyCoreActivity();
+		mCoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mNetworkMachine.onConnectivityEvent();
+			}
+		});
 	}
 
 	public interface EcCalibrationListener {
@@ -609,7 +1234,8 @@ public class LinphoneManager implements LinphoneCoreListener {
 
 	private LinphoneCall ringingCall;
 
-	private MediaPlayer mRingerPlayer;
+	private final RingtonePlayer mRingtone;
+	private final AudioRouteMachine mAudioRoutes;
 	private Vibrator mVibrator;
 
 	public void displayWarning(LinphoneCore lc, String message) {}
@@ -644,14 +1270,94 @@ public class LinphoneManager implements LinphoneCoreListener {
 
 	public void globalState(final LinphoneCore lc, final GlobalState state, final String message) {
 		Log.i("New global state [",state,"]");
+		notifyCoreActivity();
 	}
 
 	public void registrationState(final LinphoneCore lc, final LinphoneProxyConfig proxy,final RegistrationState state,final String message) {
 		Log.i("New registration state ["+state+"]");
+		mRegistrationInProgress = state == RegistrationState.RegistrationProgress;
+		updateCoreSchedulerActivity(lc);
+		if (state == RegistrationState.RegistrationProgress) {
+			PushTimeline.getInstance().mark(PushTimeline.REGISTER_SENT);
+		} else if (state == RegistrationState.RegistrationOk) {
+			PushTimeline.getInstance().mark(PushTimeline.REGISTERED);
+		}
+		if ((state == RegistrationState.RegistrationOk || state == RegistrationState.RegistrationFailed)
+				&& proxy != null && proxy.getIdentity().equals(mKeepAliveIdentity)) {
+			// The core doesn't tell the received/rport of the answer, so the intervals stay within the former 10 minutes
+			mKeepAlive.onRefreshResult(state == RegistrationState.RegistrationOk);
+		}
+	}
+
+	public void notifyCoreActivity() {
+		if (mScheduler != null) {
+			mScheduler.notifyActivity();
+		}
+	}
+
+	public CoreExecutor getCoreExecutor() {
+		return mCoreExecutor;
+	}
+
+	public PhoneNumberNormalizer getPhoneNumberNormalizer() {
+		return mNumberNormalizer;
+	}
+
+	/** Adds a listener to the core, its callbacks are forwarded from the core thread to the UI thread. */
+	public void addListener(LinphoneCoreListener listener) {
+		final LinphoneCore lc = mLc;
+		if (lc == null) return;
+
+		final LinphoneCoreListener added = CoreThreadProxy.listener(mCoreExecutor, listener, true);
+		synchronized (mUIThreadListeners) {
+			mUIThreadListeners.put(listener, added);
+		}
+		mCoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				lc.addListener(added);
+			}
+		});
+	}
+
+	public void removeListener(LinphoneCoreListener listener) {
+		final LinphoneCore lc = mLc;
+		if (lc == null) return;
+
+		final LinphoneCoreListener removed;
+		synchronized (mUIThreadListeners) {
+			removed = mUIThreadListeners.remove(listener);
+		}
+		if (removed == null) return;
+		CoreThreadProxy.detach(removed);
+		mCoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				lc.removeListener(removed);
+			}
+		});
+	}
+
+	public CallStatsSampler<LinphoneCall> getCallStatsSampler() {
+		return mStatsSampler;
+	}
+
+	public AdaptiveCallTuner<LinphoneCall> getCallTuner() {
+		return mCallTuner;
+	}
+
+	public CoreScheduler.Stats getCoreSchedulerStats() {
+		return mScheduler != null ? mScheduler.getStats() : null;
+	}
+
+	private void updateCoreSchedulerActivity(LinphoneCore lc) {
+		if (mScheduler == null) return;
+		mScheduler.setBusy(lc.getCallsNb() > 0 || mRegistrationInProgress);
+		mScheduler.notifyActivity();
 	}
 
 	private int savedMaxCallWhileGsmIncall;
-	private synchronized void preventSIPCalls() {
+	private void preventSIPCalls() {
 		if (savedMaxCallWhileGsmIncall != 0) {
 			Log.w("SIP calls are already blocked due to GSM call running");
 			return;
@@ -659,7 +1365,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		savedMaxCallWhileGsmIncall = mLc.getMaxCalls();
 		mLc.setMaxCalls(0);
 	}
-	private synchronized void allowSIPCalls() {
+	private void allowSIPCalls() {
 		if (savedMaxCallWhileGsmIncall == 0) {
 			Log.w("SIP calls are already allowed as no GSM call known to be running");
 			return;
@@ -667,14 +1373,19 @@ public class LinphoneManager implements LinphoneCoreListener {
 		mLc.setMaxCalls(savedMaxCallWhileGsmIncall);
 		savedMaxCallWhileGsmIncall = 0;
 	}
-	public static void setGsmIdle(boolean gsmIdle) {
-		LinphoneManager mThis = instance;
+	public static void setGsmIdle(final boolean gsmIdle) {
+		final LinphoneManager mThis = instance;
 		if (mThis == null) return;
-		if (gsmIdle) {
-			mThis.allowSIPCalls();
-		} else {
-			mThis.preventSIPCalls();
-		}
+		mThis.mCoreExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (gsmIdle) {
+					mThis.allowSIPCalls();
+				} else {
+					mThis.preventSIPCalls();
+				}
+			}
+		});
 	}
 
 	public Context getContext() {
@@ -698,6 +1409,10 @@ public class LinphoneManager implements LinphoneCoreListener {
 	@SuppressLint("Wakelock")
 	public void callState(final LinphoneCore lc,final LinphoneCall call, final State state, final String message) {
 		Log.i("New call state [",state,"]");
+		updateCoreSchedulerActivity(lc);
+		if (state == State.IncomingReceived) {
+			PushTimeline.getInstance().mark(PushTimeline.INVITE_RECEIVED);
+		}
 		if (state == State.IncomingReceived && !call.equals(lc.getCurrentCall())) {
 			if (call.getReplacedCall()!=null){
 				// attended transfer
@@ -713,10 +1428,51 @@ public class LinphoneManager implements LinphoneCoreListener {
 				e.printStackTrace();
 			}
 		}
-		else if (state == State.IncomingReceived || (state == State.CallIncomingEarlyMedia && mR.getBoolean(R.bool.allow_ringing_while_early_media))) {
+
+		if (state == State.CallReleased) {
+			CallHistory.getInstance().onCallReleased(call);
+		}
+
+		if (mStatsSampler != null) {
+			if (mQualityRecorder != null && state == State.Connected) {
+				mQualityRecorder.callStarted(call, call.getCallLog().getTimestamp());
+			}
+			if (state == State.CallReleased || state == State.Error) {
+				if (mCallTuner != null) {
+					mCallTuner.removeCall(call);
+					releaseCallSettings(lc, call);
+				}
+				CallStatsSampler.Series series = mStatsSampler.removeCall(call);
+				if (mQualityRecorder != null) {
+					mQualityRecorder.callEnded(call, series);
+				}
+				BandwidthManager.getInstance().callEnded(series);
+				mPrefs.setBandwidthMeasurements(BandwidthManager.getInstance().serialize());
+			}
+			if (lc.getCallsNb() > 0) {
+				mStatsSampler.start();
+			} else {
+				mStatsSampler.stop();
+			}
+		}
+
+		// Ringing, audio routes and wake locks are handled on the main thread
+		final int callsNb = lc.getCallsNb();
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				onCallStateChanged(call, state, callsNb);
+			}
+		});
+	}
+
+	private void onCallStateChanged(LinphoneCall call, State state, int callsNb) {
+		if (state == State.IncomingReceived && mR.getBoolean(R.bool.auto_answer_calls)) {
+			// Answered on the core thread
+		} else if (state == State.IncomingReceived || (state == State.CallIncomingEarlyMedia && mR.getBoolean(R.bool.allow_ringing_while_early_media))) {
 			// Brighten screen for at least 10 seconds
-			if (mLc.getCallsNb() == 1) {
-				BluetoothManager.getInstance().disableBluetoothSCO(); // Just in case
+			if (callsNb == 1) {
+				routeAudioToReceiver(); // Just in case bluetooth audio was still on
 
 				ringingCall = call;
 				startRinging();
@@ -728,7 +1484,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 
 		if (state == State.Connected) {
-			if (mLc.getCallsNb() == 1) {
+			if (callsNb == 1) {
 				requestAudioFocus();
 				Compatibility.setAudioManagerInCallMode(mAudioManager);
 			}
@@ -744,7 +1500,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 
 		if (state == State.CallReleased || state == State.Error) {
-			if (mLc.getCallsNb() == 0) {
+			if (callsNb == 0) {
 				if (mAudioFocused){
 					int res = mAudioManager.abandonAudioFocus(null);
 					Log.d("Audio focus released a bit later: " + (res == AudioManager.AUDIOFOCUS_REQUEST_GRANTED ? "Granted" : "Denied"));
@@ -765,7 +1521,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 
 		if (state == State.CallEnd) {
-			if (mLc.getCallsNb() == 0) {
+			if (callsNb == 0) {
 				if (mIncallWakeLock != null && mIncallWakeLock.isHeld()) {
 					mIncallWakeLock.release();
 					Log.i("Last call ended: releasing incall (CPU only) wake lock");
@@ -777,14 +1533,8 @@ public class LinphoneManager implements LinphoneCoreListener {
 
 		if (state == State.StreamsRunning) {
 			if (BluetoothManager.getInstance().isBluetoothHeadsetAvailable()) {
-				BluetoothManager.getInstance().routeAudioToBluetooth();
-				// Hack to ensure the bluetooth route is really used
-				mHandler.postDelayed(new Runnable() {
-					@Override
-					public void run() {
-						BluetoothManager.getInstance().routeAudioToBluetooth();
-					}
-				}, 500);
+				// Confirmed by the SCO connected broadcast, retried if it doesn't come
+				routeAudioToBluetooth();
 			}
 
 			if (mIncallWakeLock == null) {
@@ -799,7 +1549,77 @@ public class LinphoneManager implements LinphoneCoreListener {
 		}
 	}
 
-	public void callStatsUpdated(final LinphoneCore lc, final LinphoneCall call, final LinphoneCallStats stats) {}
+	public void callStatsUpdated(final LinphoneCore lc, final LinphoneCall call, final LinphoneCallStats stats) {
+		if (stats != null && stats.getMediaType() == LinphoneCallStats.MediaType.Audio) {
+			recordCallStats(call, stats, true);
+		}
+	}
+
+	private void recordCallStats(LinphoneCall call, LinphoneCallStats stats, boolean pushed) {
+		if (mStatsSampler == null || stats == null) return;
+
+		float upload = stats.getUploadBandwidth(), download = stats.getDownloadBandwidth();
+		float jitter = stats.getReceiverInterarrivalJitter(), loss = stats.getReceiverLossRate();
+		if (pushed) {
+			mStatsSampler.recordPushed(call, upload, download, jitter, loss, call.getCurrentQuality(), stats.getIceState());
+			if (mCallTuner != null) {
+				float rtt = stats.getRoundTripDelay();
+				mCallTuner.onReport(call, loss, jitter, rtt > 0 ? rtt * 1000 : -1);
+			}
+		} else {
+			mStatsSampler.sample(call, upload, download, jitter, loss, call.getCurrentQuality(), stats.getIceState());
+		}
+	}
+
+	// Saves the settings before the first tuned call, put back at startup if the application dies during a call
+	private boolean applyCallSettings(LinphoneCall call, AdaptiveCallTuner.Settings settings) {
+		LinphoneCore lc = mLc;
+		if (lc == null) return false;
+		if (mTunedCalls.isEmpty() && mPrefs.getTunerSavedSettings().length() == 0) {
+			int jitterBuffer = lc.getConfig().getInt("rtp", "audio_jitt_comp", AdaptiveCallTuner.MIN_JITTER_BUFFER_MS);
+			int ptime = lc.getConfig().getInt("rtp", "upload_ptime", 0);
+			mPrefs.setTunerSavedSettings(jitterBuffer + " " + ptime);
+		}
+		mTunedCalls.put(call, settings);
+		applySharedCallSettings(lc);
+		if (!CallManager.getInstance().updateCallBandwidth(call, settings.bitrate)) {
+			return false;
+		}
+		Log.i("Adaptive tuning of call: ", settings);
+		return true;
+	}
+
+	private void applySharedCallSettings(LinphoneCore lc) {
+		int jitterBuffer = 0, ptime = 0;
+		for (AdaptiveCallTuner.Settings settings : mTunedCalls.values()) {
+			jitterBuffer = Math.max(jitterBuffer, settings.jitterBuffer);
+			ptime = Math.max(ptime, settings.ptime);
+		}
+		lc.getConfig().setInt("rtp", "audio_jitt_comp", jitterBuffer);
+		lc.setUploadPtime(ptime);
+	}
+
+	private void releaseCallSettings(LinphoneCore lc, LinphoneCall call) {
+		if (mTunedCalls.remove(call) == null) return;
+		if (!mTunedCalls.isEmpty()) {
+			applySharedCallSettings(lc);
+		} else {
+			restoreCallSettings(lc);
+		}
+	}
+
+	private void restoreCallSettings(LinphoneCore lc) {
+		String saved = mPrefs.getTunerSavedSettings();
+		if (saved.length() == 0) return;
+		try {
+			String[] values = saved.split(" ");
+			lc.getConfig().setInt("rtp", "audio_jitt_comp", Integer.parseInt(values[0]));
+			lc.setUploadPtime(Integer.parseInt(values[1]));
+		} catch (RuntimeException e) {
+			Log.e(e, "Cannot restore the settings saved by the call tuner: ", saved);
+		}
+		mPrefs.setTunerSavedSettings("");
+	}
 
 	public void callEncryptionChanged(LinphoneCore lc, LinphoneCall call,
 			boolean encrypted, String authenticationToken) {
@@ -810,7 +1630,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		int oldVolume = mAudioManager.getStreamVolume(STREAM_VOICE_CALL);
 		int maxVolume = mAudioManager.getStreamMaxVolume(STREAM_VOICE_CALL);
 		mAudioManager.setStreamVolume(STREAM_VOICE_CALL, maxVolume, 0);
-		mLc.startEchoCalibration(l);
+		mLc.startEchoCalibration(CoreThreadProxy.listener(mCoreExecutor, l, true));
 
 		mAudioManager.setStreamVolume(STREAM_VOICE_CALL, oldVolume, 0);
 	}
@@ -833,6 +1653,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 	private synchronized void startRinging()  {
 		if (disableRinging) {
 			routeAudioToSpeaker();
+			onRinging();
 			return;
 		}
 		if (mR.getBoolean(R.bool.allow_ringing_while_early_media)) {
@@ -848,42 +1669,34 @@ public class LinphoneManager implements LinphoneCoreListener {
 				long[] patern = {0,1000,1000};
 				mVibrator.vibrate(patern, 1);
 			}
-			if (mRingerPlayer == null) {
+			if (!mRingtone.isPlaying()) {
 				requestAudioFocus();
-				mRingerPlayer = new MediaPlayer();
-				mRingerPlayer.setAudioStreamType(STREAM_RING);
-
-				String ringtone = LinphonePreferences.instance().getRingtone(android.provider.Settings.System.DEFAULT_RINGTONE_URI.toString());
-				try {
-					if (ringtone.startsWith("content://")) {
-						mRingerPlayer.setDataSource(mServiceContext, Uri.parse(ringtone));
-					} else {
-						FileInputStream fis = new FileInputStream(ringtone);
-						mRingerPlayer.setDataSource(fis.getFD());
-						fis.close();
-					}
-				} catch (IOException e) {
-					Log.e(e, "Cannot set ringtone");
-				}
-
-				mRingerPlayer.prepare();
-				mRingerPlayer.setLooping(true);
-				mRingerPlayer.start();
-			} else {
-				Log.w("already ringing");
 			}
+			// Rings once the ringtone is prepared, which it should already be
+			mRingtone.start();
 		} catch (Exception e) {
 			Log.e(e,"cannot handle incoming call");
 		}
 		isRinging = true;
 	}
 
+	/** To be called when the ringtone setting changes. */
+	public void updateRingtone() {
+		mRingtone.setSource(mPrefs.getRingtone(android.provider.Settings.System.DEFAULT_RINGTONE_URI.toString()));
+	}
+
+	public RingtonePlayer getRingtonePlayer() {
+		return mRingtone;
+	}
+
+	private void onRinging() {
+		PushTimeline.getInstance().mark(PushTimeline.RINGING);
+		// After the ringing started
+		mHandler.post(mRunDeferred);
+	}
+
 	private synchronized void stopRinging() {
-		if (mRingerPlayer != null) {
-			mRingerPlayer.stop();
-			mRingerPlayer.release();
-			mRingerPlayer = null;
-		}
+		mRingtone.stop();
 		if (mVibrator != null) {
 			mVibrator.cancel();
 		}
@@ -1052,7 +1865,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 	}
 
 
-	public static synchronized LinphoneCore getLcIfManagerNotDestroyedOrNull() {
+	public static LinphoneCore getLcIfManagerNotDestroyedOrNull() {
 		if (sExited || instance == null) {
 			// Can occur if the UI thread play a posted event but in the meantime the LinphoneManager was destroyed
 			// Ex: stop call and quickly terminate application.
@@ -1066,7 +1879,7 @@ public class LinphoneManager implements LinphoneCoreListener {
 		return instance != null;
 	}
 
-	public synchronized LinphoneCall getPendingIncomingCall() {
+	public LinphoneCall getPendingIncomingCall() {
 		LinphoneCall currentCall = mLc.getCurrentCall();
 		if (currentCall == null) return null;
 
@@ -1172,7 +1985,13 @@ public class LinphoneManager implements LinphoneCoreListener {
 		Log.d("Log upload state: " + state.toString() + ", info = " + info);
 
 		if (state == LogCollectionUploadState.LogCollectionUploadStateDelivered) {
-			LinphoneActivity.instance().sendLogs(LinphoneService.instance().getApplicationContext(),info);
+			final String url = info;
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					LinphoneActivity.instance().sendLogs(LinphoneService.instance().getApplicationContext(), url);
+				}
+			});
 		}
 	}
 
@@ -110,7 +110,9 @@ public class LinphonePreferences {
 
 	public void setRingtone(String ringtonePath) {
 		getConfig().setString("app", "ringtone", ringtonePath);
-
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().updateRingtone();
+		}
 	}
 
 	public boolean shouldAutomaticallyAcceptFriendsRequests() {
@@ -339,6 +341,7 @@ public class LinphonePreferences {
 
 			if (!tempNoDefault && LinphonePreferences.instance().getAccountCount() == 1)
 				lc.setDefaultProxyConfig(prxCfg);
+			LinphonePreferences.instance().dialPlanChanged();
 		}
 	}
 
@@ -599,6 +602,7 @@ public class LinphonePreferences {
 		prxCfg.edit();
 		prxCfg.setDialPrefix(prefix);
 		prxCfg.done();
+		dialPlanChanged();
 	}
 
 	public boolean avpfEnabled(int n) {
@@ -634,12 +638,14 @@ public class LinphonePreferences {
 		prxCfg.edit();
 		prxCfg.setDialEscapePlus(replace);
 		prxCfg.done();
+		dialPlanChanged();
 	}
 
 	public void setDefaultAccount(int accountIndex) {
 		LinphoneProxyConfig[] prxCfgs = getLc().getProxyConfigList();
 		if (accountIndex >= 0 && accountIndex < prxCfgs.length)
 			getLc().setDefaultProxyConfig(prxCfgs[accountIndex]);
+		dialPlanChanged();
 	}
 
 	public int getDefaultAccountIndex() {
@@ -680,6 +686,7 @@ public class LinphonePreferences {
 					}
 				}
 			}
+			dialPlanChanged();
 		}
 	}
 
@@ -699,6 +706,7 @@ public class LinphonePreferences {
 		if(getLc().getDefaultProxyConfig() == null){
 			getLc().setDefaultProxyConfig(getProxyConfig(0));
 		}
+		dialPlanChanged();
 	}
 
 	public void deleteAccount(int n) {
@@ -710,6 +718,16 @@ public class LinphonePreferences {
 			resetDefaultProxyConfig();
 			getLc().refreshRegisters();
 		}
+		dialPlanChanged();
+	}
+
+	/**
+	 * Phone numbers normalized with the previous default proxy config or dial plan are no longer valid.
+	 */
+	public void dialPlanChanged() {
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().getPhoneNumberNormalizer().invalidate();
+		}
 	}
 	// End of accounts settings
 
@@ -770,6 +788,52 @@ public class LinphonePreferences {
 		return getConfig().getBool("app", "wifi_only", false);
 	}
 
+	/**
+	 * @return the keepalive intervals learned for each network, see {@link KeepAliveScheduler#serialize()}
+	 */
+	public String getKeepAliveBindings() {
+		return getConfig().getString("app", "keepalive_bindings", null);
+	}
+
+	public void setKeepAliveBindings(String bindings) {
+		getConfig().setString("app", "keepalive_bindings", bindings);
+	}
+
+	/**
+	 * @return what calls measured on each network, see {@link BandwidthManager#serialize()}
+	 */
+	public String getBandwidthMeasurements() {
+		// Renamed when the throughput was replaced by the jitter, the older measurements don't parse the same
+		return getConfig().getString("app", "bandwidth_quality", null);
+	}
+
+	public void setBandwidthMeasurements(String measurements) {
+		getConfig().setString("app", "bandwidth_quality", measurements);
+	}
+
+	/**
+	 * @return the jitter buffer and upload ptime the adaptive call tuner replaced while calls are tuned, as "jitter ptime",
+	 * empty when nothing is tuned
+	 */
+	public String getTunerSavedSettings() {
+		return getConfig().getString("app", "tuner_saved_settings", "");
+	}
+
+	public void setTunerSavedSettings(String settings) {
+		getConfig().setString("app", "tuner_saved_settings", settings);
+	}
+
+	/**
+	 * @return the host:port of the UDP echo or STUN server the link is probed with before dialing, null to use the STUN server
+	 */
+	public String getLinkProbeEndpoint() {
+		return getConfig().getString("app", "link_probe_endpoint", null);
+	}
+
+	public void setLinkProbeEndpoint(String endpoint) {
+		getConfig().setString("app", "link_probe_endpoint", endpoint);
+	}
+
 	public String getStunServer() {
 		return getLc().getStunServer();
 	}
@@ -1053,6 +1117,17 @@ public class LinphonePreferences {
 		return getConfig().getBool("app", "contacts_migration_done",false);
 	}
 
+	/**
+	 * @return the highest contact id whose IM addresses are migrated, 0 if the migration didn't start
+	 */
+	public int getContactsMigrationCheckpoint() {
+		return getConfig().getInt("app", "contacts_migration_checkpoint", 0);
+	}
+
+	public void setContactsMigrationCheckpoint(int contactId) {
+		getConfig().setInt("app", "contacts_migration_checkpoint", contactId);
+	}
+
 	public String getDebugPopupAddress(){
 		return getConfig().getString("app", "debug_popup_magic", null);
 	}
@@ -37,7 +37,6 @@ import org.linphone.mediastream.Version;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
-import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -49,13 +48,10 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.database.ContentObserver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.SystemClock;
 import android.provider.ContactsContract;
-import android.provider.MediaStore;
 
 /**
  * 
@@ -113,7 +109,6 @@ public final class LinphoneService extends Service {
 	private Notification mCustomNotif;
 	private int mMsgNotifCount;
 	private PendingIntent mNotifContentIntent;
-	private PendingIntent mkeepAlivePendingIntent;
 	private String mNotificationTitle;
 	private boolean mDisableRegistrationStatus;
 	private LinphoneCoreListenerBase mListener;
@@ -138,10 +133,7 @@ public final class LinphoneService extends Service {
 		LinphoneCoreFactory.instance().setLogCollectionPath(getFilesDir().getAbsolutePath());
 		LinphoneCoreFactory.instance().enableLogCollection(!(getResources().getBoolean(R.bool.disable_every_log)));
 		
-		// Dump some debugging information to the logs
 		Log.i(START_LINPHONE_LOGS);
-		dumpDeviceInformation();
-		dumpInstalledLinphoneInformation();
 
 		mNM = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
 		mNM.cancel(INCALL_NOTIF_ID); // in case of crash the icon is not removed
@@ -160,7 +152,17 @@ public final class LinphoneService extends Service {
 		LinphoneManager.createAndStart(LinphoneService.this);
 
 		instance = this; // instance is ready once linphone manager has been created
-		LinphoneManager.getLc().addListener(mListener = new LinphoneCoreListenerBase(){
+		PushTimeline.getInstance().mark(PushTimeline.SERVICE_READY);
+
+		// Dump some debugging information to the logs, unless the service is started to receive a call
+		LinphoneManager.getInstance().runDeferrable(new Runnable() {
+			@Override
+			public void run() {
+				dumpDeviceInformation();
+				dumpInstalledLinphoneInformation();
+			}
+		});
+		LinphoneManager.getInstance().addListener(mListener = new LinphoneCoreListenerBase(){
 
 			@Override
 			public void callState(LinphoneCore lc, LinphoneCall call, LinphoneCall.State state, String message) {
@@ -229,7 +231,14 @@ public final class LinphoneService extends Service {
 			}
 		}
 
-		this.getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, mObserver);
+		// The address index is read from the whole address book, not needed to ring
+		LinphoneManager.getInstance().runDeferrable(new Runnable() {
+			@Override
+			public void run() {
+				ContactsManager.getInstance().initializeContactManager(getApplicationContext(), getContentResolver());
+				getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, mObserver);
+			}
+		});
 
 		startForegroundCompat(NOTIF_ID, mNotif);
 
@@ -241,14 +250,6 @@ public final class LinphoneService extends Service {
 				}
 			}, 5000);
 		}
-		
-		//make sure the application will at least wakes up every 10 mn
-		Intent intent = new Intent(this, KeepAliveHandler.class);
-	    mkeepAlivePendingIntent = PendingIntent.getBroadcast(this, 0, intent, PendingIntent.FLAG_ONE_SHOT);
-		((AlarmManager) this.getSystemService(Context.ALARM_SERVICE)).setRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP
-																							, SystemClock.elapsedRealtime()+600000
-																							, 600000
-																							, mkeepAlivePendingIntent);
 	}
 
 	private ContentObserver mObserver = new ContentObserver(new Handler()) {
@@ -256,11 +257,13 @@ public final class LinphoneService extends Service {
 		@Override
 		public void onChange(boolean selfChange) {
 			super.onChange(selfChange);
+			ContactsManager.getInstance().onContactsChanged();
 		}
 
 	};
 		
 
+	private static final int NOTIF_PICTURE_SIZE_DP = 64;
 	private enum IncallIconState {INCALL, PAUSE, IDLE}
 	private IncallIconState mCurrentIncallIconState = IncallIconState.IDLE;
 	private synchronized void setIncallIcon(IncallIconState state) {
@@ -298,17 +301,24 @@ public final class LinphoneService extends Service {
 		address.setDisplayName(displayName);
 
 		Contact contact = ContactsManager.getInstance().findContactWithAddress(getContentResolver(), address);
-		Uri pictureUri = contact != null ? contact.getPhotoUri() : null;
-		Bitmap bm = null;
-		try {
-			bm = MediaStore.Images.Media.getBitmap(getContentResolver(), pictureUri);
-		} catch (Exception e) {
-			bm = BitmapFactory.decodeResource(getResources(), R.drawable.unknown_small);
-		}
-		String name = address.getDisplayName() == null ? address.getUserName() : address.getDisplayName();
-		mIncallNotif = Compatibility.createInCallNotification(getApplicationContext(), mNotificationTitle, getString(notificationTextId), inconId, bm, name, mNotifContentIntent);
+		final String name = address.getDisplayName() == null ? address.getUserName() : address.getDisplayName();
+		final int textId = notificationTextId, iconId = inconId;
+		final IncallIconState notifiedState = state;
+		int size = (int) (NOTIF_PICTURE_SIZE_DP * getResources().getDisplayMetrics().density);
+		ContactPhotoLoader.getInstance().load(this, contact != null ? contact.getID() : null, contact != null ? contact.getPhotoUri() : null,
+				contact != null ? contact.getThumbnailUri() : null, size, new ContactPhotoLoader.Callback() {
+			@Override
+			public void onPhotoLoaded(Bitmap photo) {
+				// The call may have been paused or ended while the picture was decoded
+				if (mCurrentIncallIconState != notifiedState) return;
 
-		notifyWrapper(INCALL_NOTIF_ID, mIncallNotif);
+				if (photo == null) {
+					photo = BitmapFactory.decodeResource(getResources(), R.drawable.unknown_small);
+				}
+				mIncallNotif = Compatibility.createInCallNotification(getApplicationContext(), mNotificationTitle, getString(textId), iconId, photo, name, mNotifContentIntent);
+				notifyWrapper(INCALL_NOTIF_ID, mIncallNotif);
+			}
+		});
 	}
 
 	public void refreshIncallIcon(LinphoneCall currentCall) {
@@ -501,7 +511,7 @@ public final class LinphoneService extends Service {
 	public synchronized void onDestroy() {
 		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
 		if (lc != null) {
-			lc.removeListener(mListener);
+			LinphoneManager.getInstance().removeListener(mListener);
 		}
 		
 		instance = null;
@@ -512,7 +522,6 @@ public final class LinphoneService extends Service {
 	    mNM.cancel(INCALL_NOTIF_ID);
 	    mNM.cancel(MESSAGE_NOTIF_ID);
 
-	    ((AlarmManager) this.getSystemService(Context.ALARM_SERVICE)).cancel(mkeepAlivePendingIntent);
 		getContentResolver().unregisterContentObserver(mObserver);
 		super.onDestroy();
 	}
@@ -40,11 +40,7 @@ import org.linphone.core.LinphoneAddress;
 import org.linphone.core.LinphoneCall;
 import org.linphone.core.LinphoneCall.State;
 import org.linphone.core.LinphoneCore;
-import org.linphone.core.LinphoneCoreException;
-import org.linphone.core.LinphoneCoreFactory;
-import org.linphone.core.LinphoneProxyConfig;
 import org.linphone.mediastream.Log;
-import org.linphone.mediastream.Version;
 import org.linphone.mediastream.video.capture.hwconf.Hacks;
 
 import android.app.Activity;
@@ -58,7 +54,6 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
-import android.provider.MediaStore;
 import android.telephony.TelephonyManager;
 import android.util.TypedValue;
 import android.view.KeyEvent;
@@ -78,21 +73,21 @@ public final class LinphoneUtils {
 	//private static final String sipAddressRegExp = "^(sip:)?(\\+)?[a-z0-9]+([_\\.-][a-z0-9]+)*@([a-z0-9]+([\\.-][a-z0-9]+)*)+\\.[a-z]{2,}(:[0-9]{2,5})?$";
 	//private static final String strictSipAddressRegExp = "^sip:(\\+)?[a-z0-9]+([_\\.-][a-z0-9]+)*@([a-z0-9]+([\\.-][a-z0-9]+)*)+\\.[a-z]{2,}$";
 
-	public static boolean isSipAddress(String numberOrAddress) {
-		try {
-			LinphoneCoreFactory.instance().createLinphoneAddress(numberOrAddress);
-			return true;
-		} catch (LinphoneCoreException e) {
-			return false;
+	// Parsing is done in Java, once per thread, instead of creating native addresses or proxy configs for each check
+	private static final ThreadLocal<SipUri> sSipUri = new ThreadLocal<SipUri>() {
+		@Override
+		protected SipUri initialValue() {
+			return new SipUri();
 		}
+	};
+
+	public static boolean isSipAddress(String numberOrAddress) {
+		SipUri uri = sSipUri.get();
+		return uri.parse(numberOrAddress) && uri.isSip();
 	}
 	
 	public static boolean isNumberAddress(String numberOrAddress) {
-		LinphoneProxyConfig proxy = LinphoneManager.getLc().createProxyConfig();
-		if(proxy.normalizePhoneNumber(numberOrAddress) != null){
-			return true;
-		}
-		return false;
+		return SipUri.isPhoneNumber(numberOrAddress);
 	}
 	
 	public static boolean isStrictSipAddress(String numberOrAddress) {
@@ -169,23 +164,7 @@ public final class LinphoneUtils {
 			if (bm == null) view.setImageResource(notFoundResource);
 			view.setImageBitmap(bm);
 		} else {
-			if (Version.sdkAboveOrEqual(Version.API06_ECLAIR_201)) {
-				Bitmap bm = null;
-				try {
-					bm = MediaStore.Images.Media.getBitmap(c.getContentResolver(),uri);
-				} catch (IOException e) {
-					if(tUri != null){
-						view.setImageURI(tUri);
-					}
-				}
-				if(bm != null) {
-					view.setImageBitmap(bm);
-				}
-			} else {
-				@SuppressWarnings("deprecation")
-				Bitmap bitmap = android.provider.Contacts.People.loadContactPhoto(c, uri, notFoundResource, null);
-				view.setImageBitmap(bitmap);
-			}
+			ContactPhotoLoader.getInstance().load(view, null, uri, tUri, notFoundResource);
 		}
 	}
 
@@ -299,21 +278,42 @@ public final class LinphoneUtils {
 	public static boolean isHighBandwidthConnection(Context context){
         ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo info = cm.getActiveNetworkInfo();
-        return (info != null && info.isConnected() && isConnectionFast(info.getType(),info.getSubtype()));
+        return (info != null && info.isConnected() && getLinkClass(info) != BandwidthManager.LINK_SLOW);
     }
 	
-	private static boolean isConnectionFast(int type, int subType){
-		if (type == ConnectivityManager.TYPE_MOBILE) {
-            switch (subType) {
-            case TelephonyManager.NETWORK_TYPE_EDGE:
-            case TelephonyManager.NETWORK_TYPE_GPRS:
-            case TelephonyManager.NETWORK_TYPE_IDEN:
-            	return false;
-            }
+	/**
+	 * @return one of the BandwidthManager.LINK_ constants
+	 */
+	public static int getLinkClass(NetworkInfo info) {
+		if (info == null) return BandwidthManager.LINK_UNKNOWN;
+		if (info.getType() != ConnectivityManager.TYPE_MOBILE) {
+			// Wi-Fi, ethernet...
+			return BandwidthManager.LINK_FAST;
 		}
-        //in doubt, assume connection is good.
-        return true;
-    }
+		switch (info.getSubtype()) {
+		case TelephonyManager.NETWORK_TYPE_EDGE:
+		case TelephonyManager.NETWORK_TYPE_GPRS:
+		case TelephonyManager.NETWORK_TYPE_IDEN:
+		case TelephonyManager.NETWORK_TYPE_CDMA:
+		case TelephonyManager.NETWORK_TYPE_1xRTT:
+			return BandwidthManager.LINK_SLOW;
+		case TelephonyManager.NETWORK_TYPE_UMTS:
+		case TelephonyManager.NETWORK_TYPE_EVDO_0:
+		case TelephonyManager.NETWORK_TYPE_EVDO_A:
+		case TelephonyManager.NETWORK_TYPE_EVDO_B:
+		case TelephonyManager.NETWORK_TYPE_HSDPA:
+		case TelephonyManager.NETWORK_TYPE_HSUPA:
+		case TelephonyManager.NETWORK_TYPE_HSPA:
+		case TelephonyManager.NETWORK_TYPE_EHRPD:
+			return BandwidthManager.LINK_MEDIUM;
+		case TelephonyManager.NETWORK_TYPE_HSPAP:
+		case TelephonyManager.NETWORK_TYPE_LTE:
+			return BandwidthManager.LINK_FAST;
+		default:
+			//in doubt, assume connection is good.
+			return BandwidthManager.LINK_UNKNOWN;
+		}
+	}
 	
 	public static void clearLogs() {
 		try {
@@ -0,0 +1,142 @@
+/*
+LruMemoryCache.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache bounded by the total size of its values rather than their count.<br />
+ * Keeps hit, miss and eviction counters. Thread safe.
+ */
+public class LruMemoryCache<K, V> {
+	public interface Sizer<V> {
+		/**
+		 * @return the size of the value, in the same unit as the cache capacity
+		 */
+		int sizeOf(V value);
+	}
+
+	private final LinkedHashMap<K, V> mEntries = new LinkedHashMap<K, V>(16, 0.75f, true);
+	private final Sizer<V> mSizer;
+	private long mMaxSize;
+	private long mSize;
+	private long mHits, mMisses, mEvictions;
+
+	public LruMemoryCache(long maxSize, Sizer<V> sizer) {
+		mMaxSize = maxSize;
+		mSizer = sizer;
+	}
+
+	public synchronized V get(K key) {
+		V value = mEntries.get(key);
+		if (value != null) {
+			mHits++;
+		} else {
+			mMisses++;
+		}
+		return value;
+	}
+
+	public synchronized boolean contains(K key) {
+		return mEntries.containsKey(key);
+	}
+
+	/**
+	 * Values bigger than the whole cache are not kept.
+	 */
+	public synchronized void put(K key, V value) {
+		V previous = mEntries.remove(key);
+		if (previous != null) {
+			mSize -= mSizer.sizeOf(previous);
+		}
+
+		int size = mSizer.sizeOf(value);
+		if (size > mMaxSize) return;
+
+		mEntries.put(key, value);
+		mSize += size;
+		trimTo(mMaxSize);
+	}
+
+	public synchronized V remove(K key) {
+		V previous = mEntries.remove(key);
+		if (previous != null) {
+			mSize -= mSizer.sizeOf(previous);
+		}
+		return previous;
+	}
+
+	public synchronized void clear() {
+		mEntries.clear();
+		mSize = 0;
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache is no bigger than maxSize.
+	 */
+	public synchronized void trimTo(long maxSize) {
+		Iterator<Map.Entry<K, V>> it = mEntries.entrySet().iterator();
+		while (mSize > maxSize && it.hasNext()) {
+			Map.Entry<K, V> eldest = it.next();
+			mSize -= mSizer.sizeOf(eldest.getValue());
+			it.remove();
+			mEvictions++;
+		}
+	}
+
+	public synchronized int count() {
+		return mEntries.size();
+	}
+
+	public synchronized long size() {
+		return mSize;
+	}
+
+	public synchronized long maxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * Changes the capacity, evicting the least recently used entries if it shrinks.
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		mMaxSize = maxSize;
+		trimTo(maxSize);
+	}
+
+	public synchronized long hits() {
+		return mHits;
+	}
+
+	public synchronized long misses() {
+		return mMisses;
+	}
+
+	public synchronized long evictions() {
+		return mEvictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return mEntries.size() + " entries, " + mSize + "/" + mMaxSize + ", " + mHits + " hits, " + mMisses + " misses, "
+				+ mEvictions + " evictions";
+	}
+}
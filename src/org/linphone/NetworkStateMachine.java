@@ -0,0 +1,306 @@
+/*
+NetworkStateMachine.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+/**
+ * Decides when the core must drop and recreate its SIP connections after connectivity changes.<br />
+ * Bursts of connectivity broadcasts are coalesced into one evaluation, {@link #DEBOUNCE_MS} after the
+ * last one and at most {@link #MAX_COALESCE_MS} after the first. A lost network is only declared unreachable
+ * after {@link #LOSS_HOLD_MS}, and a new network must stay the same for {@link #SWITCH_HOLD_MS} before the
+ * connections are reset. Changes that keep the same local addresses, such as a switch between mobile subtypes
+ * or a reconnection to the same Wi-Fi, are cosmetic and don't reset anything.
+ */
+public class NetworkStateMachine {
+	public static final long DEBOUNCE_MS = 500;
+	public static final long MAX_COALESCE_MS = 2000;
+	public static final long LOSS_HOLD_MS = 3000;
+	public static final long SWITCH_HOLD_MS = 2000;
+	public static final long MIN_RESET_INTERVAL_MS = 5000;
+	public static final long PUSH_RESET_INTERVAL_MS = 30000;
+
+	public static final int UNKNOWN = 0, REACHABLE = 1, LOSING = 2, SWITCHING = 3, UNREACHABLE = 4;
+
+	/**
+	 * What the core can use, read from the system.
+	 */
+	public static class Network {
+		/** Connected, and allowed by the settings (Wi-Fi only...) */
+		public final boolean usable;
+		public final int type;
+		/** The local addresses, sorted, empty if they couldn't be read. */
+		public final String addresses;
+
+		public Network(boolean usable, int type, String addresses) {
+			this.usable = usable;
+			this.type = type;
+			this.addresses = addresses == null ? "" : addresses;
+		}
+
+		/**
+		 * @return true if the connections of the core still work on the other network
+		 */
+		public boolean sameLink(Network other) {
+			if (addresses.length() == 0 || other.addresses.length() == 0) {
+				return type == other.type;
+			}
+			return addresses.equals(other.addresses);
+		}
+
+		@Override
+		public String toString() {
+			return (usable ? "usable" : "unusable") + " network of type " + type + " [" + addresses + "]";
+		}
+	}
+
+	public interface Host {
+		Network readNetwork();
+		void setNetworkReachable(boolean reachable);
+		/**
+		 * The core is about to use another network, or the type of the current one changed.
+		 */
+		void networkChanged(Network network);
+		void postDelayed(Runnable r, long delayMs);
+		void removeCallbacks(Runnable r);
+		long uptimeMillis();
+	}
+
+	private final Host mHost;
+	private int mState = UNKNOWN;
+	private Network mCurrent, mCandidate;
+	private long mLostSince, mCandidateSince;
+	private long mLastReset = Long.MIN_VALUE / 2;
+	private boolean mDebouncing;
+	private long mBurstStart;
+
+	private long mEvents, mCoalescedEvents, mEvaluations;
+	private long mResets, mReconnections, mUnreachables;
+	private long mCosmeticChanges, mFlapsAbsorbed, mPushResets, mPushResetsSkipped;
+	/** The type last seen connected, and the resets done by only comparing it, as before this machine. */
+	private int mLegacyType = -1;
+	private long mLegacyResets;
+
+	private final Runnable mEvaluate = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (NetworkStateMachine.this) {
+				mDebouncing = false;
+				evaluate();
+			}
+		}
+	};
+
+	public NetworkStateMachine(Host host) {
+		mHost = host;
+	}
+
+	/**
+	 * Reads the network and sets the core reachability right away, when the core starts.
+	 */
+	public synchronized void start() {
+		mHost.removeCallbacks(mEvaluate);
+		mDebouncing = false;
+		evaluate();
+	}
+
+	public synchronized void stop() {
+		mHost.removeCallbacks(mEvaluate);
+		mDebouncing = false;
+	}
+
+	/**
+	 * A connectivity broadcast was received, or a setting affecting the usable networks changed.
+	 */
+	public synchronized void onConnectivityEvent() {
+		mEvents++;
+		long now = mHost.uptimeMillis();
+		if (mDebouncing) {
+			mCoalescedEvents++;
+		} else {
+			mDebouncing = true;
+			mBurstStart = now;
+		}
+		schedule(Math.min(DEBOUNCE_MS, mBurstStart + MAX_COALESCE_MS - now));
+	}
+
+	/**
+	 * A push notification was received: the connections may be dead without the system noticing,
+	 * but they are reset at most once every {@link #PUSH_RESET_INTERVAL_MS}.
+	 * @return true if the connections were reset
+	 */
+	public synchronized boolean onPushReceived() {
+		if (mState != REACHABLE) return false;
+		long now = mHost.uptimeMillis();
+		if (now - mLastReset < PUSH_RESET_INTERVAL_MS) {
+			mPushResetsSkipped++;
+			return false;
+		}
+		mPushResets++;
+		resetTransports(mCurrent, now);
+		return true;
+	}
+
+	public synchronized int getState() {
+		return mState;
+	}
+
+	/**
+	 * Replaces any pending evaluation: it reads the network again anyway, and waits for the rest of a hold.
+	 */
+	private void schedule(long delay) {
+		mHost.removeCallbacks(mEvaluate);
+		mHost.postDelayed(mEvaluate, Math.max(0, delay));
+	}
+
+	private void evaluate() {
+		mEvaluations++;
+		long now = mHost.uptimeMillis();
+		Network network = mHost.readNetwork();
+		if (network.usable) {
+			if (mLegacyType != -1 && network.type != mLegacyType) {
+				mLegacyResets++;
+			}
+			mLegacyType = network.type;
+		}
+
+		if (!network.usable) {
+			switch (mState) {
+			case REACHABLE:
+			case SWITCHING:
+				mState = LOSING;
+				mLostSince = now;
+				mCandidate = null;
+				schedule(LOSS_HOLD_MS);
+				break;
+			case LOSING:
+				if (now - mLostSince < LOSS_HOLD_MS) {
+					schedule(mLostSince + LOSS_HOLD_MS - now);
+				} else {
+					setUnreachable();
+				}
+				break;
+			case UNKNOWN:
+				setUnreachable();
+				break;
+			}
+			return;
+		}
+
+		if (mState == UNKNOWN || mState == UNREACHABLE) {
+			mState = REACHABLE;
+			mCurrent = network;
+			mReconnections++;
+			mLastReset = now;
+			mHost.networkChanged(network);
+			mHost.setNetworkReachable(true);
+			return;
+		}
+
+		if (network.sameLink(mCurrent)) {
+			if (mState != REACHABLE) {
+				mFlapsAbsorbed++;
+			}
+			if (network.type != mCurrent.type) {
+				mCosmeticChanges++;
+				mHost.networkChanged(network);
+			}
+			mState = REACHABLE;
+			mCurrent = network;
+			mCandidate = null;
+			return;
+		}
+
+		if (mState != SWITCHING || !network.sameLink(mCandidate)) {
+			if (mState == SWITCHING) {
+				mFlapsAbsorbed++;
+			}
+			mState = SWITCHING;
+			mCandidate = network;
+			mCandidateSince = now;
+			schedule(SWITCH_HOLD_MS);
+			return;
+		}
+
+		long stableAt = mCandidateSince + SWITCH_HOLD_MS;
+		long allowedAt = mLastReset + MIN_RESET_INTERVAL_MS;
+		if (now < stableAt || now < allowedAt) {
+			schedule(Math.max(stableAt, allowedAt) - now);
+			return;
+		}
+		resetTransports(network, now);
+	}
+
+	private void setUnreachable() {
+		mState = UNREACHABLE;
+		mUnreachables++;
+		mHost.setNetworkReachable(false);
+	}
+
+	/**
+	 * Destroys the connections of the core, which recreates them on the current network.
+	 */
+	private void resetTransports(Network network, long now) {
+		mResets++;
+		mLastReset = now;
+		mState = REACHABLE;
+		mCurrent = network;
+		mCandidate = null;
+		mHost.networkChanged(network);
+		mHost.setNetworkReachable(false);
+		mHost.setNetworkReachable(true);
+	}
+
+	public synchronized Stats getStats() {
+		Stats s = new Stats();
+		s.events = mEvents;
+		s.coalescedEvents = mCoalescedEvents;
+		s.evaluations = mEvaluations;
+		s.resets = mResets;
+		s.reconnections = mReconnections;
+		s.unreachables = mUnreachables;
+		s.cosmeticChanges = mCosmeticChanges;
+		s.flapsAbsorbed = mFlapsAbsorbed;
+		s.pushResets = mPushResets;
+		s.pushResetsSkipped = mPushResetsSkipped;
+		s.legacyResets = mLegacyResets;
+		return s;
+	}
+
+	public static class Stats {
+		public long events, coalescedEvents, evaluations;
+		public long resets, reconnections, unreachables;
+		public long cosmeticChanges, flapsAbsorbed, pushResets, pushResetsSkipped;
+		/** Resets the core would have done by toggling its reachability whenever the network type changed */
+		public long legacyResets;
+
+		/**
+		 * @return the legacy resets that didn't happen, the ones triggered by pushes are not counted against them
+		 */
+		public long getResetsAvoided() {
+			return Math.max(0, legacyResets - (resets - pushResets));
+		}
+
+		@Override
+		public String toString() {
+			return "Network state machine: " + events + " events (" + coalescedEvents + " coalesced), " + evaluations + " evaluations, "
+					+ resets + " resets, " + reconnections + " reconnections, " + unreachables + " unreachable, "
+					+ getResetsAvoided() + " of " + legacyResets + " legacy resets avoided (" + cosmeticChanges + " cosmetic changes, "
+					+ flapsAbsorbed + " flaps), " + pushResets + " push resets (" + pushResetsSkipped + " skipped)";
+		}
+	}
+}
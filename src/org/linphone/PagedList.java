@@ -0,0 +1,250 @@
+/*
+PagedList.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * A list whose items are only materialized when they are asked for, one page at a time, on an executor.<br />
+ * Only the last {@link #getMaxPages()} pages used are kept, so scrolling through a 10k entries list costs
+ * a few pages worth of objects instead of 10k of them.
+ *
+ * {@link #get(int)} never blocks: it returns null and loads the page if it isn't there yet, and the
+ * {@link Listener} is told once it is. Items are published under the list lock, so they can be read
+ * from any thread.
+ */
+public class PagedList<T> {
+	public static final int DEFAULT_PAGE_SIZE = 30;
+	public static final int DEFAULT_MAX_PAGES = 5;
+
+	public interface Source<T> {
+		int getCount();
+		/**
+		 * Called on the executor, or on the caller thread for {@link PagedList#getBlocking(int)}.
+		 * @return the item, or null if it cannot be read anymore
+		 */
+		T load(int position);
+	}
+
+	public interface Listener {
+		/**
+		 * Called on the executor thread.
+		 */
+		void onPageLoaded(int start, int count);
+	}
+
+	private final Source<T> mSource;
+	private final Executor mExecutor;
+	private final int mPageSize, mMaxPages;
+	private final int mCount;
+	private final Map<Integer, List<T>> mPages;
+	private final Set<Integer> mPending = new HashSet<Integer>();
+	private Listener mListener;
+	private boolean mClosed;
+
+	private final long mCreationTime = System.nanoTime();
+	private long mFirstPageNanos = -1;
+	private int mPageLoads, mItemLoads, mHits, mMisses, mEvictions;
+
+	public PagedList(Source<T> source, Executor executor) {
+		this(source, executor, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+	}
+
+	public PagedList(Source<T> source, Executor executor, int pageSize, int maxPages) {
+		mSource = source;
+		mExecutor = executor;
+		mPageSize = pageSize;
+		mMaxPages = Math.max(maxPages, 2);
+		mCount = source.getCount();
+		mPages = new LinkedHashMap<Integer, List<T>>(mMaxPages + 1, 0.75f, true);
+	}
+
+	public synchronized void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public int getPageSize() {
+		return mPageSize;
+	}
+
+	public int getMaxPages() {
+		return mMaxPages;
+	}
+
+	/**
+	 * @return the item if its page is loaded, null otherwise in which case the page is requested.
+	 * Pages next to the item are requested ahead of time when the item is close to their boundary.
+	 */
+	public synchronized T get(int position) {
+		if (position < 0 || position >= mCount) {
+			throw new IndexOutOfBoundsException(position + " not in [0, " + mCount + "[");
+		}
+
+		int page = position / mPageSize;
+		int offset = position % mPageSize;
+		List<T> items = mPages.get(page);
+		if (items == null) {
+			mMisses++;
+			request(page);
+			return null;
+		}
+
+		mHits++;
+		if (offset >= mPageSize - mPageSize / 4) {
+			request(page + 1);
+		} else if (offset < mPageSize / 4) {
+			request(page - 1);
+		}
+		return offset < items.size() ? items.get(offset) : null;
+	}
+
+	/**
+	 * Same as {@link #get(int)}, but loads the page on the caller thread if needed.
+	 */
+	public T getBlocking(int position) {
+		int page = position / mPageSize;
+		synchronized (this) {
+			if (mPages.containsKey(page)) return get(position);
+		}
+
+		List<T> items = loadPage(page);
+		synchronized (this) {
+			publish(page, items);
+		}
+		int offset = position % mPageSize;
+		return offset < items.size() ? items.get(offset) : null;
+	}
+
+	public synchronized boolean isLoaded(int position) {
+		return mPages.containsKey(position / mPageSize);
+	}
+
+	public synchronized int getLoadedItemsCount() {
+		int count = 0;
+		for (List<T> items : mPages.values()) {
+			count += items.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Forgets every page and ignores the loads still running. The source can be released afterwards.
+	 */
+	public synchronized void close() {
+		mClosed = true;
+		mPages.clear();
+		mPending.clear();
+		mListener = null;
+	}
+
+	public synchronized boolean isClosed() {
+		return mClosed;
+	}
+
+	private void request(final int page) {
+		if (mClosed || page < 0 || page * mPageSize >= mCount) return;
+		if (mPages.containsKey(page) || !mPending.add(page)) return;
+
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (PagedList.this) {
+					if (mClosed || !mPending.contains(page)) return;
+				}
+
+				List<T> items = loadPage(page);
+				Listener listener;
+				synchronized (PagedList.this) {
+					if (mClosed || !mPending.contains(page)) return;
+					publish(page, items);
+					listener = mListener;
+				}
+				if (listener != null) {
+					listener.onPageLoaded(page * mPageSize, items.size());
+				}
+			}
+		});
+	}
+
+	private List<T> loadPage(int page) {
+		int start = page * mPageSize;
+		int end = Math.min(start + mPageSize, mCount);
+		List<T> items = new ArrayList<T>(end - start);
+		for (int i = start; i < end; i++) {
+			items.add(mSource.load(i));
+		}
+		return items;
+	}
+
+	private void publish(int page, List<T> items) {
+		mPending.remove(page);
+		if (mClosed) return;
+
+		mPageLoads++;
+		mItemLoads += items.size();
+		if (mFirstPageNanos < 0) {
+			mFirstPageNanos = System.nanoTime() - mCreationTime;
+		}
+
+		mPages.put(page, items);
+		Iterator<Integer> eldest = mPages.keySet().iterator();
+		while (mPages.size() > mMaxPages && eldest.hasNext()) {
+			eldest.next();
+			eldest.remove();
+			mEvictions++;
+		}
+	}
+
+	public synchronized Stats getStats() {
+		Stats s = new Stats();
+		s.count = mCount;
+		s.pageLoads = mPageLoads;
+		s.itemLoads = mItemLoads;
+		s.hits = mHits;
+		s.misses = mMisses;
+		s.evictions = mEvictions;
+		s.firstPageMs = mFirstPageNanos < 0 ? -1 : mFirstPageNanos / 1000000;
+		return s;
+	}
+
+	public static class Stats {
+		public int count;
+		public int pageLoads, itemLoads;
+		public int hits, misses, evictions;
+		/** Time between the creation of the list and the first page being available, -1 if none yet. */
+		public long firstPageMs;
+
+		@Override
+		public String toString() {
+			return "Paged list: " + count + " items, " + itemLoads + " loaded in " + pageLoads + " pages (" + evictions + " evicted), "
+					+ hits + " hits, " + misses + " misses, first page after " + firstPageMs + " ms";
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+PhoneNumberNormalizer.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memoizes LinphoneProxyConfig.normalizePhoneNumber() for the default proxy config.<br />
+ * The same numbers are normalized over and over by contact lookups, call logs and contact refreshes,
+ * each time through the native layer. Results are kept in a bounded LRU cache keyed by the number and
+ * the dial plan (dial prefix and whether '+' is replaced by 00) they were computed with. The cache grows to
+ * hold the whole address book, see {@link #ensureCapacity(int)}.
+ *
+ * The cache is dropped by {@link #invalidate()} when the dial plan settings or the default proxy config change,
+ * and whenever the {@link Backend} reports a different dial plan than the cached one.
+ * Thread safe, so it can be used from the UI thread and from the contacts loader alike.
+ */
+public class PhoneNumberNormalizer {
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+	/** Numbers normalized per trip to the core thread, so that a whole address book doesn't hold it at once. */
+	public static final int MAX_BATCH = 200;
+
+	public interface Backend {
+		/**
+		 * Normalizes the numbers with the default proxy config, in one trip to the core thread.
+		 * @param results filled with the normalized number of each number, in order
+		 * @return the dial plan of the default proxy config, null if there is none
+		 */
+		DialPlan normalize(List<String> numbers, String[] results);
+	}
+
+	public static final class DialPlan {
+		public final String prefix;
+		public final boolean escapePlus;
+
+		public DialPlan(String prefix, boolean escapePlus) {
+			this.prefix = prefix != null ? prefix : "";
+			this.escapePlus = escapePlus;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof DialPlan)) return false;
+			DialPlan other = (DialPlan) o;
+			return prefix.equals(other.prefix) && escapePlus == other.escapePlus;
+		}
+
+		@Override
+		public int hashCode() {
+			return prefix.hashCode() * 31 + (escapePlus ? 1 : 0);
+		}
+
+		@Override
+		public String toString() {
+			return "prefix " + prefix + (escapePlus ? ", + replaced by 00" : "");
+		}
+	}
+
+	private static final class Key {
+		final String number;
+		final DialPlan dialPlan;
+
+		Key(String number, DialPlan dialPlan) {
+			this.number = number;
+			this.dialPlan = dialPlan;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return number.equals(other.number) && dialPlan.equals(other.dialPlan);
+		}
+
+		@Override
+		public int hashCode() {
+			return number.hashCode() * 31 + dialPlan.hashCode();
+		}
+	}
+
+	// Stands for a null result in the cache, which doesn't keep null values
+	private static final String NOT_NORMALIZED = new String();
+
+	private final Backend mBackend;
+	private final LruMemoryCache<Key, String> mCache;
+	private DialPlan mDialPlan;
+	private long mHits, mMisses, mInvalidations, mBackendCalls;
+
+	public PhoneNumberNormalizer(Backend backend) {
+		this(backend, DEFAULT_MAX_ENTRIES);
+	}
+
+	public PhoneNumberNormalizer(Backend backend, int maxEntries) {
+		mBackend = backend;
+		mCache = new LruMemoryCache<Key, String>(maxEntries, new LruMemoryCache.Sizer<String>() {
+			@Override
+			public int sizeOf(String value) {
+				return 1;
+			}
+		});
+	}
+
+	/**
+	 * @return the number normalized with the default proxy config, null if there is none
+	 */
+	public String normalize(String number) {
+		if (number == null) return null;
+		List<String> numbers = new ArrayList<String>(1);
+		numbers.add(number);
+		return normalize(numbers).get(number);
+	}
+
+	/**
+	 * Normalizes several numbers, those that aren't cached by batches of {@link #MAX_BATCH} on the core thread.
+	 * @return the normalized number of each number, empty if there is no default proxy config
+	 */
+	public Map<String, String> normalize(Collection<String> numbers) {
+		Map<String, String> normalized = new HashMap<String, String>();
+		Set<String> missing = new LinkedHashSet<String>();
+		DialPlan dialPlan = getDialPlan();
+		for (String number : numbers) {
+			if (number == null || normalized.containsKey(number)) continue;
+			String cached = dialPlan != null ? mCache.get(new Key(number, dialPlan)) : null;
+			if (cached != null) {
+				normalized.put(number, cached == NOT_NORMALIZED ? null : cached);
+			} else {
+				missing.add(number);
+			}
+		}
+		synchronized (this) {
+			mHits += normalized.size();
+			mMisses += missing.size();
+		}
+
+		List<String> batch = new ArrayList<String>(Math.min(missing.size(), MAX_BATCH));
+		int remaining = missing.size();
+		for (String number : missing) {
+			batch.add(number);
+			remaining--;
+			if (batch.size() < MAX_BATCH && remaining > 0) continue;
+
+			String[] results = new String[batch.size()];
+			DialPlan used = mBackend.normalize(batch, results);
+			synchronized (this) {
+				mBackendCalls++;
+			}
+			if (used == null) {
+				// No default proxy config, nothing to normalize with
+				invalidate();
+				return new HashMap<String, String>();
+			}
+			if (!used.equals(dialPlan)) {
+				setDialPlan(used);
+				dialPlan = used;
+			}
+			for (int i = 0; i < results.length; i++) {
+				normalized.put(batch.get(i), results[i]);
+				mCache.put(new Key(batch.get(i), used), results[i] != null ? results[i] : NOT_NORMALIZED);
+			}
+			batch.clear();
+		}
+		return normalized;
+	}
+
+	/**
+	 * Grows the cache so that it can hold that many numbers, such as all those of the address book. Never shrinks it.
+	 */
+	public void ensureCapacity(int entries) {
+		synchronized (mCache) {
+			if (entries > mCache.maxSize()) {
+				mCache.setMaxSize(entries);
+			}
+		}
+	}
+
+	/**
+	 * To be called when the default proxy config or its dial plan settings change.
+	 */
+	public void invalidate() {
+		setDialPlan(null);
+	}
+
+	private synchronized DialPlan getDialPlan() {
+		return mDialPlan;
+	}
+
+	private void setDialPlan(DialPlan dialPlan) {
+		synchronized (this) {
+			if (mDialPlan == null && dialPlan == null) return;
+			if (mDialPlan != null) mInvalidations++;
+			mDialPlan = dialPlan;
+		}
+		mCache.clear();
+	}
+
+	public synchronized long hits() {
+		return mHits;
+	}
+
+	public synchronized long misses() {
+		return mMisses;
+	}
+
+	public synchronized float getHitRatio() {
+		long lookups = mHits + mMisses;
+		return lookups > 0 ? (float) mHits / lookups : 0;
+	}
+
+	public synchronized long invalidations() {
+		return mInvalidations;
+	}
+
+	public synchronized long backendCalls() {
+		return mBackendCalls;
+	}
+
+	@Override
+	public String toString() {
+		return "Phone number normalizer: " + mCache.count() + " cached, " + hits() + " hits, " + misses() + " misses, hit ratio " + getHitRatio() + ", " + backendCalls() + " native calls, "
+				+ invalidations() + " invalidations, " + getDialPlan();
+	}
+}
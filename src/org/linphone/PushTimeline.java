@@ -0,0 +1,185 @@
+/*
+PushTimeline.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.linphone.mediastream.Log;
+
+/**
+ * Times what happens between a push notification and the phone ringing.<br />
+ * Each push opens an event, and the milestones reached while it's open are timestamped once: the service ready,
+ * the REGISTER sent and acknowledged, the INVITE received and the ringing, which closes the event.
+ * An event without a call closes after {@link #EVENT_TIMEOUT_MS}. Closed events are logged and the last
+ * {@link #HISTORY_SIZE} ones are kept.
+ *
+ * Pushes arrive before the service and the manager exist, hence the singleton.
+ */
+public class PushTimeline {
+	public static final int PUSH_RECEIVED = 0, SERVICE_READY = 1, REGISTER_SENT = 2, REGISTERED = 3, INVITE_RECEIVED = 4, RINGING = 5;
+	private static final String[] MILESTONES = { "push received", "service ready", "register sent", "registered", "invite received", "ringing" };
+
+	public static final long EVENT_TIMEOUT_MS = 30000;
+	public static final int HISTORY_SIZE = 20;
+
+	public interface Clock {
+		long elapsedMillis();
+	}
+
+	private static final Clock MONOTONIC = new Clock() {
+		@Override
+		public long elapsedMillis() {
+			return System.nanoTime() / 1000000;
+		}
+	};
+
+	public static class Event {
+		private final boolean mColdStart;
+		private final long[] mTimes = new long[MILESTONES.length];
+
+		Event(long time, boolean coldStart) {
+			mColdStart = coldStart;
+			Arrays.fill(mTimes, -1);
+			mTimes[PUSH_RECEIVED] = time;
+		}
+
+		/**
+		 * @return true if the push had to start the service
+		 */
+		public boolean isColdStart() {
+			return mColdStart;
+		}
+
+		/**
+		 * @return the time from the push to the milestone in ms, -1 if it wasn't reached
+		 */
+		public long getDelay(int milestone) {
+			return mTimes[milestone] < 0 ? -1 : mTimes[milestone] - mTimes[PUSH_RECEIVED];
+		}
+
+		public boolean isReached(int milestone) {
+			return mTimes[milestone] >= 0;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("Push (").append(mColdStart ? "cold start" : "service running").append(")");
+			for (int i = SERVICE_READY; i < MILESTONES.length; i++) {
+				if (isReached(i)) {
+					sb.append(", ").append(MILESTONES[i]).append(" +").append(getDelay(i)).append(" ms");
+				}
+			}
+			if (!isReached(RINGING)) {
+				sb.append(", no ringing");
+			}
+			return sb.toString();
+		}
+	}
+
+	private static PushTimeline instance;
+
+	private final Clock mClock;
+	private Event mCurrent;
+	private final LinkedList<Event> mHistory = new LinkedList<Event>();
+	private long mPushes;
+
+	public static final synchronized PushTimeline getInstance() {
+		if (instance == null) instance = new PushTimeline(MONOTONIC);
+		return instance;
+	}
+
+	public PushTimeline(Clock clock) {
+		mClock = clock;
+	}
+
+	/**
+	 * Opens a new event, closing the previous one if still open.
+	 * @param coldStart whether the service has to be started
+	 */
+	public synchronized void pushReceived(boolean coldStart) {
+		closeCurrent();
+		mPushes++;
+		mCurrent = new Event(mClock.elapsedMillis(), coldStart);
+	}
+
+	/**
+	 * Timestamps a milestone of the open event, if it wasn't reached yet.
+	 */
+	public synchronized void mark(int milestone) {
+		if (!isOpen() || mCurrent.isReached(milestone)) return;
+		mCurrent.mTimes[milestone] = mClock.elapsedMillis();
+		if (milestone == RINGING) {
+			closeCurrent();
+		}
+	}
+
+	/**
+	 * @return true while a push is being handled: until the phone rings or the event times out
+	 */
+	public synchronized boolean isOpen() {
+		if (mCurrent != null && mClock.elapsedMillis() - mCurrent.mTimes[PUSH_RECEIVED] > EVENT_TIMEOUT_MS) {
+			closeCurrent();
+		}
+		return mCurrent != null;
+	}
+
+	private void closeCurrent() {
+		if (mCurrent == null) return;
+		Log.i(mCurrent);
+		mHistory.addLast(mCurrent);
+		if (mHistory.size() > HISTORY_SIZE) {
+			mHistory.removeFirst();
+		}
+		mCurrent = null;
+	}
+
+	/**
+	 * @return the closed events, oldest first
+	 */
+	public synchronized List<Event> getHistory() {
+		isOpen();
+		return new ArrayList<Event>(mHistory);
+	}
+
+	/**
+	 * @return the median time from the push to the milestone over the closed events reaching it, -1 if none did
+	 */
+	public synchronized long getMedianDelay(int milestone) {
+		isOpen();
+		long[] delays = new long[mHistory.size()];
+		int count = 0;
+		for (Event event : mHistory) {
+			if (event.isReached(milestone)) {
+				delays[count++] = event.getDelay(milestone);
+			}
+		}
+		if (count == 0) return -1;
+		Arrays.sort(delays, 0, count);
+		return delays[count / 2];
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Push timeline: " + mPushes + " pushes, median time to ring " + getMedianDelay(RINGING) + " ms, to register "
+				+ getMedianDelay(REGISTERED) + " ms";
+	}
+}
@@ -0,0 +1,204 @@
+/*
+RingtonePlayer.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+import java.util.Arrays;
+
+import org.linphone.mediastream.Log;
+
+/**
+ * Keeps the ringtone ready to play.<br />
+ * The configured ringtone is resolved and prepared asynchronously as soon as it is known (startup or settings change),
+ * and the prepared player is kept warm between calls: starting to ring is then a plain start(), and stopping only
+ * pauses and rewinds it. If the ringtone is still preparing when a call comes in, it starts as soon as it is ready.
+ * If it can't be prepared, the fallback ringtone is tried instead.
+ *
+ * The delay between the ring request and the playback start is recorded for the last {@link #HISTORY_SIZE} rings.
+ */
+public class RingtonePlayer {
+	public static final int HISTORY_SIZE = 20;
+
+	public interface Host {
+		/**
+		 * Creates a player for the source and prepares it without blocking. Must answer with
+		 * {@link RingtonePlayer#onPrepared(String)} or {@link RingtonePlayer#onError(String)}.
+		 */
+		void prepareAsync(String source);
+		void start();
+		/**
+		 * Stops the sound and rewinds, keeping the player prepared.
+		 */
+		void pause();
+		void release();
+		long uptimeMillis();
+	}
+
+	private enum State { IDLE, PREPARING, READY, PLAYING }
+
+	private final Host mHost;
+	private final String mFallback;
+	private State mState = State.IDLE;
+	private String mSource, mPreparing;
+	private boolean mPendingStart;
+	private long mRequestTime;
+
+	private final long[] mLatencies = new long[HISTORY_SIZE];
+	private int mRings, mColdRings, mErrors;
+
+	public RingtonePlayer(Host host, String fallback) {
+		mHost = host;
+		mFallback = fallback;
+	}
+
+	/**
+	 * Sets the ringtone to use and prepares it in the background if it changed.
+	 */
+	public synchronized void setSource(String source) {
+		if (source == null || source.length() == 0) {
+			source = mFallback;
+		}
+		if (source.equals(mSource) && mState != State.IDLE) return;
+
+		boolean playing = mState == State.PLAYING || mPendingStart;
+		releasePlayer();
+		mSource = source;
+		prepare(source);
+		mPendingStart = playing;
+	}
+
+	public synchronized String getSource() {
+		return mSource;
+	}
+
+	/**
+	 * Starts ringing, right away if the ringtone is prepared, or as soon as it is.
+	 */
+	public synchronized void start() {
+		if (mState == State.PLAYING || mPendingStart) {
+			Log.w("Ringtone already playing");
+			return;
+		}
+		mRequestTime = mHost.uptimeMillis();
+		if (mState == State.READY) {
+			play();
+			return;
+		}
+
+		mColdRings++;
+		mPendingStart = true;
+		if (mState == State.IDLE) {
+			prepare(mSource != null ? mSource : mFallback);
+		}
+	}
+
+	/**
+	 * Stops ringing, the ringtone stays prepared for the next call.
+	 */
+	public synchronized void stop() {
+		mPendingStart = false;
+		if (mState == State.PLAYING) {
+			mHost.pause();
+			mState = State.READY;
+		}
+	}
+
+	public synchronized boolean isPlaying() {
+		return mState == State.PLAYING || mPendingStart;
+	}
+
+	public synchronized boolean isReady() {
+		return mState == State.READY;
+	}
+
+	/**
+	 * Releases the player, to be called on shutdown or when memory is low.
+	 */
+	public synchronized void release() {
+		mPendingStart = false;
+		releasePlayer();
+	}
+
+	public synchronized void onPrepared(String source) {
+		if (mState != State.PREPARING || !source.equals(mPreparing)) return;
+
+		mState = State.READY;
+		if (mPendingStart) {
+			play();
+		}
+	}
+
+	public synchronized void onError(String source) {
+		if (mState == State.IDLE || !source.equals(mPreparing)) return;
+
+		mErrors++;
+		Log.e("Cannot play ringtone " + source);
+		mHost.release();
+		mState = State.IDLE;
+		if (!source.equals(mFallback)) {
+			// Keeps the broken source so that it isn't retried until the setting changes
+			prepare(mFallback);
+		} else {
+			mPendingStart = false;
+		}
+	}
+
+	private void prepare(String source) {
+		mPreparing = source;
+		mState = State.PREPARING;
+		mHost.prepareAsync(source);
+	}
+
+	private void play() {
+		mPendingStart = false;
+		mHost.start();
+		mState = State.PLAYING;
+		mLatencies[mRings % HISTORY_SIZE] = mHost.uptimeMillis() - mRequestTime;
+		mRings++;
+	}
+
+	private void releasePlayer() {
+		if (mState != State.IDLE) {
+			mHost.release();
+			mState = State.IDLE;
+		}
+		mPreparing = null;
+	}
+
+	/**
+	 * @return the delay between the last ring request and the playback start in ms, -1 if it never rang
+	 */
+	public synchronized long getLastLatency() {
+		return mRings == 0 ? -1 : mLatencies[(mRings - 1) % HISTORY_SIZE];
+	}
+
+	public synchronized long getMedianLatency() {
+		int count = Math.min(mRings, HISTORY_SIZE);
+		if (count == 0) return -1;
+		long[] latencies = new long[count];
+		System.arraycopy(mLatencies, 0, latencies, 0, count);
+		Arrays.sort(latencies);
+		return latencies[count / 2];
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Ringtone: " + mRings + " rings (" + mColdRings + " not prepared in time, " + mErrors + " errors), median latency "
+				+ getMedianLatency() + " ms, last " + getLastLatency() + " ms";
+	}
+}
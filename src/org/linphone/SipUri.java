@@ -0,0 +1,441 @@
+/*
+SipUri.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+package org.linphone;
+
+/**
+ * Pure Java parser for the SIP addresses and phone numbers typed by users or stored in contacts and call logs.<br />
+ * Accepts what LinphoneCoreFactory.createLinphoneAddress() accepts: a sip: or sips: URI, optionally in a name-addr
+ * with a display name, as well as tel: URIs.
+ *
+ * Parsing works on the CharSequence itself and doesn't allocate: the parts are kept as offsets in the source
+ * and only turned into Strings when asked for, so an instance can be reused for every check.
+ * Instances aren't thread safe.
+ */
+public final class SipUri {
+	public static final int SCHEME_NONE = 0;
+	public static final int SCHEME_SIP = 1;
+	public static final int SCHEME_SIPS = 2;
+	public static final int SCHEME_TEL = 3;
+
+	private CharSequence mSource;
+	private int mScheme;
+	private int mDisplayNameStart, mDisplayNameEnd;
+	private int mUserStart, mUserEnd;
+	private int mHostStart, mHostEnd;
+	private int mPort;
+	private int mParamsStart, mParamsEnd;
+
+	/**
+	 * @return true if the whole text is a SIP (or tel) address, its parts are then available from this instance
+	 */
+	public boolean parse(CharSequence s) {
+		reset(s);
+		if (s == null) return false;
+
+		int start = skipSpaces(s, 0, s.length());
+		int end = s.length();
+		while (end > start && isSpace(s.charAt(end - 1))) end--;
+		if (start == end) return fail();
+
+		int laquot = indexOf(s, '<', skipQuotedString(s, start, end), end);
+		if (laquot < 0) {
+			return parseUri(s, start, end) || fail();
+		}
+
+		// name-addr: [display-name] <uri> *(;param)
+		int nameEnd = laquot;
+		while (nameEnd > start && isSpace(s.charAt(nameEnd - 1))) nameEnd--;
+		if (nameEnd > start && !isDisplayName(s, start, nameEnd)) return fail();
+		int raquot = indexOf(s, '>', laquot + 1, end);
+		if (raquot < 0 || !parseUri(s, laquot + 1, raquot)) return fail();
+		int params = skipSpaces(s, raquot + 1, end);
+		if (params < end && (s.charAt(params) != ';' || !isParams(s, params, end))) return fail();
+
+		if (nameEnd > start) {
+			boolean quoted = s.charAt(start) == '"';
+			mDisplayNameStart = quoted ? start + 1 : start;
+			mDisplayNameEnd = quoted ? nameEnd - 1 : nameEnd;
+		}
+		return true;
+	}
+
+	public boolean isValid() {
+		return mScheme != SCHEME_NONE;
+	}
+
+	public int getScheme() {
+		return mScheme;
+	}
+
+	public boolean isSip() {
+		return mScheme == SCHEME_SIP || mScheme == SCHEME_SIPS;
+	}
+
+	public boolean hasUser() {
+		return mUserEnd > mUserStart;
+	}
+
+	/**
+	 * @return the user part, or the number for a tel: URI, null if none
+	 */
+	public String getUser() {
+		return part(mUserStart, mUserEnd);
+	}
+
+	public String getHost() {
+		return part(mHostStart, mHostEnd);
+	}
+
+	/**
+	 * @return the port, -1 if none is given
+	 */
+	public int getPort() {
+		return mPort;
+	}
+
+	public String getDisplayName() {
+		return part(mDisplayNameStart, mDisplayNameEnd);
+	}
+
+	/**
+	 * @return the URI parameters without the leading ';', null if none
+	 */
+	public String getParams() {
+		return part(mParamsStart, mParamsEnd);
+	}
+
+	/**
+	 * @return the value of a URI parameter, "" if it has no value, null if it isn't there
+	 */
+	public String getParam(String name) {
+		int i = mParamsStart;
+		while (i < mParamsEnd) {
+			int next = indexOf(mSource, ';', i, mParamsEnd);
+			if (next < 0) next = mParamsEnd;
+			int eq = indexOf(mSource, '=', i, next);
+			int nameEnd = eq < 0 ? next : eq;
+			if (regionEqualsIgnoreCase(mSource, i, nameEnd, name)) {
+				return eq < 0 ? "" : mSource.subSequence(eq + 1, next).toString();
+			}
+			i = next + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * Same check as LinphoneProxyConfig.normalizePhoneNumber() does before accepting a number:
+	 * only digits, '+' and the usual separators.
+	 */
+	public static boolean isPhoneNumber(CharSequence s) {
+		if (s == null || s.length() == 0) return false;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (!isDigit(c) && c != ' ' && c != '.' && c != '-' && c != '(' && c != ')' && c != '/' && c != '+') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void reset(CharSequence s) {
+		mSource = s;
+		mScheme = SCHEME_NONE;
+		mDisplayNameStart = mDisplayNameEnd = 0;
+		mUserStart = mUserEnd = 0;
+		mHostStart = mHostEnd = 0;
+		mPort = -1;
+		mParamsStart = mParamsEnd = 0;
+	}
+
+	private boolean fail() {
+		reset(mSource);
+		return false;
+	}
+
+	private String part(int start, int end) {
+		return end > start ? mSource.subSequence(start, end).toString() : null;
+	}
+
+	private boolean parseUri(CharSequence s, int start, int end) {
+		int colon = indexOf(s, ':', start, end);
+		if (colon < 0) return false;
+		int scheme;
+		if (regionEqualsIgnoreCase(s, start, colon, "sip")) {
+			scheme = SCHEME_SIP;
+		} else if (regionEqualsIgnoreCase(s, start, colon, "sips")) {
+			scheme = SCHEME_SIPS;
+		} else if (regionEqualsIgnoreCase(s, start, colon, "tel")) {
+			scheme = SCHEME_TEL;
+		} else {
+			return false;
+		}
+
+		boolean ok = scheme == SCHEME_TEL ? parseTel(s, colon + 1, end) : parseSip(s, colon + 1, end);
+		if (ok) mScheme = scheme;
+		return ok;
+	}
+
+	private boolean parseSip(CharSequence s, int start, int end) {
+		// '@' is neither allowed in parameters nor in headers, so the first one ends the userinfo
+		int i = start;
+		int at = indexOf(s, '@', start, end);
+		if (at >= 0) {
+			int userEnd = start;
+			while (userEnd < at && s.charAt(userEnd) != ':') {
+				if (!isUserChar(s, userEnd, at)) return false;
+				userEnd += s.charAt(userEnd) == '%' ? 3 : 1;
+			}
+			if (userEnd == start) return false;
+			for (int j = userEnd + 1; j < at; j += s.charAt(j) == '%' ? 3 : 1) {
+				if (!isPasswordChar(s, j, at)) return false;
+			}
+			mUserStart = start;
+			mUserEnd = userEnd;
+			i = at + 1;
+		}
+
+		// host
+		int hostEnd;
+		if (i < end && s.charAt(i) == '[') {
+			int close = indexOf(s, ']', i, end);
+			if (close < 0 || !isIpv6(s, i + 1, close)) return false;
+			hostEnd = close + 1;
+		} else {
+			hostEnd = i;
+			while (hostEnd < end && (isAlphaNum(s.charAt(hostEnd)) || s.charAt(hostEnd) == '-' || s.charAt(hostEnd) == '.')) hostEnd++;
+			if (!isHostname(s, i, hostEnd)) return false;
+		}
+		mHostStart = i;
+		mHostEnd = hostEnd;
+		i = hostEnd;
+
+		// port
+		if (i < end && s.charAt(i) == ':') {
+			int port = 0, digits = 0;
+			for (i++; i < end && isDigit(s.charAt(i)); i++, digits++) {
+				port = port * 10 + s.charAt(i) - '0';
+				if (port > 65535) return false;
+			}
+			if (digits == 0) return false;
+			mPort = port;
+		}
+
+		// uri-parameters and headers
+		int headers = indexOf(s, '?', i, end);
+		int paramsEnd = headers < 0 ? end : headers;
+		if (i < paramsEnd) {
+			if (s.charAt(i) != ';' || !isParams(s, i, paramsEnd)) return false;
+			mParamsStart = i + 1;
+			mParamsEnd = paramsEnd;
+		}
+		return headers < 0 || isHeaders(s, headers + 1, end);
+	}
+
+	private boolean parseTel(CharSequence s, int start, int end) {
+		int numberEnd = indexOf(s, ';', start, end);
+		if (numberEnd < 0) numberEnd = end;
+		boolean global = start < numberEnd && s.charAt(start) == '+';
+		int digits = 0;
+		for (int i = global ? start + 1 : start; i < numberEnd; i++) {
+			char c = s.charAt(i);
+			if (isDigit(c) || (!global && (isHexDigit(c) || c == '*' || c == '#'))) {
+				digits++;
+			} else if (c != '-' && c != '.' && c != '(' && c != ')') {
+				return false;
+			}
+		}
+		if (digits == 0) return false;
+		if (numberEnd < end && !isParams(s, numberEnd, end)) return false;
+
+		mUserStart = start;
+		mUserEnd = numberEnd;
+		if (numberEnd < end) {
+			mParamsStart = numberEnd + 1;
+			mParamsEnd = end;
+		}
+		return true;
+	}
+
+	/**
+	 * *(";" pname ["=" pvalue]), starting at the first ';'
+	 */
+	private static boolean isParams(CharSequence s, int start, int end) {
+		int i = start;
+		while (i < end) {
+			if (s.charAt(i) != ';') return false;
+			i++;
+			int name = i;
+			while (i < end && s.charAt(i) != '=' && s.charAt(i) != ';') {
+				if (!isParamChar(s, i, end)) return false;
+				i += s.charAt(i) == '%' ? 3 : 1;
+			}
+			if (i == name) return false;
+			if (i < end && s.charAt(i) == '=') {
+				int value = ++i;
+				while (i < end && s.charAt(i) != ';') {
+					if (!isParamChar(s, i, end)) return false;
+					i += s.charAt(i) == '%' ? 3 : 1;
+				}
+				if (i == value) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * hname "=" hvalue *("&" hname "=" hvalue)
+	 */
+	private static boolean isHeaders(CharSequence s, int start, int end) {
+		int i = start;
+		do {
+			int name = i;
+			while (i < end && s.charAt(i) != '=') {
+				if (!isHeaderChar(s, i, end)) return false;
+				i += s.charAt(i) == '%' ? 3 : 1;
+			}
+			if (i == name || i == end) return false;
+			for (i++; i < end && s.charAt(i) != '&'; i += s.charAt(i) == '%' ? 3 : 1) {
+				if (!isHeaderChar(s, i, end)) return false;
+			}
+		} while (i++ < end);
+		return true;
+	}
+
+	private static boolean isHostname(CharSequence s, int start, int end) {
+		if (start == end) return false;
+		if (s.charAt(end - 1) == '.') end--; // fully qualified
+		int label = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || s.charAt(i) == '.') {
+				if (i == label || s.charAt(label) == '-' || s.charAt(i - 1) == '-') return false;
+				label = i + 1;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isIpv6(CharSequence s, int start, int end) {
+		int colons = 0;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == ':') {
+				colons++;
+			} else if (!isHexDigit(c) && c != '.') {
+				return false;
+			}
+		}
+		return colons >= 2;
+	}
+
+	private static boolean isDisplayName(CharSequence s, int start, int end) {
+		if (s.charAt(start) == '"') {
+			if (end - start < 2 || s.charAt(end - 1) != '"') return false;
+			for (int i = start + 1; i < end - 1; i++) {
+				char c = s.charAt(i);
+				if (c == '\\') {
+					i++;
+				} else if (c == '"') {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (!isAlphaNum(c) && !isSpace(c) && "-.!%*_+`'~".indexOf(c) < 0 && c < 0x80) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index following the quoted string starting at start, start if there is none
+	 */
+	private static int skipQuotedString(CharSequence s, int start, int end) {
+		if (s.charAt(start) != '"') return start;
+		for (int i = start + 1; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '"') {
+				return i + 1;
+			}
+		}
+		return start;
+	}
+
+	private static boolean isUserChar(CharSequence s, int i, int end) {
+		return isUnreservedOrEscaped(s, i, end) || "&=+$,;?/".indexOf(s.charAt(i)) >= 0;
+	}
+
+	private static boolean isPasswordChar(CharSequence s, int i, int end) {
+		return isUnreservedOrEscaped(s, i, end) || "&=+$,".indexOf(s.charAt(i)) >= 0;
+	}
+
+	private static boolean isParamChar(CharSequence s, int i, int end) {
+		return isUnreservedOrEscaped(s, i, end) || "[]/:&+$".indexOf(s.charAt(i)) >= 0;
+	}
+
+	private static boolean isHeaderChar(CharSequence s, int i, int end) {
+		return isUnreservedOrEscaped(s, i, end) || "[]/?:+$".indexOf(s.charAt(i)) >= 0;
+	}
+
+	private static boolean isUnreservedOrEscaped(CharSequence s, int i, int end) {
+		char c = s.charAt(i);
+		if (c == '%') {
+			return i + 2 < end && isHexDigit(s.charAt(i + 1)) && isHexDigit(s.charAt(i + 2));
+		}
+		return isAlphaNum(c) || "-_.!~*'()".indexOf(c) >= 0;
+	}
+
+	private static boolean isAlphaNum(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isHexDigit(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t';
+	}
+
+	private static int skipSpaces(CharSequence s, int start, int end) {
+		while (start < end && isSpace(s.charAt(start))) start++;
+		return start;
+	}
+
+	private static int indexOf(CharSequence s, char c, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (s.charAt(i) == c) return i;
+		}
+		return -1;
+	}
+
+	private static boolean regionEqualsIgnoreCase(CharSequence s, int start, int end, String other) {
+		if (end - start != other.length()) return false;
+		for (int i = 0; i < other.length(); i++) {
+			if (Character.toLowerCase(s.charAt(start + i)) != Character.toLowerCase(other.charAt(i))) return false;
+		}
+		return true;
+	}
+}
@@ -20,12 +20,8 @@ Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import org.linphone.core.LinphoneCall;
-import org.linphone.core.LinphoneCallParams;
-import org.linphone.core.LinphoneCallStats;
 import org.linphone.core.LinphoneContent;
 import org.linphone.core.LinphoneCore;
 import org.linphone.core.LinphoneCore.RegistrationState;
@@ -39,7 +35,6 @@ import org.linphone.ui.SlidingDrawer.OnDrawerOpenListener;
 import android.app.Activity;
 import android.content.Context;
 import android.os.Bundle;
-import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -56,18 +51,16 @@ import android.widget.TextView;
  * @author Sylvain Berfini
  */
 public class StatusFragment extends Fragment {
-	private Handler mHandler = new Handler();
-	private Handler refreshHandler = new Handler();
 	private TextView statusText, exit, voicemailCount;
 	private ImageView statusLed, callQuality, background;
 	private ListView sliderContentAccounts;
 	private TableLayout callStats;
 	private SlidingDrawer drawer;
 //	private LinearLayout allAccountsLed;
-	private Runnable mCallQualityUpdater;
 	private boolean isInCall, isAttached = false;
-	private Timer mTimer;
-	private TimerTask mTask;
+	private LinphoneCall mStatsCall;
+	private View mStatsView;
+	private CallStatsSampler.Listener<LinphoneCall> mStatsListener;
 	private LinphoneCoreListenerBase mListener;
 	
 	@Override
@@ -165,7 +158,7 @@ public class StatusFragment extends Fragment {
 
 		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
 		if (lc != null) {
-			lc.addListener(mListener);
+			LinphoneManager.getInstance().addListener(mListener);
 			LinphoneProxyConfig lpc = lc.getDefaultProxyConfig();
 			if (lpc != null) {
 				mListener.registrationState(lc, lpc, lpc.getState(), null);
@@ -305,28 +298,41 @@ public class StatusFragment extends Fragment {
 	
 	private void startCallQuality() {
 		callQuality.setVisibility(View.VISIBLE);
-		refreshHandler.postDelayed(mCallQualityUpdater = new Runnable() {
-			LinphoneCall mCurrentCall = LinphoneManager.getLc()
-					.getCurrentCall();
+		if (mStatsListener != null) return;
 
-			public void run() {
-				if (mCurrentCall == null) {
-					mCallQualityUpdater = null;
+		CallStatsSampler<LinphoneCall> sampler = LinphoneManager.getInstance().getCallStatsSampler();
+		mStatsCall = LinphoneManager.getLc().getCurrentCall();
+		if (sampler == null || mStatsCall == null) return;
+
+		// Refreshed by the shared sampler, which reads the stats once for every screen
+		mStatsListener = new CallStatsSampler.Listener<LinphoneCall>() {
+			@Override
+			public void onStatsSampled(LinphoneCall call, CallStatsSampler.Series series) {
+				if (!isInCall) {
+					stopCallQuality();
 					return;
 				}
-				
-				int oldQuality = 0;
-				float newQuality = mCurrentCall.getCurrentQuality();
-				if ((int) newQuality != oldQuality) {
-					updateQualityOfSignalIcon(newQuality);
+				if (!call.equals(mStatsCall)) return;
+
+				int last = series.last();
+				updateQualityOfSignalIcon(series.getQuality(last));
+				if (mStatsView != null) {
+					displayCallStats(mStatsView, series, last);
 				}
-				
-				if (isInCall) {
-					refreshHandler.postDelayed(this, 1000);
-				} else
-					mCallQualityUpdater = null;
 			}
-		}, 1000);
+		};
+		sampler.addListener(mStatsListener, CallStatsSampler.SAMPLE_INTERVAL_MS);
+	}
+
+	private void stopCallQuality() {
+		if (mStatsListener == null) return;
+
+		CallStatsSampler<LinphoneCall> sampler = LinphoneManager.isInstanciated() ? LinphoneManager.getInstance().getCallStatsSampler() : null;
+		if (sampler != null) {
+			sampler.removeListener(mStatsListener);
+		}
+		mStatsListener = null;
+		mStatsView = null;
 	}
 	
 	void updateQualityOfSignalIcon(float quality) {
@@ -389,17 +395,14 @@ public class StatusFragment extends Fragment {
 	public void onPause() {
 		super.onPause();
 		
-		if (mCallQualityUpdater != null) {
-			refreshHandler.removeCallbacks(mCallQualityUpdater);
-			mCallQualityUpdater = null;
-		}
+		stopCallQuality();
 	}
 	
 	@Override
 	public void onDestroy() {
 		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
 		if (lc != null) {
-			lc.removeListener(mListener);
+			LinphoneManager.getInstance().removeListener(mListener);
 		}
 		
 		super.onDestroy();
@@ -412,53 +415,39 @@ public class StatusFragment extends Fragment {
 		}
 	}
 	
-	private void initCallStatsRefresher(final LinphoneCall call, final View view) {
-		if (mTimer != null && mTask != null) {
+	private void initCallStatsRefresher(LinphoneCall call, View view) {
+		if (call == null || mStatsView != null) {
 			return;
 		}
 		
-	    mTimer = new Timer();
-		mTask = new TimerTask() {
-			@Override
-			public void run() {
-				if (call == null) {
-					mTimer.cancel();
-					return;
-				}
-
-				final TextView title = (TextView) view.findViewById(R.id.call_stats_title);
-				final TextView codec = (TextView) view.findViewById(R.id.codec);
-				final TextView dl = (TextView) view.findViewById(R.id.downloadBandwith);
-				final TextView ul = (TextView) view.findViewById(R.id.uploadBandwith);
-				final TextView ice = (TextView) view.findViewById(R.id.ice);
-
-				if (codec == null || dl == null || ul == null || ice == null) {
-					mTimer.cancel();
-					return;
-				}
-				
-				mHandler.post(new Runnable() {
-					@Override
-					public void run() {
-						synchronized(LinphoneManager.getLc()) {
-							final LinphoneCallParams params = call.getCurrentParamsCopy();
-							final LinphoneCallStats audioStats = call.getAudioStats();
-							if (audioStats != null) {
-								title.setText("Audio");
-								PayloadType payload = params.getUsedAudioCodec();
-								if (payload != null) {
-									codec.setText(payload.getMime() + (payload.getRate() / 1000));
-								}
-								dl.setText(String.valueOf((int) audioStats.getDownloadBandwidth()) + " kbits/s");
-								ul.setText(String.valueOf((int) audioStats.getUploadBandwidth()) + " kbits/s");
-								ice.setText(audioStats.getIceState().toString());
-							}
-						}
-					}
-				});
-			}
-		};
-		mTimer.scheduleAtFixedRate(mTask, 0, 1000);
+		TextView codec = (TextView) view.findViewById(R.id.codec);
+		if (codec == null || view.findViewById(R.id.downloadBandwith) == null || view.findViewById(R.id.uploadBandwith) == null
+				|| view.findViewById(R.id.ice) == null) {
+			return;
+		}
+		
+		// The codec doesn't change during the call, the stats are then updated with each sample
+		((TextView) view.findViewById(R.id.call_stats_title)).setText("Audio");
+		PayloadType payload = call.getCurrentParamsCopy().getUsedAudioCodec();
+		if (payload != null) {
+			codec.setText(payload.getMime() + (payload.getRate() / 1000));
+		}
+		mStatsView = view;
+		
+		startCallQuality();
+		CallStatsSampler.Series series = LinphoneManager.getInstance().getCallStatsSampler().getSeries(call);
+		if (series != null && series.size() > 0) {
+			displayCallStats(view, series, series.last());
+		}
+	}
+	
+	private void displayCallStats(View view, CallStatsSampler.Series series, int sample) {
+		TextView dl = (TextView) view.findViewById(R.id.downloadBandwith);
+		TextView ul = (TextView) view.findViewById(R.id.uploadBandwith);
+		TextView ice = (TextView) view.findViewById(R.id.ice);
+		dl.setText(String.valueOf((int) series.getDownloadBandwidth(sample)) + " kbits/s");
+		ul.setText(String.valueOf((int) series.getUploadBandwidth(sample)) + " kbits/s");
+		ice.setText(String.valueOf(series.getIceState(sample)));
 	}
 	
 	class AccountsListAdapter extends BaseAdapter {
@@ -1,5 +1,6 @@
 package org.linphone.compatibility;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -21,8 +22,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.database.MatrixCursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.preference.CheckBoxPreference;
@@ -226,12 +225,12 @@ public class ApiFivePlus {
 				if (input == null) {
 					contact = new Contact(id, name);
 				} else {
-					Bitmap bm = null;
+					// Pictures are decoded when displayed, by ContactPhotoLoader
 					try {
-						bm = BitmapFactory.decodeStream(input);
-					} catch (OutOfMemoryError oome) {
+						input.close();
+					} catch (IOException e) {
 					}
-					contact = new Contact(id, name, photo, thumbnail, bm);
+					contact = new Contact(id, name, photo, thumbnail);
 				}
 
 				return contact;
@@ -234,48 +234,58 @@ public class ApiNinePlus {
 		ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
 
 		if (contact != null) {
-			ops.add(ContentProviderOperation.newInsert(ContactsContract.RawContacts.CONTENT_URI)
-				.withValue(ContactsContract.RawContacts.AGGREGATION_MODE, ContactsContract.RawContacts.AGGREGATION_MODE_DEFAULT)
-				.withValue(ContactsContract.RawContacts.ACCOUNT_TYPE, context.getString(R.string.sync_account_type))
-				.withValue(ContactsContract.RawContacts.ACCOUNT_NAME, context.getString(R.string.sync_account_name))
-				.build()
-			);
+			addLinphoneContactTagOperations(context, ops, contact, rawContactId, false);
 
-			ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-							.withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-							.withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)
-							.withValue(ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME, contact.getName())
-							.build()
-			);
+			try {
+				contentResolver.applyBatch(ContactsContract.AUTHORITY, ops);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
-			List<String> numbersOrAddresses = contact.getNumbersOrAddresses();
-			for (String numberOrAddress : numbersOrAddresses) {
-				if (LinphoneUtils.isSipAddress(numberOrAddress)) {
-					if (numberOrAddress.startsWith("sip:")){
-						numberOrAddress = numberOrAddress.substring(4);
-					}
+	/**
+	 * Appends the operations creating the Linphone raw contact of a contact. Back references are relative to the size of ops,
+	 * so they can be batched with the operations of other contacts.
+	 */
+	public static void addLinphoneContactTagOperations(Context context, List<ContentProviderOperation> ops, Contact contact, String rawContactId, boolean yieldAllowed){
+		int rawContactIndex = ops.size();
+		ops.add(ContentProviderOperation.newInsert(ContactsContract.RawContacts.CONTENT_URI)
+			.withValue(ContactsContract.RawContacts.AGGREGATION_MODE, ContactsContract.RawContacts.AGGREGATION_MODE_DEFAULT)
+			.withValue(ContactsContract.RawContacts.ACCOUNT_TYPE, context.getString(R.string.sync_account_type))
+			.withValue(ContactsContract.RawContacts.ACCOUNT_NAME, context.getString(R.string.sync_account_name))
+			.withYieldAllowed(yieldAllowed)
+			.build()
+		);
 
-					ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
-						.withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, 0)
-						.withValue(ContactsContract.Data.MIMETYPE, context.getString(R.string.sync_mimetype))
-						.withValue(ContactsContract.Data.DATA1, numberOrAddress)
-						.withValue(ContactsContract.Data.DATA2, context.getString(R.string.app_name))
-						.withValue(ContactsContract.Data.DATA3, numberOrAddress)
+		ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+						.withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
+						.withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)
+						.withValue(ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME, contact.getName())
 						.build()
-					);
-				}
-			}
+		);
 
-			ops.add(ContentProviderOperation.newUpdate(ContactsContract.AggregationExceptions.CONTENT_URI)
-				.withValue(ContactsContract.AggregationExceptions.TYPE, ContactsContract.AggregationExceptions.TYPE_KEEP_TOGETHER)
-				.withValue(ContactsContract.AggregationExceptions.RAW_CONTACT_ID1, rawContactId)
-				.withValueBackReference(ContactsContract.AggregationExceptions.RAW_CONTACT_ID2, 0).build());
+		List<String> numbersOrAddresses = contact.getNumbersOrAddresses();
+		for (String numberOrAddress : numbersOrAddresses) {
+			if (LinphoneUtils.isSipAddress(numberOrAddress)) {
+				if (numberOrAddress.startsWith("sip:")){
+					numberOrAddress = numberOrAddress.substring(4);
+				}
 
-			try {
-				contentResolver.applyBatch(ContactsContract.AUTHORITY, ops);
-			} catch (Exception e) {
-				e.printStackTrace();
+				ops.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)
+					.withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)
+					.withValue(ContactsContract.Data.MIMETYPE, context.getString(R.string.sync_mimetype))
+					.withValue(ContactsContract.Data.DATA1, numberOrAddress)
+					.withValue(ContactsContract.Data.DATA2, context.getString(R.string.app_name))
+					.withValue(ContactsContract.Data.DATA3, numberOrAddress)
+					.build()
+				);
 			}
 		}
+
+		ops.add(ContentProviderOperation.newUpdate(ContactsContract.AggregationExceptions.CONTENT_URI)
+			.withValue(ContactsContract.AggregationExceptions.TYPE, ContactsContract.AggregationExceptions.TYPE_KEEP_TOGETHER)
+			.withValue(ContactsContract.AggregationExceptions.RAW_CONTACT_ID1, rawContactId)
+			.withValueBackReference(ContactsContract.AggregationExceptions.RAW_CONTACT_ID2, rawContactIndex).build());
 	}
 }
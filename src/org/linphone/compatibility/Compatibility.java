@@ -323,6 +323,12 @@ public class Compatibility {
 			ApiNinePlus.createLinphoneContactTag(context, contentResolver, contact, rawContactId);
 		}
 	}
+
+	public static void addLinphoneContactTagOperations(Context context, List<ContentProviderOperation> ops, Contact contact, String rawContactId, boolean yieldAllowed) {
+		if (Version.sdkAboveOrEqual(Version.API09_GINGERBREAD_23)) {
+			ApiNinePlus.addLinphoneContactTagOperations(context, ops, contact, rawContactId, yieldAllowed);
+		}
+	}
 	//End of Linphone Contact Tag
 
 	public static void removeGlobalLayoutListener(ViewTreeObserver viewTreeObserver, OnGlobalLayoutListener keyboardListener) {
@@ -23,8 +23,8 @@ import static android.content.Intent.ACTION_MAIN;
 import org.linphone.LinphoneManager;
 import org.linphone.LinphonePreferences;
 import org.linphone.LinphoneService;
+import org.linphone.PushTimeline;
 import org.linphone.R;
-import org.linphone.UIThreadDispatcher;
 import org.linphone.mediastream.Log;
 
 import android.content.Context;
@@ -50,19 +50,12 @@ public class GCMService extends GCMBaseIntentService {
 	@Override
 	protected void onMessage(Context context, Intent intent) {
 		Log.d("Push notification received");
-		if (!LinphoneService.isReady()) {
+		boolean coldStart = !LinphoneService.isReady();
+		PushTimeline.getInstance().pushReceived(coldStart);
+		if (coldStart) {
 			startService(new Intent(ACTION_MAIN).setClass(this, LinphoneService.class));
-		} else if (LinphoneManager.isInstanciated() && LinphoneManager.getLc().getCallsNb() == 0) {
-			UIThreadDispatcher.dispatch(new Runnable(){
-				@Override
-				public void run() {
-					if (LinphoneManager.isInstanciated() && LinphoneManager.getLc().getCallsNb() == 0){
-						LinphoneManager.getLc().setNetworkReachable(false);
-						LinphoneManager.getLc().setNetworkReachable(true);
-					}
-				}
-			});
-
+		} else if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().onPushReceived();
 		}
 	}
 
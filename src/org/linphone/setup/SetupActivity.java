@@ -102,17 +102,15 @@ public class SetupActivity extends FragmentActivity implements OnClickListener {
 	protected void onResume() {
 		super.onResume();
 		
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if (lc != null) {
-			lc.addListener(mListener);
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().addListener(mListener);
 		}
 	}
 	
 	@Override
 	protected void onPause() {
-		LinphoneCore lc = LinphoneManager.getLcIfManagerNotDestroyedOrNull();
-		if (lc != null) {
-			lc.removeListener(mListener);
+		if (LinphoneManager.isInstanciated()) {
+			LinphoneManager.getInstance().removeListener(mListener);
 		}
 		
 		super.onPause();
@@ -18,6 +18,8 @@ Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
  */
 package org.linphone.ui;
 
+import org.linphone.CallHistory;
+import org.linphone.CallHistoryModel;
 import org.linphone.LinphoneManager;
 import org.linphone.R;
 import org.linphone.core.CallDirection;
@@ -55,9 +57,10 @@ public class CallButton extends ImageView implements OnClickListener, AddressAwa
 					LinphoneManager.getInstance().newOutgoingCall(mAddress);
 				} else {
 					if (getContext().getResources().getBoolean(R.bool.call_last_log_if_adress_is_empty)) {
-						LinphoneCallLog[] logs = LinphoneManager.getLc().getCallLogs();
+						CallHistoryModel<LinphoneCallLog>.View logs = CallHistory.getInstance().getAllLogs();
 						LinphoneCallLog log = null;
-						for (LinphoneCallLog l : logs) {
+						for (int i = 0; i < logs.size(); i++) {
+							LinphoneCallLog l = logs.get(i);
 							if (l.getDirection() == CallDirection.Outgoing) {
 								log = l;
 								break;
@@ -0,0 +1,122 @@
+package org.linphone.ui;
+/*
+QualityGraphView.java
+Copyright (C) 2015  Belledonne Communications, Grenoble, France
+
+This program is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either version 2
+of the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+import org.linphone.R;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws a series of values, such as the quality of a recorded call, as a line.<br />
+ * Long series are decimated to one point per pixel column, and the path is only rebuilt when the values or the size change.
+ */
+public class QualityGraphView extends View {
+	private final Paint mLinePaint, mAxisPaint;
+	private final Path mPath = new Path();
+	private float[] mValues;
+	private float mMax;
+	private boolean mPathValid;
+
+	public QualityGraphView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+
+		mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		mLinePaint.setStyle(Paint.Style.STROKE);
+		mLinePaint.setStrokeWidth(2 * getResources().getDisplayMetrics().density);
+		mLinePaint.setColor(getResources().getColor(R.color.main_app_color));
+
+		mAxisPaint = new Paint();
+		mAxisPaint.setColor(getResources().getColor(R.color.text_contrast));
+	}
+
+	/**
+	 * @param values the values to draw, negative ones being unknown
+	 * @param max the value drawn at the top of the view
+	 */
+	public void setValues(float[] values, float max) {
+		mValues = values;
+		mMax = max;
+		mPathValid = false;
+		invalidate();
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		mPathValid = false;
+	}
+
+	private void buildPath(int width, int height) {
+		mPath.reset();
+		int count = mValues.length;
+		int points = Math.min(count, width);
+		boolean drawing = false;
+		for (int p = 0; p < points; p++) {
+			// Averages the values falling in each column
+			int from = (int) ((long) p * count / points);
+			int to = (int) ((long) (p + 1) * count / points);
+			float sum = 0;
+			int n = 0;
+			for (int i = from; i < to; i++) {
+				if (mValues[i] >= 0) {
+					sum += mValues[i];
+					n++;
+				}
+			}
+			if (n == 0) {
+				drawing = false;
+				continue;
+			}
+
+			float x = points > 1 ? (float) p * (width - 1) / (points - 1) : 0;
+			float y = height - 1 - Math.min(sum / n, mMax) * (height - 1) / mMax;
+			if (drawing) {
+				mPath.lineTo(x, y);
+			} else {
+				mPath.moveTo(x, y);
+				drawing = true;
+			}
+		}
+		mPathValid = true;
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+
+		int width = getWidth() - getPaddingLeft() - getPaddingRight();
+		int height = getHeight() - getPaddingTop() - getPaddingBottom();
+		if (width <= 0 || height <= 0) return;
+
+		canvas.save();
+		canvas.translate(getPaddingLeft(), getPaddingTop());
+		canvas.drawLine(0, height - 1, width, height - 1, mAxisPaint);
+		if (mValues != null && mValues.length > 0 && mMax > 0) {
+			if (!mPathValid) {
+				buildPath(width, height);
+			}
+			canvas.drawPath(mPath, mLinePaint);
+		}
+		canvas.restore();
+	}
+}
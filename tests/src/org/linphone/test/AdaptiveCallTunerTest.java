@@ -0,0 +1,190 @@
+package org.linphone.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.AdaptiveCallTuner;
+import org.linphone.CallQualityLog;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Replays stats traces through the adaptive call tuner with a virtual clock and checks its decisions.<br />
+ * A trace line is "time loss jitter rtt", in ms and %, as the core reports them about every 5s.
+ */
+public class AdaptiveCallTunerTest extends TestCase {
+	private static final int MAX_BITRATE = 36;
+
+	private Simulation mSimulation;
+	private AdaptiveCallTuner<String> mTuner;
+
+	@Override
+	public void setUp() throws Exception {
+		mSimulation = new Simulation();
+		mTuner = new AdaptiveCallTuner<String>(mSimulation, MAX_BITRATE);
+	}
+
+	/**
+	 * @return a trace of reports every 5s between from and to with the same values
+	 */
+	private static List<String> steady(long from, long to, float loss, float jitter, float rtt) {
+		List<String> trace = new ArrayList<String>();
+		for (long time = from; time < to; time += 5000) {
+			trace.add(time + " " + loss + " " + jitter + " " + rtt);
+		}
+		return trace;
+	}
+
+	@SmallTest
+	public void testAGoodLinkIsLeftAlone() {
+		mSimulation.replay(mTuner, "call", steady(0, 600000, 0, 5, 80));
+		Assert.assertTrue(mSimulation.applied.isEmpty());
+	}
+
+	@SmallTest
+	public void testBCongestionStepsDownWithinBounds() {
+		List<String> trace = steady(0, 30000, 0, 5, 80);
+		trace.addAll(steady(30000, 300000, 12, 5, 600));
+		mSimulation.replay(mTuner, "call", trace);
+
+		Assert.assertEquals(mTuner.getLevelCount() - 1, mSimulation.applied.size());
+		AdaptiveCallTuner.Settings first = mSimulation.applied.get(0);
+		// Two bad reports, at 30s and 35s
+		Assert.assertEquals(35000, (long) mSimulation.times.get(0));
+		Assert.assertEquals(1, first.level);
+		Assert.assertTrue(first.bitrate < MAX_BITRATE);
+
+		AdaptiveCallTuner.Settings last = mSimulation.applied.get(mSimulation.applied.size() - 1);
+		Assert.assertEquals(AdaptiveCallTuner.MIN_BITRATE, last.bitrate);
+		Assert.assertEquals(60, last.ptime);
+		for (int i = 1; i < mSimulation.times.size(); i++) {
+			Assert.assertTrue(mSimulation.times.get(i) - mSimulation.times.get(i - 1) >= AdaptiveCallTuner.MIN_CHANGE_INTERVAL_MS);
+			Assert.assertTrue(mSimulation.applied.get(i).bitrate <= mSimulation.applied.get(i - 1).bitrate);
+		}
+	}
+
+	@SmallTest
+	public void testCRecovery() {
+		List<String> trace = steady(0, 60000, 12, 5, 600);
+		trace.addAll(steady(60000, 600000, 0, 5, 80));
+		mSimulation.replay(mTuner, "call", trace);
+
+		Assert.assertEquals(0, mTuner.getSettings("call").level);
+		Assert.assertEquals(MAX_BITRATE, mTuner.getSettings("call").bitrate);
+	}
+
+	@SmallTest
+	public void testDFlappingLinkBacksOff() {
+		// 40s good then 10s bad, for 20 minutes
+		List<String> trace = new ArrayList<String>();
+		for (long start = 0; start < 1200000; start += 50000) {
+			trace.addAll(steady(start, start + 40000, 0, 5, 80));
+			trace.addAll(steady(start + 40000, start + 50000, 10, 5, 80));
+		}
+		mSimulation.replay(mTuner, "call", trace);
+
+		// Without backing off, the call would step down and up again on every cycle
+		int changes = mSimulation.applied.size();
+		Assert.assertTrue("too many re-invites: " + changes, changes <= 10);
+		Assert.assertTrue(mTuner.getSettings("call").level > 0);
+	}
+
+	@SmallTest
+	public void testEJitterBuffer() {
+		mSimulation.replay(mTuner, "call", steady(0, 60000, 0, 50, 80));
+
+		Assert.assertEquals(1, mSimulation.applied.size());
+		AdaptiveCallTuner.Settings settings = mSimulation.applied.get(0);
+		Assert.assertEquals(0, settings.level);
+		Assert.assertEquals(200, settings.jitterBuffer);
+
+		mSimulation.replay(mTuner, "call", steady(60000, 120000, 0, 500, 80));
+		Assert.assertEquals(AdaptiveCallTuner.MAX_JITTER_BUFFER_MS, mTuner.getSettings("call").jitterBuffer);
+	}
+
+	@SmallTest
+	public void testFRefusedSettingsAreRetried() {
+		mSimulation.refuse = true;
+		mSimulation.replay(mTuner, "call", steady(0, 40000, 12, 5, 80));
+		Assert.assertTrue(mSimulation.applied.isEmpty());
+		Assert.assertEquals(0, mTuner.getSettings("call").level);
+
+		mSimulation.refuse = false;
+		mSimulation.replay(mTuner, "call", steady(40000, 45000, 12, 5, 80));
+		Assert.assertEquals(1, mSimulation.applied.size());
+	}
+
+	@SmallTest
+	public void testGCallsAreIndependent() {
+		List<String> trace = steady(0, 60000, 12, 5, 80);
+		mSimulation.replay(mTuner, "bad", trace);
+		Assert.assertNull(mTuner.getSettings("good"));
+		Assert.assertTrue(mTuner.getSettings("bad").level > 0);
+
+		mTuner.removeCall("bad");
+		Assert.assertNull(mTuner.getSettings("bad"));
+	}
+
+	@SmallTest
+	public void testHReplayRecording() throws IOException {
+		// A recording of a call over a link losing 8% from the second minute, without round trip delays
+		File file = File.createTempFile("call", CallQualityLog.EXTENSION);
+		try {
+			CallQualityLog.Writer writer = new CallQualityLog.Writer(file, 0, 16);
+			for (int i = 0; i < 180; i++) {
+				writer.append(i * 1000, 30, 30, 8, i < 60 ? 0 : 8, i < 60 ? 4.5f : 2);
+			}
+			writer.close();
+
+			mSimulation.replay(mTuner, "call", CallQualityLog.Recording.read(file));
+		} finally {
+			file.delete();
+		}
+
+		Assert.assertTrue(mSimulation.times.get(0) >= 60000);
+		Assert.assertTrue(mTuner.getSettings("call").level > 0);
+	}
+
+	private static class Simulation implements AdaptiveCallTuner.Host<String> {
+		long now;
+		boolean refuse;
+		List<AdaptiveCallTuner.Settings> applied = new ArrayList<AdaptiveCallTuner.Settings>();
+		List<Long> times = new ArrayList<Long>();
+
+		@Override
+		public boolean apply(String call, AdaptiveCallTuner.Settings settings) {
+			if (refuse) return false;
+			applied.add(settings);
+			times.add(now);
+			return true;
+		}
+
+		@Override
+		public long uptimeMillis() {
+			return now;
+		}
+
+		void replay(AdaptiveCallTuner<String> tuner, String call, List<String> trace) {
+			for (String line : trace) {
+				String[] fields = line.split(" ");
+				now = Long.parseLong(fields[0]);
+				tuner.onReport(call, Float.parseFloat(fields[1]), Float.parseFloat(fields[2]), Float.parseFloat(fields[3]));
+			}
+		}
+
+		/**
+		 * Replays a recorded call as reports every 5s, the recordings being sampled every second.
+		 */
+		void replay(AdaptiveCallTuner<String> tuner, String call, CallQualityLog.Recording recording) {
+			for (int i = 0; i < recording.size(); i += 5) {
+				now = recording.getTime(i);
+				tuner.onReport(call, recording.getLoss(i), recording.getJitter(i), -1);
+			}
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package org.linphone.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.AudioRouteMachine;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Plays scripted SCO broadcasts through the audio route machine with a virtual clock,
+ * and checks which route is used and when it is confirmed.
+ */
+public class AudioRouteMachineTest extends TestCase {
+	private FakeHost mHost;
+	private AudioRouteMachine mMachine;
+
+	@Override
+	public void setUp() throws Exception {
+		mHost = new FakeHost();
+		mMachine = new AudioRouteMachine(mHost, "test device");
+	}
+
+	@SmallTest
+	public void testASpeakerAndEarpiece() {
+		mMachine.request(AudioRouteMachine.SPEAKER);
+		Assert.assertEquals(AudioRouteMachine.SPEAKER, mMachine.getRoute());
+		Assert.assertTrue(mHost.speaker);
+
+		mMachine.request(AudioRouteMachine.EARPIECE);
+		Assert.assertEquals(AudioRouteMachine.EARPIECE, mMachine.getRoute());
+		Assert.assertFalse(mHost.speaker);
+		Assert.assertEquals(0, mHost.scoStarts);
+	}
+
+	@SmallTest
+	public void testBBluetoothWaitsForSco() {
+		Assert.assertTrue(mMachine.request(AudioRouteMachine.BLUETOOTH));
+		Assert.assertEquals(1, mHost.scoStarts);
+		Assert.assertTrue(mMachine.isSwitching());
+		Assert.assertEquals(AudioRouteMachine.EARPIECE, mMachine.getRoute());
+
+		mHost.advance(800);
+		mMachine.onScoConnected();
+		Assert.assertEquals(AudioRouteMachine.BLUETOOTH, mMachine.getRoute());
+		Assert.assertFalse(mMachine.isSwitching());
+		Assert.assertEquals(800, mMachine.getLatency(AudioRouteMachine.BLUETOOTH).getMax());
+
+		// Asked again on every StreamsRunning: nothing to do
+		mMachine.request(AudioRouteMachine.BLUETOOTH);
+		mHost.advance(10000);
+		Assert.assertEquals(1, mHost.scoStarts);
+		Assert.assertEquals(1, mMachine.getLatency(AudioRouteMachine.BLUETOOTH).getCount());
+	}
+
+	@SmallTest
+	public void testCNoHeadset() {
+		mHost.bluetooth = false;
+		Assert.assertFalse(mMachine.request(AudioRouteMachine.BLUETOOTH));
+		Assert.assertEquals(0, mHost.scoStarts);
+		Assert.assertFalse(mMachine.isSwitching());
+	}
+
+	@SmallTest
+	public void testDRetriesThenFallsBack() {
+		mMachine.request(AudioRouteMachine.BLUETOOTH);
+		mHost.advance(AudioRouteMachine.SCO_CONNECT_TIMEOUT_MS + 10);
+		Assert.assertEquals(2, mHost.scoStarts);
+
+		mHost.advance(AudioRouteMachine.SCO_CONNECT_TIMEOUT_MS * AudioRouteMachine.SCO_RETRIES);
+		Assert.assertEquals(AudioRouteMachine.SCO_RETRIES + 1, mHost.scoStarts);
+		Assert.assertEquals(AudioRouteMachine.EARPIECE, mMachine.getRoute());
+		Assert.assertFalse(mMachine.isSwitching());
+		Assert.assertEquals(1, mMachine.getLatency(AudioRouteMachine.BLUETOOTH).getFailures());
+	}
+
+	@SmallTest
+	public void testELastRequestWins() {
+		mMachine.request(AudioRouteMachine.BLUETOOTH);
+		mHost.advance(100);
+		mMachine.request(AudioRouteMachine.SPEAKER);
+		Assert.assertTrue(mHost.speaker);
+
+		// The SCO connection asked for before arrives late and is torn down again
+		Assert.assertEquals(1, mHost.scoStops);
+		mMachine.onScoConnected();
+		Assert.assertEquals(2, mHost.scoStops);
+		Assert.assertTrue(mMachine.isSwitching());
+		mHost.advance(300);
+		mMachine.onScoDisconnected();
+		Assert.assertEquals(AudioRouteMachine.SPEAKER, mMachine.getRoute());
+		Assert.assertFalse(mMachine.isSwitching());
+		Assert.assertEquals(300, mMachine.getLatency(AudioRouteMachine.SPEAKER).getMax());
+	}
+
+	@SmallTest
+	public void testFLeavingBluetooth() {
+		mMachine.request(AudioRouteMachine.BLUETOOTH);
+		mMachine.onScoConnected();
+
+		mMachine.request(AudioRouteMachine.EARPIECE);
+		Assert.assertEquals(1, mHost.scoStops);
+		Assert.assertEquals(AudioRouteMachine.BLUETOOTH, mMachine.getRoute());
+
+		// No disconnected broadcast: goes on after the timeout
+		mHost.advance(AudioRouteMachine.SCO_DISCONNECT_TIMEOUT_MS + 10);
+		Assert.assertEquals(AudioRouteMachine.EARPIECE, mMachine.getRoute());
+	}
+
+	@SmallTest
+	public void testGHeadsetEvents() {
+		// SCO opened by the headset answer button
+		mMachine.onScoConnected();
+		Assert.assertEquals(AudioRouteMachine.BLUETOOTH, mMachine.getRoute());
+
+		// Audio moved back to the phone from the headset
+		mMachine.onScoDisconnected();
+		Assert.assertEquals(AudioRouteMachine.EARPIECE, mMachine.getRoute());
+
+		mMachine.request(AudioRouteMachine.BLUETOOTH);
+		mHost.bluetooth = false;
+		mMachine.onBluetoothLost();
+		Assert.assertEquals(AudioRouteMachine.EARPIECE, mMachine.getRoute());
+		Assert.assertFalse(mMachine.isSwitching());
+		mHost.advance(20000);
+		Assert.assertEquals(1, mHost.scoStarts);
+
+		// Losing the headset doesn't touch the speaker
+		mMachine.request(AudioRouteMachine.SPEAKER);
+		mMachine.onBluetoothLost();
+		Assert.assertEquals(AudioRouteMachine.SPEAKER, mMachine.getRoute());
+	}
+
+	@SmallTest
+	public void testHLatencyPerHeadset() {
+		mHost.deviceName = "Headset A";
+		mMachine.request(AudioRouteMachine.BLUETOOTH);
+		mHost.advance(400);
+		mMachine.onScoConnected();
+		mMachine.request(AudioRouteMachine.EARPIECE);
+		mMachine.onScoDisconnected();
+
+		mHost.deviceName = "Headset B";
+		mMachine.request(AudioRouteMachine.BLUETOOTH);
+		mHost.advance(1200);
+		mMachine.onScoConnected();
+
+		Assert.assertEquals(1200, mMachine.getLatency(AudioRouteMachine.BLUETOOTH).getAverage());
+		mHost.deviceName = "Headset A";
+		Assert.assertEquals(400, mMachine.getLatency(AudioRouteMachine.BLUETOOTH).getAverage());
+		Assert.assertTrue(mMachine.toString().contains("bluetooth Headset B"));
+	}
+
+	private static class FakeHost extends VirtualClock implements AudioRouteMachine.Host {
+		boolean speaker, bluetooth = true;
+		String deviceName;
+		int scoStarts, scoStops;
+
+		@Override
+		public void enableSpeaker(boolean enable) {
+			speaker = enable;
+		}
+
+		@Override
+		public void startSco() {
+			scoStarts++;
+		}
+
+		@Override
+		public void stopSco() {
+			scoStops++;
+		}
+
+		@Override
+		public boolean isBluetoothAvailable() {
+			return bluetooth;
+		}
+
+		@Override
+		public String getBluetoothDeviceName() {
+			return deviceName;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package org.linphone.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.BandwidthManager;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the bandwidth profile chosen from the link class and from what previous calls measured.
+ */
+public class BandwidthManagerTest extends TestCase {
+	private BandwidthManager mManager;
+
+	@Override
+	public void setUp() throws Exception {
+		mManager = new BandwidthManager();
+	}
+
+	@SmallTest
+	public void testALinkClass() {
+		mManager.setNetwork("mobile:20801", BandwidthManager.LINK_SLOW);
+		Assert.assertEquals(BandwidthManager.LOW_BANDWIDTH, mManager.getCurrentProfile());
+		mManager.setNetwork("mobile:20801", BandwidthManager.LINK_MEDIUM);
+		Assert.assertEquals(BandwidthManager.LOW_RESOLUTION, mManager.getCurrentProfile());
+		mManager.setNetwork("wifi:\"home\"", BandwidthManager.LINK_FAST);
+		Assert.assertEquals(BandwidthManager.HIGH_RESOLUTION, mManager.getCurrentProfile());
+		mManager.setNetwork("type:9", BandwidthManager.LINK_UNKNOWN);
+		Assert.assertEquals(BandwidthManager.HIGH_RESOLUTION, mManager.getCurrentProfile());
+	}
+
+	@SmallTest
+	public void testBLossyNetwork() {
+		mManager.setNetwork("wifi:\"cafe\"", BandwidthManager.LINK_FAST);
+		Assert.assertTrue(mManager.addMeasurement(12, 10));
+		Assert.assertEquals(BandwidthManager.LOW_BANDWIDTH, mManager.getCurrentProfile());
+		Assert.assertEquals(16, mManager.getBitrate());
+		Assert.assertEquals(16, mManager.capBitrate(36));
+		Assert.assertEquals(10, mManager.capBitrate(10));
+
+		// Jitter alone
+		mManager.setNetwork("wifi:\"hotel\"", BandwidthManager.LINK_FAST);
+		mManager.addMeasurement(0, 80);
+		Assert.assertEquals(BandwidthManager.LOW_BANDWIDTH, mManager.getCurrentProfile());
+	}
+
+	@SmallTest
+	public void testCCleanNetworkStepsUp() {
+		// 3G that turns out to be good
+		mManager.setNetwork("mobile:20810", BandwidthManager.LINK_MEDIUM);
+		mManager.addMeasurement(0.2f, 10);
+		Assert.assertEquals(BandwidthManager.HIGH_RESOLUTION, mManager.getCurrentProfile());
+
+		// Some loss
+		mManager.setNetwork("mobile:20815", BandwidthManager.LINK_FAST);
+		mManager.addMeasurement(3, 10);
+		Assert.assertEquals(BandwidthManager.LOW_RESOLUTION, mManager.getCurrentProfile());
+
+		// No more than one profile better than the link class
+		mManager.setNetwork("mobile:20820", BandwidthManager.LINK_SLOW);
+		mManager.addMeasurement(0, 5);
+		Assert.assertEquals(BandwidthManager.LOW_RESOLUTION, mManager.getCurrentProfile());
+	}
+
+	@SmallTest
+	public void testDKnownNetworkAfterRestart() {
+		mManager.setNetwork("wifi:\"office guest\"", BandwidthManager.LINK_FAST);
+		mManager.addMeasurement(8, 30);
+		mManager.setNetwork("mobile:20801", BandwidthManager.LINK_SLOW);
+		String state = mManager.serialize();
+
+		BandwidthManager restarted = new BandwidthManager();
+		restarted.restore(state + "garbage|x y z w|");
+		restarted.setNetwork("wifi:\"office guest\"", BandwidthManager.LINK_FAST);
+		Assert.assertEquals(BandwidthManager.LOW_BANDWIDTH, restarted.getCurrentProfile());
+		Assert.assertEquals(1, restarted.serialize().split("\\|").length);
+		Assert.assertTrue(restarted.toString().contains("1 calls"));
+	}
+
+	@SmallTest
+	public void testEBoundedHistory() {
+		for (int i = 0; i < BandwidthManager.MAX_NETWORKS + 5; i++) {
+			mManager.setNetwork("wifi:" + i, BandwidthManager.LINK_FAST);
+			mManager.addMeasurement(0, 10);
+		}
+		Assert.assertEquals(BandwidthManager.MAX_NETWORKS, mManager.serialize().split("\\|").length);
+		Assert.assertFalse(mManager.serialize().contains(" wifi:0|"));
+	}
+
+	@SmallTest
+	public void testFDemotedNetworkRecovers() {
+		// Calls on the low bandwidth profile only ever receive its 16 kbit/s, only their loss and jitter count
+		mManager.setNetwork("wifi:\"home\"", BandwidthManager.LINK_FAST);
+		mManager.addMeasurement(10, 40);
+		Assert.assertEquals(BandwidthManager.LOW_BANDWIDTH, mManager.getCurrentProfile());
+		for (int i = 0; i < 5; i++) {
+			mManager.addMeasurement(0, 5);
+		}
+		Assert.assertEquals(BandwidthManager.HIGH_RESOLUTION, mManager.getCurrentProfile());
+	}
+}
@@ -0,0 +1,179 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.BatchPipeline;
+import org.linphone.mediastream.Log;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks how the contact operations pipeline cuts groups into batches, with a fake provider.
+ */
+public class BatchPipelineTest extends TestCase {
+	private FakeProvider mProvider;
+	private BatchPipeline<Op> mPipeline;
+	private List<String> mApplied, mFailed;
+
+	@Override
+	public void setUp() throws Exception {
+		mProvider = new FakeProvider();
+		mPipeline = new BatchPipeline<Op>(mProvider, 10);
+		mApplied = new ArrayList<String>();
+		mFailed = new ArrayList<String>();
+		mPipeline.setListener(new BatchPipeline.Listener() {
+			@Override
+			public void onGroupApplied(String key) {
+				mApplied.add(key);
+			}
+
+			@Override
+			public void onGroupFailed(String key, Exception e) {
+				mFailed.add(key);
+			}
+		});
+	}
+
+	@SmallTest
+	public void testAGroupsAreNeverSplit() {
+		for (int i = 0; i < 10; i++) {
+			mPipeline.add(new ContactGroup(String.valueOf(i), 3));
+		}
+		mPipeline.flush();
+
+		Assert.assertEquals(10, mApplied.size());
+		for (List<Op> batch : mProvider.batches) {
+			Assert.assertTrue(batch.size() <= 10);
+			Assert.assertEquals(0, batch.size() % 3);
+			for (int i = 0; i < batch.size(); i++) {
+				Op op = batch.get(i);
+				// Back references point to the first operation of the group, in this batch
+				Assert.assertEquals(i - i % 3, op.backReference);
+				Assert.assertEquals(i % 3 == 0 && i > 0, op.yieldAllowed);
+			}
+		}
+		Assert.assertEquals(4, mProvider.batches.size());
+		Assert.assertEquals(30, mPipeline.getStats().operations);
+	}
+
+	@SmallTest
+	public void testBOversizedGroupGoesAlone() {
+		mPipeline.add(new ContactGroup("small", 2));
+		mPipeline.add(new ContactGroup("big", 15));
+		mPipeline.add(new ContactGroup("empty", 0));
+		mPipeline.flush();
+
+		Assert.assertEquals(2, mProvider.batches.size());
+		Assert.assertEquals(2, mProvider.batches.get(0).size());
+		Assert.assertEquals(15, mProvider.batches.get(1).size());
+		Assert.assertEquals(3, mApplied.size());
+		Assert.assertEquals("empty", mApplied.get(2));
+	}
+
+	@SmallTest
+	public void testCFailedBatchIsRetriedGroupByGroup() {
+		mProvider.failingKey = "2";
+		for (int i = 0; i < 3; i++) {
+			mPipeline.add(new ContactGroup(String.valueOf(i), 2));
+		}
+		Assert.assertEquals(1, mPipeline.flush());
+
+		Assert.assertEquals(2, mApplied.size());
+		Assert.assertEquals(1, mFailed.size());
+		Assert.assertEquals("2", mFailed.get(0));
+		BatchPipeline.Stats stats = mPipeline.getStats();
+		Assert.assertEquals(1, stats.failedBatches);
+		Assert.assertEquals(1, stats.failedGroups);
+		Assert.assertEquals(4, stats.operations);
+	}
+
+	@LargeTest
+	public void testDBatchesVersusOneByOne() {
+		final int contacts = 5000;
+		FakeProvider oneByOne = new FakeProvider();
+		long start = System.nanoTime();
+		for (int i = 0; i < contacts; i++) {
+			List<Op> ops = new ArrayList<Op>();
+			new ContactGroup(String.valueOf(i), 3).build(ops, false);
+			try {
+				oneByOne.apply(ops);
+			} catch (Exception e) {
+				fail(e.getMessage());
+			}
+		}
+		long oneByOneMs = (System.nanoTime() - start) / 1000000;
+
+		BatchPipeline<Op> pipeline = new BatchPipeline<Op>(mProvider);
+		start = System.nanoTime();
+		for (int i = 0; i < contacts; i++) {
+			pipeline.add(new ContactGroup(String.valueOf(i), 3));
+		}
+		pipeline.flush();
+		long batchedMs = (System.nanoTime() - start) / 1000000;
+
+		Log.i("Contact operations for " + contacts + " contacts: " + oneByOne.batches.size() + " batches in " + oneByOneMs + " ms one by one, "
+				+ mProvider.batches.size() + " batches in " + batchedMs + " ms batched. " + pipeline.getStats());
+		Assert.assertEquals(contacts * 3 / (BatchPipeline.DEFAULT_MAX_OPERATIONS / 3 * 3) + 1, mProvider.batches.size());
+		Assert.assertTrue(batchedMs <= oneByOneMs);
+	}
+
+	private static class Op {
+		String key;
+		int backReference;
+		boolean yieldAllowed;
+	}
+
+	private static class ContactGroup implements BatchPipeline.Group<Op> {
+		private final String mKey;
+		private final int mSize;
+
+		ContactGroup(String key, int size) {
+			mKey = key;
+			mSize = size;
+		}
+
+		@Override
+		public String getKey() {
+			return mKey;
+		}
+
+		@Override
+		public void build(List<Op> ops, boolean yieldAllowed) {
+			int base = ops.size();
+			for (int i = 0; i < mSize; i++) {
+				Op op = new Op();
+				op.key = mKey;
+				op.backReference = base;
+				op.yieldAllowed = i == 0 && yieldAllowed;
+				ops.add(op);
+			}
+		}
+	}
+
+	/**
+	 * Every batch costs a transaction: a fixed cost plus a small cost per operation.
+	 */
+	private static class FakeProvider implements BatchPipeline.Sink<Op> {
+		List<List<Op>> batches = new ArrayList<List<Op>>();
+		String failingKey;
+
+		@Override
+		public void apply(List<Op> ops) throws Exception {
+			for (Op op : ops) {
+				if (op.key.equals(failingKey)) {
+					throw new IllegalStateException("Constraint failed for " + failingKey);
+				}
+			}
+			long end = System.nanoTime() + 200000 + ops.size() * 2000;
+			while (System.nanoTime() < end) {
+				// Busy wait, like a provider transaction would
+			}
+			batches.add(new ArrayList<Op>(ops));
+		}
+	}
+}
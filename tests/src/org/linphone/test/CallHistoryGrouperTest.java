@@ -0,0 +1,95 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.CallHistoryGrouper;
+import org.linphone.mediastream.Log;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the history grouping and measures it on 10k synthetic call logs.
+ */
+public class CallHistoryGrouperTest extends TestCase {
+	private static final int LOGS = 10000;
+	private static final int CORRESPONDENTS = 2000;
+
+	private int mResolutions;
+	private CallHistoryGrouper<FakeCallLog> mGrouper;
+
+	@Override
+	public void setUp() throws Exception {
+		mResolutions = 0;
+		mGrouper = new CallHistoryGrouper<FakeCallLog>(new CallHistoryGrouper.Resolver<FakeCallLog>() {
+			@Override
+			public String getRemoteAddress(FakeCallLog log) {
+				return log.address;
+			}
+
+			@Override
+			public String getDisplayName(FakeCallLog log) {
+				mResolutions++;
+				// Two addresses of the same contact share a name
+				if (log.address.startsWith("sip:alice")) return "Alice";
+				return log.address.substring(4);
+			}
+		});
+	}
+
+	@SmallTest
+	public void testAGroupingOrder() {
+		List<FakeCallLog> logs = new ArrayList<FakeCallLog>();
+		logs.add(new FakeCallLog("sip:bob@example.org"));
+		logs.add(new FakeCallLog("sip:alice@example.org"));
+		logs.add(new FakeCallLog("sip:bob@example.org"));
+		logs.add(new FakeCallLog("sip:alice-work@example.org"));
+		logs.add(new FakeCallLog("sip:carol@example.org"));
+
+		CallHistoryGrouper.Result<FakeCallLog> result = mGrouper.group(logs);
+
+		Assert.assertEquals(3, result.size());
+		Assert.assertEquals("bob@example.org", result.names.get(0));
+		Assert.assertEquals("Alice", result.names.get(1));
+		Assert.assertEquals("carol@example.org", result.names.get(2));
+		Assert.assertSame(logs.get(0), result.groups.get(0).get(0));
+		Assert.assertSame(logs.get(2), result.groups.get(0).get(1));
+		Assert.assertEquals(2, result.groups.get(1).size());
+		Assert.assertEquals(4, mResolutions);
+		Assert.assertEquals(4, result.distinctAddresses);
+	}
+
+	@LargeTest
+	public void testBTenThousandLogs() {
+		List<FakeCallLog> logs = new ArrayList<FakeCallLog>(LOGS);
+		for (int i = 0; i < LOGS; i++) {
+			logs.add(new FakeCallLog("sip:user" + ((i * 7919) % CORRESPONDENTS) + "@example.org"));
+		}
+
+		long start = System.nanoTime();
+		CallHistoryGrouper.Result<FakeCallLog> result = mGrouper.group(logs);
+		long elapsedMicros = (System.nanoTime() - start) / 1000;
+		Log.i(result + " (" + elapsedMicros + " us)");
+
+		Assert.assertEquals(CORRESPONDENTS, result.size());
+		Assert.assertEquals(CORRESPONDENTS, mResolutions);
+		int total = 0;
+		for (List<FakeCallLog> group : result.groups) {
+			total += group.size();
+		}
+		Assert.assertEquals(LOGS, total);
+		Assert.assertTrue(elapsedMicros < 1000000);
+	}
+
+	private static class FakeCallLog {
+		final String address;
+
+		FakeCallLog(String address) {
+			this.address = address;
+		}
+	}
+}
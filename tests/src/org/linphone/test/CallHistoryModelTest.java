@@ -0,0 +1,114 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.CallHistoryModel;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks that the call history views follow the model without being reloaded.
+ */
+public class CallHistoryModelTest extends TestCase {
+	private CallHistoryModel<FakeCallLog> mModel;
+	private CallHistoryModel<FakeCallLog>.View mMissed;
+	private List<String> mEvents;
+
+	@Override
+	public void setUp() throws Exception {
+		mModel = new CallHistoryModel<FakeCallLog>();
+		mMissed = mModel.createView(new CallHistoryModel.Filter<FakeCallLog>() {
+			@Override
+			public boolean accept(FakeCallLog log) {
+				return log.missed;
+			}
+		});
+		mEvents = new ArrayList<String>();
+		mMissed.addListener(new CallHistoryModel.Listener<FakeCallLog>() {
+			@Override
+			public void onHistoryChanged() {
+				mEvents.add("changed");
+			}
+
+			@Override
+			public void onLogInserted(int position, FakeCallLog log) {
+				mEvents.add("inserted " + position);
+			}
+
+			@Override
+			public void onLogRemoved(int position, FakeCallLog log) {
+				mEvents.add("removed " + position);
+			}
+		});
+	}
+
+	@SmallTest
+	public void testALoad() {
+		Assert.assertFalse(mModel.isLoaded());
+		mModel.load(Arrays.asList(new FakeCallLog(true), new FakeCallLog(false), new FakeCallLog(true)));
+
+		Assert.assertTrue(mModel.isLoaded());
+		Assert.assertEquals(3, mModel.getAll().size());
+		Assert.assertEquals(2, mMissed.size());
+		Assert.assertEquals(Arrays.asList("changed"), mEvents);
+	}
+
+	@SmallTest
+	public void testBIncrementalUpdates() {
+		FakeCallLog first = new FakeCallLog(true), second = new FakeCallLog(false), third = new FakeCallLog(true);
+		mModel.load(Arrays.asList(first, second, third));
+		mEvents.clear();
+
+		FakeCallLog newest = new FakeCallLog(true);
+		mModel.insertNewest(newest);
+		mModel.insertNewest(new FakeCallLog(false));
+		Assert.assertSame(newest, mMissed.get(0));
+		Assert.assertEquals(5, mModel.size());
+
+		Assert.assertTrue(mModel.remove(third));
+		Assert.assertTrue(mModel.remove(second));
+		Assert.assertFalse(mModel.remove(second));
+		Assert.assertEquals(Arrays.asList("inserted 0", "removed 2"), mEvents);
+		Assert.assertEquals(2, mMissed.size());
+	}
+
+	@SmallTest
+	public void testCIdentity() {
+		// Two wrappers of the same native log are distinct items
+		FakeCallLog a = new FakeCallLog(true), b = new FakeCallLog(true);
+		mModel.load(Arrays.asList(a, b));
+		mModel.remove(b);
+		Assert.assertSame(a, mModel.getAll().get(0));
+	}
+
+	@SmallTest
+	public void testDUnload() {
+		mModel.load(Arrays.asList(new FakeCallLog(true)));
+		mModel.unload();
+		Assert.assertFalse(mModel.isLoaded());
+		Assert.assertTrue(mMissed.isEmpty());
+	}
+
+	private static class FakeCallLog {
+		final boolean missed;
+
+		FakeCallLog(boolean missed) {
+			this.missed = missed;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof FakeCallLog && ((FakeCallLog) o).missed == missed;
+		}
+
+		@Override
+		public int hashCode() {
+			return missed ? 1 : 0;
+		}
+	}
+}
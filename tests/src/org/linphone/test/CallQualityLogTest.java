@@ -0,0 +1,185 @@
+package org.linphone.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.CallQualityLog;
+import org.linphone.CallQualityRecorder;
+import org.linphone.CallStatsSampler;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Writes synthetic call quality recordings and reads them back.
+ */
+public class CallQualityLogTest extends TestCase {
+	private File mDir;
+
+	@Override
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("call_quality", "");
+		mDir.delete();
+		mDir.mkdirs();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		for (File file : mDir.listFiles()) {
+			file.delete();
+		}
+		mDir.delete();
+	}
+
+	private static void writeSynthetic(CallQualityLog.Writer writer, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			writer.append(i * 1000, i, i * 2, i % 7, (i % 10) / 10f, 5 - (i % 5));
+		}
+	}
+
+	@SmallTest
+	public void testAWriteAndRead() throws IOException {
+		File file = CallQualityLog.getFile(mDir, 1234567890123L);
+		CallQualityLog.Writer writer = new CallQualityLog.Writer(file, 1234567890123L, 8);
+		writeSynthetic(writer, 100);
+		writer.close();
+		Assert.assertEquals(16 + 100 * CallQualityLog.RECORD_SIZE, file.length());
+
+		CallQualityLog.Recording recording = CallQualityLog.Recording.read(file);
+		Assert.assertEquals(1234567890123L, recording.getStartTime());
+		Assert.assertEquals(100, recording.size());
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(i * 1000, recording.getTime(i));
+			Assert.assertEquals((float) i, recording.getUploadBandwidth(i));
+			Assert.assertEquals((float) i * 2, recording.getDownloadBandwidth(i));
+			Assert.assertEquals((float) (i % 7), recording.getJitter(i));
+			Assert.assertEquals((i % 10) / 10f, recording.getLoss(i));
+			Assert.assertEquals((float) (5 - (i % 5)), recording.getQuality(i));
+		}
+		Assert.assertEquals(3f, recording.getAverageQuality(), 0.001f);
+		Assert.assertEquals(1f, recording.getMinQuality());
+	}
+
+	@SmallTest
+	public void testBSizeCap() throws IOException {
+		File file = CallQualityLog.getFile(mDir, 1);
+		CallQualityLog.Writer writer = new CallQualityLog.Writer(file, 1, 16);
+		writeSynthetic(writer, CallQualityLog.MAX_RECORDS + 10);
+		writer.close();
+
+		Assert.assertEquals(CallQualityLog.MAX_RECORDS, writer.getRecordCount());
+		Assert.assertEquals(10, writer.getDroppedCount());
+		Assert.assertEquals(CallQualityLog.MAX_RECORDS, CallQualityLog.Recording.read(file).size());
+	}
+
+	@SmallTest
+	public void testCIncompleteRecordIgnored() throws IOException {
+		File file = CallQualityLog.getFile(mDir, 2);
+		CallQualityLog.Writer writer = new CallQualityLog.Writer(file, 2, 4);
+		writeSynthetic(writer, 10);
+		writer.close();
+
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(new byte[] { 1, 2, 3, 4, 5 });
+		out.close();
+		Assert.assertEquals(10, CallQualityLog.Recording.read(file).size());
+	}
+
+	@SmallTest
+	public void testDNotARecording() throws IOException {
+		Assert.assertNull(CallQualityLog.Recording.read(new File(mDir, "missing" + CallQualityLog.EXTENSION)));
+
+		File file = new File(mDir, "garbage" + CallQualityLog.EXTENSION);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[64]);
+		out.close();
+		Assert.assertNull(CallQualityLog.Recording.read(file));
+	}
+
+	@SmallTest
+	public void testETrimDeletesOldest() throws IOException {
+		for (int i = 0; i < 5; i++) {
+			File file = CallQualityLog.getFile(mDir, i);
+			CallQualityLog.Writer writer = new CallQualityLog.Writer(file, i, 4);
+			writeSynthetic(writer, 100);
+			writer.close();
+			file.setLastModified(1000000000000L + i * 1000000L);
+		}
+		long size = CallQualityLog.getFile(mDir, 0).length();
+
+		Assert.assertEquals(0, CallQualityLog.trim(mDir, size * 5));
+		Assert.assertEquals(2, CallQualityLog.trim(mDir, size * 3));
+		Assert.assertFalse(CallQualityLog.getFile(mDir, 0).exists());
+		Assert.assertFalse(CallQualityLog.getFile(mDir, 1).exists());
+		Assert.assertTrue(CallQualityLog.getFile(mDir, 2).exists());
+		Assert.assertTrue(CallQualityLog.getFile(mDir, 4).exists());
+	}
+
+	@SmallTest
+	public void testFRecorderStreamsSamples() throws IOException {
+		FakeHost host = new FakeHost();
+		CallStatsSampler<String> sampler = new CallStatsSampler<String>(host, 15);
+		CountingExecutor executor = new CountingExecutor();
+		CallQualityRecorder<String> recorder = new CallQualityRecorder<String>(mDir, executor);
+		recorder.attach(sampler);
+
+		host.calls.add("call1");
+		recorder.callStarted("call1", 42);
+		sampler.start();
+		host.advance(35500);
+		// One write for the first sample then every 10s, rather than one per sample
+		Assert.assertEquals(4, executor.runs);
+
+		sampler.stop();
+		recorder.callEnded("call1", sampler.removeCall("call1"));
+		Assert.assertEquals(5, executor.runs);
+
+		CallQualityLog.Recording recording = CallQualityLog.Recording.read(CallQualityLog.getFile(mDir, 42));
+		Assert.assertEquals(42, recording.getStartTime());
+		Assert.assertEquals(35, recording.size());
+		for (int i = 0; i < recording.size(); i++) {
+			Assert.assertEquals(i * 1000, recording.getTime(i));
+			Assert.assertEquals((float) (i + 1) * 1000, recording.getUploadBandwidth(i));
+			Assert.assertEquals(4.5f, recording.getQuality(i));
+		}
+
+		// Nothing is recorded for calls that never started
+		host.calls.add("call2");
+		sampler.start();
+		host.advance(20000);
+		recorder.callEnded("call2", sampler.removeCall("call2"));
+		Assert.assertEquals(1, mDir.listFiles().length);
+	}
+
+	private static class CountingExecutor implements Executor {
+		int runs;
+
+		@Override
+		public void execute(Runnable r) {
+			runs++;
+			r.run();
+		}
+	}
+
+	private static class FakeHost extends VirtualClock implements CallStatsSampler.Host<String> {
+		List<String> calls = new ArrayList<String>();
+
+		@Override
+		public void sampleCalls(CallStatsSampler<String> sampler) {
+			for (String call : calls) {
+				sampler.sample(call, now, now / 2, 10, 0.5f, 4.5f, "ice");
+			}
+		}
+
+		@Override
+		public void dispatch(Runnable r) {
+			r.run();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.CallStatsSampler;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Drives the call stats sampler with fake calls and a virtual clock.
+ */
+public class CallStatsSamplerTest extends TestCase {
+	private FakeHost mHost;
+	private CallStatsSampler<String> mSampler;
+
+	@Override
+	public void setUp() throws Exception {
+		mHost = new FakeHost();
+		mSampler = new CallStatsSampler<String>(mHost, 10);
+	}
+
+	@SmallTest
+	public void testASampling() {
+		mHost.calls.add("call1");
+		mSampler.start();
+		mHost.advance(5500);
+
+		CallStatsSampler.Series series = mSampler.getSeries("call1");
+		Assert.assertEquals(5, series.size());
+		Assert.assertEquals(1000, series.getTime(0));
+		Assert.assertEquals(5000f, series.getUploadBandwidth(series.last()));
+		Assert.assertEquals("ice", series.getIceState(series.last()));
+
+		mSampler.stop();
+		mHost.advance(5000);
+		Assert.assertEquals(5, series.size());
+	}
+
+	@SmallTest
+	public void testBRingBuffer() {
+		mHost.calls.add("call1");
+		mSampler.start();
+		mHost.advance(25500);
+
+		CallStatsSampler.Series series = mSampler.getSeries("call1");
+		Assert.assertEquals(10, series.size());
+		Assert.assertEquals(25, series.getTotalCount());
+		Assert.assertEquals(16000, series.getTime(0));
+		Assert.assertEquals(25000, series.getTime(series.last()));
+		for (int i = 1; i < series.size(); i++) {
+			Assert.assertTrue(series.getTime(i) > series.getTime(i - 1));
+		}
+	}
+
+	@SmallTest
+	public void testCPushedStats() {
+		mHost.calls.add("call1");
+		mSampler.start();
+		mHost.advance(1700);
+		mSampler.recordPushed("call1", 1, 2, 3, 4, 5, "ice");
+		mHost.advance(1000); // the periodic sample right after is skipped
+
+		CallStatsSampler.Series series = mSampler.getSeries("call1");
+		Assert.assertEquals(2, series.size());
+		Assert.assertEquals(4f, series.getLoss(1));
+		mHost.advance(1000);
+		Assert.assertEquals(3, series.size());
+	}
+
+	@SmallTest
+	public void testDListenersAtTheirOwnRate() {
+		mHost.calls.add("call1");
+		mHost.calls.add("call2");
+		final List<String> fast = new ArrayList<String>(), slow = new ArrayList<String>();
+		mSampler.addListener(new CallStatsSampler.Listener<String>() {
+			@Override
+			public void onStatsSampled(String call, CallStatsSampler.Series series) {
+				fast.add(call);
+			}
+		}, 1000);
+		CallStatsSampler.Listener<String> slowListener = new CallStatsSampler.Listener<String>() {
+			@Override
+			public void onStatsSampled(String call, CallStatsSampler.Series series) {
+				slow.add(call);
+			}
+		};
+		mSampler.addListener(slowListener, 3000);
+		mSampler.start();
+		mHost.advance(9500);
+
+		Assert.assertEquals(18, fast.size());
+		Assert.assertEquals(6, slow.size());
+		Assert.assertEquals(9, mHost.sampledCalls);
+
+		mSampler.removeListener(slowListener);
+		mHost.advance(3000);
+		Assert.assertEquals(6, slow.size());
+	}
+
+	@SmallTest
+	public void testERemoveCall() {
+		mHost.calls.add("call1");
+		mSampler.start();
+		mHost.advance(2500);
+		mHost.calls.remove("call1");
+
+		Assert.assertEquals(2, mSampler.removeCall("call1").size());
+		Assert.assertNull(mSampler.getSeries("call1"));
+	}
+
+	private static class FakeHost extends VirtualClock implements CallStatsSampler.Host<String> {
+		List<String> calls = new ArrayList<String>();
+		int sampledCalls;
+
+		@Override
+		public void sampleCalls(CallStatsSampler<String> sampler) {
+			sampledCalls++;
+			for (String call : calls) {
+				sampler.sample(call, now, now / 2, 10, 0.5f, 4.5f, "ice");
+			}
+		}
+
+		@Override
+		public void dispatch(Runnable r) {
+			r.run();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.linphone.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.ContactAddressIndex;
+import org.linphone.mediastream.Log;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the address index lookups and delta updates, and measures lookups on a synthetic 10k contacts book.
+ */
+public class ContactAddressIndexTest extends TestCase {
+	private static final int CONTACTS = 10000;
+
+	private ContactAddressIndex mIndex;
+
+	@Override
+	public void setUp() throws Exception {
+		// Mimics a default proxy config with the 33 dial prefix
+		mIndex = new ContactAddressIndex(new ContactAddressIndex.Normalizer() {
+			@Override
+			public String normalize(String number) {
+				String n = ContactAddressIndex.numberKey(number);
+				if (n != null && n.startsWith("0") && !n.startsWith("00")) {
+					return "+33" + n.substring(1);
+				}
+				return n;
+			}
+		});
+	}
+
+	@SmallTest
+	public void testALookups() {
+		mIndex.putContact("1", Arrays.asList("06 12 34 56 78"), Arrays.asList("alice@sip.linphone.org"));
+		mIndex.putContact("2", null, Arrays.asList("sip:Bob@sip.linphone.org;transport=tls"));
+
+		Assert.assertEquals("1", mIndex.findContactId("alice@sip.linphone.org", "alice"));
+		Assert.assertEquals("1", mIndex.findContactId("unknown@sip.linphone.org", "0612345678"));
+		Assert.assertEquals("1", mIndex.findContactId("unknown@sip.linphone.org", "+33612345678"));
+		Assert.assertEquals("2", mIndex.findContactIdBySipAddress("bob@sip.linphone.org"));
+		Assert.assertNull(mIndex.findContactId("carol@sip.linphone.org", "carol"));
+
+		mIndex.removeContact("1");
+		Assert.assertNull(mIndex.findContactIdByNumber("0612345678"));
+		Assert.assertEquals(1, mIndex.size());
+	}
+
+	@SmallTest
+	public void testBVersionDelta() {
+		Map<String, Long> versions = new HashMap<String, Long>();
+		Map<String, String> rawContacts = new HashMap<String, String>();
+		versions.put("10", 1L); rawContacts.put("10", "1");
+		versions.put("20", 1L); rawContacts.put("20", "2");
+		versions.put("30", 1L); rawContacts.put("30", "3");
+		Assert.assertEquals(3, mIndex.updateVersions(versions, rawContacts).size());
+		mIndex.putContact("1", Arrays.asList("111"), null);
+		mIndex.putContact("2", Arrays.asList("222"), null);
+		mIndex.putContact("3", Arrays.asList("333"), null);
+
+		Assert.assertTrue(mIndex.updateVersions(versions, rawContacts).isEmpty());
+
+		// Contact 2 edited, contact 3 deleted, contact 4 created
+		versions.put("20", 2L);
+		versions.remove("30"); rawContacts.remove("30");
+		versions.put("40", 1L); rawContacts.put("40", "4");
+		Set<String> changed = mIndex.updateVersions(versions, rawContacts);
+		Assert.assertEquals(2, changed.size());
+		Assert.assertTrue(changed.contains("2"));
+		Assert.assertTrue(changed.contains("4"));
+		Assert.assertNull(mIndex.findContactIdByNumber("333"));
+		Assert.assertEquals("1", mIndex.findContactIdByNumber("111"));
+	}
+
+	@LargeTest
+	public void testCLookupsPerSecond() {
+		for (int i = 0; i < CONTACTS; i++) {
+			mIndex.putContact(String.valueOf(i), Arrays.asList(number(i), "+1 555 " + (1000000 + i)),
+					Arrays.asList("user" + i + "@sip.example.org"));
+		}
+		Assert.assertEquals(CONTACTS, mIndex.size());
+
+		int lookups = 0, found = 0;
+		long start = System.nanoTime();
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < CONTACTS; i++) {
+				// Half of the lookups are for unknown numbers, the common case in the history
+				String id = mIndex.findContactId("caller" + i + "@sip.example.org", i % 2 == 0 ? "+33" + number(i).substring(1) : "0799" + i);
+				if (id != null) found++;
+				lookups++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		Assert.assertEquals(lookups / 2, found);
+		long perSecond = lookups * 1000000000L / Math.max(elapsed, 1);
+		Log.i("Contact address index: " + lookups + " lookups on " + CONTACTS + " contacts, " + perSecond + " lookups/s");
+		Assert.assertTrue(perSecond > 10000);
+	}
+
+	private static String number(int i) {
+		return String.format("06 %02d %02d %02d %02d", (i / 1000000) % 100, (i / 10000) % 100, (i / 100) % 100, i % 100);
+	}
+}
@@ -0,0 +1,189 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.ContactData;
+import org.linphone.ContactDataLoader;
+import org.linphone.ContactsManager;
+import org.linphone.compatibility.Compatibility;
+import org.linphone.mediastream.Log;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Compares the bulk contact data loader with the per contact queries it replaces, on a fake contacts provider.
+ */
+public class ContactDataLoaderTest extends TestCase {
+	private static final int CONTACTS = 2000;
+
+	private FakeContactsProvider mProvider;
+	private MockContentResolver mResolver;
+
+	@Override
+	public void setUp() throws Exception {
+		mProvider = new FakeContactsProvider();
+		mResolver = new MockContentResolver();
+		mResolver.addProvider(ContactsContract.AUTHORITY, mProvider);
+
+		for (int i = 1; i <= CONTACTS; i++) {
+			String id = String.valueOf(i);
+			mProvider.addRawContact(id, "1" + id, null);
+			mProvider.addData(id, "1" + id, "Contact " + id, CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE, "Contact " + id);
+			mProvider.addData(id, "1" + id, "Contact " + id, CommonDataKinds.Phone.CONTENT_ITEM_TYPE, "+33 6 00 00 " + id);
+			if (i % 3 == 0) {
+				mProvider.addData(id, "1" + id, "Contact " + id, CommonDataKinds.SipAddress.CONTENT_ITEM_TYPE, "contact" + id + "@sip.linphone.org");
+			}
+			if (i % 6 == 0) {
+				mProvider.addRawContact(id, "2" + id, "org.linphone");
+				mProvider.addData(id, "2" + id, "Contact " + id, ContactDataLoader.LINPHONE_TAG_MIMETYPE, "contact" + id + "@sip.linphone.org");
+			}
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		mProvider.close();
+	}
+
+	@SmallTest
+	public void testASameDataAsPerContactQueries() {
+		ContactData.Collector collector = new ContactDataLoader(mResolver).load(null, true);
+		Assert.assertEquals(CONTACTS, collector.size());
+
+		for (int i = 1; i <= CONTACTS; i += 7) {
+			String id = String.valueOf(i);
+			ContactData data = collector.get(id);
+			Assert.assertEquals(Compatibility.extractContactNumbersAndAddresses(id, mResolver), data.getNumbersOrAddresses());
+			Assert.assertEquals(Compatibility.refreshContactName(mResolver, id), data.getName());
+			Assert.assertEquals(hasLinphoneTag(id), data.hasLinphoneTag());
+			Assert.assertEquals(ContactsManager.getInstance().findRawContactID(mResolver, id), data.getRawContactId());
+			Assert.assertEquals(i % 6 == 0 ? "2" + id : null, data.getLinphoneRawContactId());
+		}
+	}
+
+	@SmallTest
+	public void testBChunkedIds() {
+		List<String> ids = new ArrayList<String>();
+		for (int i = 1; i <= 1200; i++) {
+			ids.add(String.valueOf(i));
+		}
+
+		ContactDataLoader loader = new ContactDataLoader(mResolver);
+		ContactData.Collector collector = loader.load(ids, false);
+		Assert.assertEquals(1200, collector.size());
+		Assert.assertNull(collector.get("1201"));
+		Assert.assertEquals(3, loader.getQueryCount());
+	}
+
+	@LargeTest
+	public void testCQueriesAndTime() {
+		mProvider.queries = 0;
+		long start = System.currentTimeMillis();
+		for (int i = 1; i <= CONTACTS; i++) {
+			String id = String.valueOf(i);
+			Compatibility.extractContactNumbersAndAddresses(id, mResolver);
+			Compatibility.refreshContactName(mResolver, id);
+			hasLinphoneTag(id);
+			ContactsManager.getInstance().findRawContactID(mResolver, id);
+		}
+		long perContactMs = System.currentTimeMillis() - start;
+		int perContactQueries = mProvider.queries;
+
+		mProvider.queries = 0;
+		start = System.currentTimeMillis();
+		new ContactDataLoader(mResolver).load(null, true);
+		long bulkMs = System.currentTimeMillis() - start;
+		int bulkQueries = mProvider.queries;
+
+		Log.i("Contact data for " + CONTACTS + " contacts: " + perContactQueries + " queries in " + perContactMs + " ms per contact, "
+				+ bulkQueries + " queries in " + bulkMs + " ms in bulk");
+		Assert.assertEquals(5 * CONTACTS, perContactQueries);
+		Assert.assertEquals(2, bulkQueries);
+		Assert.assertTrue(bulkMs < perContactMs);
+	}
+
+	/**
+	 * Checks the Linphone tag of one contact with its own query, as the contacts list used to
+	 */
+	private boolean hasLinphoneTag(String id) {
+		Cursor c = mResolver.query(Data.CONTENT_URI, new String[] { Data.MIMETYPE }, Data.CONTACT_ID + " = ?", new String[] { id }, null);
+		try {
+			while (c.moveToNext()) {
+				if (ContactDataLoader.LINPHONE_TAG_MIMETYPE.equals(c.getString(0))) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Answers queries on the data, phone and raw contacts URIs from an in memory database with the same column names.
+	 */
+	private static class FakeContactsProvider extends MockContentProvider {
+		private final SQLiteDatabase mDb = SQLiteDatabase.create(null);
+		int queries;
+
+		FakeContactsProvider() {
+			mDb.execSQL("CREATE TABLE data (_id INTEGER PRIMARY KEY, contact_id TEXT, raw_contact_id TEXT, display_name TEXT, mimetype TEXT, data1 TEXT, data6 TEXT)");
+			mDb.execSQL("CREATE INDEX data_contact ON data (contact_id)");
+			mDb.execSQL("CREATE TABLE raw_contacts (_id TEXT, contact_id TEXT, account_type TEXT, deleted INTEGER DEFAULT 0)");
+			mDb.execSQL("CREATE INDEX raw_contacts_contact ON raw_contacts (contact_id)");
+		}
+
+		void addRawContact(String contactId, String rawContactId, String accountType) {
+			ContentValues values = new ContentValues();
+			values.put(RawContacts._ID, rawContactId);
+			values.put(RawContacts.CONTACT_ID, contactId);
+			values.put(RawContacts.ACCOUNT_TYPE, accountType);
+			mDb.insert("raw_contacts", null, values);
+		}
+
+		void addData(String contactId, String rawContactId, String displayName, String mimeType, String data1) {
+			ContentValues values = new ContentValues();
+			values.put(Data.CONTACT_ID, contactId);
+			values.put(Data.RAW_CONTACT_ID, rawContactId);
+			values.put(Data.DISPLAY_NAME, displayName);
+			values.put(Data.MIMETYPE, mimeType);
+			values.put(Data.DATA1, data1);
+			mDb.insert("data", null, values);
+		}
+
+		void close() {
+			mDb.close();
+		}
+
+		@Override
+		public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+			queries++;
+			String table = "data";
+			if (uri.equals(RawContacts.CONTENT_URI)) {
+				table = "raw_contacts";
+			} else if (uri.equals(CommonDataKinds.Phone.CONTENT_URI)) {
+				String phone = Data.MIMETYPE + " = '" + CommonDataKinds.Phone.CONTENT_ITEM_TYPE + "'";
+				selection = selection == null ? phone : phone + " AND (" + selection + ")";
+			}
+			if (sortOrder != null) {
+				sortOrder = sortOrder.replace("COLLATE UNICODE", "");
+			}
+			return mDb.query(table, projection, selection, selectionArgs, null, null, sortOrder);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.linphone.test;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.ContactSearchIndex;
+import org.linphone.mediastream.Log;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the contacts search index and measures it on synthetic 10k and 50k contacts books.
+ */
+public class ContactSearchIndexTest extends TestCase {
+	private static final String[] FIRST_NAMES = { "Élodie", "Jean", "Zoë", "François", "Sylvain", "Margaux", "Łukasz", "Ana", "Björn", "Chloé" };
+	private static final String[] LAST_NAMES = { "Berfini", "Dupont", "Ørsted", "Müller", "Straße", "Nguyen", "Lefèvre", "Dvořák", "Smith", "García" };
+
+	private ContactSearchIndex mIndex;
+
+	@Override
+	public void setUp() throws Exception {
+		mIndex = new ContactSearchIndex.Builder()
+				.add("Élodie Dupont", Arrays.asList("+33 6 12 34 56 78"))
+				.add("Jean-François Müller", Arrays.asList("sip:jfm@sip.linphone.org"))
+				.add("Sylvain Berfini", null)
+				.add("Œdipe Straße", Arrays.asList("06-98-76"))
+				.build();
+	}
+
+	@SmallTest
+	public void testAFolding() {
+		Assert.assertEquals("elodie dupont", ContactSearchIndex.fold("Élodie DUPONT"));
+		Assert.assertEquals("oedipe strasse", ContactSearchIndex.fold("Œdipe Straße"));
+		Assert.assertEquals("lukasz dvorak", ContactSearchIndex.fold("Łukasz Dvořák"));
+
+		// Same as removing combining marks from the canonical decomposition, for every latin letter it applies to
+		for (char c = 0xc0; c <= 0x17f; c++) {
+			String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).replaceAll("\\p{M}", "").toLowerCase();
+			if (decomposed.length() == 1 && decomposed.charAt(0) < 0x80) {
+				Assert.assertEquals("U+" + Integer.toHexString(c), decomposed, ContactSearchIndex.fold(String.valueOf(c)));
+			}
+		}
+	}
+
+	@SmallTest
+	public void testBSearch() {
+		assertResult(new int[] { 0 }, mIndex.search("elo"));
+		assertResult(new int[] { 0 }, mIndex.search("DUP"));
+		assertResult(new int[] { 1 }, mIndex.search("fran mul"));
+		assertResult(new int[] { 1 }, mIndex.search("jfm"));
+		assertResult(new int[] { 3 }, mIndex.search("oedipe"));
+		assertResult(new int[] { 3 }, mIndex.search("strass"));
+		assertResult(new int[0], mIndex.search("dupont sylvain"));
+		assertResult(new int[] { 0, 1, 2, 3 }, mIndex.search(""));
+	}
+
+	@SmallTest
+	public void testCNumbers() {
+		assertResult(new int[] { 0 }, mIndex.search("+336 12"));
+		assertResult(new int[] { 0 }, mIndex.search("33612"));
+		assertResult(new int[] { 3 }, mIndex.search("06 98"));
+		assertResult(new int[0], mIndex.search("612"));
+	}
+
+	@SmallTest
+	public void testDIncremental() {
+		assertResult(new int[] { 2, 3 }, mIndex.search("s"));
+		assertResult(new int[] { 2 }, mIndex.search("sy"));
+		assertResult(new int[] { 2 }, mIndex.search("syl ber"));
+		assertResult(new int[0], mIndex.search("syl berx"));
+		// Deleting characters goes back to a full lookup
+		assertResult(new int[] { 0 }, mIndex.search("d"));
+		Assert.assertTrue(mIndex.getStats().contains("(2 incremental)"));
+	}
+
+	@LargeTest
+	public void testEBenchmark() {
+		benchmark(10000);
+		benchmark(50000);
+	}
+
+	private void benchmark(int contacts) {
+		Random random = new Random(contacts);
+		ContactSearchIndex.Builder builder = new ContactSearchIndex.Builder();
+		for (int i = 0; i < contacts; i++) {
+			String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + " " + i;
+			builder.add(name, Arrays.asList("+33 6 " + (10000000 + random.nextInt(89999999))));
+		}
+		long start = System.nanoTime();
+		ContactSearchIndex index = builder.build();
+		long buildMs = (System.nanoTime() - start) / 1000000;
+
+		// Someone typing names, one keystroke at a time
+		String[] typed = { "chloé dvořák", "fran", "bjorn mu", "+33 6 12", "zoe gar" };
+		int searches = 0;
+		long worstMicros = 0;
+		start = System.nanoTime();
+		for (int round = 0; round < 20; round++) {
+			for (String query : typed) {
+				for (int i = 1; i <= query.length(); i++) {
+					long searchStart = System.nanoTime();
+					index.search(query.substring(0, i));
+					// The first round warms the JIT up
+					if (round > 0) {
+						worstMicros = Math.max(worstMicros, (System.nanoTime() - searchStart) / 1000);
+					}
+					searches++;
+				}
+			}
+		}
+		long averageMicros = (System.nanoTime() - start) / 1000 / searches;
+
+		Log.i("Contact search on " + contacts + " contacts: built in " + buildMs + " ms, " + searches + " keystrokes, "
+				+ averageMicros + " us average, " + worstMicros + " us worst. " + index.getStats());
+		Assert.assertEquals(contacts, index.search("").length);
+		Assert.assertTrue(averageMicros < 5000);
+	}
+
+	private static void assertResult(int[] expected, int[] result) {
+		Assert.assertEquals(Arrays.toString(expected), Arrays.toString(result));
+	}
+}
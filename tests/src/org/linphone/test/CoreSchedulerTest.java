@@ -0,0 +1,138 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.CoreScheduler;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Drives the core scheduler with a fake core and a virtual clock and checks the tick cadence.
+ */
+public class CoreSchedulerTest extends TestCase {
+	private FakeCore mCore;
+	private CoreScheduler mScheduler;
+
+	@Override
+	public void setUp() throws Exception {
+		mCore = new FakeCore();
+		mScheduler = new CoreScheduler(mCore);
+		mCore.scheduler = mScheduler;
+	}
+
+	@SmallTest
+	public void testAFastWhileStarting() {
+		mScheduler.start();
+		mCore.advance(CoreScheduler.ACTIVITY_GRACE_MS - 100);
+
+		for (long interval : mCore.intervals()) {
+			Assert.assertTrue(interval <= CoreScheduler.FAST_INTERVAL_MS);
+		}
+	}
+
+	@SmallTest
+	public void testBBackOffWhenIdle() {
+		mScheduler.start();
+		mCore.advance(CoreScheduler.ACTIVITY_GRACE_MS + 20000);
+
+		List<Long> intervals = mCore.intervals();
+		Assert.assertEquals(CoreScheduler.IDLE_INTERVAL_MS, (long) intervals.get(intervals.size() - 1));
+		Assert.assertEquals(CoreScheduler.IDLE_INTERVAL_MS, mScheduler.getCurrentInterval());
+
+		// Intervals never shrink while nothing happens
+		for (int i = 1; i < intervals.size(); i++) {
+			Assert.assertTrue(intervals.get(i) >= intervals.get(i - 1));
+		}
+
+		// Once idle, at most one wake up per second
+		int ticksBefore = mCore.ticks.size();
+		mCore.advance(60000);
+		Assert.assertTrue(mCore.ticks.size() - ticksBefore <= 61);
+	}
+
+	@SmallTest
+	public void testCStaysFastWhileBusy() {
+		mScheduler.start();
+		mScheduler.setBusy(true);
+		int ticksBefore = mCore.ticks.size();
+		mCore.advance(10000);
+
+		Assert.assertTrue(mCore.ticks.size() - ticksBefore >= 10000 / CoreScheduler.FAST_INTERVAL_MS - 1);
+		Assert.assertEquals(CoreScheduler.FAST_INTERVAL_MS, mScheduler.getCurrentInterval());
+
+		mScheduler.setBusy(false);
+		mCore.advance(CoreScheduler.ACTIVITY_GRACE_MS + 10000);
+		Assert.assertEquals(CoreScheduler.IDLE_INTERVAL_MS, mScheduler.getCurrentInterval());
+	}
+
+	@SmallTest
+	public void testDActivityWakesUpImmediately() {
+		mScheduler.start();
+		mCore.advance(CoreScheduler.ACTIVITY_GRACE_MS + 20000);
+		mCore.advance(10); // somewhere in the middle of a long idle interval
+
+		long now = mCore.now;
+		mScheduler.notifyActivity();
+		mCore.advance(1);
+
+		Assert.assertEquals(now, (long) mCore.ticks.get(mCore.ticks.size() - 1));
+		Assert.assertEquals(1, mScheduler.getStats().earlyWakeups);
+		Assert.assertEquals(CoreScheduler.FAST_INTERVAL_MS, mScheduler.getCurrentInterval());
+	}
+
+	@SmallTest
+	public void testEStateChangeDuringIterate() {
+		mScheduler.start();
+		mCore.advance(CoreScheduler.ACTIVITY_GRACE_MS + 20000);
+
+		// Simulates an incoming INVITE handled by iterate(): callState fires from inside the tick
+		mCore.onNextIterate = new Runnable() {
+			@Override
+			public void run() {
+				mScheduler.setBusy(true);
+			}
+		};
+		mCore.advance(CoreScheduler.IDLE_INTERVAL_MS);
+		Assert.assertEquals(CoreScheduler.FAST_INTERVAL_MS, mScheduler.getCurrentInterval());
+	}
+
+	@SmallTest
+	public void testFStop() {
+		mScheduler.start();
+		mCore.advance(1000);
+		mScheduler.stop();
+		int ticks = mCore.ticks.size();
+		mCore.advance(10000);
+
+		Assert.assertEquals(ticks, mCore.ticks.size());
+		Assert.assertEquals(ticks, mScheduler.getStats().ticks);
+	}
+
+	private static class FakeCore extends VirtualClock implements CoreScheduler.Host {
+		CoreScheduler scheduler;
+		List<Long> ticks = new ArrayList<Long>();
+		Runnable onNextIterate;
+
+		@Override
+		public void iterate() {
+			ticks.add(now);
+			if (onNextIterate != null) {
+				Runnable r = onNextIterate;
+				onNextIterate = null;
+				r.run();
+			}
+		}
+
+		List<Long> intervals() {
+			List<Long> intervals = new ArrayList<Long>();
+			for (int i = 1; i < ticks.size(); i++) {
+				intervals.add(ticks.get(i) - ticks.get(i - 1));
+			}
+			return intervals;
+		}
+	}
+}
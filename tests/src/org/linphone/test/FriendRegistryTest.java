@@ -0,0 +1,103 @@
+package org.linphone.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.FriendRegistry;
+import org.linphone.core.LinphoneFriend;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the friends mirror indexes as friends are added, changed and removed.
+ */
+public class FriendRegistryTest extends TestCase {
+	private FriendRegistry mRegistry;
+	private Object mCore;
+
+	@Override
+	public void setUp() throws Exception {
+		mRegistry = new FriendRegistry();
+		mCore = new Object();
+		mRegistry.reset(mCore);
+	}
+
+	@SmallTest
+	public void testALookups() {
+		LinphoneFriend alice = friend(), alice2 = friend(), bob = friend();
+		mRegistry.add(alice, "1", "sip:alice@sip.linphone.org");
+		mRegistry.add(alice2, "1", "sip:alice.work@example.com;transport=tcp");
+		mRegistry.add(bob, "2", "sip:bob@sip.linphone.org");
+
+		Assert.assertSame(alice, mRegistry.findByAddress("sip:Alice@sip.linphone.org"));
+		Assert.assertSame(alice2, mRegistry.findByAddress("alice.work@example.com"));
+		Assert.assertEquals("2", mRegistry.findRefKeyByAddress("<sip:bob@sip.linphone.org>"));
+		Assert.assertNull(mRegistry.findByAddress("sip:carol@sip.linphone.org"));
+
+		Assert.assertEquals(Arrays.asList(alice, alice2), mRegistry.getFriends("1"));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("1", "2")), new HashSet<String>(mRegistry.getRefKeys()));
+		Assert.assertEquals(2, mRegistry.getAddresses().get("1").size());
+		Assert.assertEquals(3, mRegistry.getFriendList().length);
+	}
+
+	@SmallTest
+	public void testBChanges() {
+		LinphoneFriend alice = friend(), bob = friend();
+		mRegistry.add(alice, "1", "sip:alice@sip.linphone.org");
+		mRegistry.add(bob, "2", "sip:bob@sip.linphone.org");
+		LinphoneFriend[] before = mRegistry.getFriendList();
+		Assert.assertSame(before, mRegistry.getFriendList());
+
+		mRegistry.setAddress(alice, "sip:alice@example.com");
+		Assert.assertNull(mRegistry.findByAddress("sip:alice@sip.linphone.org"));
+		Assert.assertSame(alice, mRegistry.findByAddress("sip:alice@example.com"));
+
+		mRegistry.remove(bob);
+		Assert.assertNull(mRegistry.findByAddress("sip:bob@sip.linphone.org"));
+		Assert.assertTrue(mRegistry.getFriends("2").isEmpty());
+		Assert.assertEquals(Arrays.asList("1"), mRegistry.getRefKeys());
+		Assert.assertNotSame(before, mRegistry.getFriendList());
+		Assert.assertEquals(1, mRegistry.size());
+	}
+
+	@SmallTest
+	public void testCSharedAddress() {
+		LinphoneFriend first = friend(), second = friend();
+		mRegistry.add(first, "1", "sip:shared@sip.linphone.org");
+		mRegistry.add(second, "2", "sip:shared@sip.linphone.org");
+		Assert.assertSame(first, mRegistry.findByAddress("sip:shared@sip.linphone.org"));
+
+		mRegistry.remove(first);
+		Assert.assertSame(second, mRegistry.findByAddress("sip:shared@sip.linphone.org"));
+	}
+
+	@SmallTest
+	public void testDReset() {
+		mRegistry.add(friend(), "1", "sip:alice@sip.linphone.org");
+		Assert.assertTrue(mRegistry.isLoadedFrom(mCore));
+
+		Object otherCore = new Object();
+		Assert.assertFalse(mRegistry.isLoadedFrom(otherCore));
+		mRegistry.reset(otherCore);
+		Assert.assertTrue(mRegistry.isLoadedFrom(otherCore));
+		Assert.assertEquals(0, mRegistry.size());
+		Assert.assertNull(mRegistry.findByAddress("sip:alice@sip.linphone.org"));
+	}
+
+	private static LinphoneFriend friend() {
+		return (LinphoneFriend) Proxy.newProxyInstance(LinphoneFriend.class.getClassLoader(), new Class<?>[] { LinphoneFriend.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("equals")) return proxy == args[0];
+				if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+}
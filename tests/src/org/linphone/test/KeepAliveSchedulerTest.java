@@ -0,0 +1,309 @@
+package org.linphone.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.KeepAliveScheduler;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Runs the keepalive scheduler against simulated NATs with a virtual clock.
+ */
+public class KeepAliveSchedulerTest extends TestCase {
+	private static final long MINUTE = 60000;
+
+	private FakeHost mHost;
+	private KeepAliveScheduler mScheduler;
+
+	@Override
+	public void setUp() throws Exception {
+		mHost = new FakeHost();
+		mScheduler = new KeepAliveScheduler(mHost);
+		mHost.scheduler = mScheduler;
+	}
+
+	@SmallTest
+	public void testACalibratesToTheNatTimeout() {
+		mHost.natTimeout = 7 * MINUTE;
+		mScheduler.start("wifi:home");
+		mHost.advance(6 * 60 * MINUTE);
+
+		KeepAliveScheduler.Binding binding = mScheduler.getKnownBinding("wifi:home");
+		Assert.assertTrue(binding.isCalibrated());
+		Assert.assertTrue(binding.getWorkingInterval() <= 7 * MINUTE);
+		Assert.assertTrue(binding.getWorkingInterval() >= 7 * MINUTE - KeepAliveScheduler.PRECISION_MS);
+		Assert.assertEquals(binding.getWorkingInterval(), mScheduler.getInterval());
+
+		// Once calibrated, only the periodic try of a longer interval fails
+		int failures = mHost.failures;
+		mHost.advance(6 * 60 * MINUTE);
+		Assert.assertTrue(mHost.failures - failures <= 1);
+	}
+
+	@SmallTest
+	public void testBNoNatTimeout() {
+		mHost.natTimeout = Long.MAX_VALUE;
+		mScheduler.start("mobile:20801");
+		mHost.advance(3 * 60 * MINUTE);
+
+		Assert.assertEquals(KeepAliveScheduler.MAX_INTERVAL_MS, mScheduler.getInterval());
+		Assert.assertEquals(0, mHost.failures);
+
+		// No more wake ups than with the former fixed 10 minutes alarm
+		mHost.advance(24 * 60 * MINUTE);
+		Assert.assertTrue(mScheduler.getWakeupsPerHour() <= 6.1f);
+	}
+
+	@SmallTest
+	public void testCWakeLockUntilAcknowledged() {
+		mHost.natTimeout = Long.MAX_VALUE;
+		mHost.ackDelay = 300;
+		mScheduler.start("wifi:home");
+		mHost.advance(KeepAliveScheduler.INITIAL_INTERVAL_MS + 100);
+		Assert.assertTrue(mHost.wakeLockHeld);
+		mHost.advance(300);
+		Assert.assertFalse(mHost.wakeLockHeld);
+
+		// No answer: released after the timeout, and counted as a failure
+		mHost.silent = true;
+		mHost.advance(mScheduler.getInterval() + KeepAliveScheduler.ACK_TIMEOUT_MS);
+		Assert.assertFalse(mHost.wakeLockHeld);
+		Assert.assertTrue(mScheduler.getKnownBinding("wifi:home").getFailingInterval() > 0);
+	}
+
+	@SmallTest
+	public void testDNothingToRefresh() {
+		mHost.nothingToRefresh = true;
+		mScheduler.start("wifi:home");
+		mHost.advance(60 * MINUTE);
+
+		Assert.assertFalse(mHost.wakeLockHeld);
+		Assert.assertEquals(0, mScheduler.getKnownBinding("wifi:home").getFailingInterval());
+		Assert.assertEquals(KeepAliveScheduler.INITIAL_INTERVAL_MS, mScheduler.getInterval());
+	}
+
+	@SmallTest
+	public void testEPerNetworkAndPersisted() {
+		mHost.natTimeout = 5 * MINUTE;
+		mScheduler.start("wifi:office");
+		mHost.advance(4 * 60 * MINUTE);
+		long office = mScheduler.getInterval();
+
+		mHost.natTimeout = Long.MAX_VALUE;
+		mScheduler.setNetwork("wifi:home");
+		mHost.advance(4 * 60 * MINUTE);
+		Assert.assertEquals(KeepAliveScheduler.MAX_INTERVAL_MS, mScheduler.getInterval());
+
+		mScheduler.setNetwork("wifi:office");
+		Assert.assertEquals(office, mScheduler.getInterval());
+
+		KeepAliveScheduler restored = new KeepAliveScheduler(new FakeHost());
+		restored.restore(mHost.saved);
+		Assert.assertEquals(office, restored.getKnownBinding("wifi:office").getWorkingInterval());
+		Assert.assertEquals(KeepAliveScheduler.MAX_INTERVAL_MS, restored.getKnownBinding("wifi:home").getWorkingInterval());
+
+		restored.restore("garbage|12 x wifi:other");
+		Assert.assertNull(restored.getKnownBinding("wifi:other"));
+	}
+
+	@SmallTest
+	public void testFNatTimeoutShrinks() {
+		mHost.natTimeout = 8 * MINUTE;
+		mScheduler.start("wifi:home");
+		mHost.advance(8 * 60 * MINUTE);
+
+		mHost.natTimeout = 4 * MINUTE;
+		mHost.advance(8 * 60 * MINUTE);
+		Assert.assertTrue(mScheduler.getInterval() <= 4 * MINUTE);
+	}
+
+	@SmallTest
+	public void testGNothingLearnedWithCoreKeepAlives() {
+		mHost.natTimeout = 6 * MINUTE;
+		mScheduler.setCoreKeepAlive(true);
+		mScheduler.start("wifi:home");
+		mHost.advance(3 * 60 * MINUTE);
+		Assert.assertEquals(0, mHost.refreshes);
+		Assert.assertEquals(0, mScheduler.getKnownBinding("wifi:home").getFailingInterval());
+
+		// A refresh running when the screen turns on isn't learned from
+		mScheduler.setCoreKeepAlive(false);
+		mHost.coreKeepAlive();
+		mHost.natTimeout = MINUTE;
+		mHost.ackDelay = 1000;
+		mHost.advance(KeepAliveScheduler.INITIAL_INTERVAL_MS + 100);
+		mScheduler.setCoreKeepAlive(true);
+		mHost.advance(1000);
+		Assert.assertEquals(1, mHost.failures);
+		Assert.assertEquals(0, mScheduler.getKnownBinding("wifi:home").getFailingInterval());
+		mHost.ackDelay = 0;
+
+		// The screen turned off: the binding was just refreshed by the core
+		mHost.natTimeout = 6 * MINUTE;
+		mScheduler.setCoreKeepAlive(false);
+		mHost.coreKeepAlive();
+		mHost.advance(6 * 60 * MINUTE);
+		KeepAliveScheduler.Binding binding = mScheduler.getKnownBinding("wifi:home");
+		Assert.assertTrue(binding.isCalibrated());
+		Assert.assertTrue(binding.getWorkingInterval() >= 6 * MINUTE - KeepAliveScheduler.PRECISION_MS);
+	}
+
+	@SmallTest
+	public void testHLongerTimeoutRelearned() {
+		mHost.natTimeout = 5 * MINUTE;
+		mScheduler.start("wifi:home");
+		mHost.advance(6 * 60 * MINUTE);
+		long working = mScheduler.getKnownBinding("wifi:home").getWorkingInterval();
+
+		// A calibrated binding only fails one step above the working interval, once in a while
+		int failures = mHost.failures;
+		mHost.advance(KeepAliveScheduler.RELEARN_SUCCESSES * 3 * 5 * MINUTE);
+		Assert.assertTrue(mHost.failures - failures <= 3);
+		Assert.assertEquals(working, mScheduler.getKnownBinding("wifi:home").getWorkingInterval());
+
+		mHost.natTimeout = 9 * MINUTE;
+		mHost.advance(KeepAliveScheduler.RELEARN_SUCCESSES * 5 * 5 * MINUTE);
+		KeepAliveScheduler.Binding binding = mScheduler.getKnownBinding("wifi:home");
+		Assert.assertTrue(binding.isCalibrated());
+		Assert.assertTrue(binding.getWorkingInterval() >= 9 * MINUTE - KeepAliveScheduler.PRECISION_MS);
+	}
+
+	@SmallTest
+	public void testIReflectedAddressChange() {
+		// Every refresh is answered 200, but from a new public port once the binding expired
+		mHost.reflect = true;
+		mHost.natTimeout = 4 * MINUTE;
+		mScheduler.start("mobile:20801");
+		mHost.advance(6 * 60 * MINUTE);
+
+		KeepAliveScheduler.Binding binding = mScheduler.getKnownBinding("mobile:20801");
+		Assert.assertTrue(binding.isCalibrated());
+		Assert.assertTrue(binding.getWorkingInterval() <= 4 * MINUTE);
+		int failures = mHost.failures;
+		mHost.advance(6 * 60 * MINUTE);
+		Assert.assertTrue(mHost.failures - failures <= 2);
+	}
+
+	@SmallTest
+	public void testJUnprovenRefreshesCapped() {
+		// Without the reflected address, a 200 can't tell a lost binding from a kept one
+		mHost.natTimeout = Long.MAX_VALUE;
+		mScheduler.start("wifi:home");
+		mHost.advance(24 * 60 * MINUTE);
+		Assert.assertEquals(10 * MINUTE, KeepAliveScheduler.MAX_INTERVAL_MS);
+		Assert.assertEquals(KeepAliveScheduler.MAX_INTERVAL_MS, mScheduler.getInterval());
+	}
+
+	private static class FakeHost extends VirtualClock implements KeepAliveScheduler.Host {
+		KeepAliveScheduler scheduler;
+		long natTimeout = Long.MAX_VALUE;
+		long ackDelay;
+		boolean silent, nothingToRefresh, wakeLockHeld, reflect;
+		int failures, refreshes;
+		String saved;
+
+		private long mAlarmTime = -1;
+		private int mPublicPort = 40000;
+		private long mLastBindingRefresh;
+		private Runnable mAck;
+		private long mAckTime;
+
+		@Override
+		public void scheduleAlarm(long delayMs) {
+			mAlarmTime = now + delayMs;
+		}
+
+		@Override
+		public void cancelAlarm() {
+			mAlarmTime = -1;
+		}
+
+		@Override
+		public void refreshRegisters() {
+			if (nothingToRefresh) {
+				scheduler.cancelRefresh();
+				return;
+			}
+			refreshes++;
+			final boolean alive = now - mLastBindingRefresh <= natTimeout;
+			mLastBindingRefresh = now;
+			if (!alive) {
+				failures++;
+				mPublicPort++;
+			}
+			if (silent) return;
+
+			final String address = "192.0.2.1:" + mPublicPort;
+			Runnable ack = new Runnable() {
+				@Override
+				public void run() {
+					if (reflect) {
+						scheduler.onRefreshResult(true, address);
+					} else {
+						scheduler.onRefreshResult(alive);
+					}
+				}
+			};
+			if (ackDelay == 0) {
+				ack.run();
+			} else {
+				// The only delayed work besides the ack timeout, which it cancels
+				mAck = ack;
+				mAckTime = now + ackDelay;
+			}
+		}
+
+		@Override
+		public void acquireWakeLock(long timeoutMs) {
+			wakeLockHeld = true;
+		}
+
+		@Override
+		public void releaseWakeLock() {
+			wakeLockHeld = false;
+		}
+
+		@Override
+		public long elapsedRealtime() {
+			return now;
+		}
+
+		@Override
+		public void save(String state) {
+			saved = state;
+		}
+
+		/**
+		 * The core kept the binding alive until now.
+		 */
+		void coreKeepAlive() {
+			mLastBindingRefresh = now;
+		}
+
+		@Override
+		void advance(long ms) {
+			long end = now + ms;
+			while (true) {
+				long next = Math.min(end, nextTime());
+				if (mAlarmTime >= 0 && mAlarmTime < next) next = mAlarmTime;
+				if (mAck != null && mAckTime < next) next = mAckTime;
+				if (next == end) break;
+
+				if (mAck != null && mAckTime == next) {
+					now = next;
+					Runnable r = mAck;
+					mAck = null;
+					r.run();
+				} else if (nextTime() == next) {
+					runNext();
+				} else {
+					now = next;
+					mAlarmTime = -1;
+					scheduler.onAlarm();
+				}
+			}
+			now = end;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package org.linphone.test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.LinkProbe;
+
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Probes a local UDP echo server standing in for the media relay.
+ */
+public class LinkProbeTest extends TestCase {
+	private EchoServer mServer;
+	private ExecutorService mExecutor;
+
+	@Override
+	public void setUp() throws Exception {
+		mServer = new EchoServer();
+		mServer.start();
+		mExecutor = Executors.newSingleThreadExecutor();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		mServer.close();
+		mExecutor.shutdown();
+	}
+
+	private InetSocketAddress endpoint() throws IOException {
+		return new InetSocketAddress(InetAddress.getByName("127.0.0.1"), mServer.getPort());
+	}
+
+	@SmallTest
+	public void testAGoodLink() throws IOException {
+		LinkProbe.Result result = new LinkProbe(mExecutor).measure(endpoint(), LinkProbe.TIMEOUT_MS);
+		Assert.assertEquals(0f, result.loss);
+		Assert.assertTrue(result.rtt >= 0 && result.rtt < LinkProbe.TIMEOUT_MS);
+		Assert.assertFalse(result.isLowBandwidth());
+		Assert.assertEquals(LinkProbe.MAX_AUDIO_BANDWIDTH, result.getAudioBandwidth());
+	}
+
+	@SmallTest
+	public void testBLossyLink() throws IOException {
+		mServer.dropEvery = 2;
+		LinkProbe.Result result = new LinkProbe(mExecutor).measure(endpoint(), LinkProbe.TIMEOUT_MS);
+		Assert.assertEquals(50f, result.loss);
+		Assert.assertTrue(result.isLowBandwidth());
+		Assert.assertEquals(LinkProbe.MIN_AUDIO_BANDWIDTH, result.getAudioBandwidth());
+	}
+
+	@MediumTest
+	public void testCNoAnswerIsBounded() throws IOException {
+		mServer.dropEvery = 1;
+		long start = System.currentTimeMillis();
+		LinkProbe.Result result = new LinkProbe(mExecutor).measure(endpoint(), LinkProbe.TIMEOUT_MS);
+		long spent = System.currentTimeMillis() - start;
+
+		Assert.assertTrue(spent < LinkProbe.TIMEOUT_MS + 200);
+		// Not a bad link, just no result: the bandwidth profile is kept
+		Assert.assertNull(result);
+	}
+
+	@SmallTest
+	public void testDSlowLink() {
+		// Throughput under what wide band audio needs
+		LinkProbe.Result result = new LinkProbe.Result(40, 0, 40);
+		Assert.assertTrue(result.isLowBandwidth());
+		result = new LinkProbe.Result(40, 0, 60);
+		Assert.assertFalse(result.isLowBandwidth());
+		Assert.assertEquals(30, result.getAudioBandwidth());
+		Assert.assertTrue(new LinkProbe.Result((long) LinkProbe.MAX_RTT, 0, 1000).isLowBandwidth());
+	}
+
+	@SmallTest
+	public void testECachedPerNetwork() throws Exception {
+		LinkProbe probe = new LinkProbe(mExecutor);
+		Assert.assertNull(probe.start("wifi:home"));
+
+		probe.setEndpoint("127.0.0.1", mServer.getPort());
+		Future<LinkProbe.Result> first = probe.start("wifi:home");
+		Assert.assertNotNull(LinkProbe.await(first, 2000));
+		Assert.assertSame(first, probe.start("wifi:home"));
+		Future<LinkProbe.Result> other = probe.start("mobile:20801");
+		Assert.assertNotSame(first, other);
+		Assert.assertNotNull(LinkProbe.await(other, 2000));
+		Assert.assertEquals(2, mServer.bursts());
+
+		// Expired
+		probe = new LinkProbe(mExecutor, 0);
+		probe.setEndpoint("127.0.0.1", mServer.getPort());
+		Assert.assertNotSame(probe.start("wifi:home"), probe.start("wifi:home"));
+	}
+
+	private static class EchoServer extends Thread {
+		private final DatagramSocket mSocket;
+		volatile int dropEvery;
+		private int mPackets;
+
+		EchoServer() throws IOException {
+			mSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		}
+
+		int getPort() {
+			return mSocket.getLocalPort();
+		}
+
+		synchronized int bursts() {
+			return mPackets / LinkProbe.BURST_PACKETS;
+		}
+
+		@Override
+		public void run() {
+			byte[] buffer = new byte[1500];
+			try {
+				while (true) {
+					DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+					mSocket.receive(packet);
+					int count;
+					synchronized (this) {
+						count = ++mPackets;
+					}
+					if (dropEvery > 0 && count % dropEvery == 0) continue;
+					mSocket.send(packet);
+				}
+			} catch (IOException e) {
+				// Closed
+			}
+		}
+
+		void close() {
+			mSocket.close();
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.linphone.test;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -44,6 +45,7 @@ public class LinphoneTestManager implements LinphoneCoreListener{
 	private static LinphoneTestManager instance;
 	private Context mIContext;
 	private LinphoneCore mLc1, mLc2;
+	private SipProxy mProxy;
 
 	public String lastMessageReceived;
 	public boolean isDTMFReceived = false;
@@ -65,6 +67,7 @@ public class LinphoneTestManager implements LinphoneCoreListener{
 		if (instance == null)
 			instance = new LinphoneTestManager(ac, ic);
 
+		instance.startProxy();
 		instance.startLibLinphone(ic, id);
 		TelephonyManager tm = (TelephonyManager) ac.getSystemService(Context.TELEPHONY_SERVICE);
 		boolean gsmIdle = tm.getCallState() == TelephonyManager.CALL_STATE_IDLE;
@@ -73,41 +76,28 @@ public class LinphoneTestManager implements LinphoneCoreListener{
 		return instance;
 	}
 
+	private synchronized void startProxy() {
+		if (mProxy != null || !mIContext.getResources().getBoolean(org.linphone.test.R.bool.use_local_proxy)) return;
+		try {
+			SipProxy proxy = new SipProxy();
+			proxy.start();
+			mProxy = proxy;
+		} catch (IOException e) {
+			Log.e(e, "Cannot start the local SIP proxy, using the test accounts servers");
+		}
+	}
+
 	private synchronized void startLibLinphone(Context c, int id) {
 		try {
 			LinphoneCoreFactory.instance().setDebugMode(true, "LinphoneTester");
 
-			final LinphoneCore mLc = LinphoneCoreFactory.instance().createLinphoneCore(this, c);
+			final LinphoneCore mLc = createCore(c, this, linphoneRootCaFile);
 			if (id == 2) {
 				mLc2 = mLc;
 			} else {
 				mLc1 = mLc;
 			}
 
-			mLc.setContext(c);
-			try {
-				String versionName = c.getPackageManager().getPackageInfo(c.getPackageName(), 0).versionName;
-				if (versionName == null) {
-					versionName = String.valueOf(c.getPackageManager().getPackageInfo(c.getPackageName(), 0).versionCode);
-				}
-				mLc.setUserAgent("LinphoneAndroid", versionName);
-			} catch (NameNotFoundException e) {
-				Log.e(e, "cannot get version name");
-			}
-
-			mLc.enableIpv6(false);
-			mLc.setRing(null);
-			mLc.setRootCA(linphoneRootCaFile);
-
-			int availableCores = Runtime.getRuntime().availableProcessors();
-			Log.w("MediaStreamer : " + availableCores + " cores detected and configured");
-			mLc.setCpuCount(availableCores);
-
-			Transports t = mLc.getSignalingTransportPorts();
-			t.udp = -1;
-			t.tcp = -1;
-			mLc.setSignalingTransportPorts(t);
-
 			try {
 				initFromConf(mLc);
 			} catch (LinphoneException e) {
@@ -132,6 +122,38 @@ public class LinphoneTestManager implements LinphoneCoreListener{
 		}
 	}
 
+	/**
+	 * Creates a core set up like the application's, listening on random ports. It still has to be iterated.
+	 */
+	public static LinphoneCore createCore(Context c, LinphoneCoreListener listener, String rootCaFile) throws LinphoneCoreException {
+		LinphoneCore mLc = LinphoneCoreFactory.instance().createLinphoneCore(listener, c);
+
+		mLc.setContext(c);
+		try {
+			String versionName = c.getPackageManager().getPackageInfo(c.getPackageName(), 0).versionName;
+			if (versionName == null) {
+				versionName = String.valueOf(c.getPackageManager().getPackageInfo(c.getPackageName(), 0).versionCode);
+			}
+			mLc.setUserAgent("LinphoneAndroid", versionName);
+		} catch (NameNotFoundException e) {
+			Log.e(e, "cannot get version name");
+		}
+
+		mLc.enableIpv6(false);
+		mLc.setRing(null);
+		mLc.setRootCA(rootCaFile);
+
+		int availableCores = Runtime.getRuntime().availableProcessors();
+		Log.w("MediaStreamer : " + availableCores + " cores detected and configured");
+		mLc.setCpuCount(availableCores);
+
+		Transports t = mLc.getSignalingTransportPorts();
+		t.udp = -1;
+		t.tcp = -1;
+		mLc.setSignalingTransportPorts(t);
+		return mLc;
+	}
+
 	public void initFromConf(LinphoneCore mLc) throws LinphoneConfigException, LinphoneCoreException {
 		LinphoneCoreFactory.instance().setDebugMode(true, "LinphoneTester");
 
@@ -168,12 +190,19 @@ public class LinphoneTestManager implements LinphoneCoreListener{
 			domain = mIContext.getString(org.linphone.test.R.string.conference_account_domain);
 		}
 
-		LinphoneAuthInfo lAuthInfo =  LinphoneCoreFactory.instance().createAuthInfo(username, password, null, domain);
-		mLc.addAuthInfo(lAuthInfo);
 		String identity = "sip:" + username +"@" + domain;
-		String proxy = "sip:" + domain;
-		LinphoneAddress proxyAddr = LinphoneCoreFactory.instance().createLinphoneAddress(proxy);
-		proxyAddr.setTransport(TransportType.LinphoneTransportTls);
+		LinphoneAddress proxyAddr;
+		if (mProxy != null) {
+			// The local proxy takes any identity of its domains without authentication
+			mProxy.addDomain(domain);
+			proxyAddr = LinphoneCoreFactory.instance().createLinphoneAddress("sip:" + mProxy.getAddress());
+			proxyAddr.setTransport(TransportType.LinphoneTransportUdp);
+		} else {
+			LinphoneAuthInfo lAuthInfo =  LinphoneCoreFactory.instance().createAuthInfo(username, password, null, domain);
+			mLc.addAuthInfo(lAuthInfo);
+			proxyAddr = LinphoneCoreFactory.instance().createLinphoneAddress("sip:" + domain);
+			proxyAddr.setTransport(TransportType.LinphoneTransportTls);
+		}
 		LinphoneProxyConfig proxycon = mLc.createProxyConfig(identity, proxyAddr.asStringUriOnly(), proxyAddr.asStringUriOnly(), true);
 		mLc.addProxyConfig(proxycon);
 		mLc.setDefaultProxyConfig(proxycon);
@@ -192,6 +221,13 @@ public class LinphoneTestManager implements LinphoneCoreListener{
 		return instance;
 	}
 
+	/**
+	 * @return the in-process proxy the test cores register on, null when they use the real servers
+	 */
+	public static synchronized final SipProxy getProxy() {
+		return getInstance().mProxy;
+	}
+
 	public static synchronized final LinphoneCore getLc(int i) {
 		if (i == 2)
 			return getInstance().mLc2;
@@ -240,6 +276,10 @@ public class LinphoneTestManager implements LinphoneCoreListener{
 			e.printStackTrace();
 		}
 		finally {
+			if (mProxy != null) {
+				mProxy.stop();
+			}
+			mProxy = null;
 			mLc1 = null;
 			mLc2 = null;
 			instance = null;
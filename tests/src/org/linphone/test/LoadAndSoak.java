@@ -0,0 +1,41 @@
+package org.linphone.test;
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.test.InstrumentationTestCase;
+
+/**
+ * Long running load and soak run, see {@link LoadHarness}.<br />
+ * Not annotated so it stays out of the small/medium/large runs: start it with make run-load-tests.
+ * The settings are in res/values/load.xml.
+ */
+public class LoadAndSoak extends InstrumentationTestCase {
+
+	public void testALoadAndSoak() throws InterruptedException, IOException {
+		Context context = getInstrumentation().getTargetContext();
+		Resources res = getInstrumentation().getContext().getResources();
+
+		LoadHarness.Config config = new LoadHarness.Config();
+		config.cores = res.getInteger(R.integer.load_cores);
+		config.concurrentCalls = res.getInteger(R.integer.load_concurrent_calls);
+		config.durationMs = res.getInteger(R.integer.load_duration_minutes) * 60000L;
+		config.callDurationMs = res.getInteger(R.integer.load_call_duration_seconds) * 1000L;
+		config.holdPercent = res.getInteger(R.integer.load_hold_percent);
+		config.transferPercent = res.getInteger(R.integer.load_transfer_percent);
+		config.conferencePercent = res.getInteger(R.integer.load_conference_percent);
+		String registrar = res.getString(R.string.load_registrar);
+		config.registrar = registrar.length() > 0 ? registrar : null;
+		config.sipLatencyMs = res.getInteger(R.integer.load_sip_latency_ms);
+		config.sipLossPercent = res.getInteger(R.integer.load_sip_loss_percent);
+
+		LoadStats stats = new LoadHarness(context, config).run();
+
+		Assert.assertTrue(stats.getCallsPlaced() > 0);
+		int maxFailures = stats.getCallsPlaced() * res.getInteger(R.integer.load_max_failure_percent) / 100;
+		Assert.assertTrue(stats.report(), stats.getFailureCount() <= maxFailures);
+	}
+}
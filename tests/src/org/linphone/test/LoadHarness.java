@@ -0,0 +1,430 @@
+package org.linphone.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.linphone.core.LinphoneAddress;
+import org.linphone.core.LinphoneAddress.TransportType;
+import org.linphone.core.LinphoneCall;
+import org.linphone.core.LinphoneCall.State;
+import org.linphone.core.LinphoneCore;
+import org.linphone.core.LinphoneCore.RegistrationState;
+import org.linphone.core.LinphoneCoreException;
+import org.linphone.core.LinphoneCoreFactory;
+import org.linphone.core.LinphoneCoreListenerBase;
+import org.linphone.core.LinphoneProxyConfig;
+import org.linphone.mediastream.Log;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * Headless load and soak harness.<br />
+ * Runs {@link Config#cores} cores in this process, each registered as loadN on the same registrar, and keeps
+ * {@link Config#concurrentCalls} calls up between them for {@link Config#durationMs}. Each call plays a scenario:
+ * a plain call, a hold and resume, a blind transfer to a third core, or a three party conference. The call setup
+ * and registration latencies, the failures, and the CPU and heap of the process over time end up in {@link LoadStats}.
+ *
+ * All the cores are iterated, and all the calls driven, from a single timer thread, as in the application.
+ */
+public class LoadHarness {
+	public static final long ITERATE_INTERVAL_MS = 20;
+	public static final long DRAIN_TIMEOUT_MS = 60000;
+
+	public static class Config {
+		public int cores = 4;
+		public int concurrentCalls = 2;
+		public long durationMs = 120000;
+		public long callDurationMs = 10000;
+		/** Parts of the calls that are held, transferred or turned into a conference, in %. */
+		public int holdPercent = 20, transferPercent = 10, conferencePercent = 10;
+		/** Where the cores register and send their requests, host:port. An in-process {@link SipProxy} if null. */
+		public String registrar;
+		/** Latency and loss the in-process proxy adds to each SIP message, in ms and %. */
+		public long sipLatencyMs;
+		public float sipLossPercent;
+		/** Domain of the identities, the registrar host if null. */
+		public String domain;
+		public long setupTimeoutMs = 30000;
+		public long sampleIntervalMs = 10000;
+		public long seed = 42;
+	}
+
+	private class Agent extends LinphoneCoreListenerBase {
+		final String uri;
+		LinphoneCore lc;
+		long registerTime;
+		boolean registered;
+		Session session;
+
+		Agent(int index) {
+			uri = "sip:load" + index + "@" + getDomain();
+		}
+
+		@Override
+		public void registrationState(LinphoneCore lc, LinphoneProxyConfig cfg, RegistrationState state, String message) {
+			if (state == RegistrationState.RegistrationOk && !registered) {
+				registered = true;
+				mStats.getRegistrationLatency().add(now() - registerTime);
+			} else if (state == RegistrationState.RegistrationFailed) {
+				registered = false;
+				mStats.failed("registration " + message);
+			}
+		}
+
+		@Override
+		public void callState(LinphoneCore lc, LinphoneCall call, State state, String message) {
+			if (state == State.IncomingReceived) {
+				try {
+					lc.acceptCall(call);
+				} catch (LinphoneCoreException e) {
+					mStats.failed("accept " + e.getMessage());
+				}
+			} else if (session != null && session.caller == this) {
+				session.callState(call, state, message);
+			}
+		}
+
+		@Override
+		public void transferState(LinphoneCore lc, LinphoneCall call, State state) {
+			if (session != null && session.caller == this) {
+				session.transferState(state);
+			}
+		}
+
+		boolean isIdle() {
+			return registered && session == null && lc.getCallsNb() == 0;
+		}
+	}
+
+	private class Session {
+		final int scenario;
+		final Agent caller, callee, third;
+		final long placedAt;
+		LinphoneCall call, secondCall;
+		boolean established;
+		boolean transferred, transferFailed;
+		int step;
+		long nextStepAt;
+
+		Session(int scenario, Agent caller, Agent callee, Agent third) {
+			this.scenario = scenario;
+			this.caller = caller;
+			this.callee = callee;
+			this.third = third;
+			placedAt = now();
+			caller.session = callee.session = this;
+			if (third != null) {
+				third.session = this;
+			}
+		}
+
+		void callState(LinphoneCall c, State state, String message) {
+			if (c != call) return;
+			if (state == State.Connected && !established) {
+				established = true;
+				mStats.getSetupLatency().add(now() - placedAt);
+				nextStepAt = now() + stepDuration();
+			} else if ((state == State.Error || state == State.CallEnd) && !established) {
+				fail("setup " + message);
+			} else if (state == State.Error) {
+				fail("dropped " + message);
+			}
+		}
+
+		void transferState(State state) {
+			if (state == State.Connected) {
+				transferred = true;
+			} else if (state == State.Error) {
+				transferFailed = true;
+			}
+		}
+
+		long stepDuration() {
+			int steps = scenario == LoadStats.PLAIN ? 1 : scenario == LoadStats.TRANSFER ? 2 : 3;
+			return mConfig.callDurationMs / steps;
+		}
+
+		/**
+		 * @return false once the session is over
+		 */
+		boolean advance() {
+			if (step < 0) return false;
+			long now = now();
+			if (!established) {
+				if (now - placedAt > mConfig.setupTimeoutMs) {
+					fail("setup timeout");
+				}
+				return step >= 0;
+			}
+			if (now < nextStepAt) return true;
+			nextStepAt = now + stepDuration();
+
+			LinphoneCore lc = caller.lc;
+			switch (scenario) {
+			case LoadStats.PLAIN:
+				succeed();
+				break;
+			case LoadStats.HOLD:
+				if (step == 0) {
+					lc.pauseCall(call);
+				} else if (step == 1) {
+					if (call.getState() != State.Paused) {
+						fail("hold");
+						break;
+					}
+					lc.resumeCall(call);
+				} else if (call.getState() == State.StreamsRunning) {
+					succeed();
+				} else {
+					fail("resume");
+				}
+				break;
+			case LoadStats.TRANSFER:
+				if (step == 0) {
+					lc.transferCall(call, third.uri);
+				} else if (transferred && !transferFailed) {
+					succeed();
+				} else {
+					fail("transfer");
+				}
+				break;
+			case LoadStats.CONFERENCE:
+				if (step == 0) {
+					try {
+						secondCall = lc.invite(third.uri);
+					} catch (LinphoneCoreException e) {
+						fail("conference invite " + e.getMessage());
+						break;
+					}
+				} else if (step == 1) {
+					if (secondCall == null || secondCall.getState() != State.StreamsRunning) {
+						fail("conference second call");
+						break;
+					}
+					lc.addAllToConference();
+				} else if (lc.getConferenceSize() >= 3) {
+					succeed();
+				} else {
+					fail("conference");
+				}
+				break;
+			}
+			if (step >= 0) step++;
+			return step >= 0;
+		}
+
+		void succeed() {
+			mStats.scenarioDone(scenario, true);
+			end();
+		}
+
+		void fail(String reason) {
+			if (step < 0) return;
+			mStats.failed(reason);
+			mStats.scenarioDone(scenario, false);
+			end();
+		}
+
+		private void end() {
+			step = -1;
+			caller.lc.terminateAllCalls();
+			callee.lc.terminateAllCalls();
+			caller.session = callee.session = null;
+			if (third != null) {
+				third.lc.terminateAllCalls();
+				third.session = null;
+			}
+		}
+	}
+
+	private final Context mContext;
+	private final Config mConfig;
+	private final LoadStats mStats = new LoadStats();
+	private final List<Agent> mAgents = new ArrayList<Agent>();
+	private final List<Session> mSessions = new ArrayList<Session>();
+	private final Random mRandom;
+	private final Timer mTimer = new Timer("Load harness");
+	private SipProxy mProxy;
+	private long mStartTime, mCallsStartTime, mNextSample;
+	private boolean mFinished;
+
+	public LoadHarness(Context context, Config config) {
+		mContext = context;
+		mConfig = config;
+		mRandom = new Random(config.seed);
+	}
+
+	private String getDomain() {
+		if (mConfig.domain != null) return mConfig.domain;
+		int colon = mConfig.registrar.lastIndexOf(':');
+		return colon > 0 ? mConfig.registrar.substring(0, colon) : mConfig.registrar;
+	}
+
+	private long now() {
+		return SystemClock.elapsedRealtime() - mStartTime;
+	}
+
+	public LoadStats getStats() {
+		return mStats;
+	}
+
+	/**
+	 * @return the in-process proxy the cores go through, null when using an external registrar
+	 */
+	public SipProxy getProxy() {
+		return mProxy;
+	}
+
+	/**
+	 * Starts the cores and the calls, and blocks until the run is over.
+	 */
+	public LoadStats run() throws InterruptedException, IOException {
+		if (mConfig.registrar == null) {
+			mProxy = new SipProxy();
+			mProxy.setLatency(mConfig.sipLatencyMs, mConfig.sipLatencyMs / 4);
+			mProxy.setLoss(mConfig.sipLossPercent);
+			mProxy.setSeed(mConfig.seed);
+			mProxy.start();
+			mConfig.registrar = mProxy.getAddress();
+		}
+		mStartTime = SystemClock.elapsedRealtime();
+		mTimer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					tick();
+				} catch (Exception e) {
+					Log.e(e, "Load harness tick failed");
+					mStats.failed("exception " + e);
+				}
+			}
+		}, 0, ITERATE_INTERVAL_MS);
+
+		synchronized (this) {
+			while (!mFinished) {
+				wait();
+			}
+		}
+		mTimer.cancel();
+		for (Agent agent : mAgents) {
+			agent.lc.destroy();
+		}
+		if (mProxy != null) {
+			mProxy.stop();
+		}
+		Log.i(mStats.report());
+		return mStats;
+	}
+
+	private void tick() throws LinphoneCoreException {
+		if (mAgents.isEmpty()) {
+			createAgents();
+		}
+		for (Agent agent : mAgents) {
+			agent.lc.iterate();
+		}
+
+		long now = now();
+		if (now >= mNextSample) {
+			mNextSample = now + mConfig.sampleIntervalMs;
+			Runtime runtime = Runtime.getRuntime();
+			mStats.sample(now, Process.getElapsedCpuTime(), runtime.totalMemory() - runtime.freeMemory(),
+					Debug.getNativeHeapAllocatedSize(), mSessions.size());
+		}
+
+		if (mCallsStartTime == 0) {
+			if (allRegistered() || now > mConfig.setupTimeoutMs) {
+				mCallsStartTime = now;
+			}
+			return;
+		}
+
+		for (Iterator<Session> it = mSessions.iterator(); it.hasNext();) {
+			if (!it.next().advance()) {
+				it.remove();
+			}
+		}
+
+		boolean running = now - mCallsStartTime < mConfig.durationMs;
+		while (running && mSessions.size() < mConfig.concurrentCalls && placeCall()) {
+			// Fills the free slots
+		}
+
+		if (!running && (mSessions.isEmpty() || now - mCallsStartTime > mConfig.durationMs + DRAIN_TIMEOUT_MS)) {
+			for (Session session : mSessions) {
+				session.fail("unfinished");
+			}
+			mSessions.clear();
+			synchronized (this) {
+				mFinished = true;
+				notifyAll();
+			}
+		}
+	}
+
+	private void createAgents() throws LinphoneCoreException {
+		LinphoneCoreFactory.instance().setDebugMode(false, "LoadHarness");
+		String rootCa = mContext.getFilesDir().getAbsolutePath() + "/rootca.pem";
+		for (int i = 0; i < mConfig.cores; i++) {
+			Agent agent = new Agent(i);
+			agent.lc = LinphoneTestManager.createCore(mContext, agent, rootCa);
+			agent.lc.setVideoPolicy(false, false);
+			agent.lc.enableVideo(false, false);
+			// Keeps the cores from fighting for the sound card
+			agent.lc.setPlayFile(null);
+			agent.lc.setMaxCalls(4);
+
+			LinphoneAddress proxy = LinphoneCoreFactory.instance().createLinphoneAddress("sip:" + mConfig.registrar);
+			proxy.setTransport(TransportType.LinphoneTransportUdp);
+			LinphoneProxyConfig cfg = agent.lc.createProxyConfig(agent.uri, proxy.asStringUriOnly(), proxy.asStringUriOnly(), true);
+			agent.lc.addProxyConfig(cfg);
+			agent.lc.setDefaultProxyConfig(cfg);
+			agent.registerTime = now();
+			agent.lc.setNetworkReachable(true);
+			mAgents.add(agent);
+		}
+	}
+
+	private boolean allRegistered() {
+		for (Agent agent : mAgents) {
+			if (!agent.registered) return false;
+		}
+		return true;
+	}
+
+	private boolean placeCall() {
+		int pick = mRandom.nextInt(100);
+		int scenario = pick < mConfig.holdPercent ? LoadStats.HOLD
+				: pick < mConfig.holdPercent + mConfig.transferPercent ? LoadStats.TRANSFER
+				: pick < mConfig.holdPercent + mConfig.transferPercent + mConfig.conferencePercent ? LoadStats.CONFERENCE
+				: LoadStats.PLAIN;
+		boolean needsThird = scenario == LoadStats.TRANSFER || scenario == LoadStats.CONFERENCE;
+
+		List<Agent> idle = new ArrayList<Agent>();
+		for (Agent agent : mAgents) {
+			if (agent.isIdle()) idle.add(agent);
+		}
+		if (idle.size() < (needsThird ? 3 : 2)) return false;
+
+		Agent caller = idle.remove(mRandom.nextInt(idle.size()));
+		Agent callee = idle.remove(mRandom.nextInt(idle.size()));
+		Agent third = needsThird ? idle.remove(mRandom.nextInt(idle.size())) : null;
+		Session session = new Session(scenario, caller, callee, third);
+		mSessions.add(session);
+		mStats.callPlaced();
+		try {
+			session.call = caller.lc.invite(callee.uri);
+		} catch (LinphoneCoreException e) {
+			session.fail("invite " + e.getMessage());
+		}
+		return true;
+	}
+}
@@ -0,0 +1,201 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What a load run measured: call setup and registration latencies, failures by reason, scenario outcomes,
+ * and CPU and heap samples over time.<br />
+ * Memory stays bounded however long the run: latencies go in {@link #BUCKET_MS} buckets, and once
+ * {@link #MAX_SAMPLES} samples were taken every other one is dropped.
+ */
+public class LoadStats {
+	public static final int BUCKET_MS = 10;
+	public static final int MAX_LATENCY_MS = 60000;
+	public static final int MAX_SAMPLES = 720;
+
+	public static final int PLAIN = 0, HOLD = 1, TRANSFER = 2, CONFERENCE = 3;
+	private static final String[] SCENARIOS = { "plain", "hold", "transfer", "conference" };
+
+	public static class Histogram {
+		private final int[] mBuckets = new int[MAX_LATENCY_MS / BUCKET_MS + 1];
+		private int mCount;
+		private long mMax;
+
+		public synchronized void add(long ms) {
+			int bucket = (int) Math.min(Math.max(ms, 0) / BUCKET_MS, mBuckets.length - 1);
+			mBuckets[bucket]++;
+			mCount++;
+			mMax = Math.max(mMax, ms);
+		}
+
+		public synchronized int getCount() {
+			return mCount;
+		}
+
+		public synchronized long getMax() {
+			return mMax;
+		}
+
+		/**
+		 * @return the upper bound of the bucket holding the percentile, -1 if empty
+		 */
+		public synchronized long getPercentile(float percent) {
+			if (mCount == 0) return -1;
+			int rank = (int) Math.ceil(mCount * percent / 100);
+			int seen = 0;
+			for (int i = 0; i < mBuckets.length; i++) {
+				seen += mBuckets[i];
+				if (seen >= Math.max(rank, 1)) {
+					// The last bucket takes everything above
+					return i == mBuckets.length - 1 ? mMax : Math.min((i + 1) * (long) BUCKET_MS, mMax);
+				}
+			}
+			return mMax;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return mCount + " samples, p50 " + getPercentile(50) + " ms, p90 " + getPercentile(90) + " ms, p99 "
+					+ getPercentile(99) + " ms, max " + mMax + " ms";
+		}
+	}
+
+	public static class Sample {
+		/** Since the start of the run, in ms. */
+		public final long time;
+		/** Process CPU use since the previous sample, in % of one core. */
+		public final float cpu;
+		public final long javaHeap, nativeHeap;
+		public final int calls;
+
+		public Sample(long time, float cpu, long javaHeap, long nativeHeap, int calls) {
+			this.time = time;
+			this.cpu = cpu;
+			this.javaHeap = javaHeap;
+			this.nativeHeap = nativeHeap;
+			this.calls = calls;
+		}
+
+		@Override
+		public String toString() {
+			return (time / 1000) + " s: cpu " + Math.round(cpu) + "%, java heap " + (javaHeap / 1024) + " KB, native heap "
+					+ (nativeHeap / 1024) + " KB, " + calls + " calls";
+		}
+	}
+
+	private final Histogram mSetup = new Histogram();
+	private final Histogram mRegistration = new Histogram();
+	private final Map<String, Integer> mFailures = new TreeMap<String, Integer>();
+	private final int[] mScenarioSuccesses = new int[SCENARIOS.length];
+	private final int[] mScenarioFailures = new int[SCENARIOS.length];
+	private final List<Sample> mSamples = new ArrayList<Sample>();
+	private int mCallsPlaced;
+	private long mLastCpuTime = -1, mLastSampleTime;
+
+	public Histogram getSetupLatency() {
+		return mSetup;
+	}
+
+	public Histogram getRegistrationLatency() {
+		return mRegistration;
+	}
+
+	public synchronized void callPlaced() {
+		mCallsPlaced++;
+	}
+
+	public synchronized int getCallsPlaced() {
+		return mCallsPlaced;
+	}
+
+	public synchronized void failed(String reason) {
+		Integer count = mFailures.get(reason);
+		mFailures.put(reason, count == null ? 1 : count + 1);
+	}
+
+	public synchronized int getFailureCount() {
+		int total = 0;
+		for (int count : mFailures.values()) {
+			total += count;
+		}
+		return total;
+	}
+
+	public synchronized int getFailureCount(String reason) {
+		Integer count = mFailures.get(reason);
+		return count == null ? 0 : count;
+	}
+
+	public synchronized void scenarioDone(int scenario, boolean success) {
+		if (success) {
+			mScenarioSuccesses[scenario]++;
+		} else {
+			mScenarioFailures[scenario]++;
+		}
+	}
+
+	public synchronized int getScenarioCount(int scenario, boolean success) {
+		return success ? mScenarioSuccesses[scenario] : mScenarioFailures[scenario];
+	}
+
+	/**
+	 * @param time since the start of the run, in ms
+	 * @param cpuTime the CPU time used by the process so far, in ms
+	 */
+	public synchronized void sample(long time, long cpuTime, long javaHeap, long nativeHeap, int calls) {
+		float cpu = 0;
+		if (mLastCpuTime >= 0 && time > mLastSampleTime) {
+			cpu = (cpuTime - mLastCpuTime) * 100f / (time - mLastSampleTime);
+		}
+		mLastCpuTime = cpuTime;
+		mLastSampleTime = time;
+
+		if (mSamples.size() >= MAX_SAMPLES) {
+			for (int i = mSamples.size() - 1; i > 0; i -= 2) {
+				mSamples.remove(i);
+			}
+		}
+		mSamples.add(new Sample(time, cpu, javaHeap, nativeHeap, calls));
+	}
+
+	public synchronized List<Sample> getSamples() {
+		return new ArrayList<Sample>(mSamples);
+	}
+
+	/**
+	 * @return how much the heaps grew between the first and the last quarter of the run, in bytes
+	 */
+	public synchronized long getHeapGrowth() {
+		int quarter = mSamples.size() / 4;
+		if (quarter == 0) return 0;
+		long first = 0, last = 0;
+		for (int i = 0; i < quarter; i++) {
+			Sample early = mSamples.get(i), late = mSamples.get(mSamples.size() - 1 - i);
+			first += early.javaHeap + early.nativeHeap;
+			last += late.javaHeap + late.nativeHeap;
+		}
+		return (last - first) / quarter;
+	}
+
+	public synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Load run: ").append(mCallsPlaced).append(" calls placed, ").append(getFailureCount()).append(" failures\n");
+		sb.append("Call setup: ").append(mSetup).append('\n');
+		sb.append("Registration: ").append(mRegistration).append('\n');
+		for (int i = 0; i < SCENARIOS.length; i++) {
+			sb.append("Scenario ").append(SCENARIOS[i]).append(": ").append(mScenarioSuccesses[i]).append(" ok, ")
+				.append(mScenarioFailures[i]).append(" failed\n");
+		}
+		for (Map.Entry<String, Integer> failure : mFailures.entrySet()) {
+			sb.append("Failure ").append(failure.getKey()).append(": ").append(failure.getValue()).append('\n');
+		}
+		sb.append("Heap growth: ").append(getHeapGrowth() / 1024).append(" KB\n");
+		for (Sample sample : mSamples) {
+			sb.append(sample).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,68 @@
+package org.linphone.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the percentiles and the bounded memory of the load run statistics.
+ */
+public class LoadStatsTest extends TestCase {
+	private LoadStats mStats;
+
+	@Override
+	public void setUp() throws Exception {
+		mStats = new LoadStats();
+	}
+
+	private static void assertNear(long expected, long actual) {
+		Assert.assertTrue(actual + " instead of " + expected, actual >= expected && actual <= expected + LoadStats.BUCKET_MS);
+	}
+
+	@SmallTest
+	public void testAPercentiles() {
+		LoadStats.Histogram setup = mStats.getSetupLatency();
+		Assert.assertEquals(-1, setup.getPercentile(50));
+		for (int i = 1; i <= 100; i++) {
+			setup.add(i * 10);
+		}
+		// Within a bucket
+		assertNear(500, setup.getPercentile(50));
+		assertNear(900, setup.getPercentile(90));
+		assertNear(990, setup.getPercentile(99));
+		Assert.assertEquals(1000, setup.getPercentile(100));
+
+		// Beyond the last bucket
+		setup.add(LoadStats.MAX_LATENCY_MS * 2);
+		Assert.assertEquals(LoadStats.MAX_LATENCY_MS * 2, setup.getPercentile(100));
+	}
+
+	@SmallTest
+	public void testBFailures() {
+		mStats.failed("timeout");
+		mStats.failed("timeout");
+		mStats.failed("Not Found");
+		mStats.scenarioDone(LoadStats.TRANSFER, false);
+		mStats.scenarioDone(LoadStats.TRANSFER, true);
+
+		Assert.assertEquals(3, mStats.getFailureCount());
+		Assert.assertEquals(2, mStats.getFailureCount("timeout"));
+		Assert.assertEquals(1, mStats.getScenarioCount(LoadStats.TRANSFER, false));
+		Assert.assertTrue(mStats.report().contains("Failure timeout: 2"));
+	}
+
+	@SmallTest
+	public void testCSamplesStayBounded() {
+		long heap = 1000000;
+		for (int i = 0; i < LoadStats.MAX_SAMPLES * 10; i++) {
+			mStats.sample(i * 10000L, i * 5000L, heap + i * 100, heap, 4);
+		}
+		Assert.assertTrue(mStats.getSamples().size() <= LoadStats.MAX_SAMPLES);
+		// Half a core used
+		Assert.assertEquals(50f, mStats.getSamples().get(5).cpu);
+		// The first samples are kept, so the growth covers the whole run
+		Assert.assertEquals(0, mStats.getSamples().get(0).time);
+		Assert.assertTrue(mStats.getHeapGrowth() > 0);
+	}
+}
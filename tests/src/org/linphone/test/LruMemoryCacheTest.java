@@ -0,0 +1,66 @@
+package org.linphone.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.LruMemoryCache;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the size bounded LRU cache used for contact pictures.
+ */
+public class LruMemoryCacheTest extends TestCase {
+	private LruMemoryCache<String, byte[]> mCache;
+
+	@Override
+	public void setUp() throws Exception {
+		mCache = new LruMemoryCache<String, byte[]>(100, new LruMemoryCache.Sizer<byte[]>() {
+			@Override
+			public int sizeOf(byte[] value) {
+				return value.length;
+			}
+		});
+	}
+
+	@SmallTest
+	public void testAEvictsLeastRecentlyUsed() {
+		mCache.put("1@96", new byte[40]);
+		mCache.put("2@96", new byte[40]);
+		Assert.assertNotNull(mCache.get("1@96"));
+		mCache.put("3@96", new byte[40]);
+
+		Assert.assertNull(mCache.get("2@96"));
+		Assert.assertNotNull(mCache.get("1@96"));
+		Assert.assertNotNull(mCache.get("3@96"));
+		Assert.assertEquals(80, mCache.size());
+		Assert.assertEquals(1, mCache.evictions());
+		Assert.assertEquals(3, mCache.hits());
+		Assert.assertEquals(1, mCache.misses());
+	}
+
+	@SmallTest
+	public void testBReplaceAndOversized() {
+		mCache.put("1@96", new byte[40]);
+		mCache.put("1@96", new byte[10]);
+		Assert.assertEquals(10, mCache.size());
+
+		mCache.put("huge@512", new byte[101]);
+		Assert.assertFalse(mCache.contains("huge@512"));
+		Assert.assertEquals(1, mCache.count());
+	}
+
+	@SmallTest
+	public void testCTrim() {
+		for (int i = 0; i < 10; i++) {
+			mCache.put(String.valueOf(i), new byte[10]);
+		}
+		mCache.trimTo(50);
+		Assert.assertEquals(50, mCache.size());
+		Assert.assertFalse(mCache.contains("0"));
+		Assert.assertTrue(mCache.contains("9"));
+
+		mCache.clear();
+		Assert.assertEquals(0, mCache.size());
+	}
+}
@@ -0,0 +1,196 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.NetworkStateMachine;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Plays scripted connectivity changes through the network state machine with a virtual clock,
+ * and checks when the connections of the core are reset.
+ */
+public class NetworkStateMachineTest extends TestCase {
+	private static final int WIFI = 1, MOBILE = 0;
+	private static final NetworkStateMachine.Network HOME_WIFI = new NetworkStateMachine.Network(true, WIFI, "192.168.1.20");
+	private static final NetworkStateMachine.Network CELL = new NetworkStateMachine.Network(true, MOBILE, "10.64.3.7");
+	private static final NetworkStateMachine.Network NONE = new NetworkStateMachine.Network(false, -1, null);
+
+	private FakeHost mHost;
+	private NetworkStateMachine mMachine;
+
+	@Override
+	public void setUp() throws Exception {
+		mHost = new FakeHost();
+		mMachine = new NetworkStateMachine(mHost);
+		mHost.network = HOME_WIFI;
+		mMachine.start();
+	}
+
+	private void change(NetworkStateMachine.Network network) {
+		mHost.network = network;
+		mMachine.onConnectivityEvent();
+	}
+
+	@SmallTest
+	public void testAStart() {
+		Assert.assertEquals(NetworkStateMachine.REACHABLE, mMachine.getState());
+		Assert.assertEquals("[true]", mHost.reachability.toString());
+	}
+
+	@SmallTest
+	public void testBBurstsAreCoalesced() {
+		for (int i = 0; i < 10; i++) {
+			change(HOME_WIFI);
+			mHost.advance(100);
+		}
+		mHost.advance(5000);
+
+		NetworkStateMachine.Stats stats = mMachine.getStats();
+		Assert.assertEquals(2, stats.evaluations);
+		Assert.assertEquals(9, stats.coalescedEvents);
+		Assert.assertEquals(0, stats.resets);
+		Assert.assertEquals(0, stats.getResetsAvoided());
+	}
+
+	@SmallTest
+	public void testCBurstsAreBounded() {
+		// Events every 300ms would postpone the evaluation forever
+		for (int i = 0; i < 20; i++) {
+			change(HOME_WIFI);
+			mHost.advance(300);
+		}
+		Assert.assertTrue(mMachine.getStats().evaluations >= 3);
+	}
+
+	@SmallTest
+	public void testDCosmeticChange() {
+		change(new NetworkStateMachine.Network(true, MOBILE, HOME_WIFI.addresses));
+		mHost.advance(10000);
+
+		Assert.assertEquals(0, mMachine.getStats().resets);
+		Assert.assertEquals(1, mMachine.getStats().cosmeticChanges);
+		Assert.assertEquals(1, mMachine.getStats().getResetsAvoided());
+		Assert.assertEquals(2, mHost.networkChanges);
+		Assert.assertEquals("[true]", mHost.reachability.toString());
+	}
+
+	@SmallTest
+	public void testEHandover() {
+		mHost.advance(10000);
+		change(NONE);
+		mHost.advance(1000);
+		change(CELL);
+		mHost.advance(600);
+		Assert.assertEquals(NetworkStateMachine.SWITCHING, mMachine.getState());
+		mHost.advance(10000);
+
+		Assert.assertEquals(NetworkStateMachine.REACHABLE, mMachine.getState());
+		Assert.assertEquals(1, mMachine.getStats().resets);
+		Assert.assertEquals(0, mMachine.getStats().unreachables);
+		Assert.assertEquals("[true, false, true]", mHost.reachability.toString());
+		Assert.assertEquals(0, mMachine.getStats().getResetsAvoided());
+	}
+
+	@SmallTest
+	public void testFFlappingDoesNotReset() {
+		mHost.advance(10000);
+		for (int i = 0; i < 30; i++) {
+			change(i % 2 == 0 ? CELL : HOME_WIFI);
+			mHost.advance(1000);
+		}
+		Assert.assertEquals(0, mMachine.getStats().resets);
+		Assert.assertTrue(mMachine.getStats().flapsAbsorbed > 0);
+
+		change(CELL);
+		mHost.advance(10000);
+		Assert.assertEquals(1, mMachine.getStats().resets);
+		// The old code reset on every type change
+		Assert.assertEquals(31, mMachine.getStats().legacyResets);
+		Assert.assertEquals(30, mMachine.getStats().getResetsAvoided());
+	}
+
+	@SmallTest
+	public void testGResetsAreSpacedOut() {
+		mHost.advance(10000);
+		change(CELL);
+		mHost.advance(2600);
+		Assert.assertEquals(1, mMachine.getStats().resets);
+
+		change(HOME_WIFI);
+		mHost.advance(2600);
+		// Stable, but too soon after the previous reset
+		Assert.assertEquals(1, mMachine.getStats().resets);
+		mHost.advance(NetworkStateMachine.MIN_RESET_INTERVAL_MS);
+		Assert.assertEquals(2, mMachine.getStats().resets);
+	}
+
+	@SmallTest
+	public void testHLoss() {
+		mHost.advance(10000);
+		change(NONE);
+		mHost.advance(1000);
+		Assert.assertEquals(NetworkStateMachine.LOSING, mMachine.getState());
+		mHost.advance(NetworkStateMachine.LOSS_HOLD_MS);
+		Assert.assertEquals(NetworkStateMachine.UNREACHABLE, mMachine.getState());
+
+		change(HOME_WIFI);
+		mHost.advance(1000);
+		Assert.assertEquals(NetworkStateMachine.REACHABLE, mMachine.getState());
+		Assert.assertEquals("[true, false, true]", mHost.reachability.toString());
+		Assert.assertEquals(1, mMachine.getStats().unreachables);
+		Assert.assertEquals(0, mMachine.getStats().resets);
+	}
+
+	@SmallTest
+	public void testIShortLossIsAbsorbed() {
+		mHost.advance(10000);
+		change(NONE);
+		mHost.advance(1500);
+		change(HOME_WIFI);
+		mHost.advance(10000);
+
+		Assert.assertEquals("[true]", mHost.reachability.toString());
+		Assert.assertEquals(1, mMachine.getStats().flapsAbsorbed);
+	}
+
+	@SmallTest
+	public void testJPushes() {
+		mHost.advance(1000);
+		Assert.assertFalse(mMachine.onPushReceived());
+		mHost.advance(NetworkStateMachine.PUSH_RESET_INTERVAL_MS);
+		Assert.assertTrue(mMachine.onPushReceived());
+		Assert.assertFalse(mMachine.onPushReceived());
+
+		NetworkStateMachine.Stats stats = mMachine.getStats();
+		Assert.assertEquals(1, stats.resets);
+		Assert.assertEquals(2, stats.pushResetsSkipped);
+		// The old code didn't reset on pushes, skipping one avoids nothing
+		Assert.assertEquals(0, stats.getResetsAvoided());
+	}
+
+	private static class FakeHost extends VirtualClock implements NetworkStateMachine.Host {
+		NetworkStateMachine.Network network;
+		List<Boolean> reachability = new ArrayList<Boolean>();
+		int networkChanges;
+
+		@Override
+		public NetworkStateMachine.Network readNetwork() {
+			return network;
+		}
+
+		@Override
+		public void setNetworkReachable(boolean reachable) {
+			reachability.add(reachable);
+		}
+
+		@Override
+		public void networkChanged(NetworkStateMachine.Network network) {
+			networkChanges++;
+		}
+	}
+}
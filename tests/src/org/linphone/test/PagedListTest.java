@@ -0,0 +1,193 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.PagedList;
+import org.linphone.mediastream.Log;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the paged list used by the contacts list, with a fake address book and a manual executor.
+ */
+public class PagedListTest extends TestCase {
+	private static final int CONTACTS = 10000;
+
+	private FakeSource mSource;
+	private ManualExecutor mExecutor;
+	private PagedList<String> mList;
+	private int mLoadedPages;
+
+	@Override
+	public void setUp() throws Exception {
+		mSource = new FakeSource(CONTACTS, 0);
+		mExecutor = new ManualExecutor();
+		mList = new PagedList<String>(mSource, mExecutor, 20, 3);
+		mList.setListener(new PagedList.Listener() {
+			@Override
+			public void onPageLoaded(int start, int count) {
+				mLoadedPages++;
+			}
+		});
+	}
+
+	@SmallTest
+	public void testALoadsOnlyRequestedPage() {
+		Assert.assertEquals(CONTACTS, mList.size());
+		Assert.assertNull(mList.get(25));
+		Assert.assertNull(mList.get(26));
+		Assert.assertEquals(1, mExecutor.pending.size());
+		Assert.assertEquals(0, mSource.loads);
+
+		mExecutor.runAll();
+		Assert.assertEquals(1, mLoadedPages);
+		Assert.assertEquals(20, mSource.loads);
+		Assert.assertEquals("Contact 25", mList.get(25));
+		Assert.assertTrue(mList.isLoaded(39));
+		Assert.assertFalse(mList.isLoaded(40));
+	}
+
+	@SmallTest
+	public void testBPrefetchesNeighbours() {
+		mList.get(45);
+		mExecutor.runAll();
+
+		// Close to the end of the page
+		mList.get(58);
+		mExecutor.runAll();
+		Assert.assertTrue(mList.isLoaded(60));
+
+		// Close to the beginning of the page
+		mList.get(41);
+		mExecutor.runAll();
+		Assert.assertTrue(mList.isLoaded(39));
+		Assert.assertEquals(3, mLoadedPages);
+	}
+
+	@SmallTest
+	public void testCKeepsAWindowOfPages() {
+		for (int position = 0; position < CONTACTS; position++) {
+			if (mList.get(position) == null) {
+				mExecutor.runAll();
+				Assert.assertEquals("Contact " + position, mList.get(position));
+			}
+			Assert.assertTrue(mList.getLoadedItemsCount() <= 3 * 20);
+		}
+
+		PagedList.Stats stats = mList.getStats();
+		Assert.assertEquals(CONTACTS / 20, stats.pageLoads);
+		Assert.assertEquals(CONTACTS, mSource.loads);
+		Assert.assertEquals(CONTACTS / 20 - 3, stats.evictions);
+		Assert.assertFalse(mList.isLoaded(0));
+	}
+
+	@SmallTest
+	public void testDGetBlocking() {
+		Assert.assertEquals("Contact 500", mList.getBlocking(500));
+		Assert.assertEquals(0, mExecutor.pending.size());
+		Assert.assertEquals("Contact 501", mList.get(501));
+	}
+
+	@SmallTest
+	public void testEClosedListIgnoresLoads() {
+		mList.get(0);
+		mList.close();
+		mExecutor.runAll();
+
+		Assert.assertEquals(0, mSource.loads);
+		Assert.assertEquals(0, mLoadedPages);
+		Assert.assertFalse(mList.isLoaded(0));
+		mList.get(100);
+		Assert.assertEquals(0, mExecutor.pending.size());
+	}
+
+	@LargeTest
+	public void testFTimeToFirstRow() throws InterruptedException {
+		// Each contact costs a provider query (its picture) in the real source
+		final FakeSource source = new FakeSource(CONTACTS, 50000);
+
+		long start = System.nanoTime();
+		List<String> eager = new ArrayList<String>(CONTACTS);
+		for (int i = 0; i < CONTACTS; i++) {
+			eager.add(source.load(i));
+		}
+		long eagerMs = (System.nanoTime() - start) / 1000000;
+
+		source.loads = 0;
+		start = System.nanoTime();
+		PagedList<String> list = new PagedList<String>(source, new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				new Thread(r).start();
+			}
+		});
+		final Object lock = new Object();
+		list.setListener(new PagedList.Listener() {
+			@Override
+			public void onPageLoaded(int start, int count) {
+				synchronized (lock) {
+					lock.notifyAll();
+				}
+			}
+		});
+		synchronized (lock) {
+			while (list.get(0) == null) {
+				lock.wait(1000);
+			}
+		}
+		long pagedMs = (System.nanoTime() - start) / 1000000;
+
+		Log.i("Time to first contact row for " + CONTACTS + " contacts: " + pagedMs + " ms paged, " + eagerMs + " ms eager, "
+				+ source.loads + " contacts loaded. " + list.getStats());
+		Assert.assertTrue(source.loads <= 2 * PagedList.DEFAULT_PAGE_SIZE);
+		Assert.assertTrue(pagedMs <= eagerMs);
+		list.close();
+	}
+
+	private static class FakeSource implements PagedList.Source<String> {
+		private final int mCount;
+		private final int mCostNanos;
+		int loads;
+
+		FakeSource(int count, int costNanos) {
+			mCount = count;
+			mCostNanos = costNanos;
+		}
+
+		@Override
+		public int getCount() {
+			return mCount;
+		}
+
+		@Override
+		public synchronized String load(int position) {
+			loads++;
+			long end = System.nanoTime() + mCostNanos;
+			while (System.nanoTime() < end) {
+				// Busy wait, like a provider round-trip would
+			}
+			return "Contact " + position;
+		}
+	}
+
+	private static class ManualExecutor implements Executor {
+		List<Runnable> pending = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable r) {
+			pending.add(r);
+		}
+
+		void runAll() {
+			while (!pending.isEmpty()) {
+				pending.remove(0).run();
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.PhoneNumberNormalizer;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the phone number normalization cache with a fake proxy config.
+ */
+public class PhoneNumberNormalizerTest extends TestCase {
+	private FakeProxyConfig mProxy;
+	private PhoneNumberNormalizer mNormalizer;
+
+	@Override
+	public void setUp() throws Exception {
+		mProxy = new FakeProxyConfig();
+		mNormalizer = new PhoneNumberNormalizer(mProxy, 3);
+	}
+
+	@SmallTest
+	public void testACaching() {
+		Assert.assertEquals("0033612345678", mNormalizer.normalize("+33 6 12 34 56 78"));
+		Assert.assertEquals("0033612345678", mNormalizer.normalize("+33 6 12 34 56 78"));
+		Assert.assertNull(mNormalizer.normalize("alice"));
+		Assert.assertNull(mNormalizer.normalize("alice"));
+
+		Assert.assertEquals(2, mProxy.normalized);
+		Assert.assertEquals(2, mNormalizer.hits());
+		Assert.assertEquals(0.5f, mNormalizer.getHitRatio(), 0.01f);
+	}
+
+	@SmallTest
+	public void testBBatch() {
+		mNormalizer.normalize("0612");
+		Map<String, String> normalized = mNormalizer.normalize(Arrays.asList("0612", "0613", "0613", "0614"));
+
+		Assert.assertEquals(3, normalized.size());
+		Assert.assertEquals("0613", normalized.get("0613"));
+		Assert.assertEquals(3, mProxy.normalized);
+		Assert.assertEquals(2, mProxy.calls);
+	}
+
+	@SmallTest
+	public void testCBounded() {
+		mNormalizer.normalize(Arrays.asList("01", "02", "03", "04"));
+		mNormalizer.normalize("01");
+
+		Assert.assertEquals(5, mProxy.normalized);
+	}
+
+	@SmallTest
+	public void testDDialPlanChange() {
+		Assert.assertEquals("0033612", mNormalizer.normalize("+33612"));
+
+		mProxy.escapePlus = false;
+		mNormalizer.invalidate();
+		Assert.assertEquals("+33612", mNormalizer.normalize("+33612"));
+		Assert.assertEquals(1, mNormalizer.invalidations());
+
+		// Changed behind the normalizer's back: noticed on the next trip to the proxy config
+		mProxy.prefix = "33";
+		Assert.assertEquals("33612", mNormalizer.normalize("612"));
+		Assert.assertEquals("33612", mNormalizer.normalize("612"));
+		Assert.assertEquals(2, mNormalizer.invalidations());
+		Assert.assertEquals(3, mProxy.normalized);
+	}
+
+	@SmallTest
+	public void testENoProxyConfig() {
+		mProxy.registered = false;
+		Assert.assertNull(mNormalizer.normalize("0612"));
+		Assert.assertTrue(mNormalizer.normalize(Arrays.asList("0612")).isEmpty());
+
+		mProxy.registered = true;
+		Assert.assertEquals("0612", mNormalizer.normalize("0612"));
+	}
+
+	@SmallTest
+	public void testFBatches() {
+		List<String> numbers = new ArrayList<String>();
+		for (int i = 0; i < PhoneNumberNormalizer.MAX_BATCH * 2 + 1; i++) {
+			numbers.add(String.valueOf(1000 + i));
+		}
+		Map<String, String> normalized = mNormalizer.normalize(numbers);
+
+		Assert.assertEquals(numbers.size(), normalized.size());
+		Assert.assertEquals(3, mProxy.calls);
+		Assert.assertEquals(numbers.size(), mProxy.normalized);
+	}
+
+	@SmallTest
+	public void testGCapacity() {
+		mNormalizer.ensureCapacity(4);
+		mNormalizer.ensureCapacity(2);
+		mNormalizer.normalize(Arrays.asList("01", "02", "03", "04"));
+		mNormalizer.normalize(Arrays.asList("01", "02", "03", "04"));
+
+		Assert.assertEquals(4, mProxy.normalized);
+	}
+
+	private static class FakeProxyConfig implements PhoneNumberNormalizer.Backend {
+		String prefix = "";
+		boolean escapePlus = true;
+		boolean registered = true;
+		int calls, normalized;
+
+		@Override
+		public PhoneNumberNormalizer.DialPlan normalize(List<String> numbers, String[] results) {
+			calls++;
+			if (!registered) return null;
+
+			for (int i = 0; i < results.length; i++) {
+				normalized++;
+				String number = numbers.get(i).replaceAll("[ .()/-]", "");
+				if (!number.matches("\\+?[0-9]+")) {
+					results[i] = null;
+				} else if (number.startsWith("+")) {
+					results[i] = escapePlus ? "00" + number.substring(1) : number;
+				} else {
+					results[i] = prefix + number;
+				}
+			}
+			return new PhoneNumberNormalizer.DialPlan(prefix, escapePlus);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package org.linphone.test;
+
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.PushTimeline;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the timestamps of the push timeline with a virtual clock.
+ */
+public class PushTimelineTest extends TestCase {
+	private long mNow;
+	private PushTimeline mTimeline;
+
+	@Override
+	public void setUp() throws Exception {
+		mNow = 1000;
+		mTimeline = new PushTimeline(new PushTimeline.Clock() {
+			@Override
+			public long elapsedMillis() {
+				return mNow;
+			}
+		});
+	}
+
+	private void ring(long serviceReady, long registered, long invite, long ringing) {
+		long start = mNow;
+		mTimeline.pushReceived(true);
+		mNow = start + serviceReady;
+		mTimeline.mark(PushTimeline.SERVICE_READY);
+		mTimeline.mark(PushTimeline.REGISTER_SENT);
+		mNow = start + registered;
+		mTimeline.mark(PushTimeline.REGISTERED);
+		mNow = start + invite;
+		mTimeline.mark(PushTimeline.INVITE_RECEIVED);
+		mNow = start + ringing;
+		mTimeline.mark(PushTimeline.RINGING);
+	}
+
+	@SmallTest
+	public void testAMilestones() {
+		ring(800, 1200, 1500, 1600);
+
+		Assert.assertFalse(mTimeline.isOpen());
+		List<PushTimeline.Event> history = mTimeline.getHistory();
+		Assert.assertEquals(1, history.size());
+		PushTimeline.Event event = history.get(0);
+		Assert.assertTrue(event.isColdStart());
+		Assert.assertEquals(800, event.getDelay(PushTimeline.SERVICE_READY));
+		Assert.assertEquals(800, event.getDelay(PushTimeline.REGISTER_SENT));
+		Assert.assertEquals(1200, event.getDelay(PushTimeline.REGISTERED));
+		Assert.assertEquals(1500, event.getDelay(PushTimeline.INVITE_RECEIVED));
+		Assert.assertEquals(1600, event.getDelay(PushTimeline.RINGING));
+	}
+
+	@SmallTest
+	public void testBFirstOccurrenceOnly() {
+		mTimeline.pushReceived(false);
+		mNow += 100;
+		mTimeline.mark(PushTimeline.REGISTER_SENT);
+		mNow += 100;
+		mTimeline.mark(PushTimeline.REGISTER_SENT);
+		mTimeline.mark(PushTimeline.RINGING);
+
+		Assert.assertEquals(100, mTimeline.getHistory().get(0).getDelay(PushTimeline.REGISTER_SENT));
+		Assert.assertFalse(mTimeline.getHistory().get(0).isColdStart());
+	}
+
+	@SmallTest
+	public void testCMarksOutsideEventsIgnored() {
+		mTimeline.mark(PushTimeline.REGISTERED);
+		mTimeline.mark(PushTimeline.RINGING);
+		Assert.assertTrue(mTimeline.getHistory().isEmpty());
+	}
+
+	@SmallTest
+	public void testDTimeout() {
+		mTimeline.pushReceived(true);
+		mTimeline.mark(PushTimeline.SERVICE_READY);
+		Assert.assertTrue(mTimeline.isOpen());
+
+		mNow += PushTimeline.EVENT_TIMEOUT_MS + 1;
+		Assert.assertFalse(mTimeline.isOpen());
+		// Too late to belong to the push
+		mTimeline.mark(PushTimeline.INVITE_RECEIVED);
+
+		PushTimeline.Event event = mTimeline.getHistory().get(0);
+		Assert.assertTrue(event.isReached(PushTimeline.SERVICE_READY));
+		Assert.assertFalse(event.isReached(PushTimeline.INVITE_RECEIVED));
+		Assert.assertEquals(-1, event.getDelay(PushTimeline.RINGING));
+	}
+
+	@SmallTest
+	public void testENewPushClosesThePrevious() {
+		mTimeline.pushReceived(true);
+		mNow += 500;
+		mTimeline.pushReceived(false);
+		Assert.assertEquals(1, mTimeline.getHistory().size());
+		Assert.assertTrue(mTimeline.isOpen());
+	}
+
+	@SmallTest
+	public void testFMedianAndHistoryBound() {
+		for (int i = 0; i < PushTimeline.HISTORY_SIZE + 5; i++) {
+			ring(100, 200, 300, 1000 + i * 100);
+			mNow += 60000;
+		}
+		Assert.assertEquals(PushTimeline.HISTORY_SIZE, mTimeline.getHistory().size());
+		// The oldest 5 are gone: 1500 to 3400 ms
+		Assert.assertEquals(1500 + PushTimeline.HISTORY_SIZE / 2 * 100, mTimeline.getMedianDelay(PushTimeline.RINGING));
+		Assert.assertEquals(200, mTimeline.getMedianDelay(PushTimeline.REGISTERED));
+	}
+}
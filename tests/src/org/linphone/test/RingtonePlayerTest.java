@@ -0,0 +1,169 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.RingtonePlayer;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Drives the ringtone player with a fake media player and checks that rings don't wait for the preparation.
+ */
+public class RingtonePlayerTest extends TestCase {
+	private static final String FALLBACK = "/data/oldphone_mono.wav";
+	private static final String RINGTONE = "content://media/internal/audio/media/12";
+
+	private FakeHost mHost;
+	private RingtonePlayer mPlayer;
+
+	@Override
+	public void setUp() throws Exception {
+		mHost = new FakeHost();
+		mPlayer = new RingtonePlayer(mHost, FALLBACK);
+	}
+
+	@SmallTest
+	public void testAPreparedPlayerRingsRightAway() {
+		mPlayer.setSource(RINGTONE);
+		Assert.assertEquals(1, mHost.prepared.size());
+		mHost.now += 300;
+		mPlayer.onPrepared(RINGTONE);
+
+		mHost.now += 10000;
+		mPlayer.start();
+		Assert.assertEquals(1, mHost.starts);
+		Assert.assertEquals(0, mPlayer.getLastLatency());
+	}
+
+	@SmallTest
+	public void testBWarmPlayerIsReused() {
+		mPlayer.setSource(RINGTONE);
+		mPlayer.onPrepared(RINGTONE);
+
+		for (int i = 0; i < 5; i++) {
+			mPlayer.start();
+			mHost.now += 5000;
+			mPlayer.stop();
+		}
+		Assert.assertEquals(1, mHost.prepared.size());
+		Assert.assertEquals(0, mHost.releases);
+		Assert.assertEquals(5, mHost.starts);
+		Assert.assertEquals(5, mHost.pauses);
+		Assert.assertTrue(mPlayer.isReady());
+
+		// Same setting again: nothing to do
+		mPlayer.setSource(RINGTONE);
+		Assert.assertEquals(1, mHost.prepared.size());
+	}
+
+	@SmallTest
+	public void testCRingsOncePrepared() {
+		mPlayer.setSource(RINGTONE);
+		mPlayer.start();
+		Assert.assertEquals(0, mHost.starts);
+		Assert.assertTrue(mPlayer.isPlaying());
+
+		mHost.now += 150;
+		mPlayer.onPrepared(RINGTONE);
+		Assert.assertEquals(1, mHost.starts);
+		Assert.assertEquals(150, mPlayer.getLastLatency());
+	}
+
+	@SmallTest
+	public void testDAnsweredBeforePrepared() {
+		mPlayer.setSource(RINGTONE);
+		mPlayer.start();
+		mPlayer.stop();
+		mPlayer.onPrepared(RINGTONE);
+
+		Assert.assertEquals(0, mHost.starts);
+		Assert.assertFalse(mPlayer.isPlaying());
+		Assert.assertTrue(mPlayer.isReady());
+	}
+
+	@SmallTest
+	public void testEFallbackOnError() {
+		mPlayer.setSource(RINGTONE);
+		mPlayer.start();
+		mPlayer.onError(RINGTONE);
+
+		Assert.assertEquals(FALLBACK, mHost.prepared.get(mHost.prepared.size() - 1));
+		Assert.assertEquals(1, mHost.releases);
+		mPlayer.onPrepared(FALLBACK);
+		Assert.assertEquals(1, mHost.starts);
+
+		// The broken ringtone isn't retried until the setting changes
+		mPlayer.stop();
+		mPlayer.setSource(RINGTONE);
+		Assert.assertEquals(2, mHost.prepared.size());
+	}
+
+	@SmallTest
+	public void testFSettingChange() {
+		mPlayer.setSource(RINGTONE);
+		mPlayer.onPrepared(RINGTONE);
+		mPlayer.setSource("/sdcard/ring.mp3");
+		Assert.assertEquals(1, mHost.releases);
+		Assert.assertFalse(mPlayer.isReady());
+
+		// A late answer from the old player is ignored
+		mPlayer.onPrepared(RINGTONE);
+		Assert.assertFalse(mPlayer.isReady());
+		mPlayer.onPrepared("/sdcard/ring.mp3");
+		Assert.assertTrue(mPlayer.isReady());
+
+		// Empty setting: back to the fallback
+		mPlayer.setSource("");
+		Assert.assertEquals(FALLBACK, mPlayer.getSource());
+	}
+
+	@SmallTest
+	public void testGMedianLatency() {
+		mPlayer.setSource(RINGTONE);
+		long[] delays = { 100, 0, 50, 50, 200 };
+		for (long delay : delays) {
+			mPlayer.start();
+			mHost.now += delay;
+			mPlayer.onPrepared(RINGTONE);
+			mPlayer.stop();
+			mPlayer.release();
+		}
+		Assert.assertEquals(50, mPlayer.getMedianLatency());
+		Assert.assertEquals(-1, new RingtonePlayer(mHost, FALLBACK).getMedianLatency());
+	}
+
+	private static class FakeHost implements RingtonePlayer.Host {
+		long now = 0;
+		List<String> prepared = new ArrayList<String>();
+		int starts, pauses, releases;
+
+		@Override
+		public void prepareAsync(String source) {
+			prepared.add(source);
+		}
+
+		@Override
+		public void start() {
+			starts++;
+		}
+
+		@Override
+		public void pause() {
+			pauses++;
+		}
+
+		@Override
+		public void release() {
+			releases++;
+		}
+
+		@Override
+		public long uptimeMillis() {
+			return now;
+		}
+	}
+}
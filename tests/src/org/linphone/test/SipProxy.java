@@ -0,0 +1,946 @@
+package org.linphone.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.linphone.mediastream.Log;
+
+/**
+ * Minimal SIP registrar and stateless proxy for the tests and benchmarks, listening on UDP and TCP on the same port.<br />
+ * REGISTER is answered locally without authentication, one contact per address of record (the last one wins).
+ * Other requests (INVITE, ACK, BYE, CANCEL, REFER, NOTIFY...) are routed to the registered contact, or loose routed
+ * along their Route headers, and the proxy record-routes the dialogs so in-dialog requests go through it too.
+ *
+ * Every message sent can be delayed by {@link #setLatency} and, on UDP, dropped by {@link #setLoss}, from a seeded
+ * random generator. {@link Hook}s see every message received and sent with its time, and the proxy keeps the time from
+ * each request to its final response so registration and call setup latencies can be read with {@link #getLatencies}.
+ */
+public class SipProxy {
+	public static final String UDP = "udp", TCP = "tcp";
+	public static final int DEFAULT_EXPIRES = 3600;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String BRANCH_PREFIX = "z9hG4bK";
+
+	public interface Hook {
+		/**
+		 * @param received true for a message reaching the proxy, false for one leaving it
+		 * @param dropped the message was lost on purpose and never sent
+		 */
+		void onMessage(long timeMs, boolean received, Message message, String transport, InetSocketAddress peer, boolean dropped);
+	}
+
+	private static class Binding {
+		final String contact;
+		final String transport;
+		final InetSocketAddress address;
+		final long expiresAt;
+
+		Binding(String contact, String transport, InetSocketAddress address, long expiresAt) {
+			this.contact = contact;
+			this.transport = transport;
+			this.address = address;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final String mHost;
+	private int mPort;
+	private final Set<String> mDomains = new HashSet<String>();
+	private final Map<String, Binding> mBindings = new HashMap<String, Binding>();
+	private final Map<InetSocketAddress, Connection> mConnections = new HashMap<InetSocketAddress, Connection>();
+	private final List<Hook> mHooks = new CopyOnWriteArrayList<Hook>();
+	private final Map<String, Long> mPending = new HashMap<String, Long>();
+	private final Map<String, List<Long>> mLatencies = new HashMap<String, List<Long>>();
+
+	private DatagramSocket mUdp;
+	private ServerSocket mTcp;
+	private ScheduledExecutorService mScheduler;
+	private volatile boolean mRunning;
+
+	private Random mRandom = new Random(0);
+	private long mLatency, mJitter;
+	private float mLoss;
+	private int mReceived, mSent, mDropped, mBadRequests;
+
+	/**
+	 * @param port 0 picks a free port, see {@link #getPort()}
+	 */
+	public SipProxy(String host, int port) {
+		mHost = host;
+		mPort = port;
+	}
+
+	public SipProxy() {
+		this("127.0.0.1", 0);
+	}
+
+	public synchronized void start() throws IOException {
+		if (mRunning) return;
+		InetAddress address = InetAddress.getByName(mHost);
+		// The UDP and TCP ports have to match, retry if the one picked for UDP is taken on TCP
+		for (int attempt = 0; mTcp == null; attempt++) {
+			mUdp = new DatagramSocket(new InetSocketAddress(address, mPort));
+			try {
+				mTcp = new ServerSocket(mUdp.getLocalPort(), 50, address);
+			} catch (IOException e) {
+				mUdp.close();
+				if (mPort != 0 || attempt >= 10) throw e;
+			}
+		}
+		mPort = mUdp.getLocalPort();
+		mScheduler = new ScheduledThreadPoolExecutor(1);
+		mRunning = true;
+
+		startThread("SIP proxy UDP", new Runnable() {
+			@Override
+			public void run() {
+				receiveUdp();
+			}
+		});
+		startThread("SIP proxy TCP", new Runnable() {
+			@Override
+			public void run() {
+				acceptTcp();
+			}
+		});
+		Log.i("SIP proxy listening on " + getAddress());
+	}
+
+	public void stop() {
+		List<Connection> connections;
+		synchronized (this) {
+			if (!mRunning) return;
+			mRunning = false;
+			connections = new ArrayList<Connection>(mConnections.values());
+			mConnections.clear();
+		}
+		mScheduler.shutdownNow();
+		mUdp.close();
+		try {
+			mTcp.close();
+		} catch (IOException e) {
+			Log.w(e, "Cannot close SIP proxy TCP socket");
+		}
+		for (Connection connection : connections) {
+			connection.close();
+		}
+		Log.i("SIP proxy stopped: " + this);
+	}
+
+	public String getHost() {
+		return mHost;
+	}
+
+	public int getPort() {
+		return mPort;
+	}
+
+	/**
+	 * @return host:port to use as the proxy of the accounts
+	 */
+	public String getAddress() {
+		return mHost + ":" + mPort;
+	}
+
+	/**
+	 * Requests to this domain are routed to its registered users, as the ones to the proxy address.
+	 */
+	public synchronized void addDomain(String domain) {
+		mDomains.add(domain.toLowerCase());
+	}
+
+	/**
+	 * Delays every message sent by latency plus a random part up to jitter, in ms.
+	 */
+	public synchronized void setLatency(long latency, long jitter) {
+		mLatency = latency;
+		mJitter = jitter;
+	}
+
+	/**
+	 * Drops this percentage of the messages sent on UDP.
+	 */
+	public synchronized void setLoss(float percent) {
+		mLoss = percent;
+	}
+
+	public synchronized void setSeed(long seed) {
+		mRandom = new Random(seed);
+	}
+
+	public void addHook(Hook hook) {
+		mHooks.add(hook);
+	}
+
+	public void removeHook(Hook hook) {
+		mHooks.remove(hook);
+	}
+
+	/**
+	 * @param aor user@domain
+	 * @return the registered contact, null if none
+	 */
+	public synchronized String getContact(String aor) {
+		Binding binding = lookup(aor.toLowerCase());
+		return binding != null ? binding.contact : null;
+	}
+
+	public synchronized int getBindingCount() {
+		return mBindings.size();
+	}
+
+	/**
+	 * @return the times from the requests of this method reaching the proxy to their final response leaving it, in ms
+	 */
+	public synchronized List<Long> getLatencies(String method) {
+		List<Long> latencies = mLatencies.get(method);
+		return latencies != null ? new ArrayList<Long>(latencies) : new ArrayList<Long>();
+	}
+
+	public synchronized void clearLatencies() {
+		mPending.clear();
+		mLatencies.clear();
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+	private void startThread(String name, Runnable r) {
+		Thread thread = new Thread(r, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void receiveUdp() {
+		byte[] buffer = new byte[65536];
+		while (mRunning) {
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				mUdp.receive(packet);
+			} catch (IOException e) {
+				if (mRunning) Log.w(e, "SIP proxy UDP receive failed");
+				continue;
+			}
+			Message message = Message.parse(packet.getData(), packet.getOffset(), packet.getLength());
+			if (message != null) {
+				handle(message, UDP, (InetSocketAddress) packet.getSocketAddress());
+			}
+		}
+	}
+
+	private void acceptTcp() {
+		while (mRunning) {
+			try {
+				addConnection(new Connection(mTcp.accept()));
+			} catch (IOException e) {
+				if (mRunning) Log.w(e, "SIP proxy TCP accept failed");
+			}
+		}
+	}
+
+	private void addConnection(Connection connection) {
+		synchronized (this) {
+			mConnections.put(connection.remote, connection);
+		}
+		startThread("SIP proxy TCP " + connection.remote, connection);
+	}
+
+	/**
+	 * A malformed message is answered 400 if it is a request, and doesn't stop the thread of its transport.
+	 */
+	private void handle(Message message, String transport, InetSocketAddress from) {
+		try {
+			onMessage(message, transport, from);
+		} catch (RuntimeException e) {
+			Log.w("SIP proxy cannot handle " + message.getFirstLine() + " from " + from + ": " + e);
+			replyBadRequest(message, transport, from);
+		}
+	}
+
+	private void replyBadRequest(Message message, String transport, InetSocketAddress from) {
+		if (!message.isRequest() || "ACK".equals(message.getMethod())) return;
+		synchronized (this) {
+			mBadRequests++;
+		}
+		try {
+			// Straight back to the sender, the Via may be what is malformed
+			send(Message.response(message, 400, "Bad Request"), transport, from);
+		} catch (RuntimeException e) {
+			Log.w("SIP proxy cannot answer " + message.getFirstLine() + " from " + from + ": " + e);
+		}
+	}
+
+	private synchronized void onMessage(Message message, String transport, InetSocketAddress from) {
+		mReceived++;
+		long now = now();
+		for (Hook hook : mHooks) {
+			hook.onMessage(now, true, message, transport, from, false);
+		}
+		if (message.isRequest()) {
+			String key = message.getTransactionKey();
+			if (key != null && !mPending.containsKey(key) && !"ACK".equals(message.getMethod())) {
+				mPending.put(key, now);
+			}
+			onRequest(message, transport, from);
+		} else {
+			onResponse(message);
+		}
+	}
+
+	private void onRequest(Message request, String transport, InetSocketAddress from) {
+		// Throws on a malformed length, see handle()
+		request.getContentLength(0);
+		String via = request.getHeader("Via");
+		if (via == null) return;
+		// Answers go back where the request came from, whatever the Via says
+		via = setParam(setParam(via, "received", from.getAddress().getHostAddress()), "rport", String.valueOf(from.getPort()));
+		request.replaceFirst("Via", via);
+
+		String method = request.getMethod();
+		if ("REGISTER".equals(method)) {
+			register(request, transport, from);
+			return;
+		}
+
+		String maxForwards = request.getHeader("Max-Forwards");
+		int hops = maxForwards != null ? Integer.parseInt(maxForwards.trim()) : 70;
+		if (hops <= 0) {
+			reply(request, 483, "Too Many Hops");
+			return;
+		}
+		request.setHeader("Max-Forwards", String.valueOf(hops - 1));
+
+		// Loose routing: the routes we record-routed point at us
+		String route;
+		while ((route = request.getHeader("Route")) != null && isSelf(Uri.parse(uriOf(route)))) {
+			request.removeFirst("Route");
+		}
+
+		String outTransport;
+		InetSocketAddress to;
+		Uri target = route != null ? Uri.parse(uriOf(route)) : Uri.parse(request.getRequestUri());
+		Binding binding = null;
+		if (route == null && isSelf(target)) {
+			binding = target.user != null ? lookup(target.user + "@" + target.host) : null;
+			if (binding == null) {
+				if (!"ACK".equals(method)) reply(request, 404, "Not Found");
+				return;
+			}
+			request.setRequestUri(binding.contact);
+		} else if (route == null) {
+			// In dialog request sent to a contact, reuse the flow it registered from
+			binding = findContact(request.getRequestUri());
+		}
+		if (binding != null) {
+			outTransport = binding.transport;
+			to = binding.address;
+		} else {
+			outTransport = target.transport;
+			to = new InetSocketAddress(target.host, target.port > 0 ? target.port : 5060);
+		}
+
+		request.addFirst("Via", "SIP/2.0/" + outTransport.toUpperCase() + " " + getAddress() + ";branch=" + branch(via) + ";rport");
+		boolean createsDialog = "INVITE".equals(method) || "SUBSCRIBE".equals(method) || "REFER".equals(method);
+		if (createsDialog && getParam(request.getHeader("To"), "tag") == null) {
+			if (!outTransport.equals(transport)) {
+				request.addFirst("Record-Route", "<sip:" + getAddress() + ";transport=" + transport + ";lr>");
+			}
+			request.addFirst("Record-Route", "<sip:" + getAddress() + ";transport=" + outTransport + ";lr>");
+		}
+		send(request, outTransport, to);
+	}
+
+	private void onResponse(Message response) {
+		String via = response.getHeader("Via");
+		if (via == null || !via.contains(";branch=" + BRANCH_PREFIX + "sp")) return;
+		response.removeFirst("Via");
+		sendResponse(response);
+	}
+
+	private void register(Message request, String transport, InetSocketAddress from) {
+		Uri aor = Uri.parse(uriOf(request.getHeader("To")));
+		String key = (aor.user + "@" + aor.host).toLowerCase();
+		String contact = request.getHeader("Contact");
+		String expiresHeader = request.getHeader("Expires");
+		int expires = expiresHeader != null ? Integer.parseInt(expiresHeader.trim()) : DEFAULT_EXPIRES;
+		if (contact != null && getParam(contact, "expires") != null) {
+			expires = Integer.parseInt(getParam(contact, "expires"));
+		}
+
+		Message response = Message.response(request, 200, "OK");
+		if (contact != null) {
+			if (expires == 0 || contact.trim().equals("*")) {
+				mBindings.remove(key);
+			} else {
+				String uri = uriOf(contact);
+				mBindings.put(key, new Binding(uri, transport, from, now() + expires * 1000L));
+				response.addFirst("Contact", "<" + uri + ">;expires=" + expires);
+			}
+		} else {
+			Binding binding = lookup(key);
+			if (binding != null) {
+				response.addFirst("Contact", "<" + binding.contact + ">;expires=" + (binding.expiresAt - now()) / 1000);
+			}
+		}
+		sendResponse(response);
+	}
+
+	private void reply(Message request, int code, String reason) {
+		sendResponse(Message.response(request, code, reason));
+	}
+
+	private void sendResponse(Message response) {
+		String via = response.getHeader("Via");
+		if (via == null) return;
+		String sentBy = via.substring(via.indexOf(' ') + 1).trim();
+		int semicolon = sentBy.indexOf(';');
+		Uri sender = Uri.parse("sip:" + (semicolon >= 0 ? sentBy.substring(0, semicolon) : sentBy));
+		String host = getParam(via, "received");
+		String port = getParam(via, "rport");
+		InetSocketAddress to = new InetSocketAddress(host != null ? host : sender.host,
+				port != null && port.length() > 0 ? Integer.parseInt(port) : sender.port > 0 ? sender.port : 5060);
+		String protocol = via.substring(0, via.indexOf(' ')).trim();
+		send(response, protocol.substring(protocol.lastIndexOf('/') + 1).toLowerCase(), to);
+	}
+
+	private void send(final Message message, final String transport, final InetSocketAddress to) {
+		if (UDP.equals(transport) && mLoss > 0 && mRandom.nextFloat() * 100 < mLoss) {
+			mDropped++;
+			long now = now();
+			for (Hook hook : mHooks) {
+				hook.onMessage(now, false, message, transport, to, true);
+			}
+			return;
+		}
+
+		final byte[] data = message.toBytes();
+		long delay = mLatency + (mJitter > 0 ? (long) (mRandom.nextFloat() * mJitter) : 0);
+		mScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				write(message, data, transport, to);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void write(Message message, byte[] data, String transport, InetSocketAddress to) {
+		long now = now();
+		synchronized (this) {
+			mSent++;
+			if (!message.isRequest() && message.getStatusCode() >= 200) {
+				addLatency(message, now);
+			}
+		}
+		try {
+			if (TCP.equals(transport)) {
+				connectionTo(to).write(data);
+			} else {
+				mUdp.send(new DatagramPacket(data, data.length, to));
+			}
+		} catch (IOException e) {
+			Log.w(e, "SIP proxy cannot send to " + to);
+			return;
+		}
+		for (Hook hook : mHooks) {
+			hook.onMessage(now, false, message, transport, to, false);
+		}
+	}
+
+	private void addLatency(Message response, long now) {
+		Long start = mPending.remove(response.getTransactionKey());
+		if (start == null) return;
+		String method = response.getCSeqMethod();
+		List<Long> latencies = mLatencies.get(method);
+		if (latencies == null) {
+			latencies = new ArrayList<Long>();
+			mLatencies.put(method, latencies);
+		}
+		latencies.add(now - start);
+	}
+
+	private Connection connectionTo(InetSocketAddress to) throws IOException {
+		synchronized (this) {
+			Connection connection = mConnections.get(to);
+			if (connection != null) return connection;
+		}
+		Connection connection = new Connection(new Socket(to.getAddress(), to.getPort()));
+		addConnection(connection);
+		return connection;
+	}
+
+	private Binding lookup(String aor) {
+		Binding binding = mBindings.get(aor);
+		if (binding != null && binding.expiresAt < now()) {
+			mBindings.remove(aor);
+			return null;
+		}
+		return binding;
+	}
+
+	private Binding findContact(String uri) {
+		for (Binding binding : mBindings.values()) {
+			if (binding.contact.equalsIgnoreCase(uri)) return binding;
+		}
+		return null;
+	}
+
+	private boolean isSelf(Uri uri) {
+		boolean host = uri.host.equals(mHost) || mDomains.contains(uri.host);
+		return host && (uri.port <= 0 || uri.port == mPort);
+	}
+
+	private static String branch(String via) {
+		String branch = getParam(via, "branch");
+		return BRANCH_PREFIX + "sp" + Integer.toHexString(branch != null ? branch.hashCode() : via.hashCode());
+	}
+
+	/**
+	 * @return the URI of a name-addr header value such as "Name" &lt;sip:user@host&gt;;tag=x
+	 */
+	static String uriOf(String value) {
+		int start = value.indexOf('<');
+		if (start >= 0) {
+			return value.substring(start + 1, value.indexOf('>', start));
+		}
+		int semicolon = value.indexOf(';');
+		return (semicolon >= 0 ? value.substring(0, semicolon) : value).trim();
+	}
+
+	/**
+	 * @return the value of a header parameter, "" for a flag, null if absent. Parameters of a &lt;URI&gt; are skipped.
+	 */
+	static String getParam(String value, String name) {
+		int end = value.lastIndexOf('>');
+		for (String part : value.substring(end + 1).split(";")) {
+			int equal = part.indexOf('=');
+			String key = (equal >= 0 ? part.substring(0, equal) : part).trim();
+			if (key.equalsIgnoreCase(name)) {
+				return equal >= 0 ? part.substring(equal + 1).trim() : "";
+			}
+		}
+		return null;
+	}
+
+	static String setParam(String value, String name, String param) {
+		int end = value.lastIndexOf('>') + 1;
+		StringBuilder sb = new StringBuilder(value.substring(0, end));
+		String[] parts = value.substring(end).split(";");
+		sb.append(parts[0]);
+		for (int i = 1; i < parts.length; i++) {
+			int equal = parts[i].indexOf('=');
+			String key = (equal >= 0 ? parts[i].substring(0, equal) : parts[i]).trim();
+			if (!key.equalsIgnoreCase(name)) {
+				sb.append(';').append(parts[i]);
+			}
+		}
+		return sb.append(';').append(name).append('=').append(param).toString();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SIP proxy " + getAddress() + ": " + mBindings.size() + " bindings, " + mReceived + " received, " + mSent + " sent, "
+				+ mDropped + " dropped, " + mBadRequests + " bad requests";
+	}
+
+	/**
+	 * A parsed SIP URI, only what routing needs.
+	 */
+	static class Uri {
+		String user, host;
+		int port = -1;
+		String transport = UDP;
+
+		static Uri parse(String uri) {
+			Uri u = new Uri();
+			String s = uri.trim();
+			int colon = s.indexOf(':');
+			s = s.substring(colon + 1);
+			int semicolon = s.indexOf(';');
+			if (semicolon >= 0) {
+				String transport = getParam(s.substring(semicolon), "transport");
+				if (transport != null) u.transport = transport.toLowerCase();
+				s = s.substring(0, semicolon);
+			}
+			int at = s.indexOf('@');
+			if (at >= 0) {
+				u.user = s.substring(0, at);
+				s = s.substring(at + 1);
+			}
+			colon = s.lastIndexOf(':');
+			if (colon >= 0 && !s.endsWith("]")) {
+				u.port = Integer.parseInt(s.substring(colon + 1));
+				s = s.substring(0, colon);
+			}
+			u.host = s.toLowerCase();
+			return u;
+		}
+	}
+
+	/**
+	 * A SIP request or response. Headers keep their order; Via, Route and Record-Route lists are split one per header.
+	 */
+	public static class Message {
+		private static final String[][] COMPACT = { { "v", "Via" }, { "i", "Call-ID" }, { "m", "Contact" }, { "f", "From" },
+				{ "t", "To" }, { "l", "Content-Length" }, { "c", "Content-Type" }, { "r", "Refer-To" }, { "k", "Supported" },
+				{ "o", "Event" }, { "s", "Subject" }, { "e", "Content-Encoding" }, { "x", "Session-Expires" }, { "b", "Referred-By" } };
+
+		private String mFirstLine;
+		private final List<String[]> mHeaders = new ArrayList<String[]>();
+		private byte[] mBody = new byte[0];
+
+		private Message() {
+		}
+
+		/**
+		 * @return null if the data is not a SIP message
+		 */
+		public static Message parse(byte[] data, int offset, int length) {
+			int end = indexOfBlankLine(data, offset, length);
+			if (end < 0) return null;
+			String head = new String(data, offset, end - offset, UTF8);
+			Message message = parseHead(head);
+			if (message == null) return null;
+			int bodyStart = end + 4;
+			int available = offset + length - bodyStart;
+			int bodyLength;
+			try {
+				bodyLength = Math.min(message.getContentLength(available), available);
+			} catch (NumberFormatException e) {
+				// The datagram bounds the body, the request is answered 400 when handled
+				bodyLength = available;
+			}
+			message.mBody = new byte[bodyLength];
+			System.arraycopy(data, bodyStart, message.mBody, 0, bodyLength);
+			return message;
+		}
+
+		public static Message parse(String text) {
+			byte[] data = text.getBytes(UTF8);
+			return parse(data, 0, data.length);
+		}
+
+		private static Message parseHead(String head) {
+			String[] lines = head.split("\r\n");
+			if (lines.length == 0 || !lines[0].contains("SIP/2.0")) return null;
+			Message message = new Message();
+			message.mFirstLine = lines[0];
+			for (int i = 1; i < lines.length; i++) {
+				String line = lines[i];
+				if (line.length() > 0 && (line.charAt(0) == ' ' || line.charAt(0) == '\t') && !message.mHeaders.isEmpty()) {
+					// Folded line
+					String[] last = message.mHeaders.get(message.mHeaders.size() - 1);
+					last[1] = last[1] + " " + line.trim();
+					continue;
+				}
+				int colon = line.indexOf(':');
+				if (colon <= 0) continue;
+				String name = canonical(line.substring(0, colon).trim());
+				String value = line.substring(colon + 1).trim();
+				if (isList(name)) {
+					for (String item : splitList(value)) {
+						message.mHeaders.add(new String[] { name, item });
+					}
+				} else {
+					message.mHeaders.add(new String[] { name, value });
+				}
+			}
+			return message;
+		}
+
+		static Message response(Message request, int code, String reason) {
+			Message response = new Message();
+			response.mFirstLine = "SIP/2.0 " + code + " " + reason;
+			for (String[] header : request.mHeaders) {
+				String name = header[0];
+				if (name.equals("Via") || name.equals("From") || name.equals("Call-ID") || name.equals("CSeq")) {
+					response.mHeaders.add(new String[] { name, header[1] });
+				} else if (name.equals("To")) {
+					String to = header[1];
+					if (getParam(to, "tag") == null) {
+						String key = request.getTransactionKey();
+						to = to + ";tag=" + Integer.toHexString((key != null ? key : request.mFirstLine).hashCode());
+					}
+					response.mHeaders.add(new String[] { name, to });
+				}
+			}
+			return response;
+		}
+
+		private static int indexOfBlankLine(byte[] data, int offset, int length) {
+			for (int i = offset; i + 3 < offset + length; i++) {
+				if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') return i;
+			}
+			return -1;
+		}
+
+		private static String canonical(String name) {
+			for (String[] compact : COMPACT) {
+				if (compact[0].equalsIgnoreCase(name) || compact[1].equalsIgnoreCase(name)) return compact[1];
+			}
+			if (name.equalsIgnoreCase("CSeq")) return "CSeq";
+			if (name.equalsIgnoreCase("Route")) return "Route";
+			if (name.equalsIgnoreCase("Record-Route")) return "Record-Route";
+			if (name.equalsIgnoreCase("Max-Forwards")) return "Max-Forwards";
+			if (name.equalsIgnoreCase("Expires")) return "Expires";
+			return name;
+		}
+
+		private static boolean isList(String name) {
+			return name.equals("Via") || name.equals("Route") || name.equals("Record-Route");
+		}
+
+		private static List<String> splitList(String value) {
+			List<String> items = new ArrayList<String>();
+			boolean quoted = false, bracketed = false;
+			int start = 0;
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"') quoted = !quoted;
+				else if (c == '<') bracketed = true;
+				else if (c == '>') bracketed = false;
+				else if (c == ',' && !quoted && !bracketed) {
+					items.add(value.substring(start, i).trim());
+					start = i + 1;
+				}
+			}
+			items.add(value.substring(start).trim());
+			return items;
+		}
+
+		public String getFirstLine() {
+			return mFirstLine;
+		}
+
+		public boolean isRequest() {
+			return !mFirstLine.startsWith("SIP/2.0");
+		}
+
+		public String getMethod() {
+			return isRequest() ? mFirstLine.substring(0, mFirstLine.indexOf(' ')) : null;
+		}
+
+		public String getRequestUri() {
+			String[] parts = mFirstLine.split(" ");
+			return parts[1];
+		}
+
+		public void setRequestUri(String uri) {
+			String[] parts = mFirstLine.split(" ");
+			mFirstLine = parts[0] + " " + uri + " " + parts[2];
+		}
+
+		public int getStatusCode() {
+			return isRequest() ? 0 : Integer.parseInt(mFirstLine.split(" ")[1]);
+		}
+
+		public String getCSeqMethod() {
+			String cseq = getHeader("CSeq");
+			return cseq != null ? cseq.substring(cseq.indexOf(' ') + 1).trim() : null;
+		}
+
+		/**
+		 * @return Call-ID and CSeq, the same for a request and its responses
+		 */
+		public String getTransactionKey() {
+			String callId = getHeader("Call-ID");
+			String cseq = getHeader("CSeq");
+			return callId != null && cseq != null ? callId + " " + cseq : null;
+		}
+
+		public String getHeader(String name) {
+			name = canonical(name);
+			for (String[] header : mHeaders) {
+				if (header[0].equals(name)) return header[1];
+			}
+			return null;
+		}
+
+		public List<String> getHeaders(String name) {
+			name = canonical(name);
+			List<String> values = new ArrayList<String>();
+			for (String[] header : mHeaders) {
+				if (header[0].equals(name)) values.add(header[1]);
+			}
+			return values;
+		}
+
+		public void setHeader(String name, String value) {
+			name = canonical(name);
+			if (!replaceFirst(name, value)) {
+				mHeaders.add(new String[] { name, value });
+			}
+		}
+
+		boolean replaceFirst(String name, String value) {
+			for (String[] header : mHeaders) {
+				if (header[0].equals(name)) {
+					header[1] = value;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void removeFirst(String name) {
+			for (int i = 0; i < mHeaders.size(); i++) {
+				if (mHeaders.get(i)[0].equals(name)) {
+					mHeaders.remove(i);
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Adds the header on top of the ones with the same name.
+		 */
+		void addFirst(String name, String value) {
+			int index = mHeaders.size();
+			for (int i = 0; i < mHeaders.size(); i++) {
+				if (mHeaders.get(i)[0].equals(name)) {
+					index = i;
+					break;
+				}
+			}
+			mHeaders.add(index, new String[] { name, value });
+		}
+
+		public byte[] getBody() {
+			return mBody;
+		}
+
+		private int getContentLength(int available) {
+			String length = getHeader("Content-Length");
+			if (length == null) return available;
+			int value = Integer.parseInt(length.trim());
+			if (value < 0) throw new NumberFormatException("Negative Content-Length " + value);
+			return value;
+		}
+
+		public byte[] toBytes() {
+			StringBuilder sb = new StringBuilder(mFirstLine).append("\r\n");
+			for (String[] header : mHeaders) {
+				if (!header[0].equals("Content-Length")) {
+					sb.append(header[0]).append(": ").append(header[1]).append("\r\n");
+				}
+			}
+			sb.append("Content-Length: ").append(mBody.length).append("\r\n\r\n");
+			byte[] head = sb.toString().getBytes(UTF8);
+			byte[] data = new byte[head.length + mBody.length];
+			System.arraycopy(head, 0, data, 0, head.length);
+			System.arraycopy(mBody, 0, data, head.length, mBody.length);
+			return data;
+		}
+
+		@Override
+		public String toString() {
+			return new String(toBytes(), UTF8);
+		}
+	}
+
+	/**
+	 * A TCP connection, reads the messages from the stream and forwards them to the proxy.
+	 */
+	private class Connection implements Runnable {
+		final Socket socket;
+		final InetSocketAddress remote;
+		private final OutputStream mOut;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			remote = (InetSocketAddress) socket.getRemoteSocketAddress();
+			socket.setTcpNoDelay(true);
+			mOut = socket.getOutputStream();
+		}
+
+		synchronized void write(byte[] data) throws IOException {
+			mOut.write(data);
+			mOut.flush();
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				Log.w(e, "Cannot close SIP proxy connection");
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				Message message;
+				while ((message = read(in)) != null) {
+					handle(message, TCP, remote);
+				}
+			} catch (IOException e) {
+				if (mRunning) Log.w("SIP proxy connection " + remote + " lost: " + e);
+			} finally {
+				synchronized (SipProxy.this) {
+					mConnections.remove(remote);
+				}
+				close();
+			}
+		}
+
+		/**
+		 * @return the next message, null at the end of the stream
+		 */
+		private Message read(InputStream in) throws IOException {
+			ByteArrayOutputStream head = new ByteArrayOutputStream();
+			int c, matched = 0;
+			while (matched < 4) {
+				if ((c = in.read()) < 0) return null;
+				// Keep-alive CRLFs between messages
+				if (head.size() == 0 && (c == '\r' || c == '\n')) continue;
+				head.write(c);
+				matched = (c == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (c == '\r' ? 1 : 0);
+			}
+			Message message = Message.parseHead(new String(head.toByteArray(), UTF8).trim());
+			if (message == null) throw new IOException("Not a SIP message");
+			int length;
+			try {
+				length = message.getContentLength(0);
+			} catch (NumberFormatException e) {
+				// The next messages can't be delimited anymore: answers right away, then closes the connection
+				synchronized (SipProxy.this) {
+					mBadRequests++;
+				}
+				if (message.isRequest()) {
+					write(Message.response(message, 400, "Bad Request").toBytes());
+				}
+				throw new IOException("Invalid Content-Length: " + e.getMessage());
+			}
+			byte[] body = new byte[length];
+			for (int read = 0; read < body.length;) {
+				int n = in.read(body, read, body.length - read);
+				if (n < 0) return null;
+				read += n;
+			}
+			message.mBody = body;
+			return message;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package org.linphone.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Talks to the local SIP proxy from raw sockets standing in for the user agents.
+ */
+public class SipProxyTest extends TestCase {
+	private static final int TIMEOUT_MS = 2000;
+
+	private SipProxy mProxy;
+	private Ua mAlice, mBob;
+
+	@Override
+	public void setUp() throws Exception {
+		mProxy = new SipProxy();
+		mProxy.addDomain("test.org");
+		mProxy.start();
+		mAlice = new Ua("alice");
+		mBob = new Ua("bob");
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		mAlice.close();
+		mBob.close();
+		mProxy.stop();
+	}
+
+	@SmallTest
+	public void testARegister() throws IOException {
+		SipProxy.Message ok = mBob.register(3600);
+		Assert.assertEquals(200, ok.getStatusCode());
+		Assert.assertTrue(ok.getHeader("Contact").contains(mBob.contact()));
+		Assert.assertEquals(mBob.contact(), mProxy.getContact("bob@test.org"));
+		Assert.assertEquals(1, mProxy.getLatencies("REGISTER").size());
+
+		Assert.assertEquals(200, mBob.register(0).getStatusCode());
+		Assert.assertNull(mProxy.getContact("bob@test.org"));
+	}
+
+	@SmallTest
+	public void testBInviteIsRouted() throws IOException {
+		mBob.register(3600);
+		mAlice.send(mAlice.request("INVITE", "sip:bob@test.org", "1"));
+
+		SipProxy.Message invite = mBob.receive();
+		Assert.assertEquals("INVITE", invite.getMethod());
+		Assert.assertEquals(mBob.contact(), invite.getRequestUri());
+		Assert.assertEquals(2, invite.getHeaders("Via").size());
+		Assert.assertTrue(invite.getHeader("Via").contains(mProxy.getAddress()));
+		Assert.assertEquals("69", invite.getHeader("Max-Forwards"));
+		Assert.assertTrue(invite.getHeader("Record-Route").contains(mProxy.getAddress()));
+		Assert.assertEquals("v=0", new String(invite.getBody(), "UTF-8"));
+
+		mBob.send(mBob.answer(invite, 200, "OK"));
+		SipProxy.Message ok = mAlice.receive();
+		Assert.assertEquals(200, ok.getStatusCode());
+		Assert.assertEquals(1, ok.getHeaders("Via").size());
+		Assert.assertEquals(1, mProxy.getLatencies("INVITE").size());
+	}
+
+	@SmallTest
+	public void testCUnknownUser() throws IOException {
+		mAlice.send(mAlice.request("INVITE", "sip:carol@test.org", "1"));
+		Assert.assertEquals(404, mAlice.receive().getStatusCode());
+	}
+
+	@SmallTest
+	public void testDInDialogRequestsFollowTheRoute() throws IOException {
+		mBob.register(3600);
+		String bye = mAlice.request("BYE", mBob.contact(), "2").replace("Max-Forwards",
+				"Route: <sip:" + mProxy.getAddress() + ";transport=udp;lr>\r\nMax-Forwards");
+		mAlice.send(bye);
+
+		SipProxy.Message request = mBob.receive();
+		Assert.assertEquals("BYE", request.getMethod());
+		Assert.assertNull(request.getHeader("Route"));
+		Assert.assertNull(request.getHeader("Record-Route"));
+
+		mBob.send(mBob.answer(request, 200, "OK"));
+		Assert.assertEquals(200, mAlice.receive().getStatusCode());
+	}
+
+	@SmallTest
+	public void testEInjectedLatencyAndLoss() throws IOException {
+		final AtomicInteger dropped = new AtomicInteger();
+		mProxy.addHook(new SipProxy.Hook() {
+			@Override
+			public void onMessage(long timeMs, boolean received, SipProxy.Message message, String transport,
+					InetSocketAddress peer, boolean lost) {
+				if (lost) dropped.incrementAndGet();
+			}
+		});
+		mBob.register(3600);
+
+		mProxy.setLatency(200, 0);
+		long start = System.currentTimeMillis();
+		mAlice.send(mAlice.request("INVITE", "sip:bob@test.org", "1"));
+		mBob.receive();
+		Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+
+		mProxy.setLatency(0, 0);
+		mProxy.setLoss(100);
+		mAlice.send(mAlice.request("INVITE", "sip:bob@test.org", "2"));
+		Assert.assertNull(mBob.receive(300));
+		Assert.assertEquals(1, dropped.get());
+	}
+
+	@SmallTest
+	public void testFTcp() throws IOException {
+		Socket socket = new Socket(InetAddress.getByName(mProxy.getHost()), mProxy.getPort());
+		try {
+			String contact = "sip:carol@127.0.0.1:" + socket.getLocalPort() + ";transport=tcp";
+			String register = "REGISTER sip:test.org SIP/2.0\r\n"
+					+ "Via: SIP/2.0/TCP 127.0.0.1:" + socket.getLocalPort() + ";branch=z9hG4bKtcp1;rport\r\n"
+					+ "From: <sip:carol@test.org>;tag=c\r\nTo: <sip:carol@test.org>\r\nCall-ID: tcp1\r\nCSeq: 1 REGISTER\r\n"
+					+ "Contact: <" + contact + ">\r\nExpires: 3600\r\nContent-Length: 0\r\n\r\n";
+			socket.getOutputStream().write(register.getBytes("UTF-8"));
+			socket.setSoTimeout(TIMEOUT_MS);
+			Assert.assertEquals(200, read(socket.getInputStream()).getStatusCode());
+
+			// Routed from UDP to the TCP connection the contact registered on
+			mAlice.send(mAlice.request("INVITE", "sip:carol@test.org", "1"));
+			SipProxy.Message invite = read(socket.getInputStream());
+			Assert.assertEquals(contact, invite.getRequestUri());
+			Assert.assertTrue(invite.getHeader("Via").startsWith("SIP/2.0/TCP"));
+			// Double record-route when the transport changes
+			List<String> routes = invite.getHeaders("Record-Route");
+			Assert.assertEquals(2, routes.size());
+			Assert.assertTrue(routes.get(0).contains("transport=tcp"));
+			Assert.assertTrue(routes.get(1).contains("transport=udp"));
+		} finally {
+			socket.close();
+		}
+	}
+
+	@SmallTest
+	public void testGParse() {
+		SipProxy.Message message = SipProxy.Message.parse("SIP/2.0 180 Ringing\r\n"
+				+ "v: SIP/2.0/UDP a:1;branch=z9hG4bK1, SIP/2.0/UDP b:2;branch=z9hG4bK2\r\n"
+				+ "i: abc\r\nCSeq: 3 INVITE\r\nl: 0\r\n\r\n");
+		Assert.assertFalse(message.isRequest());
+		Assert.assertEquals(180, message.getStatusCode());
+		Assert.assertEquals(2, message.getHeaders("Via").size());
+		Assert.assertEquals("abc", message.getHeader("Call-ID"));
+		Assert.assertEquals("INVITE", message.getCSeqMethod());
+		Assert.assertNull(SipProxy.Message.parse("GET / HTTP/1.1\r\n\r\n"));
+	}
+
+	@SmallTest
+	public void testHMalformedRequests() throws IOException {
+		mBob.register(3600);
+		mAlice.send(mAlice.request("INVITE", "sip:bob@test.org", "1").replace("Max-Forwards: 70", "Max-Forwards: many"));
+		Assert.assertEquals(400, mAlice.receive().getStatusCode());
+		mAlice.send(mAlice.request("INVITE", "sip:bob@test.org", "2").replace("Content-Length: 3", "Content-Length: -3"));
+		Assert.assertEquals(400, mAlice.receive().getStatusCode());
+		mAlice.send(mAlice.request("INVITE", "sip:bob@test.org", "3").replace("Max-Forwards", "Route: <sip:127.0.0.1:port;lr>\r\nMax-Forwards"));
+		Assert.assertEquals(400, mAlice.receive().getStatusCode());
+
+		// The UDP thread is still running
+		mAlice.send(mAlice.request("INVITE", "sip:bob@test.org", "4"));
+		Assert.assertEquals("INVITE", mBob.receive().getMethod());
+	}
+
+	@SmallTest
+	public void testIMalformedTcpLength() throws IOException {
+		Socket socket = new Socket(InetAddress.getByName(mProxy.getHost()), mProxy.getPort());
+		try {
+			String options = "OPTIONS sip:test.org SIP/2.0\r\n"
+					+ "Via: SIP/2.0/TCP 127.0.0.1:" + socket.getLocalPort() + ";branch=z9hG4bKtcp2;rport\r\n"
+					+ "From: <sip:carol@test.org>;tag=c\r\nTo: <sip:test.org>\r\nCall-ID: tcp2\r\nCSeq: 1 OPTIONS\r\n"
+					+ "Content-Length: lots\r\n\r\n";
+			socket.getOutputStream().write(options.getBytes("UTF-8"));
+			socket.setSoTimeout(TIMEOUT_MS);
+			InputStream in = socket.getInputStream();
+			Assert.assertEquals(400, read(in).getStatusCode());
+			// Closed, since the next messages can't be delimited
+			Assert.assertEquals(-1, in.read());
+		} finally {
+			socket.close();
+		}
+
+		// Other connections still work
+		testFTcp();
+	}
+
+	private static SipProxy.Message read(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while (!sb.toString().endsWith("\r\n\r\n")) {
+			int c = in.read();
+			if (c < 0) throw new IOException("Connection closed");
+			sb.append((char) c);
+		}
+		return SipProxy.Message.parse(sb.toString());
+	}
+
+	/**
+	 * A UDP user agent reduced to building and sending messages.
+	 */
+	private class Ua {
+		final String user;
+		final DatagramSocket socket;
+		private int mBranch;
+
+		Ua(String user) throws IOException {
+			this.user = user;
+			socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+			socket.setSoTimeout(TIMEOUT_MS);
+		}
+
+		String contact() {
+			return "sip:" + user + "@127.0.0.1:" + socket.getLocalPort();
+		}
+
+		String request(String method, String uri, String callId) {
+			return method + " " + uri + " SIP/2.0\r\n"
+					+ "Via: SIP/2.0/UDP 127.0.0.1:" + socket.getLocalPort() + ";branch=z9hG4bK" + user + (++mBranch) + ";rport\r\n"
+					+ "Max-Forwards: 70\r\n"
+					+ "From: <sip:" + user + "@test.org>;tag=" + user + "\r\n"
+					+ "To: <" + uri + ">\r\n"
+					+ "Call-ID: " + callId + "\r\n"
+					+ "CSeq: 1 " + method + "\r\n"
+					+ "Contact: <" + contact() + ">\r\n"
+					+ "Content-Length: 3\r\n\r\nv=0";
+		}
+
+		SipProxy.Message register(int expires) throws IOException {
+			String register = request("REGISTER", "sip:test.org", "reg-" + user).replace("To: <sip:test.org>",
+					"To: <sip:" + user + "@test.org>").replace("Content-Length: 3\r\n\r\nv=0", "Expires: " + expires + "\r\nContent-Length: 0\r\n\r\n");
+			send(register);
+			return receive();
+		}
+
+		String answer(SipProxy.Message request, int code, String reason) {
+			StringBuilder sb = new StringBuilder("SIP/2.0 " + code + " " + reason + "\r\n");
+			for (String via : request.getHeaders("Via")) {
+				sb.append("Via: ").append(via).append("\r\n");
+			}
+			for (String route : request.getHeaders("Record-Route")) {
+				sb.append("Record-Route: ").append(route).append("\r\n");
+			}
+			sb.append("From: ").append(request.getHeader("From")).append("\r\n");
+			sb.append("To: ").append(request.getHeader("To")).append(";tag=").append(user).append("\r\n");
+			sb.append("Call-ID: ").append(request.getHeader("Call-ID")).append("\r\n");
+			sb.append("CSeq: ").append(request.getHeader("CSeq")).append("\r\n");
+			sb.append("Contact: <").append(contact()).append(">\r\n");
+			return sb.append("Content-Length: 0\r\n\r\n").toString();
+		}
+
+		void send(String message) throws IOException {
+			byte[] data = message.getBytes("UTF-8");
+			socket.send(new DatagramPacket(data, data.length, InetAddress.getByName(mProxy.getHost()), mProxy.getPort()));
+		}
+
+		SipProxy.Message receive() throws IOException {
+			SipProxy.Message message = receive(TIMEOUT_MS);
+			Assert.assertNotNull(message);
+			return message;
+		}
+
+		SipProxy.Message receive(int timeout) throws IOException {
+			byte[] buffer = new byte[65536];
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			socket.setSoTimeout(timeout);
+			try {
+				socket.receive(packet);
+			} catch (SocketTimeoutException e) {
+				return null;
+			}
+			return SipProxy.Message.parse(packet.getData(), packet.getOffset(), packet.getLength());
+		}
+
+		void close() {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package org.linphone.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.linphone.LinphoneUtils;
+import org.linphone.SipUri;
+import org.linphone.core.LinphoneAddress;
+import org.linphone.core.LinphoneCoreException;
+import org.linphone.core.LinphoneCoreFactory;
+import org.linphone.mediastream.Log;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Checks the Java SIP address parser, against the native one on a corpus of addresses, and compares their speed.
+ */
+public class SipUriTest extends TestCase {
+	// Address, valid, user, host
+	private static final String[][] CORPUS = {
+		{ "sip:alice@sip.linphone.org", "true", "alice", "sip.linphone.org" },
+		{ "sip:alice@sip.linphone.org:5060", "true", "alice", "sip.linphone.org" },
+		{ "sips:bob@example.com;transport=tls", "true", "bob", "example.com" },
+		{ "sip:sip.linphone.org", "true", null, "sip.linphone.org" },
+		{ "sip:+33612345678@sip.example.org;user=phone", "true", "+33612345678", "sip.example.org" },
+		{ "sip:alice:secret@example.com", "true", "alice", "example.com" },
+		{ "sip:alice@192.168.0.1:5070", "true", "alice", "192.168.0.1" },
+		{ "sip:alice@example.com?subject=hi&priority=urgent", "true", "alice", "example.com" },
+		{ "\"Alice Liddell\" <sip:alice@example.com>;tag=1234", "true", "alice", "example.com" },
+		{ "Alice <sip:alice@example.com>", "true", "alice", "example.com" },
+		{ "<sip:alice@example.com>", "true", "alice", "example.com" },
+		{ "sip:alice@example.com;transport=tcp;lr", "true", "alice", "example.com" },
+		{ "alice", "false" },
+		{ "alice@example.com", "false" },
+		{ "0612345678", "false" },
+		{ "", "false" },
+		{ "sip:", "false" },
+		{ "sip:@example.com", "false" },
+		{ "sip:alice@", "false" },
+		{ "sip:alice@exa mple.com", "false" },
+		{ "sip:alice@example.com:port", "false" },
+		{ "<sip:alice@example.com", "false" },
+	};
+
+	private SipUri mUri;
+
+	@Override
+	public void setUp() throws Exception {
+		mUri = new SipUri();
+	}
+
+	@SmallTest
+	public void testACorpus() {
+		for (String[] entry : CORPUS) {
+			boolean valid = Boolean.parseBoolean(entry[1]);
+			Assert.assertEquals(entry[0], valid, mUri.parse(entry[0]));
+			Assert.assertEquals(entry[0], valid, LinphoneUtils.isSipAddress(entry[0]));
+			if (valid) {
+				Assert.assertEquals(entry[0], entry[2], mUri.getUser());
+				Assert.assertEquals(entry[0], entry[3], mUri.getHost());
+			}
+		}
+	}
+
+	@SmallTest
+	public void testBParts() {
+		Assert.assertTrue(mUri.parse("\"Alice Liddell\" <sips:alice:secret@[2001:db8::1]:5061;transport=tls;lr?subject=hi>;tag=1"));
+		Assert.assertEquals(SipUri.SCHEME_SIPS, mUri.getScheme());
+		Assert.assertEquals("Alice Liddell", mUri.getDisplayName());
+		Assert.assertEquals("alice", mUri.getUser());
+		Assert.assertEquals("[2001:db8::1]", mUri.getHost());
+		Assert.assertEquals(5061, mUri.getPort());
+		Assert.assertEquals("transport=tls;lr", mUri.getParams());
+		Assert.assertEquals("tls", mUri.getParam("Transport"));
+		Assert.assertEquals("", mUri.getParam("lr"));
+		Assert.assertNull(mUri.getParam("maddr"));
+
+		Assert.assertTrue(mUri.parse(" SIP:Alice@Example.COM. "));
+		Assert.assertEquals(SipUri.SCHEME_SIP, mUri.getScheme());
+		Assert.assertEquals("Example.COM.", mUri.getHost());
+		Assert.assertEquals(-1, mUri.getPort());
+		Assert.assertNull(mUri.getDisplayName());
+		Assert.assertNull(mUri.getParams());
+
+		// The instance is reused, nothing is left from the previous address
+		Assert.assertFalse(mUri.parse("sip:alice@example.com:99999"));
+		Assert.assertFalse(mUri.isValid());
+		Assert.assertNull(mUri.getUser());
+
+		Assert.assertTrue(mUri.parse("sip:a%20b;c?d@example.com"));
+		Assert.assertEquals("a%20b;c?d", mUri.getUser());
+		Assert.assertFalse(mUri.parse("sip:a%2@example.com"));
+		Assert.assertFalse(mUri.parse("sip:alice@-example.com"));
+		Assert.assertFalse(mUri.parse("sip:alice@example..com"));
+		Assert.assertFalse(mUri.parse("sip:alice@example.com;"));
+		Assert.assertFalse(mUri.parse("sip:alice@example.com?subject"));
+		Assert.assertFalse(mUri.parse("sip:alice@[::1"));
+		Assert.assertFalse(mUri.parse("http://example.com"));
+		Assert.assertFalse(mUri.parse(null));
+	}
+
+	@SmallTest
+	public void testCTelAndNumbers() {
+		Assert.assertTrue(mUri.parse("tel:+33-6-12-34-56-78;phone-context=example.com"));
+		Assert.assertEquals(SipUri.SCHEME_TEL, mUri.getScheme());
+		Assert.assertFalse(mUri.isSip());
+		Assert.assertEquals("+33-6-12-34-56-78", mUri.getUser());
+		Assert.assertNull(mUri.getHost());
+		Assert.assertEquals("example.com", mUri.getParam("phone-context"));
+		Assert.assertTrue(mUri.parse("tel:*31#"));
+		Assert.assertFalse(mUri.parse("tel:+"));
+		Assert.assertFalse(LinphoneUtils.isSipAddress("tel:+33612345678"));
+
+		Assert.assertTrue(SipUri.isPhoneNumber("+33 (0)6 12.34-56/78"));
+		Assert.assertTrue(LinphoneUtils.isNumberAddress("0612345678"));
+		Assert.assertFalse(SipUri.isPhoneNumber("06 12 34 56 7a"));
+		Assert.assertFalse(SipUri.isPhoneNumber("sip:0612345678@example.com"));
+		Assert.assertFalse(SipUri.isPhoneNumber(""));
+	}
+
+	@LargeTest
+	public void testDConformance() {
+		for (String[] entry : CORPUS) {
+			LinphoneAddress address = null;
+			try {
+				address = LinphoneCoreFactory.instance().createLinphoneAddress(entry[0]);
+			} catch (LinphoneCoreException e) {
+			}
+			Assert.assertEquals(entry[0], address != null, LinphoneUtils.isSipAddress(entry[0]));
+			if (address != null) {
+				mUri.parse(entry[0]);
+				Assert.assertEquals(entry[0], address.getUserName(), mUri.getUser());
+				Assert.assertEquals(entry[0], address.getDomain(), mUri.getHost());
+			}
+		}
+	}
+
+	@LargeTest
+	public void testEBenchmark() {
+		int rounds = 2000;
+		long start = System.nanoTime();
+		int valid = 0;
+		for (int i = 0; i < rounds; i++) {
+			for (String[] entry : CORPUS) {
+				if (LinphoneUtils.isSipAddress(entry[0])) valid++;
+			}
+		}
+		long javaNs = (System.nanoTime() - start) / rounds / CORPUS.length;
+
+		start = System.nanoTime();
+		int nativeValid = 0;
+		for (int i = 0; i < rounds; i++) {
+			for (String[] entry : CORPUS) {
+				try {
+					LinphoneCoreFactory.instance().createLinphoneAddress(entry[0]);
+					nativeValid++;
+				} catch (LinphoneCoreException e) {
+				}
+			}
+		}
+		long nativeNs = (System.nanoTime() - start) / rounds / CORPUS.length;
+
+		Log.i("SIP address check: " + javaNs + " ns in Java, " + nativeNs + " ns through the native address");
+		Assert.assertEquals(nativeValid, valid);
+	}
+}
@@ -0,0 +1,66 @@
+package org.linphone.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clock and Handler of the fake hosts: the delayed runnables run in time order as the clock is advanced.
+ */
+class VirtualClock {
+	long now = 0;
+
+	private final List<Runnable> mPending = new ArrayList<Runnable>();
+	private final List<Long> mPendingTimes = new ArrayList<Long>();
+
+	public void postDelayed(Runnable r, long delayMs) {
+		mPending.add(r);
+		mPendingTimes.add(now + delayMs);
+	}
+
+	public void removeCallbacks(Runnable r) {
+		int i;
+		while ((i = mPending.indexOf(r)) >= 0) {
+			mPending.remove(i);
+			mPendingTimes.remove(i);
+		}
+	}
+
+	public long uptimeMillis() {
+		return now;
+	}
+
+	/**
+	 * @return the time of the next runnable, Long.MAX_VALUE if there is none
+	 */
+	long nextTime() {
+		int next = next();
+		return next < 0 ? Long.MAX_VALUE : mPendingTimes.get(next);
+	}
+
+	/**
+	 * Moves the clock to the next runnable and runs it.
+	 */
+	void runNext() {
+		int next = next();
+		now = mPendingTimes.remove(next);
+		mPending.remove(next).run();
+	}
+
+	void advance(long ms) {
+		long end = now + ms;
+		while (nextTime() < end) {
+			runNext();
+		}
+		now = end;
+	}
+
+	private int next() {
+		int next = -1;
+		for (int i = 0; i < mPending.size(); i++) {
+			if (next < 0 || mPendingTimes.get(i) < mPendingTimes.get(next)) {
+				next = i;
+			}
+		}
+		return next;
+	}
+}